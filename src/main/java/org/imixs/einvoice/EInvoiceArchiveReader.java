@@ -0,0 +1,328 @@
+package org.imixs.einvoice;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The EInvoiceArchiveReader reads the e-invoices of a ZIP archive or a GZIP
+ * compressed document without extracting them to disk.
+ * <p>
+ * The archive type is detected by its first bytes. The entries of a ZIP
+ * archive are read one by one from the decompressing stream, GZIP compressed
+ * entries ('.gz') are decompressed on the fly. Before an entry is parsed, its
+ * root element is detected by {@link EInvoiceFormat#detect(InputStream)}.
+ * Entries which are not a supported e-invoice - e.g. a PDF or a readme - are
+ * skipped without parsing. A plain XML document is read as a single invoice.
+ * <p>
+ * By default each invoice is parsed directly from the decompressing stream in
+ * the calling thread. With a concurrency larger than 1 the entries are loaded
+ * into memory and parsed in parallel by a {@link EInvoiceBatchReader}. Only a
+ * bounded number of entries is held in memory at any time. If the read options
+ * define a maximum number of bytes, at most this number of bytes is loaded for
+ * a single entry.
+ *
+ * <pre>
+ * EInvoiceArchiveReader reader = new EInvoiceArchiveReader();
+ * for (EInvoiceBatchResult result : reader.read(Paths.get("invoices.zip"))) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceArchiveReader {
+    private static Logger logger = Logger.getLogger(EInvoiceArchiveReader.class.getName());
+
+    private int concurrency = 1;
+    private EInvoiceReadOptions options = null;
+
+    public EInvoiceArchiveReader() {
+        super();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the number of entries parsed concurrently. The default is 1 - the
+     * entries are parsed directly from the archive stream.
+     *
+     * @param concurrency
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public EInvoiceReadOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Sets the read options used for each entry
+     *
+     * @param options
+     */
+    public void setOptions(EInvoiceReadOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Reads all invoices of an archive file
+     *
+     * @param archive
+     * @return the results in the order of the archive entries
+     * @throws IOException          if the archive can not be read
+     * @throws InterruptedException
+     */
+    public List<EInvoiceBatchResult> read(Path archive) throws IOException, InterruptedException {
+        List<EInvoiceBatchResult> results = new ArrayList<>();
+        read(archive, results::add);
+        return results;
+    }
+
+    /**
+     * Reads all invoices of an archive file and passes each result to the
+     * consumer
+     *
+     * @param archive
+     * @param consumer
+     * @throws IOException          if the archive can not be read
+     * @throws InterruptedException
+     */
+    public void read(Path archive, Consumer<EInvoiceBatchResult> consumer) throws IOException, InterruptedException {
+        String name = archive.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        try (InputStream is = Files.newInputStream(archive)) {
+            read(is, name, consumer);
+        }
+    }
+
+    /**
+     * Reads all invoices of a ZIP or GZIP stream and passes each result to the
+     * consumer in the order of the entries. The stream is not closed.
+     *
+     * @param is
+     * @param consumer
+     * @throws IOException          if the archive can not be read
+     * @throws InterruptedException
+     */
+    public void read(InputStream is, Consumer<EInvoiceBatchResult> consumer)
+            throws IOException, InterruptedException {
+        read(is, "", consumer);
+    }
+
+    private void read(InputStream is, String name, Consumer<EInvoiceBatchResult> consumer)
+            throws IOException, InterruptedException {
+        Iterator<Entry> entries = new EntryIterator(new BufferedInputStream(is), name, concurrency > 1);
+        try {
+            if (concurrency == 1) {
+                int index = 0;
+                while (entries.hasNext()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    consumer.accept(entries.next().read(index++, options));
+                }
+            } else {
+                EInvoiceBatchReader batch = new EInvoiceBatchReader();
+                batch.setConcurrency(concurrency);
+                batch.execute(entries, (index, entry) -> entry.read(index, options), consumer);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns true if the stream starts with the given magic bytes. The stream
+     * is reset afterwards.
+     */
+    private static boolean startsWith(InputStream is, int... magic) throws IOException {
+        is.mark(magic.length);
+        try {
+            for (int b : magic) {
+                if (is.read() != b) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            is.reset();
+        }
+    }
+
+    /**
+     * A detected invoice - either a stream positioned at the start of the
+     * document or the loaded content
+     */
+    private static class Entry {
+        private final String name;
+        private final InputStream stream;
+        private final byte[] content;
+        private final int length;
+
+        Entry(String name, InputStream stream, byte[] content, int length) {
+            this.name = name;
+            this.stream = stream;
+            this.content = content;
+            this.length = length;
+        }
+
+        EInvoiceBatchResult read(int index, EInvoiceReadOptions options) {
+            long start = System.nanoTime();
+            try {
+                EInvoiceModel model = content != null ? EInvoiceModelFactory.read(content, 0, length, options)
+                        : EInvoiceModelFactory.read(stream, options);
+                return new EInvoiceBatchResult(index, name, model, null, System.nanoTime() - start);
+            } catch (Exception e) {
+                logger.fine("failed to read " + name + ": " + e.getMessage());
+                return new EInvoiceBatchResult(index, name, null, e, System.nanoTime() - start);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Closes the entry stream. This releases the inflater of a GZIP entry -
+         * the archive stream itself is not closed.
+         */
+        private void close() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    logger.fine("failed to close " + name + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Iterates over the invoices of a ZIP archive, a GZIP stream or a plain
+     * document. The next invoice is detected in hasNext().
+     */
+    private class EntryIterator implements Iterator<Entry> {
+        private final ZipInputStream zip;
+        private InputStream single;
+        private final String name;
+        private final boolean load;
+        private Entry next = null;
+
+        EntryIterator(InputStream is, String name, boolean load) throws IOException {
+            this.name = name;
+            this.load = load;
+            if (startsWith(is, 'P', 'K', 3, 4)) {
+                zip = new ZipInputStream(is);
+            } else {
+                zip = null;
+                single = is;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (zip == null) {
+                        if (single == null) {
+                            return false;
+                        }
+                        next = detect(name, single);
+                        single = null;
+                    } else {
+                        ZipEntry entry = zip.getNextEntry();
+                        if (entry == null) {
+                            return false;
+                        }
+                        if (!entry.isDirectory()) {
+                            next = detect(entry.getName(), zip);
+                        }
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Entry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry result = next;
+            next = null;
+            return result;
+        }
+
+        /**
+         * Decompresses a GZIP stream and detects the invoice format by the root
+         * element. Returns null if the document is not an e-invoice.
+         */
+        private Entry detect(String entryName, InputStream is) throws IOException {
+            InputStream in = new BufferedInputStream(new NonClosingInputStream(is));
+            if (startsWith(in, 0x1f, 0x8b)) {
+                in = new BufferedInputStream(new GZIPInputStream(in));
+                if (entryName.endsWith(".gz")) {
+                    entryName = entryName.substring(0, entryName.length() - 3);
+                }
+            }
+            if (EInvoiceFormat.detect(in) == null) {
+                logger.fine("skip " + entryName + ": not an e-invoice");
+                in.close();
+                return null;
+            }
+            if (!load) {
+                return new Entry(entryName, in, null, 0);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long limit = options != null && options.getMaxBytes() > 0 ? options.getMaxBytes() + 1 : Long.MAX_VALUE;
+            byte[] buffer = new byte[8192];
+            int count;
+            try {
+                while (limit > 0 && (count = in.read(buffer, 0, (int) Math.min(buffer.length, limit))) > 0) {
+                    out.write(buffer, 0, count);
+                    limit -= count;
+                }
+            } finally {
+                in.close();
+            }
+            return new Entry(entryName, null, out.toByteArray(), out.size());
+        }
+    }
+
+    /**
+     * Protects the archive stream from being closed by the parser
+     */
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
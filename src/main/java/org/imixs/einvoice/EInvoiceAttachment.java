@@ -0,0 +1,489 @@
+package org.imixs.einvoice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * A EInvoiceAttachment is a handle to the content of an embedded document
+ * which is not kept in the DOM tree of a {@link EInvoiceModel}.
+ * <p>
+ * Embedded documents - typically PDFs in a UBL
+ * cbc:EmbeddedDocumentBinaryObject or a CII ram:AttachmentBinaryObject - are
+ * base64 encoded and can be several megabytes large. If the read option
+ * 'attachmentThreshold' is set (see {@link EInvoiceReadOptions}), the
+ * {@link EInvoiceModelFactory} spools the base64 text of larger attachments
+ * into a temporary file while parsing. The element in the DOM tree only
+ * contains a short placeholder and keeps its attributes (mimeCode, filename).
+ * The content is decoded on demand by {@link #openStream()},
+ * {@link #transferTo(WritableByteChannel)} or {@link #writeTo(Path)}.
+ * <p>
+ * When the model is written, the placeholders are replaced by the base64 text
+ * streamed from the handle. An attachment can also be set from a file by
+ * {@link EInvoiceModel#setAttachment(Element, Path)}, the file is encoded when
+ * the model is written.
+ * <p>
+ * The temporary file is deleted by {@link #release()} or when the handle is
+ * garbage collected.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceAttachment {
+    private static Logger logger = Logger.getLogger(EInvoiceAttachment.class.getName());
+
+    public static final String UBL_ELEMENT = "EmbeddedDocumentBinaryObject";
+    public static final String CII_ELEMENT = "AttachmentBinaryObject";
+
+    // base64 of 'EInvoiceAttachment', followed by 32 hex digits - valid base64
+    static final String TOKEN_PREFIX = "RUludm9pY2VBdHRhY2htZW50";
+    static final int TOKEN_LENGTH = TOKEN_PREFIX.length() + 32;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String token;
+    private final Path file;
+    private final boolean encoded;
+    private final long size;
+    private final Cleaner.Cleanable cleanable;
+    private Element element = null;
+
+    private EInvoiceAttachment(Path file, boolean encoded, long size, boolean temporary) {
+        this.token = TOKEN_PREFIX + UUID.randomUUID().toString().replace("-", "");
+        this.file = file;
+        this.encoded = encoded;
+        this.size = size;
+        this.cleanable = temporary ? CLEANER.register(this, new Deleter(file)) : null;
+    }
+
+    /**
+     * Creates a handle for the binary content of a file. The file is encoded
+     * when the model is written and is not deleted by the handle.
+     */
+    static EInvoiceAttachment of(Path file) throws IOException {
+        return new EInvoiceAttachment(file, false, Files.size(file), false);
+    }
+
+    /**
+     * Returns true if the element contains an embedded document
+     *
+     * @param localName
+     * @param namespaceURI
+     * @return true for a UBL EmbeddedDocumentBinaryObject or a CII
+     *         AttachmentBinaryObject
+     */
+    public static boolean isAttachment(String localName, String namespaceURI) {
+        return UBL_ELEMENT.equals(localName) && EInvoiceStreamWriter.CBC_NAMESPACE.equals(namespaceURI)
+                || CII_ELEMENT.equals(localName) && EInvoiceStreamWriter.RAM_NAMESPACE.equals(namespaceURI);
+    }
+
+    /**
+     * Returns the element holding the placeholder of the attachment
+     */
+    public Element getElement() {
+        return element;
+    }
+
+    void setElement(Element element) {
+        this.element = element;
+    }
+
+    /**
+     * Returns the mimeCode attribute of the element - e.g. 'application/pdf'
+     */
+    public String getMimeCode() {
+        return getAttribute("mimeCode");
+    }
+
+    /**
+     * Returns the filename attribute of the element
+     */
+    public String getFileName() {
+        return getAttribute("filename");
+    }
+
+    /**
+     * Returns the size of the decoded content in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the placeholder of the attachment in the DOM tree
+     */
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Opens a stream decoding the content of the attachment. The stream must be
+     * closed by the caller.
+     *
+     * @return the decoded content
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        return encoded ? Base64.getDecoder().wrap(in) : in;
+    }
+
+    /**
+     * Writes the decoded content into a channel. The channel is not closed.
+     *
+     * @param target
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (!encoded) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long position = 0;
+                long length = channel.size();
+                while (position < length) {
+                    position += channel.transferTo(position, length - position, target);
+                }
+                return position;
+            }
+        }
+        long count = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = openStream()) {
+            int n;
+            while ((n = in.readNBytes(buffer, 0, buffer.length)) > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    target.write(bytes);
+                }
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the decoded content into a file. An existing file is replaced.
+     *
+     * @param target
+     * @throws IOException
+     */
+    public void writeTo(Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            transferTo(channel);
+        }
+    }
+
+    /**
+     * Deletes the temporary file of the attachment. The content can not be read
+     * or written afterwards.
+     */
+    public void release() {
+        if (cleanable != null) {
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Writes the base64 encoded content into a stream
+     */
+    void writeBase64(OutputStream out) throws IOException {
+        if (encoded) {
+            Files.copy(file, out);
+            return;
+        }
+        try (OutputStream encoder = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the target stream is not closed
+                flush();
+            }
+        })) {
+            Files.copy(file, encoder);
+        }
+    }
+
+    private String getAttribute(String name) {
+        if (element == null || !element.hasAttribute(name)) {
+            return null;
+        }
+        return element.getAttribute(name);
+    }
+
+    /**
+     * Deletes the temporary file - must not refer to the handle
+     */
+    private static class Deleter implements Runnable {
+        private final Path file;
+
+        Deleter(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                logger.warning("Failed to delete attachment file '" + file + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A SAX filter spooling the base64 text of large attachments into temporary
+     * files. The text is passed to the content handler as long as it does not
+     * exceed the threshold, otherwise the placeholder of the new handle is
+     * passed. Whitespace is removed from the spooled text.
+     */
+    static class Filter extends XMLFilterImpl {
+        private final long threshold;
+        private final Path directory;
+        private final List<EInvoiceAttachment> attachments = new ArrayList<>();
+        private final byte[] buffer = new byte[8192];
+        // the text of the current attachment element or null
+        private StringBuilder text = null;
+        private Path spool = null;
+        private OutputStream out = null;
+        private long length = 0;
+        private int padding = 0;
+
+        /**
+         * @param threshold - the max number of characters kept in the DOM
+         * @param directory - the directory of the temporary files or null
+         */
+        Filter(long threshold, Path directory) {
+            super();
+            this.threshold = threshold;
+            this.directory = directory;
+        }
+
+        List<EInvoiceAttachment> getAttachments() {
+            return attachments;
+        }
+
+        /**
+         * Deletes all files spooled so far - e.g. after a parsing error
+         */
+        void discard() {
+            closeSpool();
+            for (EInvoiceAttachment attachment : attachments) {
+                attachment.release();
+            }
+            attachments.clear();
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            flushText();
+            super.startElement(uri, localName, qName, atts);
+            if (isAttachment(localName, uri)) {
+                text = new StringBuilder();
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (text == null) {
+                super.characters(ch, start, length);
+                return;
+            }
+            try {
+                if (out != null) {
+                    spool(ch, start, length);
+                    return;
+                }
+                text.append(ch, start, length);
+                if (text.length() > threshold) {
+                    spool = directory == null ? Files.createTempFile("einvoice-", ".b64")
+                            : Files.createTempFile(directory, "einvoice-", ".b64");
+                    out = new BufferedOutputStream(Files.newOutputStream(spool), BUFFER_SIZE);
+                    char[] chars = text.toString().toCharArray();
+                    text.setLength(0);
+                    spool(chars, 0, chars.length);
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (text != null && out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    throw new SAXException(e);
+                }
+                out = null;
+                EInvoiceAttachment attachment = new EInvoiceAttachment(spool, true,
+                        Math.max(0, length / 4 * 3 - padding), true);
+                attachments.add(attachment);
+                spool = null;
+                length = 0;
+                padding = 0;
+                text = null;
+                char[] token = attachment.getToken().toCharArray();
+                super.characters(token, 0, token.length);
+            } else {
+                flushText();
+            }
+            super.endElement(uri, localName, qName);
+        }
+
+        /**
+         * Passes the text of a small attachment to the content handler
+         */
+        private void flushText() throws SAXException {
+            if (text != null && out == null) {
+                char[] chars = text.toString().toCharArray();
+                text = null;
+                super.characters(chars, 0, chars.length);
+            }
+        }
+
+        private void spool(char[] ch, int start, int count) throws IOException {
+            int n = 0;
+            for (int i = start; i < start + count; i++) {
+                char c = ch[i];
+                if (Character.isWhitespace(c)) {
+                    continue;
+                }
+                padding = c == '=' ? padding + 1 : 0;
+                length++;
+                buffer[n++] = (byte) c;
+                if (n == buffer.length) {
+                    out.write(buffer, 0, n);
+                    n = 0;
+                }
+            }
+            out.write(buffer, 0, n);
+        }
+
+        private void closeSpool() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // no op
+                }
+                out = null;
+            }
+            if (spool != null) {
+                new Deleter(spool).run();
+                spool = null;
+            }
+        }
+    }
+
+    /**
+     * Replaces the placeholders in the serialized XML by the base64 content of
+     * the attachments. A placeholder is only recognized directly after the end
+     * of a start tag.
+     */
+    static class TokenOutputStream extends FilterOutputStream {
+        private static final byte[] PREFIX = TOKEN_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+        private final Map<String, EInvoiceAttachment> attachments;
+        private final byte[] pending = new byte[TOKEN_LENGTH];
+        private int matched = -1;
+
+        TokenOutputStream(OutputStream out, Map<String, EInvoiceAttachment> attachments) {
+            super(out);
+            this.attachments = attachments;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int start = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                byte c = b[i];
+                if (matched < 0) {
+                    if (c == '>') {
+                        // a placeholder may follow
+                        out.write(b, start, i + 1 - start);
+                        start = i + 1;
+                        matched = 0;
+                    }
+                    continue;
+                }
+                if (matched < PREFIX.length ? c == PREFIX[matched] : isHex(c)) {
+                    pending[matched++] = c;
+                    start = i + 1;
+                    if (matched == TOKEN_LENGTH) {
+                        replace();
+                    }
+                    continue;
+                }
+                // no placeholder
+                out.write(pending, 0, matched);
+                matched = c == '>' ? 0 : -1;
+                out.write(b, start, i + 1 - start);
+                start = i + 1;
+            }
+            if (start < end) {
+                out.write(b, start, end - start);
+            }
+        }
+
+        /**
+         * Writes an incomplete placeholder at the end of the document
+         */
+        void finish() throws IOException {
+            if (matched > 0) {
+                out.write(pending, 0, matched);
+            }
+            matched = -1;
+            out.flush();
+        }
+
+        private void replace() throws IOException {
+            String token = new String(pending, StandardCharsets.US_ASCII);
+            EInvoiceAttachment attachment = attachments.get(token);
+            if (attachment != null) {
+                attachment.writeBase64(out);
+            } else {
+                out.write(pending);
+            }
+            matched = -1;
+        }
+
+        private static boolean isHex(byte c) {
+            return c >= '0' && c <= '9' || c >= 'a' && c <= 'f';
+        }
+    }
+}
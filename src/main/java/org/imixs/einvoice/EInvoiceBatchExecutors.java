@@ -0,0 +1,38 @@
+package org.imixs.einvoice;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Creates the executor used by the {@link EInvoiceBatchReader}.
+ * <p>
+ * On Java 11 a ForkJoinPool with the requested parallelism is used. The
+ * multi-release jar contains a second version of this class in
+ * META-INF/versions/21 creating a virtual thread per task on Java 21 and
+ * later.
+ *
+ * @author rsoika
+ *
+ */
+final class EInvoiceBatchExecutors {
+
+    private EInvoiceBatchExecutors() {
+    }
+
+    /**
+     * Creates a new executor for the given number of concurrent reads
+     *
+     * @param concurrency
+     * @return a new executor - must be shut down by the caller
+     */
+    static ExecutorService newExecutor(int concurrency) {
+        return new ForkJoinPool(concurrency);
+    }
+
+    /**
+     * Returns the name of the executor type for logging
+     */
+    static String getType() {
+        return "fork-join";
+    }
+}
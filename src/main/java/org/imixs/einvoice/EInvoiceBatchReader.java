@@ -0,0 +1,288 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The EInvoiceBatchReader reads a batch of e-invoice files in parallel. The
+ * files can be given by a directory, a directory and a glob pattern or a
+ * Stream of paths.
+ * <p>
+ * Each file is read by the {@link EInvoiceModelFactory} with the optional
+ * {@link EInvoiceReadOptions}. The result of each file - the model or the
+ * exception - is returned as a {@link EInvoiceBatchResult}, so a single broken
+ * file does not abort the batch. The results are returned either in the input
+ * order or in the order of completion.
+ * <p>
+ * The number of concurrent reads defaults to the number of available
+ * processors. On Java 11 the files are read by a ForkJoinPool, on Java 21 and
+ * later by virtual threads. Alternatively an executor can be set by the
+ * caller. The input stream is consumed lazily, so only a bounded number of
+ * files is in progress at any time.
+ *
+ * <pre>
+ * EInvoiceBatchReader reader = new EInvoiceBatchReader();
+ * reader.setConcurrency(4);
+ * for (EInvoiceBatchResult result : reader.read(Paths.get("inbox"), "**&#47;*.xml")) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * If the calling thread is interrupted, all reads in progress are cancelled and
+ * an InterruptedException is thrown.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceBatchReader {
+    private static Logger logger = Logger.getLogger(EInvoiceBatchReader.class.getName());
+
+    public enum Order {
+        INPUT, //
+        COMPLETION;
+    }
+
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private Order order = Order.INPUT;
+    private EInvoiceReadOptions options = null;
+    private ExecutorService executor = null;
+
+    public EInvoiceBatchReader() {
+        super();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximum number of files read concurrently
+     *
+     * @param concurrency
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * Defines if the results are returned in the input order (default) or in the
+     * order of completion
+     *
+     * @param order
+     */
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    public EInvoiceReadOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Sets the read options used for each file
+     *
+     * @param options
+     */
+    public void setOptions(EInvoiceReadOptions options) {
+        this.options = options;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets an executor used to read the files. The executor is not shut down by
+     * the reader. If no executor is set, a new executor is created for each
+     * batch.
+     *
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Reads all regular files of a directory, sorted by name
+     *
+     * @param directory
+     * @return the results in the defined order
+     * @throws IOException          if the directory can not be listed
+     * @throws InterruptedException
+     */
+    public List<EInvoiceBatchResult> read(Path directory) throws IOException, InterruptedException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return read(paths.filter(Files::isRegularFile).sorted());
+        }
+    }
+
+    /**
+     * Reads all regular files of a directory tree matching the given glob
+     * pattern - e.g. '*.xml' or '**&#47;*.xml'. The pattern is matched against
+     * the path relative to the directory. The files are sorted by their path.
+     *
+     * @param directory
+     * @param glob
+     * @return the results in the defined order
+     * @throws IOException          if the directory can not be listed
+     * @throws InterruptedException
+     */
+    public List<EInvoiceBatchResult> read(Path directory, String glob) throws IOException, InterruptedException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return read(paths.filter(path -> Files.isRegularFile(path) && matcher.matches(directory.relativize(path)))
+                    .sorted());
+        }
+    }
+
+    /**
+     * Reads the files of the given stream
+     *
+     * @param paths
+     * @return the results in the defined order
+     * @throws InterruptedException
+     */
+    public List<EInvoiceBatchResult> read(Stream<Path> paths) throws InterruptedException {
+        List<EInvoiceBatchResult> results = new ArrayList<>();
+        read(paths, results::add);
+        return results;
+    }
+
+    /**
+     * Reads the files of the given stream and passes each result to the
+     * consumer as soon as it is available in the defined order. The consumer is
+     * called by the calling thread.
+     *
+     * @param paths
+     * @param consumer
+     * @throws InterruptedException
+     */
+    public void read(Stream<Path> paths, Consumer<EInvoiceBatchResult> consumer) throws InterruptedException {
+        execute(paths.iterator(), this::readFile, consumer);
+    }
+
+    /**
+     * Reads the sources of the iterator by the given task. The iterator is only
+     * called by the calling thread, so it can read the sources from a sequential
+     * stream - e.g. the entries of a ZIP archive.
+     *
+     * @param sources
+     * @param task     - creates the result for a source and its index
+     * @param consumer
+     * @throws InterruptedException
+     */
+    <S> void execute(Iterator<S> sources, BiFunction<Integer, S, EInvoiceBatchResult> task,
+            Consumer<EInvoiceBatchResult> consumer) throws InterruptedException {
+        ExecutorService service = executor;
+        if (service == null) {
+            service = EInvoiceBatchExecutors.newExecutor(concurrency);
+        }
+        long start = System.nanoTime();
+        int count = 0;
+        try {
+            count = execute(sources, task, service, consumer);
+        } finally {
+            if (executor == null) {
+                service.shutdownNow();
+            }
+        }
+        if (count > 0) {
+            long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+            logger.fine("read " + count + " files in " + millis + "ms (" + (count * 1000L / millis)
+                    + " files/s, concurrency=" + concurrency + ", " + EInvoiceBatchExecutors.getType() + ")");
+        }
+    }
+
+    /**
+     * Submits the sources while less than 'concurrency' reads are in progress.
+     * In the input order the results completed ahead of a slower source are
+     * buffered. To bound this buffer no source is submitted more than 4 x
+     * concurrency positions ahead of the next result to be delivered.
+     */
+    private <S> int execute(Iterator<S> sources, BiFunction<Integer, S, EInvoiceBatchResult> task,
+            ExecutorService service, Consumer<EInvoiceBatchResult> consumer) throws InterruptedException {
+        ExecutorCompletionService<EInvoiceBatchResult> completion = new ExecutorCompletionService<>(service);
+        Map<Integer, Future<EInvoiceBatchResult>> running = new HashMap<>();
+        Map<Integer, EInvoiceBatchResult> pending = new HashMap<>();
+        int window = concurrency * 4;
+        int submitted = 0;
+        int delivered = 0;
+        try {
+            while (true) {
+                while (running.size() < concurrency && sources.hasNext()
+                        && (order == Order.COMPLETION || submitted - delivered < window)) {
+                    int index = submitted++;
+                    S source = sources.next();
+                    running.put(index, completion.submit(() -> task.apply(index, source)));
+                }
+                if (running.isEmpty()) {
+                    return submitted;
+                }
+                EInvoiceBatchResult result = completion.take().get();
+                running.remove(result.getIndex());
+                if (order == Order.COMPLETION) {
+                    consumer.accept(result);
+                    delivered++;
+                } else {
+                    pending.put(result.getIndex(), result);
+                    while ((result = pending.remove(delivered)) != null) {
+                        consumer.accept(result);
+                        delivered++;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            // the tasks do not throw
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<EInvoiceBatchResult> future : running.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private EInvoiceBatchResult readFile(int index, Path path) {
+        long start = System.nanoTime();
+        try {
+            EInvoiceModel model = EInvoiceModelFactory.read(path, options);
+            return new EInvoiceBatchResult(index, path, model, null, System.nanoTime() - start);
+        } catch (Exception e) {
+            logger.fine("failed to read " + path + ": " + e.getMessage());
+            return new EInvoiceBatchResult(index, path, null, e, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the failed results of a batch
+     *
+     * @param results
+     * @return
+     */
+    public static List<EInvoiceBatchResult> getFailures(List<EInvoiceBatchResult> results) {
+        return results.stream().filter(result -> !result.isSuccess()).collect(Collectors.toList());
+    }
+}
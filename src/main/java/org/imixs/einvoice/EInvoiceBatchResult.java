@@ -0,0 +1,107 @@
+package org.imixs.einvoice;
+
+import java.nio.file.Path;
+
+/**
+ * A EInvoiceBatchResult is the result of reading a single file by the
+ * {@link EInvoiceBatchReader} or of a single entry of an archive read by the
+ * {@link EInvoiceArchiveReader}. The result contains either the parsed model or
+ * the exception thrown by the {@link EInvoiceModelFactory}.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceBatchResult {
+
+    private final int index;
+    private final Path path;
+    private final String name;
+    private final EInvoiceModel model;
+    private final Exception error;
+    private final long durationNanos;
+
+    public EInvoiceBatchResult(int index, Path path, EInvoiceModel model, Exception error, long durationNanos) {
+        this(index, path, path.toString(), model, error, durationNanos);
+    }
+
+    /**
+     * Creates the result of an archive entry or a stream without a file path
+     */
+    public EInvoiceBatchResult(int index, String name, EInvoiceModel model, Exception error, long durationNanos) {
+        this(index, null, name, model, error, durationNanos);
+    }
+
+    private EInvoiceBatchResult(int index, Path path, String name, EInvoiceModel model, Exception error,
+            long durationNanos) {
+        super();
+        this.index = index;
+        this.path = path;
+        this.name = name;
+        this.model = model;
+        this.error = error;
+        this.durationNanos = durationNanos;
+    }
+
+    /**
+     * Returns the position of the file in the input of the batch, starting with 0
+     *
+     * @return
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the path of the file or null for an archive entry
+     *
+     * @return
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the path of the file or the name of the archive entry
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the parsed model or null if the file could not be read
+     *
+     * @return
+     */
+    public EInvoiceModel getModel() {
+        return model;
+    }
+
+    /**
+     * Returns the exception thrown while reading the file or null
+     *
+     * @return
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Returns the time needed to read the file in nanoseconds
+     *
+     * @return
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return name + (error == null ? ": ok" : ": " + error.getMessage());
+    }
+}
@@ -0,0 +1,17 @@
+package org.imixs.einvoice;
+
+/**
+ * A EInvoiceCancelledException is thrown by the {@link EInvoiceModelFactory} if
+ * the reading thread was interrupted. The interrupt status of the thread is not
+ * cleared, so a batch job can still detect the cancellation.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceCancelledException extends EInvoiceFormatException {
+    private static final long serialVersionUID = 1L;
+
+    public EInvoiceCancelledException() {
+        super("XML parsing error", null, "Reading the e-invoice was cancelled");
+    }
+}
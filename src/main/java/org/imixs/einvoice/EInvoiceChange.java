@@ -0,0 +1,119 @@
+package org.imixs.einvoice;
+
+/**
+ * A EInvoiceChange describes a single difference between an original and a
+ * revised invoice, computed by the {@link EInvoiceDiff}.
+ * <p>
+ * The scope defines the part of the invoice - the header, a trade party
+ * identified by its type, a line item identified by its id or an attachment
+ * identified by its file name. A changed value has a field name, an added or
+ * removed party, line item or attachment has none.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceChange {
+
+    public enum Type {
+        ADDED, //
+        REMOVED, //
+        CHANGED;
+    }
+
+    public enum Scope {
+        HEADER, //
+        PARTY, //
+        LINE, //
+        ATTACHMENT;
+    }
+
+    private final Type type;
+    private final Scope scope;
+    private final String key;
+    private final String field;
+    private final String oldValue;
+    private final String newValue;
+
+    public EInvoiceChange(Type type, Scope scope, String key, String field, String oldValue, String newValue) {
+        super();
+        this.type = type;
+        this.scope = scope;
+        this.key = key;
+        this.field = field;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Returns the party type, the line item id or the attachment file name. The
+     * key is null for the header.
+     *
+     * @return
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the name of the changed field - e.g. 'grandTotalAmount' or
+     * 'quantity'. The field is null for an added or removed party or line item.
+     *
+     * @return
+     */
+    public String getField() {
+        return field;
+    }
+
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    public String getNewValue() {
+        return newValue;
+    }
+
+    /**
+     * Returns the path of the change in the form used by the
+     * {@link EInvoiceMappingGap} - e.g. 'grandTotalAmount', 'seller.name' or
+     * 'line 1.quantity'
+     *
+     * @return
+     */
+    public String getPath() {
+        String prefix;
+        switch (scope) {
+        case PARTY:
+            prefix = key;
+            break;
+        case LINE:
+            prefix = "line " + key;
+            break;
+        case ATTACHMENT:
+            prefix = "attachment " + key;
+            break;
+        default:
+            return field;
+        }
+        return field == null ? prefix : prefix + "." + field;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+        case ADDED:
+            return getPath() + ": added";
+        case REMOVED:
+            return getPath() + ": removed";
+        default:
+            return getPath() + ": " + oldValue + " -> " + newValue;
+        }
+    }
+}
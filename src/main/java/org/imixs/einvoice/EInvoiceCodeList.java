@@ -0,0 +1,197 @@
+package org.imixs.einvoice;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The EInvoiceCodeList provides the code lists used by e-invoices (EN16931) to
+ * validate unit, country, currency, VAT category and payment means codes.
+ * <p>
+ * Each code list is a versioned data file in the package
+ * 'org/imixs/einvoice/codelist' with one code per line, optionally followed by
+ * a tab and a description. Lines starting with '#' are comments, a comment
+ * 'version: ...' defines the version of the list.
+ * <p>
+ * The lists are loaded once when the class is loaded. Codes of up to three
+ * characters A-Z and 0-9 - this covers all codes of the supported lists - are
+ * packed into a number (base 37, one digit per character) which indexes a bit
+ * table. So a lookup needs no hashing, no string comparison and no allocation.
+ * A two character country table needs 1,400 bits, a three character unit
+ * table 6 KB. Longer codes are stored in a hash set.
+ *
+ * <pre>
+ * if (!EInvoiceCodeList.CURRENCY.contains(currencyCode)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public enum EInvoiceCodeList {
+    /**
+     * UN/ECE Recommendation 20 and 21 unit codes - only the commonly used codes
+     * of Recommendation 20
+     */
+    UNIT("unit.txt"), //
+    /** ISO 3166-1 alpha-2 country codes */
+    COUNTRY("country.txt"), //
+    /** ISO 4217 currency codes */
+    CURRENCY("currency.txt"), //
+    /** UNTDID 5305 VAT category codes */
+    VAT_CATEGORY("vat-category.txt"), //
+    /** UNTDID 4461 payment means codes */
+    PAYMENT_MEANS("payment-means.txt"), //
+    /** VAT identification number prefixes of the EU member states */
+    EU_VAT_PREFIX("eu-vat-prefix.txt");
+
+    private static final String RESOURCE_PATH = "/org/imixs/einvoice/codelist/";
+    private static final int RADIX = 37;
+    private static final int MAX_PACKED_LENGTH = 3;
+
+    private final String resource;
+    private final String version;
+    private final long[] table;
+    private final Set<String> longCodes;
+    private final List<String> codes;
+
+    private EInvoiceCodeList(String resource) {
+        this.resource = resource;
+        List<String> values = new ArrayList<>();
+        String listVersion = null;
+        try (InputStream is = EInvoiceCodeList.class.getResourceAsStream(RESOURCE_PATH + resource)) {
+            if (is == null) {
+                throw new IllegalStateException("Code list not found: " + RESOURCE_PATH + resource);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    String comment = line.substring(1).trim();
+                    if (comment.startsWith("version:")) {
+                        listVersion = comment.substring(8).trim();
+                    }
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                String code = (tab == -1 ? line : line.substring(0, tab)).trim();
+                if (!code.isEmpty()) {
+                    values.add(code);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read code list " + resource, e);
+        }
+        this.version = listVersion;
+        this.codes = Collections.unmodifiableList(values);
+
+        // the table is sized by the largest packed code
+        int maxKey = 0;
+        for (String code : values) {
+            maxKey = Math.max(maxKey, pack(code));
+        }
+        long[] bits = new long[(maxKey >> 6) + 1];
+        Set<String> unpacked = new HashSet<>();
+        for (String code : values) {
+            int key = pack(code);
+            if (key > 0) {
+                bits[key >> 6] |= 1L << key;
+            } else {
+                unpacked.add(code);
+            }
+        }
+        this.table = bits;
+        this.longCodes = unpacked.isEmpty() ? Collections.emptySet() : unpacked;
+    }
+
+    /**
+     * Returns the version of the code list data file
+     *
+     * @return
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the name of the code list data file
+     *
+     * @return
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * Returns all codes in the order of the data file
+     *
+     * @return
+     */
+    public List<String> getCodes() {
+        return codes;
+    }
+
+    public int size() {
+        return codes.size();
+    }
+
+    /**
+     * Returns true if the code is part of the code list. The comparison is case
+     * sensitive.
+     *
+     * @param code
+     * @return false for null or an unknown code
+     */
+    public boolean contains(CharSequence code) {
+        if (code == null) {
+            return false;
+        }
+        int key = pack(code);
+        if (key > 0) {
+            int index = key >> 6;
+            return index < table.length && (table[index] & (1L << key)) != 0;
+        }
+        return key == 0 && !longCodes.isEmpty() && longCodes.contains(code.toString());
+    }
+
+    /**
+     * Packs a code of up to three characters A-Z or 0-9 into a positive number.
+     * Each character is a digit 1-36, so codes of different length never share a
+     * number.
+     *
+     * @return the packed code, 0 if the code is longer or contains other
+     *         characters or -1 for an empty code
+     */
+    private static int pack(CharSequence code) {
+        int length = code.length();
+        if (length == 0) {
+            return -1;
+        }
+        if (length > MAX_PACKED_LENGTH) {
+            return 0;
+        }
+        int key = 0;
+        for (int i = 0; i < length; i++) {
+            char c = code.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0' + 1;
+            } else if (c >= 'A' && c <= 'Z') {
+                digit = c - 'A' + 11;
+            } else {
+                return 0;
+            }
+            key = key * RADIX + digit;
+        }
+        return key;
+    }
+}
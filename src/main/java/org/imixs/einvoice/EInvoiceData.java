@@ -0,0 +1,239 @@
+package org.imixs.einvoice;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A EInvoiceData is a container for the values of an e-invoice independent of
+ * a concrete XML format.
+ * <p>
+ * The container holds the same values as a {@link EInvoiceModel} and can be
+ * used to write or convert an invoice into different formats.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceData {
+
+    private String id = null;
+    private String currencyCode = null;
+    private String buyerReference = null;
+    private String orderReferenceId = null;
+    private LocalDate issueDateTime = null;
+    private LocalDate dueDateTime = null;
+    private BigDecimal grandTotalAmount = null;
+    private BigDecimal taxTotalAmount = null;
+    private BigDecimal netTotalAmount = null;
+    private BigDecimal taxRate = null;
+    private Set<TradeParty> tradeParties = new LinkedHashSet<>();
+    private Set<TradeLineItem> tradeLineItems = new LinkedHashSet<>();
+
+    public EInvoiceData() {
+        super();
+    }
+
+    /**
+     * Creates a new EInvoiceData instance with the values of a given model.
+     *
+     * @param model
+     * @return
+     */
+    public static EInvoiceData of(EInvoiceModel model) {
+        EInvoiceData data = new EInvoiceData();
+        data.setId(model.getId());
+        data.setBuyerReference(model.getBuyerReference());
+        data.setOrderReferenceId(model.getOrderReferenceId());
+        data.setIssueDateTime(model.getIssueDateTime());
+        data.setDueDateTime(model.getDueDateTime());
+        data.setGrandTotalAmount(model.getGrandTotalAmount());
+        data.setTaxTotalAmount(model.getTaxTotalAmount());
+        data.setNetTotalAmount(model.getNetTotalAmount());
+        data.setTaxRate(model.getTaxRate());
+        data.getTradeParties().addAll(model.getTradeParties());
+        data.getTradeLineItems().addAll(model.getTradeLineItems());
+        return data;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the invoice currency code (ISO 4217) or null if not known
+     *
+     * @return
+     */
+    public String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    public void setCurrencyCode(String currencyCode) {
+        this.currencyCode = currencyCode;
+    }
+
+    public String getBuyerReference() {
+        return buyerReference;
+    }
+
+    public void setBuyerReference(String buyerReference) {
+        this.buyerReference = buyerReference;
+    }
+
+    public String getOrderReferenceId() {
+        return orderReferenceId;
+    }
+
+    public void setOrderReferenceId(String orderReferenceId) {
+        this.orderReferenceId = orderReferenceId;
+    }
+
+    public LocalDate getIssueDateTime() {
+        return issueDateTime;
+    }
+
+    public void setIssueDateTime(LocalDate issueDateTime) {
+        this.issueDateTime = issueDateTime;
+    }
+
+    public LocalDate getDueDateTime() {
+        return dueDateTime;
+    }
+
+    public void setDueDateTime(LocalDate dueDateTime) {
+        this.dueDateTime = dueDateTime;
+    }
+
+    public BigDecimal getGrandTotalAmount() {
+        return grandTotalAmount;
+    }
+
+    public void setGrandTotalAmount(BigDecimal grandTotalAmount) {
+        this.grandTotalAmount = grandTotalAmount;
+    }
+
+    public BigDecimal getTaxTotalAmount() {
+        return taxTotalAmount;
+    }
+
+    public void setTaxTotalAmount(BigDecimal taxTotalAmount) {
+        this.taxTotalAmount = taxTotalAmount;
+    }
+
+    public BigDecimal getNetTotalAmount() {
+        return netTotalAmount;
+    }
+
+    public void setNetTotalAmount(BigDecimal netTotalAmount) {
+        this.netTotalAmount = netTotalAmount;
+    }
+
+    public BigDecimal getTaxRate() {
+        return taxRate;
+    }
+
+    public void setTaxRate(BigDecimal taxRate) {
+        this.taxRate = taxRate;
+    }
+
+    /**
+     * Returns all trade parties
+     *
+     * @return
+     */
+    public Set<TradeParty> getTradeParties() {
+        return tradeParties;
+    }
+
+    /**
+     * Adds a new Trade party. If a party with this type already exists, the method
+     * removes first the existing party.
+     *
+     * @param party
+     */
+    public void setTradeParty(TradeParty party) {
+        if (party == null) {
+            return;
+        }
+        TradeParty existingParty = findTradeParty(party.getType());
+        if (existingParty != null) {
+            tradeParties.remove(existingParty);
+        }
+        tradeParties.add(party);
+    }
+
+    /**
+     * Finds a Trade Party by its type. Method can return null if not trade party of
+     * the type is defined.
+     *
+     * @param type
+     * @return
+     */
+    public TradeParty findTradeParty(String type) {
+        if (type == null || type.isEmpty()) {
+            return null;
+        }
+        Iterator<TradeParty> iterParties = tradeParties.iterator();
+        while (iterParties.hasNext()) {
+            TradeParty party = iterParties.next();
+            if (type.equals(party.getType())) {
+                return party;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all trade line items
+     *
+     * @return
+     */
+    public Set<TradeLineItem> getTradeLineItems() {
+        return tradeLineItems;
+    }
+
+    /**
+     * Adds a new Trade line item. If a item with this id already exists, the method
+     * removes first the existing item.
+     *
+     * @param item
+     */
+    public void setTradeLineItem(TradeLineItem item) {
+        if (item == null) {
+            return;
+        }
+        TradeLineItem existingItem = findTradeLineItem(item.getId());
+        if (existingItem != null) {
+            tradeLineItems.remove(existingItem);
+        }
+        tradeLineItems.add(item);
+    }
+
+    /**
+     * Finds a Trade line item by its id. Method can return null if not trade line
+     * item of the id is defined.
+     *
+     * @param id
+     * @return
+     */
+    public TradeLineItem findTradeLineItem(String id) {
+        if (id == null || id.isEmpty()) {
+            return null;
+        }
+        Iterator<TradeLineItem> items = tradeLineItems.iterator();
+        while (items.hasNext()) {
+            TradeLineItem item = items.next();
+            if (id.equals(item.getId())) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+}
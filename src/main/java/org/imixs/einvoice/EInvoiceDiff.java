@@ -0,0 +1,372 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The EInvoiceDiff compares an original and a revised invoice - e.g. for a
+ * credit note or a KSeF correction invoice (RodzajFaktury 'KOR') - and returns
+ * the differences as a list of {@link EInvoiceChange} objects:
+ *
+ * <ul>
+ * <li>the header fields (id, dates, references and totals)</li>
+ * <li>the trade parties, matched by their type</li>
+ * <li>the line items, matched by their id</li>
+ * <li>the attachments of two models, matched by their file name</li>
+ * </ul>
+ *
+ * For large invoices the line items are compared by a 64-bit fingerprint of
+ * their values. As long as both invoices list the lines in the same order, runs
+ * of unchanged lines are skipped with a single vectorized array comparison and
+ * only the lines with a different fingerprint are compared field by field. After
+ * the first inserted or removed line the remaining lines are matched by their
+ * id and compared field by field. Within an unchanged run a change is only
+ * missed if both versions of a line have the same 64-bit fingerprint - a hash
+ * collision, which is accepted for the speed of the comparison.
+ * <p>
+ * Attachments are compared by a SHA-256 digest of their decoded content. The
+ * content of an attachment spooled by the {@link EInvoiceModelFactory} is read
+ * from its {@link EInvoiceAttachment} handle, not from the placeholder in the
+ * DOM tree.
+ * <p>
+ * Amounts are compared by their numeric value, so '100.0' and '100.00' are
+ * equal. A EInvoiceDiff instance is thread-safe.
+ *
+ * <pre>
+ * for (EInvoiceChange change : new EInvoiceDiff().compare(original, revised)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceDiff {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public EInvoiceDiff() {
+        super();
+    }
+
+    /**
+     * Compares the values and the attachments of two models
+     *
+     * @param original
+     * @param revised
+     * @return the list of changes - empty if both invoices are equal
+     * @throws UncheckedIOException if an attachment can not be read
+     */
+    public List<EInvoiceChange> compare(EInvoiceModel original, EInvoiceModel revised) {
+        List<EInvoiceChange> changes = compare(EInvoiceData.of(original), EInvoiceData.of(revised));
+        compareAttachments(original, revised, changes);
+        return changes;
+    }
+
+    /**
+     * Compares the given invoice values
+     *
+     * @param original
+     * @param revised
+     * @return the list of changes - empty if both invoices are equal
+     */
+    public List<EInvoiceChange> compare(EInvoiceData original, EInvoiceData revised) {
+        List<EInvoiceChange> changes = new ArrayList<>();
+        compareHeader(original, revised, changes);
+        compareParties(original, revised, changes);
+        compareLines(original, revised, changes);
+        return changes;
+    }
+
+    private void compareHeader(EInvoiceData a, EInvoiceData b, List<EInvoiceChange> changes) {
+        header(changes, "id", a.getId(), b.getId());
+        header(changes, "currencyCode", a.getCurrencyCode(), b.getCurrencyCode());
+        header(changes, "issueDateTime", a.getIssueDateTime(), b.getIssueDateTime());
+        header(changes, "dueDateTime", a.getDueDateTime(), b.getDueDateTime());
+        header(changes, "buyerReference", a.getBuyerReference(), b.getBuyerReference());
+        header(changes, "orderReferenceId", a.getOrderReferenceId(), b.getOrderReferenceId());
+        header(changes, "netTotalAmount", a.getNetTotalAmount(), b.getNetTotalAmount());
+        header(changes, "taxTotalAmount", a.getTaxTotalAmount(), b.getTaxTotalAmount());
+        header(changes, "grandTotalAmount", a.getGrandTotalAmount(), b.getGrandTotalAmount());
+        header(changes, "taxRate", a.getTaxRate(), b.getTaxRate());
+    }
+
+    private void compareParties(EInvoiceData a, EInvoiceData b, List<EInvoiceChange> changes) {
+        Set<String> types = new LinkedHashSet<>();
+        for (TradeParty party : a.getTradeParties()) {
+            types.add(party.getType());
+        }
+        for (TradeParty party : b.getTradeParties()) {
+            types.add(party.getType());
+        }
+        for (String type : types) {
+            TradeParty original = a.findTradeParty(type);
+            TradeParty revised = b.findTradeParty(type);
+            if (original == null) {
+                changes.add(new EInvoiceChange(EInvoiceChange.Type.ADDED, EInvoiceChange.Scope.PARTY, type, null,
+                        null, null));
+            } else if (revised == null) {
+                changes.add(new EInvoiceChange(EInvoiceChange.Type.REMOVED, EInvoiceChange.Scope.PARTY, type, null,
+                        null, null));
+            } else {
+                party(changes, type, "name", original.getName(), revised.getName());
+                party(changes, type, "streetAddress", original.getStreetAddress(), revised.getStreetAddress());
+                party(changes, type, "postcodeCode", original.getPostcodeCode(), revised.getPostcodeCode());
+                party(changes, type, "cityName", original.getCityName(), revised.getCityName());
+                party(changes, type, "countryId", original.getCountryId(), revised.getCountryId());
+                party(changes, type, "vatNumber", original.getVatNumber(), revised.getVatNumber());
+            }
+        }
+    }
+
+    private void compareLines(EInvoiceData a, EInvoiceData b, List<EInvoiceChange> changes) {
+        TradeLineItem[] originalItems = a.getTradeLineItems().toArray(new TradeLineItem[0]);
+        TradeLineItem[] revisedItems = b.getTradeLineItems().toArray(new TradeLineItem[0]);
+        long[] originalHashes = fingerprints(originalItems);
+        long[] revisedHashes = fingerprints(revisedItems);
+        int n = originalItems.length;
+        int m = revisedItems.length;
+
+        // skip the unchanged runs while both invoices list the same line ids
+        int pos = 0;
+        while (pos < n && pos < m) {
+            int mismatch = Arrays.mismatch(originalHashes, pos, n, revisedHashes, pos, m);
+            if (mismatch < 0) {
+                pos = n;
+                break;
+            }
+            pos += mismatch;
+            if (pos >= n || pos >= m || !Objects.equals(originalItems[pos].getId(), revisedItems[pos].getId())) {
+                break;
+            }
+            compareLine(originalItems[pos], revisedItems[pos], changes);
+            pos++;
+        }
+
+        // match the remaining lines by their id
+        Map<String, Integer> revisedIndex = new HashMap<>();
+        for (int j = pos; j < m; j++) {
+            revisedIndex.putIfAbsent(revisedItems[j].getId(), j);
+        }
+        boolean[] matched = new boolean[m];
+        for (int i = pos; i < n; i++) {
+            Integer j = revisedIndex.get(originalItems[i].getId());
+            if (j == null || matched[j]) {
+                changes.add(new EInvoiceChange(EInvoiceChange.Type.REMOVED, EInvoiceChange.Scope.LINE,
+                        originalItems[i].getId(), null, null, null));
+                continue;
+            }
+            matched[j] = true;
+            compareLine(originalItems[i], revisedItems[j], changes);
+        }
+        for (int j = pos; j < m; j++) {
+            if (!matched[j]) {
+                changes.add(new EInvoiceChange(EInvoiceChange.Type.ADDED, EInvoiceChange.Scope.LINE,
+                        revisedItems[j].getId(), null, null, null));
+            }
+        }
+    }
+
+    private void compareAttachments(EInvoiceModel a, EInvoiceModel b, List<EInvoiceChange> changes) {
+        Map<String, String[]> originals = attachments(a);
+        Map<String, String[]> revised = attachments(b);
+        for (Map.Entry<String, String[]> entry : originals.entrySet()) {
+            String key = entry.getKey();
+            String[] revisedValues = revised.get(key);
+            if (revisedValues == null) {
+                changes.add(new EInvoiceChange(EInvoiceChange.Type.REMOVED, EInvoiceChange.Scope.ATTACHMENT, key,
+                        null, null, null));
+            } else {
+                attachment(changes, key, "mimeCode", entry.getValue()[0], revisedValues[0]);
+                attachment(changes, key, "content", entry.getValue()[1], revisedValues[1]);
+            }
+        }
+        for (String key : revised.keySet()) {
+            if (!originals.containsKey(key)) {
+                changes.add(new EInvoiceChange(EInvoiceChange.Type.ADDED, EInvoiceChange.Scope.ATTACHMENT, key, null,
+                        null, null));
+            }
+        }
+    }
+
+    /**
+     * Returns the mime code and the content digest of all attachments of a model
+     * by their file name. An attachment without a file name - or with the name
+     * of a previous attachment - is identified by its position.
+     */
+    private static Map<String, String[]> attachments(EInvoiceModel model) {
+        Map<String, String[]> result = new LinkedHashMap<>();
+        if (model.getDoc() == null) {
+            return result;
+        }
+        for (String name : new String[] { EInvoiceAttachment.UBL_ELEMENT, EInvoiceAttachment.CII_ELEMENT }) {
+            NodeList elements = model.getDoc().getElementsByTagNameNS("*", name);
+            for (int i = 0; i < elements.getLength(); i++) {
+                Element element = (Element) elements.item(i);
+                if (!EInvoiceAttachment.isAttachment(element.getLocalName(), element.getNamespaceURI())) {
+                    continue;
+                }
+                String key = element.getAttribute("filename");
+                if (key.isEmpty() || result.containsKey(key)) {
+                    key = String.valueOf(result.size() + 1);
+                }
+                result.put(key, new String[] { element.getAttribute("mimeCode"), digest(model, element) });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the decoded content of an attachment element
+     */
+    private static String digest(EInvoiceModel model, Element element) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            EInvoiceAttachment attachment = model.findAttachment(element);
+            if (attachment != null) {
+                try (InputStream in = new DigestInputStream(attachment.openStream(), digest)) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            } else {
+                digest.update(Base64.getMimeDecoder().decode(element.getTextContent().trim()));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void compareLine(TradeLineItem a, TradeLineItem b, List<EInvoiceChange> changes) {
+        String id = a.getId();
+        line(changes, id, "name", a.getName(), b.getName());
+        line(changes, id, "description", a.getDescription(), b.getDescription());
+        line(changes, id, "orderReferenceId", a.getOrderReferenceId(), b.getOrderReferenceId());
+        line(changes, id, "quantity", a.getQuantity(), b.getQuantity());
+        line(changes, id, "grossPrice", a.getGrossPrice(), b.getGrossPrice());
+        line(changes, id, "netPrice", a.getNetPrice(), b.getNetPrice());
+        line(changes, id, "taxRate", a.getTaxRate(), b.getTaxRate());
+        line(changes, id, "taxCategory", a.getTaxCategory(), b.getTaxCategory());
+        line(changes, id, "total", a.getTotal(), b.getTotal());
+    }
+
+    private static void header(List<EInvoiceChange> changes, String field, Object a, Object b) {
+        if (!isEqual(a, b)) {
+            changes.add(new EInvoiceChange(EInvoiceChange.Type.CHANGED, EInvoiceChange.Scope.HEADER, null, field,
+                    toString(a), toString(b)));
+        }
+    }
+
+    private static void party(List<EInvoiceChange> changes, String type, String field, String a, String b) {
+        if (!Objects.equals(a, b)) {
+            changes.add(new EInvoiceChange(EInvoiceChange.Type.CHANGED, EInvoiceChange.Scope.PARTY, type, field, a,
+                    b));
+        }
+    }
+
+    private static void attachment(List<EInvoiceChange> changes, String key, String field, String a, String b) {
+        if (!Objects.equals(a, b)) {
+            changes.add(new EInvoiceChange(EInvoiceChange.Type.CHANGED, EInvoiceChange.Scope.ATTACHMENT, key, field,
+                    a, b));
+        }
+    }
+
+    private static void line(List<EInvoiceChange> changes, String id, String field, String a, String b) {
+        if (!Objects.equals(a, b)) {
+            changes.add(new EInvoiceChange(EInvoiceChange.Type.CHANGED, EInvoiceChange.Scope.LINE, id, field, a, b));
+        }
+    }
+
+    private static void line(List<EInvoiceChange> changes, String id, String field, double a, double b) {
+        if (Double.compare(a, b) != 0) {
+            changes.add(new EInvoiceChange(EInvoiceChange.Type.CHANGED, EInvoiceChange.Scope.LINE, id, field,
+                    BigDecimal.valueOf(a).toPlainString(), BigDecimal.valueOf(b).toPlainString()));
+        }
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a instanceof BigDecimal && b instanceof BigDecimal) {
+            return ((BigDecimal) a).compareTo((BigDecimal) b) == 0;
+        }
+        return Objects.equals(a, b);
+    }
+
+    private static String toString(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+    }
+
+    private static long[] fingerprints(TradeLineItem[] items) {
+        long[] result = new long[items.length];
+        for (int i = 0; i < items.length; i++) {
+            result[i] = fingerprint(items[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash over all values of a line item. The hash is
+     * computed without allocation.
+     */
+    static long fingerprint(TradeLineItem item) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, item.getId());
+        hash = hash(hash, item.getName());
+        hash = hash(hash, item.getDescription());
+        hash = hash(hash, item.getOrderReferenceId());
+        hash = hash(hash, Double.doubleToLongBits(item.getQuantity()));
+        hash = hash(hash, Double.doubleToLongBits(item.getGrossPrice()));
+        hash = hash(hash, Double.doubleToLongBits(item.getNetPrice()));
+        hash = hash(hash, Double.doubleToLongBits(item.getTaxRate()));
+        hash = hash(hash, item.getTaxCategory());
+        hash = hash(hash, Double.doubleToLongBits(item.getTotal()));
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return hash(hash, -1L);
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // the length separates the values of adjacent fields
+        return hash(hash, length);
+    }
+
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,464 @@
+package org.imixs.einvoice;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.NamespaceSupport;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * The EInvoiceEnvelope contains the metadata of an envelope wrapping an
+ * e-invoice - e.g. the Peppol Standard Business Document Header (SBDH).
+ * <p>
+ * The {@link EInvoiceModelFactory} recognizes the following envelope roots
+ *
+ * <ul>
+ * <li>SBDH - StandardBusinessDocument (Peppol)</li>
+ * <li>SOAP - soap:Envelope (SOAP 1.1 and 1.2), the invoice is the content of
+ * the Body</li>
+ * </ul>
+ *
+ * Envelopes can be nested. The header is skipped in a streaming pass, only the
+ * invoice is parsed into the DOM of the model. The envelope of a model is
+ * returned by {@link EInvoiceModel#getEnvelope()}.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceEnvelope {
+
+    public static final String SBDH_NAMESPACE = "http://www.unece.org/cefact/namespaces/StandardBusinessDocumentHeader";
+    public static final String SOAP11_NAMESPACE = "http://schemas.xmlsoap.org/soap/envelope/";
+    public static final String SOAP12_NAMESPACE = "http://www.w3.org/2003/05/soap-envelope";
+
+    public enum Type {
+        SBDH, //
+        SOAP;
+    }
+
+    private Type type = null;
+    private String sender = null;
+    private String senderScheme = null;
+    private String receiver = null;
+    private String receiverScheme = null;
+    private String documentId = null;
+    private String documentType = null;
+    private String standard = null;
+    private String typeVersion = null;
+    private String creationDateTime = null;
+    private String documentTypeIdentifier = null;
+    private String processIdentifier = null;
+
+    EInvoiceEnvelope() {
+        super();
+    }
+
+    /**
+     * Returns the type of the outer envelope
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the sender identifier - e.g. the Peppol participant ID
+     * '0088:4035811991014'
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * Returns the scheme (Authority) of the sender identifier - e.g.
+     * 'iso6523-actorid-upis'
+     */
+    public String getSenderScheme() {
+        return senderScheme;
+    }
+
+    public String getReceiver() {
+        return receiver;
+    }
+
+    public String getReceiverScheme() {
+        return receiverScheme;
+    }
+
+    /**
+     * Returns the instance identifier of the document
+     */
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    /**
+     * Returns the document type - e.g. 'Invoice'
+     */
+    public String getDocumentType() {
+        return documentType;
+    }
+
+    /**
+     * Returns the namespace of the document standard
+     */
+    public String getStandard() {
+        return standard;
+    }
+
+    public String getTypeVersion() {
+        return typeVersion;
+    }
+
+    /**
+     * Returns the creation date and time as given in the header
+     */
+    public String getCreationDateTime() {
+        return creationDateTime;
+    }
+
+    /**
+     * Returns the Peppol document type identifier (business scope DOCUMENTID)
+     */
+    public String getDocumentTypeIdentifier() {
+        return documentTypeIdentifier;
+    }
+
+    /**
+     * Returns the Peppol process identifier (business scope PROCESSID)
+     */
+    public String getProcessIdentifier() {
+        return processIdentifier;
+    }
+
+    @Override
+    public String toString() {
+        return type + " [sender=" + sender + ", receiver=" + receiver + ", documentId=" + documentId + "]";
+    }
+
+    /**
+     * Returns the envelope type of a root element or null if the element is not
+     * a known envelope
+     *
+     * @param localName
+     * @param namespaceURI
+     * @return the type or null
+     */
+    public static Type detect(String localName, String namespaceURI) {
+        if ("StandardBusinessDocument".equals(localName) && SBDH_NAMESPACE.equals(namespaceURI)) {
+            return Type.SBDH;
+        }
+        if ("Envelope".equals(localName)
+                && (SOAP11_NAMESPACE.equals(namespaceURI) || SOAP12_NAMESPACE.equals(namespaceURI))) {
+            return Type.SOAP;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the first bytes of a document start a known envelope root.
+     * Only the tag name of the first element is compared, without the namespace.
+     * The result is a hint selecting the streaming parser - a root not found in
+     * the given bytes, or a document not in an ASCII compatible encoding, is
+     * removed from the parsed DOM instead (see {@link #unwrap}).
+     */
+    static boolean isEnvelope(byte[] content, int length) {
+        int i = 0;
+        while (i < length - 1) {
+            if (content[i] != '<' || content[i + 1] == '?' || content[i + 1] == '!') {
+                i++;
+                continue;
+            }
+            int start = i + 1;
+            int end = start;
+            while (end < length && content[end] != '>' && content[end] != '/' && content[end] > ' ') {
+                end++;
+            }
+            if (end == length) {
+                return false;
+            }
+            String name = new String(content, start, end - start, StandardCharsets.UTF_8);
+            name = name.substring(name.indexOf(':') + 1);
+            return "StandardBusinessDocument".equals(name) || "Envelope".equals(name);
+        }
+        return false;
+    }
+
+    /**
+     * Removes the envelope from a parsed document. The invoice element is moved
+     * into a new document together with the namespace declarations of the
+     * envelope. Returns null if the envelope contains no e-invoice.
+     */
+    static Document unwrap(Document doc, EInvoiceEnvelope envelope) {
+        Header header = new Header(envelope);
+        Element payload = find(doc.getDocumentElement(), header);
+        if (payload == null) {
+            return null;
+        }
+        // copy the namespace declarations in scope
+        for (Node parent = payload.getParentNode(); parent instanceof Element; parent = parent.getParentNode()) {
+            NamedNodeMap attributes = parent.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                Attr attr = (Attr) attributes.item(i);
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+                        && !payload.hasAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getLocalName())) {
+                    payload.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attr.getName(), attr.getValue());
+                }
+            }
+        }
+        Document result = doc.getImplementation().createDocument(null, null, null);
+        result.appendChild(result.adoptNode(payload));
+        return result;
+    }
+
+    /**
+     * Walks the envelope elements and returns the first e-invoice element
+     */
+    private static Element find(Element element, Header header) {
+        if (EInvoiceFormat.detect(element.getLocalName(), element.getNamespaceURI()) != null) {
+            return element;
+        }
+        header.start(element.getLocalName(), element.getNamespaceURI(), element.getAttribute("Authority"));
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                Element result = find((Element) child, header);
+                if (result != null) {
+                    return result;
+                }
+            } else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                header.text(child.getNodeValue());
+            }
+        }
+        header.end(element.getLocalName());
+        return null;
+    }
+
+    /**
+     * Collects the metadata of the header elements
+     */
+    private static class Header {
+        private final EInvoiceEnvelope envelope;
+        private final Deque<String> path = new ArrayDeque<>();
+        private final StringBuilder text = new StringBuilder();
+        private String scopeType = null;
+        private String scopeId = null;
+
+        Header(EInvoiceEnvelope envelope) {
+            this.envelope = envelope;
+        }
+
+        void start(String localName, String namespaceURI, String authority) {
+            Type type = detect(localName, namespaceURI);
+            if (type != null && envelope.type == null) {
+                envelope.type = type;
+            }
+            if ("Identifier".equals(localName) && authority != null && !authority.isEmpty()) {
+                if ("Sender".equals(path.peek())) {
+                    envelope.senderScheme = authority;
+                } else if ("Receiver".equals(path.peek())) {
+                    envelope.receiverScheme = authority;
+                }
+            }
+            path.push(localName);
+            text.setLength(0);
+        }
+
+        void text(String value) {
+            text.append(value);
+        }
+
+        void end(String localName) {
+            path.pop();
+            String parent = path.peek();
+            String value = text.toString().trim();
+            text.setLength(0);
+            if ("Scope".equals(localName)) {
+                if ("DOCUMENTID".equals(scopeType)) {
+                    envelope.documentTypeIdentifier = scopeId;
+                } else if ("PROCESSID".equals(scopeType)) {
+                    envelope.processIdentifier = scopeId;
+                }
+                scopeType = null;
+                scopeId = null;
+            }
+            if (value.isEmpty() || parent == null) {
+                return;
+            }
+            switch (parent) {
+            case "Sender":
+                if ("Identifier".equals(localName)) {
+                    envelope.sender = value;
+                }
+                break;
+            case "Receiver":
+                if ("Identifier".equals(localName)) {
+                    envelope.receiver = value;
+                }
+                break;
+            case "DocumentIdentification":
+                if ("Standard".equals(localName)) {
+                    envelope.standard = value;
+                } else if ("TypeVersion".equals(localName)) {
+                    envelope.typeVersion = value;
+                } else if ("InstanceIdentifier".equals(localName)) {
+                    envelope.documentId = value;
+                } else if ("Type".equals(localName)) {
+                    envelope.documentType = value;
+                } else if ("CreationDateAndTime".equals(localName)) {
+                    envelope.creationDateTime = value;
+                }
+                break;
+            case "Scope":
+                if ("Type".equals(localName)) {
+                    scopeType = value;
+                } else if ("InstanceIdentifier".equals(localName)) {
+                    scopeId = value;
+                }
+                break;
+            default:
+            }
+        }
+    }
+
+    /**
+     * A SAX filter collecting the header and passing only the events of the
+     * e-invoice element to the content handler. The namespace declarations of
+     * the envelope are declared on the invoice element. A document whose root is
+     * not an envelope is passed unchanged.
+     */
+    static class Filter extends XMLFilterImpl {
+        private final EInvoiceEnvelope envelope = new EInvoiceEnvelope();
+        private final Header header = new Header(envelope);
+        private final NamespaceSupport namespaces = new NamespaceSupport();
+        private boolean contextPushed = false;
+        private int payloadDepth = 0;
+        private boolean payloadFound = false;
+        private boolean started = false;
+        private List<String> payloadPrefixes = null;
+
+        Filter() {
+            super();
+        }
+
+        /**
+         * Returns the envelope or null if the root is not an envelope
+         */
+        EInvoiceEnvelope getEnvelope() {
+            return envelope.type != null ? envelope : null;
+        }
+
+        boolean isPayloadFound() {
+            return payloadFound;
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            if (payloadDepth > 0) {
+                super.startPrefixMapping(prefix, uri);
+                return;
+            }
+            if (!contextPushed) {
+                namespaces.pushContext();
+                contextPushed = true;
+            }
+            namespaces.declarePrefix(prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            if (payloadDepth > 0) {
+                super.endPrefixMapping(prefix);
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            if (payloadDepth > 0) {
+                payloadDepth++;
+                super.startElement(uri, localName, qName, atts);
+                return;
+            }
+            if (!contextPushed) {
+                namespaces.pushContext();
+            }
+            contextPushed = false;
+            // a root which is not an envelope is passed unchanged
+            boolean root = !started;
+            started = true;
+            if (!payloadFound && (EInvoiceFormat.detect(localName, uri) != null
+                    || root && detect(localName, uri) == null)) {
+                // declare all namespaces in scope on the invoice element
+                payloadFound = true;
+                payloadDepth = 1;
+                payloadPrefixes = new ArrayList<>();
+                Enumeration<String> prefixes = namespaces.getPrefixes();
+                while (prefixes.hasMoreElements()) {
+                    String prefix = prefixes.nextElement();
+                    if (!"xml".equals(prefix)) {
+                        payloadPrefixes.add(prefix);
+                        super.startPrefixMapping(prefix, namespaces.getURI(prefix));
+                    }
+                }
+                String defaultUri = namespaces.getURI("");
+                if (defaultUri != null && !defaultUri.isEmpty()) {
+                    payloadPrefixes.add("");
+                    super.startPrefixMapping("", defaultUri);
+                }
+                namespaces.popContext();
+                super.startElement(uri, localName, qName, atts);
+                return;
+            }
+            header.start(localName, uri, atts.getValue("Authority"));
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (payloadDepth > 0) {
+                super.endElement(uri, localName, qName);
+                if (--payloadDepth == 0) {
+                    for (String prefix : payloadPrefixes) {
+                        super.endPrefixMapping(prefix);
+                    }
+                }
+                return;
+            }
+            header.end(localName);
+            namespaces.popContext();
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (payloadDepth > 0) {
+                super.characters(ch, start, length);
+            } else {
+                header.text(new String(ch, start, length));
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            if (payloadDepth > 0) {
+                super.ignorableWhitespace(ch, start, length);
+            }
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            if (payloadDepth > 0) {
+                super.processingInstruction(target, data);
+            }
+        }
+    }
+}
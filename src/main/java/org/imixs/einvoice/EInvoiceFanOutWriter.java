@@ -0,0 +1,291 @@
+package org.imixs.einvoice;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+import javax.xml.transform.TransformerException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * The EInvoiceFanOutWriter writes one set of invoice values into several
+ * e-invoice formats at the same time - e.g. CII (ZUGFeRD), UBL (Peppol) and
+ * KSeF FA(3).
+ * <p>
+ * For each format a template is registered. The template is parsed only once
+ * and copied for each invoice. The line items of a template are removed, so
+ * the written document contains only the line items of the invoice data. The values shared by all formats (rounded
+ * totals, the tax rate and the buyer VAT ID for the KSeF tax type) are derived once from the
+ * {@link EInvoiceData} before the formats are filled and streamed concurrently
+ * into separate outputs.
+ *
+ * <pre>
+ * EInvoiceFanOutWriter writer = new EInvoiceFanOutWriter();
+ * writer.setTemplate(EInvoiceFormat.CII, ciiTemplate);
+ * writer.setTemplate(EInvoiceFormat.KSEF, ksefTemplate);
+ * ...
+ * Map&lt;EInvoiceFormat, OutputStream&gt; outputs = ...
+ * writer.write(data, outputs);
+ * </pre>
+ *
+ * A writer instance is thread-safe and can be reused for many invoices.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceFanOutWriter {
+    private static Logger logger = Logger.getLogger(EInvoiceFanOutWriter.class.getName());
+
+    private final Map<EInvoiceFormat, Document> templates = new EnumMap<>(EInvoiceFormat.class);
+    private ExecutorService executor = null;
+
+    public EInvoiceFanOutWriter() {
+        super();
+    }
+
+    /**
+     * Creates a writer using the given executor to write the formats
+     * concurrently. The executor is not shut down by the writer. If no executor
+     * is set, the writer creates a bounded executor with one thread per format
+     * for each call of write (see {@link EInvoiceBatchExecutors}).
+     *
+     * @param executor
+     */
+    public EInvoiceFanOutWriter(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Registers the template for a format. The template must be a valid e-invoice
+     * document of the given format. The line items of the template are removed.
+     *
+     * @param format
+     * @param template
+     * @throws EInvoiceFormatException if the template does not match the format
+     */
+    public void setTemplate(EInvoiceFormat format, byte[] template) throws EInvoiceFormatException {
+        EInvoiceModel model;
+        try {
+            model = EInvoiceModelFactory.read(new ByteArrayInputStream(template));
+        } catch (FileNotFoundException e) {
+            throw new EInvoiceFormatException("XML parsing error", e.getMessage());
+        }
+        EInvoiceFormat templateFormat = EInvoiceFormat.of(model);
+        if (templateFormat != format) {
+            throw new EInvoiceFormatException(String.valueOf(templateFormat),
+                    model.getRoot().getNamespaceURI());
+        }
+        removeLineItems(format, model.getDoc());
+        synchronized (templates) {
+            templates.put(format, model.getDoc());
+        }
+    }
+
+    /**
+     * Writes the invoice values into all formats given by the output map. The
+     * formats are written concurrently. The output streams are not closed.
+     *
+     * @param data    - the invoice values
+     * @param outputs - output stream for each requested format
+     * @throws IOException if one of the formats can not be written
+     */
+    public void write(EInvoiceData data, Map<EInvoiceFormat, OutputStream> outputs) throws IOException {
+        if (data == null || outputs == null || outputs.isEmpty()) {
+            return;
+        }
+        final SharedValues shared = new SharedValues(data);
+
+        ExecutorService service = executor != null ? executor : EInvoiceBatchExecutors.newExecutor(outputs.size());
+        try {
+            write(data, shared, outputs, service);
+        } finally {
+            if (service != executor) {
+                service.shutdownNow();
+            }
+        }
+    }
+
+    private void write(EInvoiceData data, SharedValues shared, Map<EInvoiceFormat, OutputStream> outputs,
+            ExecutorService service) throws IOException {
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (Map.Entry<EInvoiceFormat, OutputStream> entry : outputs.entrySet()) {
+            final EInvoiceFormat format = entry.getKey();
+            final OutputStream outputStream = entry.getValue();
+            tasks.add(CompletableFuture.runAsync(() -> {
+                try {
+                    writeFormat(format, data, shared, outputStream);
+                } catch (IOException | EInvoiceFormatException | TransformerException e) {
+                    throw new CompletionException(format + ": " + e.getMessage(), e);
+                }
+            }, service));
+        }
+
+        // collect all failures
+        IOException failure = null;
+        for (CompletableFuture<Void> task : tasks) {
+            try {
+                task.join();
+            } catch (CompletionException e) {
+                logger.severe(e.getMessage());
+                if (failure == null) {
+                    failure = new IOException("Failed to write e-invoice: " + e.getMessage(), e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Removes the line items of a template document
+     */
+    private static void removeLineItems(EInvoiceFormat format, Document doc) {
+        String lineElement;
+        switch (format) {
+        case CII:
+            lineElement = "IncludedSupplyChainTradeLineItem";
+            break;
+        case UBL:
+            lineElement = "InvoiceLine";
+            break;
+        default:
+            lineElement = "FaWiersz";
+        }
+        NodeList lines = doc.getElementsByTagNameNS("*", lineElement);
+        // the node list is live
+        for (int i = lines.getLength() - 1; i >= 0; i--) {
+            Element line = (Element) lines.item(i);
+            line.getParentNode().removeChild(line);
+        }
+    }
+
+    /**
+     * Fills a copy of the template of the given format and writes the result.
+     */
+    private void writeFormat(EInvoiceFormat format, EInvoiceData data, SharedValues shared,
+            OutputStream outputStream) throws IOException, EInvoiceFormatException, TransformerException {
+        Document template;
+        synchronized (templates) {
+            template = templates.get(format);
+        }
+        if (template == null) {
+            throw new EInvoiceFormatException(format.name(), "No template defined");
+        }
+        Document doc;
+        // a DOM is not thread-safe, even for read access
+        synchronized (template) {
+            doc = (Document) template.cloneNode(true);
+        }
+        EInvoiceModel model = EInvoiceModelFactory.read(doc);
+
+        if (model instanceof EInvoiceModelKSeF) {
+            // the tax type controls the mapping of the totals
+            ((EInvoiceModelKSeF) model).setTaxType(shared.buyerVatNumber);
+        }
+
+        if (data.getId() != null) {
+            model.setId(data.getId());
+        }
+        if (data.getIssueDateTime() != null) {
+            model.setIssueDateTime(data.getIssueDateTime());
+        }
+        if (data.getDueDateTime() != null) {
+            model.setDueDateTime(data.getDueDateTime());
+        }
+        if (data.getBuyerReference() != null) {
+            model.setBuyerReference(data.getBuyerReference());
+        }
+        if (data.getOrderReferenceId() != null) {
+            model.setOrderReferenceId(data.getOrderReferenceId());
+        }
+        for (TradeParty party : data.getTradeParties()) {
+            model.setTradeParty(party);
+        }
+        for (TradeLineItem item : data.getTradeLineItems()) {
+            model.setTradeLineItem(item);
+        }
+
+        // the tax rate must be set before the totals (see EInvoiceModelCII)
+        if (shared.taxRate != null) {
+            model.setTaxRate(shared.taxRate);
+        }
+        if (shared.netTotalAmount != null) {
+            model.setNetTotalAmount(shared.netTotalAmount);
+        }
+        if (shared.taxTotalAmount != null) {
+            model.setTaxTotalAmount(shared.taxTotalAmount);
+        }
+        if (shared.grandTotalAmount != null) {
+            model.setGrandTotalAmount(shared.grandTotalAmount);
+        }
+
+        model.writeContent(outputStream);
+    }
+
+    /**
+     * The values derived once for all formats.
+     */
+    private static class SharedValues {
+        private BigDecimal netTotalAmount;
+        private BigDecimal taxTotalAmount;
+        private BigDecimal grandTotalAmount;
+        private BigDecimal taxRate;
+        private String buyerVatNumber;
+
+        SharedValues(EInvoiceData data) {
+            netTotalAmount = round(data.getNetTotalAmount());
+            taxTotalAmount = round(data.getTaxTotalAmount());
+            grandTotalAmount = round(data.getGrandTotalAmount());
+            if (grandTotalAmount == null && netTotalAmount != null && taxTotalAmount != null) {
+                grandTotalAmount = netTotalAmount.add(taxTotalAmount);
+            }
+
+            // use the common rate of the line items if no rate is given
+            taxRate = data.getTaxRate();
+            if (taxRate == null && !data.getTradeLineItems().isEmpty()) {
+                Double rate = null;
+                for (TradeLineItem item : data.getTradeLineItems()) {
+                    if (rate == null) {
+                        rate = item.getTaxRate();
+                    } else if (rate != item.getTaxRate()) {
+                        rate = null;
+                        break;
+                    }
+                }
+                if (rate != null) {
+                    taxRate = BigDecimal.valueOf(rate);
+                }
+            }
+
+            // the buyer VAT ID classifies the KSeF totals
+            TradeParty buyer = data.findTradeParty("buyer");
+            if (buyer != null) {
+                buyerVatNumber = buyer.getVatNumber();
+            }
+        }
+
+        private static BigDecimal round(BigDecimal value) {
+            if (value == null) {
+                return null;
+            }
+            return value.setScale(2, RoundingMode.HALF_UP);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Defines the supported e-invoice formats.
+ * <p>
+ * The format of a document is detected by the local name and the namespace of
+ * the root element:
+ *
+ * <ul>
+ * <li>CII - rsm:CrossIndustryInvoice (factur-x / ZUGFeRD / XRechnung)</li>
+ * <li>UBL - Invoice (UBL 2.1 / Peppol)</li>
+ * <li>KSEF - Faktura (Polish KSeF FA(3))</li>
+ * </ul>
+ *
+ * @author rsoika
+ */
+public enum EInvoiceFormat {
+    CII, //
+    UBL, //
+    KSEF;
+
+    public static final String CII_NAMESPACE = "urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100";
+
+    /** max number of bytes read to find the root element */
+    public static final int DETECT_LIMIT = 1024 * 1024;
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Detects the e-invoice format by the local name and the namespace URI of the
+     * root element. The method returns null if the format is not supported.
+     *
+     * @param localName    - local name of the root element
+     * @param namespaceURI - namespace of the root element
+     * @return the format or null if not supported
+     */
+    public static EInvoiceFormat detect(String localName, String namespaceURI) {
+        if (localName == null || namespaceURI == null) {
+            return null;
+        }
+        if ("CrossIndustryInvoice".equals(localName) && CII_NAMESPACE.equals(namespaceURI)) {
+            return CII;
+        }
+        if ("Invoice".equals(localName) && namespaceURI.startsWith("urn:oasis:names:specification:ubl")) {
+            return UBL;
+        }
+        if ("Faktura".equals(localName) && namespaceURI.startsWith("http://crd.gov.pl/")) {
+            return KSEF;
+        }
+        return null;
+    }
+
+    /**
+     * Detects the e-invoice format of a document by reading only the root element.
+     * If the root is a known envelope (see {@link EInvoiceEnvelope}), the format
+     * of the wrapped invoice is returned. The stream must support mark/reset and
+     * is reset to its start afterwards, so it can be passed to a parser.
+     *
+     * @param is - a stream supporting mark/reset, e.g. a BufferedInputStream
+     * @return the format or null if the document is not a supported e-invoice
+     * @throws IOException if the stream does not support mark/reset
+     */
+    public static EInvoiceFormat detect(InputStream is) throws IOException {
+        return peek(is, reader -> {
+            boolean envelope = false;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    EInvoiceFormat format = detect(reader.getLocalName(), reader.getNamespaceURI());
+                    if (format != null || !envelope
+                            && EInvoiceEnvelope.detect(reader.getLocalName(), reader.getNamespaceURI()) == null) {
+                        return format;
+                    }
+                    // skip the header elements of the envelope
+                    envelope = true;
+                }
+            }
+            return null;
+        });
+    }
+
+    private interface Peek<T> {
+        T read(XMLStreamReader reader) throws XMLStreamException;
+    }
+
+    /**
+     * Reads the start of a document by a StAX reader and resets the stream. If
+     * the document is not XML, the method returns null.
+     */
+    private static <T> T peek(InputStream is, Peek<T> peek) throws IOException {
+        if (!is.markSupported()) {
+            throw new IOException("Stream does not support mark/reset");
+        }
+        is.mark(DETECT_LIMIT);
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(new LimitedInputStream(is, DETECT_LIMIT));
+            return peek.read(reader);
+        } catch (XMLStreamException e) {
+            // not a XML document
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // no op
+                }
+            }
+            is.reset();
+        }
+    }
+
+    /**
+     * Returns the format of a given model instance.
+     *
+     * @param model
+     * @return the format or null if the model is not supported
+     */
+    public static EInvoiceFormat of(EInvoiceModel model) {
+        if (model instanceof EInvoiceModelCII) {
+            return CII;
+        }
+        if (model instanceof EInvoiceModelUBL) {
+            return UBL;
+        }
+        if (model instanceof EInvoiceModelKSeF) {
+            return KSEF;
+        }
+        return null;
+    }
+
+    /**
+     * Stops reading at the mark limit, so the stream can always be reset.
+     */
+    private static class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        LimitedInputStream(InputStream in, int limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = in.read(b, off, Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+    }
+}
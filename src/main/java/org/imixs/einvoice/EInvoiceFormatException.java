@@ -13,6 +13,15 @@ public class EInvoiceFormatException extends Exception {
         this.namespace = namespace;
     }
 
+    /**
+     * Constructor for subtypes with a specific message
+     */
+    protected EInvoiceFormatException(String format, String namespace, String message) {
+        super(message);
+        this.format = format;
+        this.namespace = namespace;
+    }
+
     public String getFormat() {
         return format;
     }
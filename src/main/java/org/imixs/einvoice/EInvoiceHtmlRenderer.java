@@ -0,0 +1,208 @@
+package org.imixs.einvoice;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+
+/**
+ * The EInvoiceHtmlRenderer renders an e-invoice into HTML by a chain of XSLT
+ * stylesheets - e.g. the XRechnung visualization with 'cii-xr.xsl' (CII to the
+ * XR intermediate format) and 'xrechnung-html.xsl' (XR to HTML).
+ * <p>
+ * Each stylesheet is compiled only once into a {@link Templates} object. The
+ * stages are chained by SAX {@link TransformerHandler}s, so the intermediate
+ * documents are passed as SAX events and are never serialized. The HTML output
+ * of the last stage is streamed into an OutputStream.
+ * <p>
+ * The XRechnung stylesheets are XSLT 2.0 and require a XSLT 2.0 processor (e.g.
+ * Saxon) which can be passed as the TransformerFactory. To avoid compiling
+ * the stylesheets for each renderer the templates can be shared by a
+ * {@link EInvoiceTemplatesCache}. A EInvoiceHtmlRenderer instance is
+ * thread-safe.
+ *
+ * <pre>
+ * EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(new net.sf.saxon.TransformerFactoryImpl(),
+ *         new StreamSource(ciiXrUrl.toExternalForm()), new StreamSource(htmlUrl.toExternalForm()));
+ * renderer.render(model, outputStream);
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceHtmlRenderer {
+    private static Logger logger = Logger.getLogger(EInvoiceHtmlRenderer.class.getName());
+
+    private final SAXTransformerFactory factory;
+    private final Templates[] templates;
+    private final Map<String, Object> parameters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a renderer for the given stylesheet URLs with the default
+     * TransformerFactory. Includes and imports are resolved relative to each
+     * stylesheet.
+     *
+     * @param stylesheets - the stylesheets in the order of the transformation
+     * @throws TransformerConfigurationException if a stylesheet can not be
+     *                                           compiled
+     */
+    public EInvoiceHtmlRenderer(URL... stylesheets) throws TransformerConfigurationException {
+        this(TransformerFactory.newInstance(), toSources(stylesheets));
+    }
+
+    /**
+     * Creates a renderer for the given stylesheets. The factory must support the
+     * SAXTransformerFactory features.
+     *
+     * @param transformerFactory
+     * @param stylesheets        - the stylesheets in the order of the
+     *                           transformation
+     * @throws TransformerConfigurationException if a stylesheet can not be
+     *                                           compiled
+     */
+    public EInvoiceHtmlRenderer(TransformerFactory transformerFactory, Source... stylesheets)
+            throws TransformerConfigurationException {
+        this.factory = toSAXTransformerFactory(transformerFactory, stylesheets.length);
+        this.templates = new Templates[stylesheets.length];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < stylesheets.length; i++) {
+            templates[i] = factory.newTemplates(stylesheets[i]);
+        }
+        logger.fine("...compiled " + stylesheets.length + " stylesheets in " + (System.currentTimeMillis() - start)
+                + "ms");
+    }
+
+    /**
+     * Creates a renderer for the given stylesheet URLs with the templates provided
+     * by a {@link EInvoiceTemplatesCache}. A stylesheet already compiled by the
+     * cache is not compiled again.
+     *
+     * @param cache
+     * @param stylesheets - the stylesheets in the order of the transformation
+     * @throws TransformerConfigurationException if a stylesheet can not be
+     *                                           compiled
+     */
+    public EInvoiceHtmlRenderer(EInvoiceTemplatesCache cache, URL... stylesheets)
+            throws TransformerConfigurationException {
+        this.factory = toSAXTransformerFactory(cache.getFactory(), stylesheets.length);
+        this.templates = new Templates[stylesheets.length];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < stylesheets.length; i++) {
+            templates[i] = cache.getTemplates(stylesheets[i]);
+        }
+        logger.fine("...loaded " + stylesheets.length + " stylesheets in " + (System.currentTimeMillis() - start)
+                + "ms");
+    }
+
+    private static SAXTransformerFactory toSAXTransformerFactory(TransformerFactory transformerFactory,
+            int stages) throws TransformerConfigurationException {
+        if (!transformerFactory.getFeature(SAXTransformerFactory.FEATURE)
+                || !transformerFactory.getFeature(SAXResult.FEATURE)) {
+            throw new TransformerConfigurationException(
+                    "TransformerFactory does not support SAX: " + transformerFactory.getClass().getName());
+        }
+        if (stages == 0) {
+            throw new TransformerConfigurationException("No stylesheet defined");
+        }
+        return (SAXTransformerFactory) transformerFactory;
+    }
+
+    private static Source[] toSources(URL... stylesheets) {
+        Source[] sources = new Source[stylesheets.length];
+        for (int i = 0; i < stylesheets.length; i++) {
+            // the system id is used to resolve includes
+            sources[i] = new StreamSource(stylesheets[i].toExternalForm());
+        }
+        return sources;
+    }
+
+    /**
+     * Sets a stylesheet parameter passed to all stages of the transformation
+     *
+     * @param name
+     * @param value - null removes the parameter
+     */
+    public void setParameter(String name, Object value) {
+        if (value == null) {
+            parameters.remove(name);
+        } else {
+            parameters.put(name, value);
+        }
+    }
+
+    /**
+     * Renders the DOM of a model. The model must not be modified during the
+     * transformation. The output stream is not closed.
+     *
+     * @param model
+     * @param outputStream
+     * @throws TransformerException
+     */
+    public void render(EInvoiceModel model, OutputStream outputStream) throws TransformerException {
+        render(model.getDoc(), outputStream);
+    }
+
+    /**
+     * Renders a DOM document. The output stream is not closed.
+     *
+     * @param doc
+     * @param outputStream
+     * @throws TransformerException
+     */
+    public void render(Document doc, OutputStream outputStream) throws TransformerException {
+        // a DOM is not thread-safe, even for read access
+        synchronized (doc) {
+            render(new DOMSource(doc), outputStream);
+        }
+    }
+
+    /**
+     * Renders a raw e-invoice document. The streams are not closed.
+     *
+     * @param inputStream
+     * @param outputStream
+     * @throws TransformerException
+     */
+    public void render(InputStream inputStream, OutputStream outputStream) throws TransformerException {
+        render(new StreamSource(inputStream), outputStream);
+    }
+
+    private void render(Source source, OutputStream outputStream) throws TransformerException {
+        // handlers are created for each transformation - only the templates are
+        // shared
+        TransformerHandler first = null;
+        TransformerHandler previous = null;
+        for (Templates stage : templates) {
+            TransformerHandler handler = factory.newTransformerHandler(stage);
+            for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+                handler.getTransformer().setParameter(parameter.getKey(), parameter.getValue());
+            }
+            if (previous == null) {
+                first = handler;
+            } else {
+                previous.setResult(new SAXResult(handler));
+            }
+            previous = handler;
+        }
+        previous.setResult(new StreamResult(outputStream));
+
+        // the identity transformer feeds the source as SAX events into the chain
+        factory.newTransformer().transform(source, new SAXResult(first));
+    }
+}
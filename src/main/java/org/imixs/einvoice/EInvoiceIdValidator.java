@@ -0,0 +1,501 @@
+package org.imixs.einvoice;
+
+/**
+ * The EInvoiceIdValidator checks the check digits of party identifiers - the
+ * Polish NIP, the VAT identification numbers of the EU member states and the
+ * IBAN.
+ * <p>
+ * All checks work directly on the characters of the value. No strings,
+ * BigIntegers or regular expressions are created, so an identifier is checked
+ * in a few nanoseconds. Blanks, dots and hyphens are ignored and letters are
+ * compared case insensitive, so a value like 'pl 526-025-02-74' can be checked
+ * as it is.
+ * <p>
+ * For Spain and Latvia and for VAT IDs of countries outside the EU (except
+ * GB/XI) only the format is checked (letters and digits).
+ *
+ * <pre>
+ * if (!EInvoiceIdValidator.isValidVatId(party.getVatNumber())) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public final class EInvoiceIdValidator {
+
+    private static final int MAX_LENGTH = 34;
+
+    // the normalized characters of the value are copied into a buffer per thread
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[MAX_LENGTH]);
+
+    private static final int[] NIP_WEIGHTS = { 6, 5, 7, 2, 3, 4, 5, 6, 7 };
+    private static final int[] DK_WEIGHTS = { 2, 7, 6, 5, 4, 3, 2, 1 };
+    private static final int[] EE_WEIGHTS = { 3, 7, 1, 3, 7, 1, 3, 7 };
+    private static final int[] FI_WEIGHTS = { 7, 9, 10, 5, 8, 4, 2 };
+    private static final int[] HU_WEIGHTS = { 9, 7, 3, 1, 9, 7, 3 };
+    private static final int[] MT_WEIGHTS = { 3, 4, 6, 7, 8, 9 };
+    private static final int[] WEIGHTS_8_TO_2 = { 8, 7, 6, 5, 4, 3, 2 };
+    private static final int[] WEIGHTS_9_TO_2 = { 9, 8, 7, 6, 5, 4, 3, 2 };
+    private static final int[] CY_ODD_VALUES = { 1, 0, 5, 7, 9, 13, 15, 17, 19, 21 };
+    private static final String IE_CHECK_LETTERS = "WABCDEFGHIJKLMNOPQRSTUV";
+    private static final int[] RO_WEIGHTS = { 7, 5, 3, 2, 1, 7, 5, 3, 2 };
+
+    private EInvoiceIdValidator() {
+        super();
+    }
+
+    /**
+     * Checks a Polish NIP (10 digits, mod 11 check digit). The prefix 'PL' is
+     * optional.
+     *
+     * @param nip
+     * @return true if the NIP is valid
+     */
+    public static boolean isValidNIP(CharSequence nip) {
+        char[] b = BUFFER.get();
+        int length = normalize(nip, b);
+        int off = 0;
+        if (length == 12 && b[0] == 'P' && b[1] == 'L') {
+            off = 2;
+        }
+        return length - off == 10 && isDigits(b, off, 10) && checkNIP(b, off);
+    }
+
+    /**
+     * Checks a VAT identification number with country prefix. For the EU member
+     * states (Greece 'EL'), Northern Ireland 'XI' and GB the check digits are
+     * verified.
+     *
+     * @param vatId
+     * @return true if the VAT ID is valid
+     */
+    public static boolean isValidVatId(CharSequence vatId) {
+        char[] b = BUFFER.get();
+        int length = normalize(vatId, b);
+        if (length < 4 || !isLetter(b[0]) || !isLetter(b[1])) {
+            return false;
+        }
+        int n = length - 2;
+        switch ((b[0] << 8) | b[1]) {
+        case ('A' << 8) | 'T':
+            return checkAT(b, n);
+        case ('B' << 8) | 'E':
+            return checkBE(b, n);
+        case ('B' << 8) | 'G':
+            return checkBG(b, n);
+        case ('C' << 8) | 'Y':
+            return checkCY(b, n);
+        case ('C' << 8) | 'Z':
+            return checkCZ(b, n);
+        case ('D' << 8) | 'E':
+            return n == 9 && isDigits(b, 2, 9) && b[2] != '0' && checkMod1110(b, 2, 8);
+        case ('D' << 8) | 'K':
+            return n == 8 && isDigits(b, 2, 8) && weightedSum(b, 2, DK_WEIGHTS) % 11 == 0;
+        case ('E' << 8) | 'E':
+            return n == 9 && isDigits(b, 2, 9)
+                    && (10 - weightedSum(b, 2, EE_WEIGHTS) % 10) % 10 == digit(b, 10);
+        case ('E' << 8) | 'L':
+            return checkEL(b, n);
+        case ('F' << 8) | 'I':
+            return checkFI(b, n);
+        case ('F' << 8) | 'R':
+            return checkFR(b, n);
+        case ('H' << 8) | 'R':
+            return n == 11 && isDigits(b, 2, 11) && checkMod1110(b, 2, 10);
+        case ('H' << 8) | 'U':
+            return n == 8 && isDigits(b, 2, 8)
+                    && (10 - weightedSum(b, 2, HU_WEIGHTS) % 10) % 10 == digit(b, 9);
+        case ('I' << 8) | 'E':
+            return checkIE(b, n);
+        case ('I' << 8) | 'T':
+            return n == 11 && isDigits(b, 2, 11) && checkLuhn(b, 2, 11);
+        case ('L' << 8) | 'T':
+            return checkLT(b, n);
+        case ('L' << 8) | 'U':
+            return n == 8 && isDigits(b, 2, 8) && number(b, 2, 6) % 89 == number(b, 8, 2);
+        case ('M' << 8) | 'T':
+            return n == 8 && isDigits(b, 2, 8) && b[2] != '0'
+                    && 37 - weightedSum(b, 2, MT_WEIGHTS) % 37 == number(b, 8, 2);
+        case ('N' << 8) | 'L':
+            return checkNL(b, n);
+        case ('P' << 8) | 'L':
+            return n == 10 && isDigits(b, 2, 10) && checkNIP(b, 2);
+        case ('P' << 8) | 'T':
+            return checkPT(b, n);
+        case ('R' << 8) | 'O':
+            return checkRO(b, n);
+        case ('S' << 8) | 'E':
+            return n == 12 && isDigits(b, 2, 12) && b[12] == '0' && b[13] != '0' && checkLuhn(b, 2, 10);
+        case ('S' << 8) | 'I':
+            return checkSI(b, n);
+        case ('S' << 8) | 'K':
+            return n == 10 && isDigits(b, 2, 10) && b[2] != '0' && number(b, 2, 10) % 11 == 0;
+        case ('G' << 8) | 'B':
+        case ('X' << 8) | 'I':
+            return checkGB(b, n);
+        default:
+            // ES, LV and non EU countries - letters and digits only
+            return true;
+        }
+    }
+
+    /**
+     * Checks an IBAN (ISO 13616, mod 97 check digits)
+     *
+     * @param iban
+     * @return true if the IBAN is valid
+     */
+    public static boolean isValidIBAN(CharSequence iban) {
+        char[] b = BUFFER.get();
+        int length = normalize(iban, b);
+        if (length < 15 || !isLetter(b[0]) || !isLetter(b[1]) || !isDigits(b, 2, 2)) {
+            return false;
+        }
+        // the country code and check digits are moved to the end
+        int remainder = 0;
+        for (int i = 4; i < length + 4; i++) {
+            remainder = mod97(remainder, b[i < length ? i : i - length]);
+        }
+        return remainder == 1;
+    }
+
+    /**
+     * Copies the letters and digits of a value into the buffer. Letters are
+     * converted to upper case, blanks, dots and hyphens are skipped.
+     *
+     * @return the number of characters or -1 if the value is null, too long or
+     *         contains other characters
+     */
+    private static int normalize(CharSequence value, char[] b) {
+        if (value == null) {
+            return -1;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ' ' || c == '-' || c == '.') {
+                continue;
+            }
+            if (c >= 'a' && c <= 'z') {
+                c = (char) (c - 'a' + 'A');
+            } else if (!(c >= 'A' && c <= 'Z') && !(c >= '0' && c <= '9')) {
+                return -1;
+            }
+            if (length == b.length) {
+                return -1;
+            }
+            b[length++] = c;
+        }
+        return length;
+    }
+
+    private static boolean checkNIP(char[] b, int off) {
+        int sum = 0;
+        for (int i = 0; i < 9; i++) {
+            sum += digit(b, off + i) * NIP_WEIGHTS[i];
+        }
+        int check = sum % 11;
+        return check != 10 && check == digit(b, off + 9);
+    }
+
+    private static boolean checkAT(char[] b, int n) {
+        if (n != 9 || b[2] != 'U' || !isDigits(b, 3, 8)) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 7; i++) {
+            int d = digit(b, 3 + i);
+            if (i % 2 == 1) {
+                d *= 2;
+                d = d / 10 + d % 10;
+            }
+            sum += d;
+        }
+        return (10 - (sum + 4) % 10) % 10 == digit(b, 10);
+    }
+
+    private static boolean checkBE(char[] b, int n) {
+        // old numbers have 9 digits without a leading 0
+        int off = n == 9 ? 1 : 2;
+        if ((n != 9 && n != 10) || !isDigits(b, 2, n)) {
+            return false;
+        }
+        long value = number(b, 2, n - 2);
+        return 97 - value % 97 == number(b, off + 8, 2);
+    }
+
+    private static boolean checkBG(char[] b, int n) {
+        if ((n != 9 && n != 10) || !isDigits(b, 2, n)) {
+            return false;
+        }
+        if (n == 10) {
+            // personal numbers - format only
+            return true;
+        }
+        int sum = 0;
+        for (int i = 0; i < 8; i++) {
+            sum += digit(b, 2 + i) * (i + 1);
+        }
+        int check = sum % 11;
+        if (check == 10) {
+            sum = 0;
+            for (int i = 0; i < 8; i++) {
+                sum += digit(b, 2 + i) * (i + 3);
+            }
+            check = sum % 11 % 10;
+        }
+        return check == digit(b, 10);
+    }
+
+    private static boolean checkCY(char[] b, int n) {
+        if (n != 9 || !isDigits(b, 2, 8) || !isLetter(b[10])) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 8; i++) {
+            int d = digit(b, 2 + i);
+            sum += i % 2 == 0 ? CY_ODD_VALUES[d] : d;
+        }
+        return b[10] == 'A' + sum % 26;
+    }
+
+    private static boolean checkCZ(char[] b, int n) {
+        if (n < 8 || n > 10 || !isDigits(b, 2, n)) {
+            return false;
+        }
+        if (n > 8) {
+            // personal numbers - format only
+            return true;
+        }
+        int check = 11 - weightedSum(b, 2, WEIGHTS_8_TO_2) % 11;
+        return check % 10 == digit(b, 9);
+    }
+
+    private static boolean checkEL(char[] b, int n) {
+        if (n != 9 || !isDigits(b, 2, 9)) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 8; i++) {
+            sum += digit(b, 2 + i) << (8 - i);
+        }
+        return sum % 11 % 10 == digit(b, 10);
+    }
+
+    private static boolean checkFI(char[] b, int n) {
+        if (n != 8 || !isDigits(b, 2, 8)) {
+            return false;
+        }
+        int remainder = weightedSum(b, 2, FI_WEIGHTS) % 11;
+        if (remainder == 1) {
+            return false;
+        }
+        return (remainder == 0 ? 0 : 11 - remainder) == digit(b, 9);
+    }
+
+    private static boolean checkFR(char[] b, int n) {
+        if (n != 11 || !isDigits(b, 4, 9) || !isLetterOrDigit(b[2]) || !isLetterOrDigit(b[3])) {
+            return false;
+        }
+        if (!isDigits(b, 2, 2)) {
+            // new style alphanumeric keys - format only
+            return true;
+        }
+        long siren = number(b, 4, 9);
+        return (12 + 3 * (siren % 97)) % 97 == number(b, 2, 2);
+    }
+
+    private static boolean checkIE(char[] b, int n) {
+        if (n != 8 && n != 9) {
+            return false;
+        }
+        int sum = 0;
+        int checkLetter;
+        if (isDigits(b, 2, 7) && isLetter(b[9])) {
+            // new format 1234567X or 1234567XX
+            for (int i = 0; i < 7; i++) {
+                sum += digit(b, 2 + i) * (8 - i);
+            }
+            if (n == 9) {
+                if (!isLetter(b[10])) {
+                    return false;
+                }
+                if (b[10] != 'W') {
+                    sum += (b[10] - 'A' + 1) * 9;
+                }
+            }
+            checkLetter = b[9];
+        } else if (n == 8 && isDigits(b, 2, 1) && isDigits(b, 4, 5) && isLetter(b[9])) {
+            // old format 1X23456Y - the number is 0234561
+            for (int i = 0; i < 5; i++) {
+                sum += digit(b, 4 + i) * (7 - i);
+            }
+            sum += digit(b, 2) * 2;
+            checkLetter = b[9];
+        } else {
+            return false;
+        }
+        return IE_CHECK_LETTERS.charAt(sum % 23) == checkLetter;
+    }
+
+    private static boolean checkLT(char[] b, int n) {
+        if ((n != 9 && n != 12) || !isDigits(b, 2, n)) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < n - 1; i++) {
+            sum += digit(b, 2 + i) * (1 + i % 9);
+        }
+        int check = sum % 11;
+        if (check == 10) {
+            sum = 0;
+            for (int i = 0; i < n - 1; i++) {
+                sum += digit(b, 2 + i) * (1 + (i + 2) % 9);
+            }
+            check = sum % 11 % 10;
+        }
+        return check == digit(b, 1 + n);
+    }
+
+    private static boolean checkNL(char[] b, int n) {
+        if (n != 12 || !isDigits(b, 2, 9) || b[11] != 'B' || !isDigits(b, 12, 2)) {
+            return false;
+        }
+        // mod 11 check of the RSIN
+        int remainder = weightedSum(b, 2, WEIGHTS_9_TO_2) % 11;
+        if (remainder != 10 && remainder == digit(b, 10)) {
+            return true;
+        }
+        // sole proprietors - mod 97 over the full number including 'NL'
+        int mod = 0;
+        for (int i = 0; i < 14; i++) {
+            mod = mod97(mod, b[i]);
+        }
+        return mod == 1;
+    }
+
+    private static boolean checkPT(char[] b, int n) {
+        if (n != 9 || !isDigits(b, 2, 9)) {
+            return false;
+        }
+        int check = 11 - weightedSum(b, 2, WEIGHTS_9_TO_2) % 11;
+        return (check > 9 ? 0 : check) == digit(b, 10);
+    }
+
+    private static boolean checkRO(char[] b, int n) {
+        if (n < 2 || n > 10 || !isDigits(b, 2, n)) {
+            return false;
+        }
+        // the weights are aligned to the right
+        int sum = 0;
+        int weightOffset = 10 - n;
+        for (int i = 0; i < n - 1; i++) {
+            sum += digit(b, 2 + i) * RO_WEIGHTS[weightOffset + i];
+        }
+        return sum * 10 % 11 % 10 == digit(b, 1 + n);
+    }
+
+    private static boolean checkSI(char[] b, int n) {
+        if (n != 8 || !isDigits(b, 2, 8) || b[2] == '0') {
+            return false;
+        }
+        int check = 11 - weightedSum(b, 2, WEIGHTS_8_TO_2) % 11;
+        if (check == 11) {
+            return false;
+        }
+        return check % 10 == digit(b, 9);
+    }
+
+    private static boolean checkGB(char[] b, int n) {
+        if (n == 5 && isLetter(b[2]) && isLetter(b[3]) && isDigits(b, 4, 3)) {
+            // government departments and health authorities - format only
+            return true;
+        }
+        if ((n != 9 && n != 12) || !isDigits(b, 2, n)) {
+            return false;
+        }
+        int sum = weightedSum(b, 2, WEIGHTS_8_TO_2) + (int) number(b, 9, 2);
+        return sum % 97 == 0 || (sum + 55) % 97 == 0;
+    }
+
+    /**
+     * ISO 7064 MOD 11,10 check of count digits followed by the check digit
+     */
+    private static boolean checkMod1110(char[] b, int off, int count) {
+        int product = 10;
+        for (int i = 0; i < count; i++) {
+            int sum = (digit(b, off + i) + product) % 10;
+            if (sum == 0) {
+                sum = 10;
+            }
+            product = 2 * sum % 11;
+        }
+        int check = 11 - product;
+        return (check == 10 ? 0 : check) == digit(b, off + count);
+    }
+
+    /**
+     * Luhn check of count digits including the check digit
+     */
+    private static boolean checkLuhn(char[] b, int off, int count) {
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            int d = digit(b, off + count - 1 - i);
+            if (i % 2 == 1) {
+                d *= 2;
+                if (d > 9) {
+                    d -= 9;
+                }
+            }
+            sum += d;
+        }
+        return sum % 10 == 0;
+    }
+
+    private static int mod97(int remainder, char c) {
+        if (c <= '9') {
+            return (remainder * 10 + c - '0') % 97;
+        }
+        // letters are replaced by two digits A=10 ... Z=35
+        return (remainder * 100 + c - 'A' + 10) % 97;
+    }
+
+    private static int weightedSum(char[] b, int off, int[] weights) {
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += digit(b, off + i) * weights[i];
+        }
+        return sum;
+    }
+
+    private static long number(char[] b, int off, int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            value = value * 10 + digit(b, off + i);
+        }
+        return value;
+    }
+
+    private static int digit(char[] b, int i) {
+        return b[i] - '0';
+    }
+
+    private static boolean isDigits(char[] b, int off, int count) {
+        for (int i = off; i < off + count; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9');
+    }
+}
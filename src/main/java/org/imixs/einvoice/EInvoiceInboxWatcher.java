@@ -0,0 +1,623 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * The EInvoiceInboxWatcher reads the e-invoice files arriving in an inbox
+ * directory.
+ * <p>
+ * New files are detected by a {@link WatchService}. If the file system does
+ * not support a WatchService, or if polling is set, the directory is scanned in
+ * the poll interval instead. Files already in the inbox are read on start.
+ * Only regular files matching the glob pattern (default '*.xml') are read,
+ * hidden files are ignored.
+ * <p>
+ * A file is read as soon as it is complete. By default a file is complete when
+ * it appears - the producer should write it under a name not matching the
+ * pattern (e.g. 'invoice.xml.tmp') and rename it atomically. If a stable time
+ * is set, a file is complete when its size and modification time did not
+ * change for this time. Multiple events for the same file are merged.
+ * <p>
+ * The complete files are read in parallel by the {@link EInvoiceModelFactory}
+ * with the optional {@link EInvoiceReadOptions}. At most 'concurrency' files
+ * are read at the same time and at most 'queueCapacity' further files are
+ * waiting. If the limit is reached, the watcher waits before accepting more
+ * files. After reading, a file is moved atomically into the done or the error
+ * directory (default 'done' and 'error' in the inbox) and the result is passed
+ * to the success or the error callback. The path of the result is the new
+ * location of the file. The callbacks are called by the reading threads.
+ *
+ * <pre>
+ * EInvoiceInboxWatcher watcher = new EInvoiceInboxWatcher(Paths.get("inbox"));
+ * watcher.setOnSuccess(result -&gt; archive(result.getModel()));
+ * watcher.setOnError(result -&gt; report(result.getError()));
+ * watcher.start();
+ * ...
+ * watcher.close();
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceInboxWatcher implements AutoCloseable {
+    private static Logger logger = Logger.getLogger(EInvoiceInboxWatcher.class.getName());
+
+    private final Path inbox;
+    private Path doneDirectory;
+    private Path errorDirectory;
+    private String glob = "*.xml";
+    private int concurrency = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 0;
+    private Duration pollInterval = Duration.ofSeconds(1);
+    private Duration stableTime = Duration.ZERO;
+    private boolean polling = false;
+    private EInvoiceReadOptions options = null;
+    private ExecutorService executor = null;
+    private Consumer<EInvoiceBatchResult> onSuccess = null;
+    private Consumer<EInvoiceBatchResult> onError = null;
+
+    // files submitted and not yet moved
+    private final Set<Path> known = ConcurrentHashMap.newKeySet();
+    // files waiting to be complete - only used by the watcher thread
+    private final Map<Path, Candidate> candidates = new LinkedHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile boolean running = false;
+    private Thread thread = null;
+    private volatile WatchService watchService = null;
+    private ExecutorService service = null;
+    // files in progress and waiting
+    private Semaphore slots = null;
+    private int permits = 0;
+    // files in progress - bounds the reads on a caller-supplied executor
+    private Semaphore reads = null;
+    private PathMatcher matcher = null;
+    private final Object moveLock = new Object();
+
+    public EInvoiceInboxWatcher(Path inbox) {
+        super();
+        this.inbox = inbox;
+        this.doneDirectory = inbox.resolve("done");
+        this.errorDirectory = inbox.resolve("error");
+    }
+
+    public Path getInbox() {
+        return inbox;
+    }
+
+    public Path getDoneDirectory() {
+        return doneDirectory;
+    }
+
+    /**
+     * Sets the directory the successfully read files are moved to. The directory
+     * is created on start.
+     *
+     * @param doneDirectory
+     */
+    public void setDoneDirectory(Path doneDirectory) {
+        this.doneDirectory = doneDirectory;
+    }
+
+    public Path getErrorDirectory() {
+        return errorDirectory;
+    }
+
+    /**
+     * Sets the directory the files which could not be read are moved to. The
+     * directory is created on start.
+     *
+     * @param errorDirectory
+     */
+    public void setErrorDirectory(Path errorDirectory) {
+        this.errorDirectory = errorDirectory;
+    }
+
+    public String getGlob() {
+        return glob;
+    }
+
+    /**
+     * Sets the glob pattern matched against the file names - e.g. '*.{xml,XML}'
+     *
+     * @param glob
+     */
+    public void setGlob(String glob) {
+        this.glob = glob;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximum number of files read concurrently
+     *
+     * @param concurrency
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be at least 1");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of complete files waiting to be read. The default
+     * is 4 x concurrency.
+     *
+     * @param queueCapacity
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public Duration getPollInterval() {
+        return pollInterval;
+    }
+
+    /**
+     * Sets the interval the inbox is scanned in if no WatchService is used
+     *
+     * @param pollInterval
+     */
+    public void setPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public Duration getStableTime() {
+        return stableTime;
+    }
+
+    /**
+     * Sets the time the size and the modification time of a file must not change
+     * before the file is read. The default is zero - a file is read as soon as it
+     * appears.
+     *
+     * @param stableTime
+     */
+    public void setStableTime(Duration stableTime) {
+        this.stableTime = stableTime;
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    /**
+     * If set, the inbox is scanned in the poll interval instead of using a
+     * WatchService - e.g. for network file systems not reporting changes.
+     *
+     * @param polling
+     */
+    public void setPolling(boolean polling) {
+        this.polling = polling;
+    }
+
+    public EInvoiceReadOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Sets the read options used for each file
+     *
+     * @param options
+     */
+    public void setOptions(EInvoiceReadOptions options) {
+        this.options = options;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets an executor used to read the files. The executor is not shut down by
+     * the watcher. If no executor is set, a new executor is created on start.
+     * Also on a shared executor at most 'concurrency' files are read at the same
+     * time - the watcher submits the next file only when a read is finished, so
+     * no task blocks a thread of the executor.
+     *
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public Consumer<EInvoiceBatchResult> getOnSuccess() {
+        return onSuccess;
+    }
+
+    /**
+     * Sets the callback for each file read successfully
+     *
+     * @param onSuccess
+     */
+    public void setOnSuccess(Consumer<EInvoiceBatchResult> onSuccess) {
+        this.onSuccess = onSuccess;
+    }
+
+    public Consumer<EInvoiceBatchResult> getOnError() {
+        return onError;
+    }
+
+    /**
+     * Sets the callback for each file which could not be read
+     *
+     * @param onError
+     */
+    public void setOnError(Consumer<EInvoiceBatchResult> onError) {
+        this.onError = onError;
+    }
+
+    /**
+     * Returns the number of files read successfully since start
+     */
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * Returns the number of files which could not be read since start
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts watching the inbox. The done and error directories are created if
+     * they do not exist.
+     *
+     * @throws IOException if the inbox is not a directory
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("watcher is already running");
+        }
+        if (!Files.isDirectory(inbox)) {
+            throw new NoSuchFileException(inbox.toString(), null, "inbox is not a directory");
+        }
+        Files.createDirectories(doneDirectory);
+        Files.createDirectories(errorDirectory);
+        matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        permits = concurrency + (queueCapacity > 0 ? queueCapacity : concurrency * 4);
+        slots = new Semaphore(permits);
+        reads = executor != null ? new Semaphore(concurrency) : null;
+        service = executor != null ? executor : EInvoiceBatchExecutors.newExecutor(concurrency);
+        watchService = null;
+        if (!polling) {
+            // register before the first scan, so no file is missed
+            try {
+                watchService = inbox.getFileSystem().newWatchService();
+                inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.warning("WatchService not available for '" + inbox + "', polling: " + e.getMessage());
+                closeWatchService();
+            }
+        }
+        running = true;
+        thread = new Thread(this::run, "einvoice-inbox-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.fine("watching " + inbox + (watchService == null ? " (polling)" : ""));
+    }
+
+    /**
+     * Stops watching the inbox and waits until the files in progress are read
+     * and moved. Files not yet submitted stay in the inbox and are read on the
+     * next start.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        closeWatchService();
+        thread.interrupt();
+        try {
+            thread.join();
+            if (executor == null) {
+                service.shutdown();
+                service.awaitTermination(1, TimeUnit.MINUTES);
+            } else if (slots.tryAcquire(permits, 1, TimeUnit.MINUTES)) {
+                slots.release(permits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        candidates.clear();
+        known.clear();
+    }
+
+    /**
+     * The watcher thread collects the new files and submits the complete files
+     */
+    private void run() {
+        try {
+            scan();
+            long nextScan = System.nanoTime() + pollInterval.toNanos();
+            while (running) {
+                long now = System.nanoTime();
+                long timeout = Math.max(0, nextDue(now) - now);
+                WatchService watcher = watchService;
+                if (watcher != null) {
+                    WatchKey key = watcher.poll(timeout, TimeUnit.NANOSECONDS);
+                    if (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                scan();
+                            } else {
+                                offer(inbox.resolve((Path) event.context()));
+                            }
+                        }
+                        if (!key.reset()) {
+                            logger.warning("WatchKey for '" + inbox + "' is no longer valid, polling");
+                            closeWatchService();
+                        }
+                    }
+                } else {
+                    timeout = Math.min(timeout, nextScan - now);
+                    if (timeout > 0) {
+                        TimeUnit.NANOSECONDS.sleep(timeout);
+                    }
+                    if (System.nanoTime() - nextScan >= 0) {
+                        scan();
+                        nextScan = System.nanoTime() + pollInterval.toNanos();
+                    }
+                }
+                check();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            logger.severe("inbox watcher stopped: " + e.getMessage());
+            running = false;
+        }
+    }
+
+    /**
+     * Returns the time the next file becomes complete or the poll interval
+     */
+    private long nextDue(long now) {
+        long due = now + pollInterval.toNanos();
+        long stable = stableTime.toNanos();
+        for (Candidate candidate : candidates.values()) {
+            long time = candidate.since + stable;
+            if (time - due < 0) {
+                due = time;
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Offers all files of the inbox
+     */
+    private void scan() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox)) {
+            for (Path file : files) {
+                offer(file);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to scan inbox '" + inbox + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a new file to the candidates. Files already known are ignored.
+     */
+    private void offer(Path file) {
+        if (known.contains(file) || candidates.containsKey(file)) {
+            return;
+        }
+        Path name = file.getFileName();
+        if (name == null || name.toString().startsWith(".") || !matcher.matches(name)) {
+            return;
+        }
+        candidates.put(file, new Candidate());
+    }
+
+    /**
+     * Submits the complete candidates
+     */
+    private void check() throws InterruptedException {
+        long stable = stableTime.toNanos();
+        Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Candidate> entry = iterator.next();
+            Path file = entry.getKey();
+            Candidate candidate = entry.getValue();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // removed or renamed
+                iterator.remove();
+                continue;
+            }
+            if (!attributes.isRegularFile()) {
+                iterator.remove();
+                continue;
+            }
+            long now = System.nanoTime();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (stable > 0 && (candidate.size != attributes.size() || candidate.modified != modified)) {
+                candidate.size = attributes.size();
+                candidate.modified = modified;
+                candidate.since = now;
+                continue;
+            }
+            if (now - candidate.since < stable) {
+                continue;
+            }
+            iterator.remove();
+            submit(file);
+        }
+    }
+
+    /**
+     * Submits a complete file. Waits while the maximum number of files is in
+     * progress. On a caller-supplied executor the read permit is acquired here in
+     * the watcher thread and released by the task.
+     */
+    private void submit(Path file) throws InterruptedException {
+        if (!known.add(file)) {
+            return;
+        }
+        slots.acquire();
+        final Semaphore readPermit = reads;
+        if (readPermit != null) {
+            try {
+                readPermit.acquire();
+            } catch (InterruptedException e) {
+                slots.release();
+                known.remove(file);
+                throw e;
+            }
+        }
+        int index = sequence.getAndIncrement();
+        try {
+            service.execute(() -> {
+                try {
+                    process(index, file);
+                } finally {
+                    if (readPermit != null) {
+                        readPermit.release();
+                    }
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (readPermit != null) {
+                readPermit.release();
+            }
+            slots.release();
+            known.remove(file);
+            logger.warning("Failed to submit '" + file + "': " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a file, moves it into the done or error directory and calls the
+     * callback
+     */
+    private void process(int index, Path file) {
+        long start = System.nanoTime();
+        EInvoiceModel model = null;
+        Exception error = null;
+        try {
+            model = EInvoiceModelFactory.read(file, options);
+        } catch (Exception e) {
+            logger.fine("failed to read " + file + ": " + e.getMessage());
+            error = e;
+        }
+        long duration = System.nanoTime() - start;
+        Path target;
+        try {
+            target = move(file, error == null ? doneDirectory : errorDirectory);
+            known.remove(file);
+        } catch (IOException e) {
+            // the file stays known, so it is not read again
+            logger.severe("Failed to move '" + file + "': " + e.getMessage());
+            target = file;
+        }
+        EInvoiceBatchResult result = new EInvoiceBatchResult(index, target, model, error, duration);
+        Consumer<EInvoiceBatchResult> callback;
+        if (error == null) {
+            processedCount.incrementAndGet();
+            callback = onSuccess;
+        } else {
+            failedCount.incrementAndGet();
+            callback = onError;
+        }
+        if (callback != null) {
+            try {
+                callback.accept(result);
+            } catch (RuntimeException e) {
+                logger.warning("Callback failed for '" + target + "': " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves a file atomically into a directory. If the directory already
+     * contains a file with this name, a number is appended to the name.
+     */
+    private Path move(Path file, Path directory) throws IOException {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        synchronized (moveLock) {
+            Path target = directory.resolve(name);
+            for (int i = 1; Files.exists(target); i++) {
+                target = directory.resolve(base + "-" + i + extension);
+            }
+            try {
+                return Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // e.g. the directory is on another file system
+                return Files.move(file, target);
+            }
+        }
+    }
+
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                // no op
+            }
+            watchService = null;
+        }
+    }
+
+    /**
+     * The size and modification time of a file waiting to be complete
+     */
+    private static class Candidate {
+        private long size = -1;
+        private long modified = -1;
+        private long since = System.nanoTime();
+    }
+}
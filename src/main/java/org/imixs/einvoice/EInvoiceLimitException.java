@@ -0,0 +1,50 @@
+package org.imixs.einvoice;
+
+/**
+ * A EInvoiceLimitException is thrown by the {@link EInvoiceModelFactory} if a
+ * document exceeds one of the limits defined by the
+ * {@link EInvoiceReadOptions} - the deadline, the maximum number of bytes or
+ * elements or the maximum nesting depth. The read is aborted as soon as the
+ * limit is exceeded.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceLimitException extends EInvoiceFormatException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Limit {
+        DEADLINE, //
+        BYTES, //
+        ELEMENTS, //
+        DEPTH;
+    }
+
+    private final Limit limit;
+    private final long maxValue;
+
+    public EInvoiceLimitException(Limit limit, long maxValue, String message) {
+        super("XML parsing error", null, message);
+        this.limit = limit;
+        this.maxValue = maxValue;
+    }
+
+    /**
+     * Returns the exceeded limit
+     *
+     * @return
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the configured maximum - for the deadline the timeout in
+     * milliseconds
+     *
+     * @return
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+}
@@ -0,0 +1,40 @@
+package org.imixs.einvoice;
+
+/**
+ * A EInvoiceMappingGap describes a single invoice field which could not be
+ * converted from one e-invoice format into another - e.g. a value which has no
+ * corresponding element in the target format or a required value which is
+ * missing in the source document.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceMappingGap {
+
+    private String field;
+    private String message;
+
+    public EInvoiceMappingGap(String field, String message) {
+        super();
+        this.field = field;
+        this.message = message;
+    }
+
+    /**
+     * Returns the name of the field - e.g. 'buyerReference' or 'line 1.grossPrice'
+     *
+     * @return
+     */
+    public String getField() {
+        return field;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return field + ": " + message;
+    }
+}
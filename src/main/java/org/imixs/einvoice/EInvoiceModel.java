@@ -1,12 +1,29 @@
 package org.imixs.einvoice;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDate;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -47,7 +64,25 @@ public abstract class EInvoiceModel {
     private BigDecimal netTotalAmount = new BigDecimal("0.00");
     private BigDecimal taxRate = new BigDecimal("0.00");
     private Set<TradeParty> tradeParties = null;
-    private Set<TradeLineItem> tradeLineItems = null;
+    private LineItemSet tradeLineItems = null;
+
+    // running totals of the line items (see getLineTotals)
+    private EInvoiceTotals.Accumulator lineTotals = null;
+    private Map<TradeLineItem, long[]> lineContributions = null;
+    private Map<String, TradeLineItem> lineItemsById = null;
+    private int lineTotalsModCount = -1;
+    private boolean updateTotals = false;
+    private boolean verifyLineTotals = false;
+
+    // original source of the document (see EInvoiceReadOptions)
+    private boolean modified = false;
+    private byte[] sourceContent = null;
+    private Path sourceFile = null;
+    private long sourceFileSize = -1;
+    private long sourceFileLastModified = -1;
+    private EInvoiceEnvelope envelope = null;
+    // attachments not kept in the DOM tree, by their placeholder
+    private Map<String, EInvoiceAttachment> attachments = null;
 
     private final Map<EInvoiceNS, String> URI_BY_NAMESPACE = new HashMap<>();
     private final Map<EInvoiceNS, String> PREFIX_BY_NAMESPACE = new HashMap<>();
@@ -64,7 +99,7 @@ public abstract class EInvoiceModel {
     public EInvoiceModel(Document doc) {
         // this();
         tradeParties = new LinkedHashSet<>();
-        tradeLineItems = new LinkedHashSet<>();
+        tradeLineItems = new LineItemSet();
         if (doc != null) {
             this.doc = doc;
             root = doc.getDocumentElement();
@@ -73,6 +108,8 @@ public abstract class EInvoiceModel {
                 parseContent();
             }
         }
+        // the setters called during parsing do not count as a modification
+        modified = false;
     }
 
     public void setNameSpaces() {
@@ -81,6 +118,14 @@ public abstract class EInvoiceModel {
     public void parseContent() {
     }
 
+    /**
+     * Returns the DOM tree of the invoice. The elements of the attachments
+     * listed by {@link #getAttachments()} only contain a placeholder - the
+     * content is replaced only when the model is written. Clients reading the
+     * DOM tree directly must resolve these attachments by their handles.
+     * 
+     * @return the document
+     */
     public Document getDoc() {
         return doc;
     }
@@ -94,6 +139,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setId(String value) {
+        setModified(true);
         id = value;
     }
 
@@ -102,6 +148,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setIssueDateTime(LocalDate value) {
+        setModified(true);
         issueDateTime = value;
     }
 
@@ -110,6 +157,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setDueDateTime(LocalDate value) {
+        setModified(true);
         dueDateTime = value;
     }
 
@@ -118,6 +166,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setGrandTotalAmount(BigDecimal value) {
+        setModified(true);
         grandTotalAmount = value;
     }
 
@@ -130,6 +179,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setTaxRate(BigDecimal value) {
+        setModified(true);
         this.taxRate = value;
     }
 
@@ -142,6 +192,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setTaxTotalAmount(BigDecimal value) {
+        setModified(true);
         taxTotalAmount = value;
     }
 
@@ -154,6 +205,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setNetTotalAmount(BigDecimal value) {
+        setModified(true);
         netTotalAmount = value;
     }
 
@@ -161,6 +213,25 @@ public abstract class EInvoiceModel {
         setNetTotalAmount(BigDecimal.valueOf(value));
     }
 
+    /**
+     * Sets the document totals and the VAT breakdown computed by a
+     * {@link EInvoiceTotals}. The tax rate of the invoice is set to the rate of
+     * the first breakdown entry.
+     * <p>
+     * The subclasses write the breakdown into the format specific elements
+     * (CII ApplicableTradeTax, UBL TaxSubtotal, KSeF P_13_x/P_14_x).
+     *
+     * @param totals
+     */
+    public void setTotals(EInvoiceTotals totals) {
+        if (!totals.getBreakdown().isEmpty()) {
+            setTaxRate(totals.getBreakdown().get(0).getRate());
+        }
+        setNetTotalAmount(totals.getNetTotalAmount());
+        setTaxTotalAmount(totals.getTaxTotalAmount());
+        setGrandTotalAmount(totals.getGrandTotalAmount());
+    }
+
     /**
      * Returns all trade parties
      * 
@@ -184,6 +255,7 @@ public abstract class EInvoiceModel {
         if (party == null) {
             return;
         }
+        setModified(true);
 
         // Remove existing party of same type (if exists)
         TradeParty existingParty = findTradeParty(party.getType());
@@ -222,6 +294,7 @@ public abstract class EInvoiceModel {
     }
 
     public void setBuyerReference(String buyerReference) {
+        setModified(true);
         this.buyerReference = buyerReference;
     }
 
@@ -230,28 +303,45 @@ public abstract class EInvoiceModel {
     }
 
     public void setOrderReferenceId(String _orderReferenceId) {
+        setModified(true);
         this.orderReferenceId = _orderReferenceId;
     }
 
     /**
-     * Returns all trade line items
+     * Returns all trade line items. Items added to or removed from the returned
+     * set are reflected by the running line totals and the id index.
      * 
      * @return
      */
     public Set<TradeLineItem> getTradeLineItems() {
         if (tradeLineItems == null) {
-            tradeLineItems = new LinkedHashSet<TradeLineItem>();
+            tradeLineItems = new LineItemSet();
         }
         return tradeLineItems;
     }
 
+    /**
+     * Replaces the trade line items. The items are copied into the model, so
+     * later changes of the given set are not reflected.
+     * 
+     * @param tradeLineItems
+     */
     public void setTradeLineItems(Set<TradeLineItem> tradeLineItems) {
-        this.tradeLineItems = tradeLineItems;
+        setModified(true);
+        this.tradeLineItems = new LineItemSet();
+        if (tradeLineItems != null) {
+            this.tradeLineItems.addAll(tradeLineItems);
+        }
+        lineTotals = null;
     }
 
     /**
      * Adds a new Trade line item. If a item with this id already exists, the method
      * removes first the existing item.
+     * <p>
+     * The running line totals (see {@link #getLineTotals()}) are updated in
+     * constant time. If the option 'updateTotals' is set, the header totals and
+     * the VAT breakdown of the document are updated too.
      * 
      * @param item
      */
@@ -260,15 +350,28 @@ public abstract class EInvoiceModel {
         if (item == null) {
             return;
         }
+        setModified(true);
+        initLineTotals();
 
         // Remove existing items of same id (if exists)
         TradeLineItem existingItem = findTradeLineItem(item.getId());
         if (existingItem != null) {
             tradeLineItems.remove(existingItem);
+            lineTotals.remove(lineContributions.remove(existingItem));
+            lineItemsById.remove(existingItem.getId());
         }
 
         // Add new party
         tradeLineItems.add(item);
+        addLineTotals(item);
+        lineTotalsModCount = tradeLineItems.modCount;
+
+        if (updateTotals) {
+            setTotals(getLineTotals());
+        }
+        if (verifyLineTotals) {
+            verifyLineTotals();
+        }
     }
 
     /**
@@ -282,15 +385,107 @@ public abstract class EInvoiceModel {
         if (id == null || id.isEmpty()) {
             return null;
         }
-        Iterator<TradeLineItem> items = getTradeLineItems().iterator();
-        while (items.hasNext()) {
-            TradeLineItem item = items.next();
-            if (id.equals(item.getId())) {
-                return item;
-            }
+        initLineTotals();
+        TradeLineItem item = lineItemsById.get(id);
+        if (item != null && !id.equals(item.getId())) {
+            // the id of the item was changed directly
+            lineTotals = null;
+            initLineTotals();
+            item = lineItemsById.get(id);
+        }
+        return item;
+    }
+
+    /**
+     * Returns the totals and the VAT breakdown of the line items (see
+     * {@link EInvoiceTotals}). The sums are kept up to date by
+     * {@link #setTradeLineItem(TradeLineItem)}, so the totals are returned
+     * without a scan of the line items.
+     * <p>
+     * Note: the amounts of a line item changed directly - and not set again by
+     * setTradeLineItem - are not reflected by the running totals. Items added to
+     * or removed from {@link #getTradeLineItems()} are detected and the totals
+     * are rebuilt.
+     * 
+     * @return
+     */
+    public EInvoiceTotals getLineTotals() {
+        initLineTotals();
+        return new EInvoiceTotals(lineTotals);
+    }
+
+    /**
+     * If true, each call of setTradeLineItem also updates the header totals and
+     * the VAT breakdown (see {@link #setTotals(EInvoiceTotals)}). The default is
+     * false.
+     * 
+     * @param updateTotals
+     */
+    public void setUpdateTotals(boolean updateTotals) {
+        this.updateTotals = updateTotals;
+    }
+
+    public boolean isUpdateTotals() {
+        return updateTotals;
+    }
+
+    /**
+     * Verification mode. If true, each call of setTradeLineItem compares the
+     * running line totals with a full recompute and throws an
+     * IllegalStateException if they differ. This is intended for tests only as
+     * it makes each update O(n).
+     * 
+     * @param verifyLineTotals
+     */
+    public void setVerifyLineTotals(boolean verifyLineTotals) {
+        this.verifyLineTotals = verifyLineTotals;
+    }
+
+    public boolean isVerifyLineTotals() {
+        return verifyLineTotals;
+    }
+
+    /**
+     * Compares the running line totals with a full recompute of the line items
+     * 
+     * @throws IllegalStateException if the totals differ
+     */
+    public void verifyLineTotals() {
+        EInvoiceTotals running = getLineTotals();
+        EInvoiceTotals computed = EInvoiceTotals.of(getTradeLineItems());
+        if (running.getLineCount() != computed.getLineCount()
+                || !new HashSet<>(running.getBreakdown()).equals(new HashSet<>(computed.getBreakdown()))) {
+            throw new IllegalStateException(
+                    "Line totals out of sync - running: " + running + " computed: " + computed);
+        }
+    }
+
+    /**
+     * Builds the running line totals and the id index on first use or after any
+     * structural change of the line items not made by setTradeLineItem.
+     */
+    private void initLineTotals() {
+        LineItemSet items = (LineItemSet) getTradeLineItems();
+        if (lineTotals != null && lineTotalsModCount == items.modCount) {
+            return;
+        }
+        lineTotals = new EInvoiceTotals.Accumulator();
+        lineContributions = new IdentityHashMap<>();
+        lineItemsById = new HashMap<>();
+        for (TradeLineItem item : items) {
+            addLineTotals(item);
+        }
+        lineTotalsModCount = items.modCount;
+    }
+
+    private void addLineTotals(TradeLineItem item) {
+        if (lineContributions.containsKey(item)) {
+            return;
+        }
+        lineContributions.put(item, lineTotals.add(item));
+        if (item.getId() != null && !item.getId().isEmpty()) {
+            lineItemsById.putIfAbsent(item.getId(), item);
         }
-        // not found
-        return null;
     }
 
     /**
@@ -510,6 +705,10 @@ public abstract class EInvoiceModel {
      * This helper method creates a new child node by name from a given parent
      * node.
      * <p>
+     * The element is created with the namespace URI of the given namespace, so
+     * that the DOM tree can be validated or transformed without a serialize and
+     * parse cycle.
+     * <p>
      * If the param insertBefore is given, the new element is inserted before this
      * element.
      * 
@@ -520,7 +719,8 @@ public abstract class EInvoiceModel {
      *         the method returns null
      */
     public Element createChildNode(Element parent, EInvoiceNS ns, String nodeName, Element insertBefore) {
-        Element element = getDoc().createElement(getPrefix(ns) + nodeName);
+        setModified(true);
+        Element element = getDoc().createElementNS(getUri(ns), getPrefix(ns) + nodeName);
         if (insertBefore != null) {
             parent.insertBefore(element, insertBefore);
         } else {
@@ -551,6 +751,7 @@ public abstract class EInvoiceModel {
         if (value == null) {
             return null;
         }
+        setModified(true);
         Element element = findOrCreateChildNode(parent, nameSpace, elementName);
         element.setTextContent(value);
         return element;
@@ -630,30 +831,228 @@ public abstract class EInvoiceModel {
     }
 
     /**
-     * Returns the XML representation of the current document as a byte array
+     * Returns true if the model was modified by a setter call since the document
+     * was parsed.
+     * 
+     * @return true if the model was modified
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Marks the model as modified. A modified model is always serialized from the
+     * DOM tree, even if the original source was retained by the factory.
+     * <p>
+     * Clients which manipulate the DOM tree directly (see {@link #getDoc()})
+     * should call this method.
+     * 
+     * @param modified
+     */
+    public void setModified(boolean modified) {
+        this.modified = modified;
+    }
+
+    /**
+     * Returns the envelope the invoice was wrapped in - e.g. a Peppol SBDH - or
+     * null if the document was not wrapped.
+     * 
+     * @return the envelope metadata or null
+     */
+    public EInvoiceEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * Sets the envelope of a wrapped document. The source of a wrapped document
+     * is not retained, because it contains the envelope.
+     * 
+     * @param envelope
+     */
+    void setEnvelope(EInvoiceEnvelope envelope) {
+        this.envelope = envelope;
+        this.sourceContent = null;
+        this.sourceFile = null;
+    }
+
+    /**
+     * Returns the handles of the attachments which are not kept in the DOM tree -
+     * see {@link EInvoiceReadOptions#getAttachmentThreshold()}. Attachments below
+     * the threshold are contained in their elements as usual.
+     * <p>
+     * The placeholders are replaced by the content only when the model is
+     * written. Any other route through the DOM tree - {@link #getDoc()}, the
+     * {@link EInvoiceHtmlRenderer} or the {@link EInvoicePatcher} - sees the
+     * placeholder instead of the base64 content. The {@link EInvoiceDiff}
+     * compares the attachments by their handles.
+     * 
+     * @return the attachment handles in document order
+     */
+    public List<EInvoiceAttachment> getAttachments() {
+        if (attachments == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(attachments.values());
+    }
+
+    /**
+     * Sets the content of a cbc:EmbeddedDocumentBinaryObject or a
+     * ram:AttachmentBinaryObject element from a file. The element only contains a
+     * placeholder, the file is base64 encoded when the model is written. The file
+     * must not be changed or deleted before.
+     * 
+     * @param element - an existing attachment element
+     * @param file    - the binary content
+     * @return the attachment handle
+     * @throws IOException
+     */
+    public EInvoiceAttachment setAttachment(Element element, Path file) throws IOException {
+        EInvoiceAttachment attachment = EInvoiceAttachment.of(file);
+        if (attachments == null) {
+            attachments = new LinkedHashMap<>();
+        }
+        EInvoiceAttachment previous = findAttachment(element);
+        if (previous != null) {
+            attachments.remove(previous.getToken());
+            previous.release();
+        }
+        element.setTextContent(attachment.getToken());
+        attachment.setElement(element);
+        attachments.put(attachment.getToken(), attachment);
+        modified = true;
+        return attachment;
+    }
+
+    /**
+     * Returns the handle of the attachment bound to the given element
+     * 
+     * @param element
+     * @return the attachment handle or null if the element contains its content
+     */
+    EInvoiceAttachment findAttachment(Element element) {
+        if (attachments != null) {
+            for (EInvoiceAttachment attachment : attachments.values()) {
+                if (attachment.getElement() == element) {
+                    return attachment;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Registers the attachments spooled by the factory and binds them to their
+     * elements.
+     * 
+     * @param list
+     */
+    void setAttachments(List<EInvoiceAttachment> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+        attachments = new LinkedHashMap<>();
+        for (EInvoiceAttachment attachment : list) {
+            attachments.put(attachment.getToken(), attachment);
+        }
+        for (String name : new String[] { EInvoiceAttachment.UBL_ELEMENT, EInvoiceAttachment.CII_ELEMENT }) {
+            NodeList elements = doc.getElementsByTagNameNS("*", name);
+            for (int i = 0; i < elements.getLength(); i++) {
+                EInvoiceAttachment attachment = attachments.get(elements.item(i).getTextContent());
+                if (attachment != null) {
+                    attachment.setElement((Element) elements.item(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Retains the original bytes of the parsed document.
+     * 
+     * @param content
+     */
+    void setSourceContent(byte[] content) {
+        if (envelope != null) {
+            return;
+        }
+        this.sourceContent = content;
+        this.sourceFile = null;
+    }
+
+    /**
+     * Retains the original file of the parsed document. The file size and the
+     * modification time are verified before the file content is passed through.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    void setSourceFile(Path file) throws IOException {
+        if (envelope != null) {
+            return;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        this.sourceFile = file;
+        this.sourceFileSize = attributes.size();
+        this.sourceFileLastModified = attributes.lastModifiedTime().toMillis();
+        this.sourceContent = null;
+    }
+
+    /**
+     * Returns true if the original source of the document was retained and the
+     * model was not modified since parsing. In this case the methods
+     * {@link #getContent()} and {@link #writeContent(WritableByteChannel)} return
+     * the original bytes without serializing the DOM tree.
+     * 
+     * @return true if the original source can be passed through
+     */
+    public boolean isPassthrough() {
+        if (modified) {
+            return false;
+        }
+        if (sourceContent != null) {
+            return true;
+        }
+        if (sourceFile != null) {
+            // verify that the file was not changed since parsing
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(sourceFile, BasicFileAttributes.class);
+                if (attributes.size() == sourceFileSize
+                        && attributes.lastModifiedTime().toMillis() == sourceFileLastModified) {
+                    return true;
+                }
+                logger.warning("Source file '" + sourceFile + "' was changed since parsing");
+            } catch (IOException e) {
+                logger.warning("Source file '" + sourceFile + "' not readable: " + e.getMessage());
+            }
+            sourceFile = null;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the XML representation of the current document as a byte array.
+     * <p>
+     * If the original source was retained and the model was not modified, the
+     * method returns the original bytes. Note that in this case the returned
+     * array is shared with the model and must not be changed.
      * 
      * @return byte array containing the XML data
      * @throws TransformerException
      */
     public byte[] getContent() throws TransformerException {
+        if (isPassthrough()) {
+            if (sourceContent != null) {
+                return sourceContent;
+            }
+            try {
+                return Files.readAllBytes(sourceFile);
+            } catch (IOException e) {
+                logger.warning("Failed to read source file: " + e.getMessage());
+            }
+        }
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         try {
-            // Setup transformer
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-
-            // Configure output properties
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "3");
-
-            // Transform DOM to byte array
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(outputStream);
-            transformer.transform(source, result);
-
+            transform(outputStream);
             return outputStream.toByteArray();
-
         } finally {
             try {
                 outputStream.close();
@@ -663,4 +1062,174 @@ public abstract class EInvoiceModel {
         }
     }
 
+    /**
+     * Writes the XML representation of the current document into a channel.
+     * <p>
+     * If the original file was retained and the model was not modified, the file
+     * content is transferred by {@link FileChannel#transferTo} without copying
+     * the data into the Java heap. A retained byte array is written as is. In all
+     * other cases the DOM tree is serialized.
+     * 
+     * @param target
+     * @throws IOException
+     * @throws TransformerException
+     */
+    public void writeContent(WritableByteChannel target) throws IOException, TransformerException {
+        if (isPassthrough()) {
+            if (sourceContent != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(sourceContent);
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+                long position = 0;
+                long size = channel.size();
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, target);
+                }
+            }
+            return;
+        }
+        // serialize the DOM
+        OutputStream outputStream = Channels.newOutputStream(target);
+        transform(outputStream);
+        outputStream.flush();
+    }
+
+    /**
+     * Writes the XML representation of the current document into an output
+     * stream. A FileOutputStream is written by its channel.
+     * <p>
+     * See {@link #writeContent(WritableByteChannel)}
+     * 
+     * @param outputStream
+     * @throws IOException
+     * @throws TransformerException
+     */
+    public void writeContent(OutputStream outputStream) throws IOException, TransformerException {
+        if (outputStream instanceof FileOutputStream) {
+            writeContent(((FileOutputStream) outputStream).getChannel());
+        } else if (isPassthrough()) {
+            writeContent(Channels.newChannel(outputStream));
+        } else {
+            transform(outputStream);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Serializes the DOM tree into the given output stream. The placeholders of
+     * the attachments are replaced by their base64 content.
+     * 
+     * @param outputStream
+     * @throws TransformerException
+     */
+    private void transform(OutputStream outputStream) throws TransformerException {
+        if (attachments != null && !attachments.isEmpty()) {
+            EInvoiceAttachment.TokenOutputStream tokenStream = new EInvoiceAttachment.TokenOutputStream(outputStream,
+                    attachments);
+            serialize(tokenStream);
+            try {
+                tokenStream.finish();
+            } catch (IOException e) {
+                throw new TransformerException(e);
+            }
+            return;
+        }
+        serialize(outputStream);
+    }
+
+    private void serialize(OutputStream outputStream) throws TransformerException {
+        // Setup transformer
+        TransformerFactory transformerFactory = TransformerFactory.newInstance();
+        Transformer transformer = transformerFactory.newTransformer();
+
+        // Configure output properties
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "3");
+
+        // Transform DOM to the output stream
+        DOMSource source = new DOMSource(doc);
+        StreamResult result = new StreamResult(outputStream);
+        transformer.transform(source, result);
+    }
+
+    /**
+     * The set of trade line items. The set counts the structural changes, so the
+     * running line totals detect items added or removed directly.
+     */
+    private static final class LineItemSet extends AbstractSet<TradeLineItem> {
+        private final Set<TradeLineItem> items = new LinkedHashSet<>();
+        private int modCount = 0;
+
+        @Override
+        public Iterator<TradeLineItem> iterator() {
+            final Iterator<TradeLineItem> iterator = items.iterator();
+            return new Iterator<TradeLineItem>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public TradeLineItem next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                    modCount++;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return items.contains(o);
+        }
+
+        @Override
+        public boolean add(TradeLineItem item) {
+            if (items.add(item)) {
+                modCount++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (items.remove(o)) {
+                modCount++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends TradeLineItem> c) {
+            boolean changed = false;
+            for (TradeLineItem item : c) {
+                changed |= add(item);
+            }
+            return changed;
+        }
+
+        @Override
+        public void clear() {
+            if (!items.isEmpty()) {
+                items.clear();
+                modCount++;
+            }
+        }
+    }
 }
@@ -141,7 +141,7 @@ public class EInvoiceModelCII extends EInvoiceModel {
         setNetTotalAmount(getGrandTotalAmount().subtract(getTaxTotalAmount().setScale(2, RoundingMode.HALF_UP)));
 
         // due date
-        Element specifiedTradePaymentTermsElement = findChildNode(element, EInvoiceNS.RAM,
+        Element specifiedTradePaymentTermsElement = findChildNode(applicableHeaderTradeSettlement, EInvoiceNS.RAM,
                 "SpecifiedTradePaymentTerms");
         if (specifiedTradePaymentTermsElement != null) {
             Element dateTimeElement = findChildNode(specifiedTradePaymentTermsElement, EInvoiceNS.RAM,
@@ -337,6 +337,10 @@ public class EInvoiceModelCII extends EInvoiceModel {
                     if (rate != null) {
                         item.setTaxRate(Double.parseDouble(rate.getTextContent()));
                     }
+                    Element category = findChildNode(tax, EInvoiceNS.RAM, "CategoryCode");
+                    if (category != null) {
+                        item.setTaxCategory(category.getTextContent().trim());
+                    }
                 }
 
                 Element summation = findChildNode(settlement, EInvoiceNS.RAM,
@@ -491,6 +495,50 @@ public class EInvoiceModelCII extends EInvoiceModel {
 
     }
 
+    /**
+     * Sets the totals and replaces the ApplicableTradeTax elements of the header
+     * trade settlement by one element per entry of the VAT breakdown.
+     */
+    @Override
+    public void setTotals(EInvoiceTotals totals) {
+        super.setTotals(totals);
+        for (Element tax : findChildNodesByName(applicableHeaderTradeSettlement, EInvoiceNS.RAM,
+                "ApplicableTradeTax")) {
+            applicableHeaderTradeSettlement.removeChild(tax);
+        }
+        Element insertBefore = null;
+        boolean first = true;
+        for (EInvoiceTotals.TaxBreakdown entry : totals.getBreakdown()) {
+            Element tax;
+            if (first) {
+                tax = findOrCreateChildNodeBefore(applicableHeaderTradeSettlement, EInvoiceNS.RAM,
+                        "ApplicableTradeTax", "BillingSpecifiedPeriod", "SpecifiedTradeAllowanceCharge",
+                        "SpecifiedLogisticsServiceCharge", "SpecifiedTradePaymentTerms",
+                        "SpecifiedTradeSettlementHeaderMonetarySummation");
+                insertBefore = nextElement(tax);
+                first = false;
+            } else {
+                tax = createChildNode(applicableHeaderTradeSettlement, EInvoiceNS.RAM, "ApplicableTradeTax",
+                        insertBefore);
+            }
+            createChildNode(tax, EInvoiceNS.RAM, "CalculatedAmount").setTextContent(
+                    entry.getTaxAmount().toPlainString());
+            createChildNode(tax, EInvoiceNS.RAM, "TypeCode").setTextContent("VAT");
+            createChildNode(tax, EInvoiceNS.RAM, "BasisAmount").setTextContent(entry.getBasisAmount().toPlainString());
+            createChildNode(tax, EInvoiceNS.RAM, "CategoryCode").setTextContent(entry.getCategoryCode());
+            createChildNode(tax, EInvoiceNS.RAM, "RateApplicablePercent").setTextContent(
+                    entry.getRate().toPlainString());
+        }
+    }
+
+    private static Element nextElement(Element element) {
+        Node next = element.getNextSibling();
+        while (next != null && next.getNodeType() != Node.ELEMENT_NODE) {
+            next = next.getNextSibling();
+        }
+        return (Element) next;
+    }
+
     /**
      * Update Duedate
      */
@@ -549,8 +597,7 @@ public class EInvoiceModelCII extends EInvoiceModel {
 
             // Create element if it doesn't exist
             if (tradePartyElement == null) {
-                tradePartyElement = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + elementName);
-                parentElement.appendChild(tradePartyElement);
+                tradePartyElement = createChildNode(parentElement, EInvoiceNS.RAM, elementName);
             }
 
             // Update Name
@@ -559,8 +606,7 @@ public class EInvoiceModelCII extends EInvoiceModel {
             // Update PostalTradeAddress
             Element postalAddress = findChildNode(tradePartyElement, EInvoiceNS.RAM, "PostalTradeAddress");
             if (postalAddress == null) {
-                postalAddress = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "PostalTradeAddress");
-                tradePartyElement.appendChild(postalAddress);
+                postalAddress = createChildNode(tradePartyElement, EInvoiceNS.RAM, "PostalTradeAddress");
             }
 
             // Update address details
@@ -581,8 +627,8 @@ public class EInvoiceModelCII extends EInvoiceModel {
                 Element taxRegistration = findChildNode(tradePartyElement, EInvoiceNS.RAM,
                         "SpecifiedTaxRegistration");
                 if (taxRegistration == null) {
-                    taxRegistration = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "SpecifiedTaxRegistration");
-                    tradePartyElement.appendChild(taxRegistration);
+                    taxRegistration = createChildNode(tradePartyElement, EInvoiceNS.RAM,
+                            "SpecifiedTaxRegistration");
                 }
                 updateElementValue(taxRegistration, EInvoiceNS.RAM, "ID", newParty.getVatNumber());
             }
@@ -629,48 +675,33 @@ public class EInvoiceModelCII extends EInvoiceModel {
         // /rsm:CrossIndustryInvoice/rsm:SupplyChainTradeTransaction/ram:IncludedSupplyChainTradeLineItem/ram:SpecifiedLineTradeAgreement/ram:BuyerOrderReferencedDocument/ram:LineID
         if (item.getOrderReferenceId() != null && !item.getOrderReferenceId().isEmpty()) {
             // ram:SpecifiedLineTradeAgreement/ram:BuyerOrderReferencedDocument/ram:LineID
-            Element buyerOrderReferencedDocument = getDoc()
-                    .createElement(getPrefix(EInvoiceNS.RAM) + "BuyerOrderReferencedDocument");
-            Element lineIDElement = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "LineID");
+            Element buyerOrderReferencedDocument = createChildNode(agreement, EInvoiceNS.RAM,
+                    "BuyerOrderReferencedDocument");
+            Element lineIDElement = createChildNode(buyerOrderReferencedDocument, EInvoiceNS.RAM, "LineID");
             lineIDElement.setTextContent(item.getOrderReferenceId());
-            buyerOrderReferencedDocument.appendChild(lineIDElement);
-            agreement.appendChild(buyerOrderReferencedDocument);
         }
 
         // Trade Agreement (Prices)
-        Element grossPrice = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "GrossPriceProductTradePrice");
-        Element grossAmount = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "ChargeAmount");
+        Element grossPrice = createChildNode(agreement, EInvoiceNS.RAM, "GrossPriceProductTradePrice");
+        Element grossAmount = createChildNode(grossPrice, EInvoiceNS.RAM, "ChargeAmount");
         grossAmount.setTextContent(String.valueOf(item.getGrossPrice()));
-        grossPrice.appendChild(grossAmount);
-        agreement.appendChild(grossPrice);
-        Element netPrice = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "NetPriceProductTradePrice");
-        Element netAmount = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "ChargeAmount");
+        Element netPrice = createChildNode(agreement, EInvoiceNS.RAM, "NetPriceProductTradePrice");
+        Element netAmount = createChildNode(netPrice, EInvoiceNS.RAM, "ChargeAmount");
         netAmount.setTextContent(String.valueOf(item.getNetPrice()));
-        netPrice.appendChild(netAmount);
-        agreement.appendChild(netPrice);
 
         // Trade Delivery (Quantity)
-        Element quantity = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "BilledQuantity");
+        Element quantity = createChildNode(delivery, EInvoiceNS.RAM, "BilledQuantity");
         quantity.setAttribute("unitCode", "C62"); // Standard unit code
         quantity.setTextContent(String.valueOf(item.getQuantity()));
-        delivery.appendChild(quantity);
 
         // Trade Settlement (VAT and Total)
-        Element tax = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "ApplicableTradeTax");
-        Element typeCode = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "TypeCode");
+        Element tax = createChildNode(settlement, EInvoiceNS.RAM, "ApplicableTradeTax");
+        Element typeCode = createChildNode(tax, EInvoiceNS.RAM, "TypeCode");
         typeCode.setTextContent("VAT");
-        Element categoryCode = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "CategoryCode");
-        if (item.getTaxRate() > 0) {
-            categoryCode.setTextContent("S");
-        } else {
-            categoryCode.setTextContent("Z");
-        }
-        Element rate = getDoc().createElement(getPrefix(EInvoiceNS.RAM) + "RateApplicablePercent");
+        Element categoryCode = createChildNode(tax, EInvoiceNS.RAM, "CategoryCode");
+        categoryCode.setTextContent(EInvoiceTotals.categoryCode(item.getTaxCategory(), item.getTaxRate()));
+        Element rate = createChildNode(tax, EInvoiceNS.RAM, "RateApplicablePercent");
         rate.setTextContent(String.valueOf(item.getTaxRate()));
-        tax.appendChild(typeCode);
-        tax.appendChild(categoryCode);
-        tax.appendChild(rate);
-        settlement.appendChild(tax);
 
         // Update summary
         Element monetarySummation = createChildNode(settlement, EInvoiceNS.RAM,
@@ -1,19 +1,36 @@
 package org.imixs.einvoice;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * The EInvoiceModelFactory can be used to load or create a EInvoiceModel
@@ -21,6 +38,13 @@ import org.xml.sax.SAXException;
  * 
  * The factory detects the XML format and loads the EInvoiceModel either by the
  * EInvoiceModelCII or the EInvoiceModelUBL
+ * <p>
+ * Files larger than {@link #MAP_THRESHOLD} bytes are memory-mapped, byte
+ * arrays and ByteBuffers are parsed without copying them.
+ * <p>
+ * A read can be cancelled by interrupting the reading thread - e.g. by
+ * cancelling the Future of a batch job. In this case a
+ * {@link EInvoiceCancelledException} is thrown.
  * 
  * @author rsoika
  *
@@ -28,6 +52,14 @@ import org.xml.sax.SAXException;
 public class EInvoiceModelFactory {
     private static Logger logger = Logger.getLogger(EInvoiceModelFactory.class.getName());
 
+    /**
+     * Files of this size and larger are memory-mapped
+     */
+    public static final long MAP_THRESHOLD = 1024 * 1024;
+
+    // number of bytes searched for an envelope root
+    private static final int ROOT_PEEK = 1024;
+
     /**
      * Reads a EInvoiceModel instance from an java.io.File
      * 
@@ -38,7 +70,171 @@ public class EInvoiceModelFactory {
      * 
      */
     public static EInvoiceModel read(File modelFile) throws FileNotFoundException, EInvoiceFormatException {
-        return read(new FileInputStream(modelFile));
+        return read(modelFile.toPath(), null);
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from an java.io.File with the given read
+     * options.
+     * 
+     * @param modelFile
+     * @param options
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException - a EInvoiceLimitException if a limit was
+     *                                 exceeded
+     * @see #read(Path, EInvoiceReadOptions)
+     */
+    public static EInvoiceModel read(File modelFile, EInvoiceReadOptions options)
+            throws FileNotFoundException, EInvoiceFormatException {
+        return read(modelFile.toPath(), options);
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from a file
+     * 
+     * @param path
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException
+     */
+    public static EInvoiceModel read(Path path) throws FileNotFoundException, EInvoiceFormatException {
+        return read(path, null);
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from a file with the given read options.
+     * <p>
+     * Small files are read by a buffered stream. Files larger than
+     * {@link #MAP_THRESHOLD} are memory-mapped and parsed directly from the
+     * mapped buffer. The mapping is released by the garbage collector.
+     * <p>
+     * If the option 'retainSource' is set, the model keeps a reference to the
+     * file. As long as the model is not modified, the file content is transferred
+     * without serializing the DOM tree (see
+     * {@link EInvoiceModel#writeContent(java.nio.channels.WritableByteChannel)}).
+     * <p>
+     * The limits defined by the options are enforced while parsing.
+     * 
+     * @param path
+     * @param options
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException - a EInvoiceLimitException if a limit was
+     *                                 exceeded
+     */
+    public static EInvoiceModel read(Path path, EInvoiceReadOptions options)
+            throws FileNotFoundException, EInvoiceFormatException {
+        EInvoiceReadLimits limits = EInvoiceReadLimits.of(options);
+        EInvoiceModel model;
+        try {
+            long size = Files.size(path);
+            if (size >= MAP_THRESHOLD && size <= Integer.MAX_VALUE) {
+                ByteBuffer buffer;
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                model = parse(new ByteBufferInputStream(buffer), limits, options);
+            } else {
+                model = parse(new BufferedInputStream(new FileInputStream(path.toFile())), limits, options);
+            }
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(e.getMessage());
+        } catch (IOException e) {
+            EInvoiceFormatException limit = EInvoiceReadLimits.unwrap(e);
+            if (limit != null) {
+                throw limit;
+            }
+            logger.severe(e.getMessage());
+            throw new EInvoiceFormatException("XML parsing error", e.getMessage());
+        }
+        if (options != null && options.isRetainSource()) {
+            try {
+                model.setSourceFile(path);
+            } catch (IOException e) {
+                logger.warning("Source file can not be retained: " + e.getMessage());
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from a byte array
+     * 
+     * @param content
+     * @param offset
+     * @param length
+     * @return a EInvoiceModel instance
+     * @throws EInvoiceFormatException
+     */
+    public static EInvoiceModel read(byte[] content, int offset, int length) throws EInvoiceFormatException {
+        return read(content, offset, length, null);
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from a byte array with the given read
+     * options. The array is parsed without copying it.
+     * <p>
+     * If the option 'retainSource' is set and the document fills the whole
+     * array, the model keeps the array - it must not be changed afterwards.
+     * Otherwise the document bytes are copied.
+     * 
+     * @param content
+     * @param offset
+     * @param length
+     * @param options
+     * @return a EInvoiceModel instance
+     * @throws EInvoiceFormatException
+     */
+    public static EInvoiceModel read(byte[] content, int offset, int length, EInvoiceReadOptions options)
+            throws EInvoiceFormatException {
+        EInvoiceModel model = parse(new ByteArrayInputStream(content, offset, length),
+                EInvoiceReadLimits.of(options), options);
+        if (options != null && options.isRetainSource()) {
+            model.setSourceContent(offset == 0 && length == content.length ? content
+                    : Arrays.copyOfRange(content, offset, offset + length));
+        }
+        return model;
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from the remaining bytes of a ByteBuffer -
+     * e.g. a memory-mapped file or a direct buffer received from a channel.
+     * 
+     * @param buffer
+     * @return a EInvoiceModel instance
+     * @throws EInvoiceFormatException
+     */
+    public static EInvoiceModel read(ByteBuffer buffer) throws EInvoiceFormatException {
+        return read(buffer, null);
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from the remaining bytes of a ByteBuffer with
+     * the given read options. The buffer is parsed without copying it, its
+     * position is not changed.
+     * <p>
+     * If the option 'retainSource' is set, the remaining bytes are copied into a
+     * byte array kept by the model.
+     * 
+     * @param buffer
+     * @param options
+     * @return a EInvoiceModel instance
+     * @throws EInvoiceFormatException
+     */
+    public static EInvoiceModel read(ByteBuffer buffer, EInvoiceReadOptions options)
+            throws EInvoiceFormatException {
+        if (buffer.hasArray()) {
+            return read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), options);
+        }
+        EInvoiceModel model = parse(new ByteBufferInputStream(buffer.duplicate()), EInvoiceReadLimits.of(options),
+                options);
+        if (options != null && options.isRetainSource()) {
+            byte[] content = new byte[buffer.remaining()];
+            buffer.duplicate().get(content);
+            model.setSourceContent(content);
+        }
+        return model;
     }
 
     /**
@@ -66,6 +262,80 @@ public class EInvoiceModelFactory {
      * @throws EInvoiceFormatException
      */
     public static EInvoiceModel read(InputStream is) throws FileNotFoundException, EInvoiceFormatException {
+        return read(is, null);
+    }
+
+    /**
+     * Reads a EInvoiceModel instance from an InputStream with the given read
+     * options and detect the e-invoice format.
+     * <p>
+     * If the option 'retainSource' is set, the stream is read into a byte array
+     * which is kept by the model. As long as the model is not modified, these
+     * bytes are returned by {@link EInvoiceModel#getContent()}.
+     * <p>
+     * The limits defined by the options - the timeout or deadline, the maximum
+     * number of bytes and elements and the maximum nesting depth - are enforced
+     * while parsing. If a limit is exceeded, the read is aborted early with a
+     * {@link EInvoiceLimitException}.
+     * 
+     * @param is
+     * @param options
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException - a EInvoiceLimitException if a limit was
+     *                                 exceeded
+     */
+    public static EInvoiceModel read(InputStream is, EInvoiceReadOptions options)
+            throws FileNotFoundException, EInvoiceFormatException {
+        EInvoiceReadLimits limits = EInvoiceReadLimits.of(options);
+        if (options != null && options.isRetainSource() && is != null) {
+            byte[] content;
+            try {
+                content = limits.wrap(is).readAllBytes();
+            } catch (IOException ex) {
+                EInvoiceFormatException limit = EInvoiceReadLimits.unwrap(ex);
+                if (limit != null) {
+                    logger.warning(limit.getMessage());
+                    throw limit;
+                }
+                logger.severe(ex.getMessage());
+                throw new EInvoiceFormatException("XML parsing error", ex.getMessage());
+            } finally {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            EInvoiceModel model = parse(new ByteArrayInputStream(content), limits, options);
+            model.setSourceContent(content);
+            return model;
+        }
+        return parse(is, limits, options);
+    }
+
+    /**
+     * Parses the InputStream and creates the model instance for the detected
+     * e-invoice format.
+     * <p>
+     * The stream is wrapped into a counting stream enforcing the byte limit, the
+     * deadline and the interrupt status of the thread. If the number of elements
+     * or the nesting depth is limited or a deadline is set, the document is parsed
+     * by a SAX parser and the DOM tree is built from the filtered SAX events, so
+     * the parsing stops at the first element exceeding a limit. Envelopes and large attachments are
+     * removed by SAX filters in the same pass. An envelope is recognized by the
+     * root tag in the first bytes of the document, so no extra pass is needed -
+     * an envelope not recognized there is removed from the DOM afterwards.
+     * 
+     * @param is
+     * @param limits
+     * @param options - can be null
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException
+     */
+    private static EInvoiceModel parse(InputStream is, EInvoiceReadLimits limits, EInvoiceReadOptions options)
+            throws EInvoiceFormatException {
         logger.fine("read from inputStream...");
         if (is == null) {
             throw new NullPointerException("Model can not be parsed: InputStream is null");
@@ -75,47 +345,67 @@ public class EInvoiceModelFactory {
         docFactory.setIgnoringElementContentWhitespace(true);
         docFactory.setNamespaceAware(true);
 
+        // large attachments are spooled into temporary files
+        EInvoiceAttachment.Filter attachments = options != null && options.getAttachmentThreshold() > 0
+                ? new EInvoiceAttachment.Filter(options.getAttachmentThreshold(), options.getAttachmentDirectory())
+                : null;
+        boolean success = false;
         try {
-            if (is.available() == 0) {
+            limits.check();
+            // peek at the first byte - available() is unreliable for network streams
+            if (!is.markSupported()) {
+                is = new BufferedInputStream(is);
+            }
+            InputStream source = limits.wrap(is);
+            byte[] head = new byte[ROOT_PEEK];
+            int length = 0;
+            int count;
+            source.mark(head.length);
+            while (length < head.length && (count = source.read(head, length, head.length - length)) > 0) {
+                length += count;
+            }
+            if (length == 0) {
                 logger.warning("Empty file!");
                 throw new IOException("Model can not be parsed: No Content");
             }
+            source.reset();
 
-            DocumentBuilder db = docFactory.newDocumentBuilder();
-            Document doc = db.parse(is);
-            Element root = doc.getDocumentElement();
-            EInvoiceModel model = null;
-
-            // Get local name without namespace prefix
-            String localName = root.getLocalName();
-            String namespaceURI = root.getNamespaceURI();
-
-            // Check for CII format
-            if ("CrossIndustryInvoice".equals(localName) &&
-                    "urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100".equals(namespaceURI)) {
-                model = new EInvoiceModelCII(doc);
+            // an envelope is removed by a SAX filter
+            Document doc;
+            EInvoiceEnvelope.Filter envelope = null;
+            if (limits.hasElementChecks() || attachments != null || EInvoiceEnvelope.isEnvelope(head, length)) {
+                envelope = new EInvoiceEnvelope.Filter();
+                doc = parseFiltered(source, limits, envelope, attachments);
+            } else {
+                DocumentBuilder db = docFactory.newDocumentBuilder();
+                doc = db.parse(source);
             }
-            // Check for UBL format
-            else if ("Invoice".equals(localName) &&
-                    namespaceURI != null &&
-                    namespaceURI.startsWith("urn:oasis:names:specification:ubl")) {
-                model = new EInvoiceModelUBL(doc);
+            if (envelope != null && !envelope.isPayloadFound()) {
+                throw new EInvoiceFormatException(String.valueOf(envelope.getEnvelope().getType()),
+                        "envelope contains no e-invoice");
             }
-            // Check for KSeF Format
-            else if ("Faktura".equals(localName) &&
-                    namespaceURI != null &&
-                    namespaceURI.startsWith("http://crd.gov.pl/")) {
-                model = new EInvoiceModelKSeF(doc);
-            } else {
-                throw new EInvoiceFormatException(localName, namespaceURI);
+            EInvoiceModel model = read(doc);
+            if (envelope != null && envelope.getEnvelope() != null) {
+                model.setEnvelope(envelope.getEnvelope());
             }
-
+            if (attachments != null) {
+                model.setAttachments(attachments.getAttachments());
+            }
+            success = true;
             return model;
 
-        } catch (SAXException | IOException | ParserConfigurationException ex) {
+        } catch (SAXException | IOException | ParserConfigurationException | TransformerConfigurationException ex) {
+            EInvoiceFormatException limit = EInvoiceReadLimits.unwrap(ex);
+            if (limit != null) {
+                logger.warning(limit.getMessage());
+                throw limit;
+            }
             logger.severe(ex.getMessage());
             throw new EInvoiceFormatException("XML parsing error", ex.getMessage());
         } finally {
+            if (!success && attachments != null) {
+                attachments.discard();
+            }
             if (is != null) {
                 try {
                     is.close();
@@ -126,4 +416,141 @@ public class EInvoiceModelFactory {
         }
     }
 
+    /**
+     * Parses the InputStream by a namespace aware SAX parser and builds the DOM
+     * tree from the events passing the limit filter and the optional envelope
+     * and attachment filters.
+     */
+    private static Document parseFiltered(InputStream is, EInvoiceReadLimits limits,
+            EInvoiceEnvelope.Filter envelope, EInvoiceAttachment.Filter attachments)
+            throws SAXException, IOException, ParserConfigurationException, TransformerConfigurationException {
+        SAXParserFactory saxFactory = SAXParserFactory.newInstance();
+        saxFactory.setNamespaceAware(true);
+        XMLFilterImpl filter = limits.filter(saxFactory.newSAXParser().getXMLReader());
+        if (envelope != null) {
+            envelope.setParent(filter);
+            filter = envelope;
+        }
+        if (attachments != null) {
+            attachments.setParent(filter);
+            filter = attachments;
+        }
+
+        TransformerHandler handler = ((SAXTransformerFactory) TransformerFactory.newInstance())
+                .newTransformerHandler();
+        DOMResult result = new DOMResult();
+        handler.setResult(result);
+        filter.setContentHandler(handler);
+        filter.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+        filter.parse(new InputSource(is));
+        return (Document) result.getNode();
+    }
+
+    /**
+     * Creates a EInvoiceModel instance from a parsed org.w3c.dom.Document and
+     * detects the e-invoice format.
+     * <p>
+     * The document must be parsed namespace aware. The model works directly on
+     * the given document.
+     * 
+     * @param doc
+     * @return a EInvoiceModel instance
+     * @throws EInvoiceFormatException
+     */
+    public static EInvoiceModel read(Document doc) throws EInvoiceFormatException {
+        if (doc == null) {
+            throw new NullPointerException("Model can not be parsed: Document is null");
+        }
+        Element root = doc.getDocumentElement();
+        EInvoiceModel model = null;
+
+        // Get local name without namespace prefix
+        String localName = root.getLocalName();
+        String namespaceURI = root.getNamespaceURI();
+
+        if (EInvoiceEnvelope.detect(localName, namespaceURI) != null) {
+            EInvoiceEnvelope envelope = new EInvoiceEnvelope();
+            Document payload = EInvoiceEnvelope.unwrap(doc, envelope);
+            if (payload == null) {
+                throw new EInvoiceFormatException(localName, namespaceURI);
+            }
+            model = read(payload);
+            model.setEnvelope(envelope);
+            return model;
+        }
+
+        // Detect CII, UBL or KSeF format
+        EInvoiceFormat format = EInvoiceFormat.detect(localName, namespaceURI);
+        if (format == null) {
+            throw new EInvoiceFormatException(localName, namespaceURI);
+        }
+        switch (format) {
+        case CII:
+            model = new EInvoiceModelCII(doc);
+            break;
+        case UBL:
+            model = new EInvoiceModelUBL(doc);
+            break;
+        default:
+            model = new EInvoiceModelKSeF(doc);
+        }
+
+        return model;
+    }
+
+    /**
+     * Reads the remaining bytes of a ByteBuffer
+     */
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
 }
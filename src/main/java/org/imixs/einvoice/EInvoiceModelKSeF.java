@@ -6,6 +6,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -28,40 +29,6 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
     private static final String KSEF_NS = "http://crd.gov.pl/wzor/2025/06/25/13775/";
     private static final String KSEF_PREFIX = ""; // Default namespace, no prefix
 
-    /**
-     * Set of EU country codes for VAT ID prefixes (excluding Poland).
-     * Note: Greece uses "EL" (not "GR") for VAT IDs.
-     * Note: UK is no longer in the EU since Brexit.
-     */
-    private static final Set<String> EU_COUNTRY_CODES = Set.of(
-            "AT", // Austria
-            "BE", // Belgium
-            "BG", // Bulgaria
-            "CY", // Cyprus
-            "CZ", // Czech Republic
-            "DE", // Germany
-            "DK", // Denmark
-            "EE", // Estonia
-            "EL", // Greece (uses EL for VAT, not GR!)
-            "ES", // Spain
-            "FI", // Finland
-            "FR", // France
-            "HR", // Croatia
-            "HU", // Hungary
-            "IE", // Ireland
-            "IT", // Italy
-            "LT", // Lithuania
-            "LU", // Luxembourg
-            "LV", // Latvia
-            "MT", // Malta
-            "NL", // Netherlands
-            "PT", // Portugal
-            "RO", // Romania
-            "SE", // Sweden
-            "SI", // Slovenia
-            "SK" // Slovakia
-    );
-
     // Main structure elements
     protected Element naglowek;
     protected Element podmiot1;
@@ -70,6 +37,14 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
 
     protected String taxType = null;
 
+    // the P_13_x/P_14_x suffixes written by setTotals, in document order
+    private static final String[] KSEF_RATE_FIELDS = { "1", "2", "3", "6_1" };
+    private static final String[] KSEF_BREAKDOWN_ELEMENTS = { "P_13_1", "P_14_1", "P_14_1W", "P_13_2", "P_14_2",
+            "P_14_2W", "P_13_3", "P_14_3", "P_14_3W", "P_13_6_1" };
+    private static final String[] KSEF_BREAKDOWN_SUCCESSORS = { "P_13_4", "P_14_4", "P_14_4W", "P_13_5", "P_14_5",
+            "P_13_6_2", "P_13_6_3", "P_13_7", "P_13_8", "P_13_9", "P_13_10", "P_13_11", "P_15", "KursWalutyZ",
+            "Adnotacje", "RodzajFaktury" };
+
     public EInvoiceModelKSeF(Document doc) {
         super(doc);
     }
@@ -79,8 +54,14 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
      */
     @Override
     public void setNameSpaces() {
-        // Set KSeF namespace
-        setUri(EInvoiceNS.KSEF, KSEF_NS);
+        // Set KSeF namespace - a document based on a different schema version
+        // keeps its own namespace URI
+        String rootNamespace = getRoot().getNamespaceURI();
+        if (rootNamespace != null && rootNamespace.startsWith("http://crd.gov.pl/")) {
+            setUri(EInvoiceNS.KSEF, rootNamespace);
+        } else {
+            setUri(EInvoiceNS.KSEF, KSEF_NS);
+        }
         setPrefix(EInvoiceNS.KSEF, KSEF_PREFIX);
 
         // Parse namespaces from root element
@@ -97,7 +78,7 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
                 prefix = "";
             }
 
-            if (prefix != null && nodeValue.equals(KSEF_NS)) {
+            if (prefix != null && nodeValue.equals(getUri(EInvoiceNS.KSEF))) {
                 logger.fine("...set KSeF namespace prefix: " + prefix);
                 setPrefix(EInvoiceNS.KSEF, prefix);
             }
@@ -428,6 +409,7 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
 
     /** Set KSeF Performance Date */
     public void setPerformanceDateTime(LocalDate value) {
+        setModified(true);
 
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         // P_6 is now the due date in FA(3)!
@@ -521,6 +503,96 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
 
     }
 
+    /**
+     * Sets the totals and the VAT breakdown. For domestic invoices (taxType "1")
+     * the net and tax amounts are split by the tax rate into the fields
+     * P_13_1/P_14_1 (23%), P_13_2/P_14_2 (8%), P_13_3/P_14_3 (5%) and P_13_6_1
+     * (0%). Existing fields of the breakdown - including the PLN tax amounts
+     * P_14_xW - are replaced. EU and export
+     * invoices have only the net total (see {@link #setNetTotalAmount}).
+     * 
+     * @throws IllegalArgumentException if the breakdown contains a VAT category
+     *                                  or rate not supported by these fields -
+     *                                  the model is not changed in this case
+     */
+    @Override
+    public void setTotals(EInvoiceTotals totals) {
+        if ("2".equals(taxType) || "3".equals(taxType)) {
+            super.setTotals(totals);
+            return;
+        }
+
+        // sum the breakdown by the KSeF rate fields
+        BigDecimal[][] amounts = new BigDecimal[KSEF_RATE_FIELDS.length][];
+        for (EInvoiceTotals.TaxBreakdown entry : totals.getBreakdown()) {
+            String field = rateField(entry.getCategoryCode(), entry.getRate());
+            if (field == null) {
+                throw new IllegalArgumentException("VAT category " + entry.getCategoryCode() + " with rate "
+                        + entry.getRate().toPlainString() + "% not supported by KSeF");
+            }
+            int index = Arrays.asList(KSEF_RATE_FIELDS).indexOf(field);
+            if (amounts[index] == null) {
+                amounts[index] = new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO };
+            }
+            amounts[index][0] = amounts[index][0].add(entry.getBasisAmount());
+            amounts[index][1] = amounts[index][1].add(entry.getTaxAmount());
+        }
+
+        if (!totals.getBreakdown().isEmpty()) {
+            super.setTaxRate(totals.getBreakdown().get(0).getRate());
+        }
+        super.setNetTotalAmount(totals.getNetTotalAmount());
+        super.setTaxTotalAmount(totals.getTaxTotalAmount());
+        super.setGrandTotalAmount(totals.getGrandTotalAmount());
+
+        for (String field : KSEF_BREAKDOWN_ELEMENTS) {
+            Element element = findChildNode(fa, EInvoiceNS.KSEF, field);
+            if (element != null) {
+                fa.removeChild(element);
+            }
+        }
+        for (int i = 0; i < KSEF_RATE_FIELDS.length; i++) {
+            if (amounts[i] == null) {
+                continue;
+            }
+            findOrCreateChildNodeBefore(fa, EInvoiceNS.KSEF, "P_13_" + KSEF_RATE_FIELDS[i], KSEF_BREAKDOWN_SUCCESSORS)
+                    .setTextContent(amounts[i][0].setScale(2, RoundingMode.HALF_UP).toPlainString());
+            if (!"6_1".equals(KSEF_RATE_FIELDS[i])) {
+                findOrCreateChildNodeBefore(fa, EInvoiceNS.KSEF, "P_14_" + KSEF_RATE_FIELDS[i],
+                        KSEF_BREAKDOWN_SUCCESSORS)
+                        .setTextContent(amounts[i][1].setScale(2, RoundingMode.HALF_UP).toPlainString());
+            }
+        }
+        findOrCreateChildNodeBefore(fa, EInvoiceNS.KSEF, "P_15", "KursWalutyZ", "Adnotacje", "RodzajFaktury")
+                .setTextContent(totals.getGrandTotalAmount().setScale(2, RoundingMode.HALF_UP).toPlainString());
+    }
+
+    /**
+     * Returns the suffix of the KSeF fields P_13_x/P_14_x for a VAT category and
+     * rate or null if they are not supported. Only the standard rates (category
+     * 'S') and the domestic 0% rate (category 'Z') are mapped.
+     */
+    static String rateField(String category, BigDecimal rate) {
+        if ("Z".equals(category)) {
+            return rate.signum() == 0 ? "6_1" : null;
+        }
+        if (!"S".equals(category)) {
+            return null;
+        }
+        switch (rate.stripTrailingZeros().toPlainString()) {
+        case "23":
+        case "22":
+            return "1";
+        case "8":
+        case "7":
+            return "2";
+        case "5":
+            return "3";
+        default:
+            return null;
+        }
+    }
+
     /**
      * Updates or creates a trade party (buyer/seller) in the model and XML
      * structure
@@ -557,8 +629,14 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
                 vatID = vatID.replace(" ", "");
                 // for PL set NIP otherwise set NrID
                 if (vatID.startsWith("PL")) {
+                    if (!EInvoiceIdValidator.isValidNIP(vatID)) {
+                        logger.warning("Invalid NIP check digit: " + vatID);
+                    }
                     updateElementValue(daneIdent, EInvoiceNS.KSEF, "NIP", vatID.substring(2));
                 } else {
+                    if (!EInvoiceIdValidator.isValidVatId(vatID)) {
+                        logger.warning("Invalid VAT ID check digits: " + vatID);
+                    }
                     updateElementValue(daneIdent, EInvoiceNS.KSEF, "NrID", vatID);
                 }
 
@@ -689,33 +767,47 @@ public class EInvoiceModelKSeF extends EInvoiceModel {
 
         logger.info("├── set tax type for : " + vatID);
 
-        if (vatID == null || vatID.isBlank()) {
+        String type = resolveTaxType(vatID);
+        if (type == null) {
             logger.info("├── undefined");
             return;
         }
+        if ("1".equals(type)) {
+            logger.info("├── 1=PL");
+        } else if ("2".equals(type)) {
+            logger.info("├── 2=EU");
+        } else {
+            logger.info("├── 3 NON EU");
+        }
+        this.taxType = type;
+    }
+
+    /**
+     * This helper method classifies a VAT ID into the KSeF tax type without
+     * changing a model instance. See {@link #setTaxType(String)}
+     * 
+     * @param vatID the VAT identification number with country prefix
+     * @return the tax type "1", "2" or "3" or null if the VAT ID is empty
+     */
+    public static String resolveTaxType(String vatID) {
+        if (vatID == null || vatID.isBlank()) {
+            return null;
+        }
 
         String id = vatID.trim().toUpperCase();
 
         // Poland - domestic
         if (id.startsWith("PL")) {
-            logger.info("├── 1=PL");
-            this.taxType = "1";
-            return;
+            return "1";
         }
 
         // Check for EU country prefix (first 2 characters)
-        if (id.length() >= 2) {
-            String countryCode = id.substring(0, 2);
-            if (EU_COUNTRY_CODES.contains(countryCode)) {
-                logger.info("├── 2=EU");
-                this.taxType = "2";
-                return;
-            }
+        if (id.length() >= 2 && EInvoiceCodeList.EU_VAT_PREFIX.contains(id.subSequence(0, 2))) {
+            return "2";
         }
 
         // Non-EU country (export)
-        logger.info("├── 3 NON EU");
-        this.taxType = "3";
+        return "3";
     }
 
     /**
@@ -119,6 +119,11 @@ public class EInvoiceModelUBL extends EInvoiceModel {
         if (accountingSupplierPartyElement != null) {
             getTradeParties().add(parseTradeParty(accountingSupplierPartyElement, "seller"));
         }
+        Element accountingCustomerPartyElement = findChildNode(getRoot(), EInvoiceNS.CAC,
+                "AccountingCustomerParty");
+        if (accountingCustomerPartyElement != null) {
+            getTradeParties().add(parseTradeParty(accountingCustomerPartyElement, "buyer"));
+        }
 
         Element orderReferenceElement = findChildNode(getRoot(), EInvoiceNS.CAC,
                 "OrderReference");
@@ -190,6 +195,43 @@ public class EInvoiceModelUBL extends EInvoiceModel {
                 }
             }
 
+            // postal address
+            Element postalAddress = findChildNode(partyElement, EInvoiceNS.CAC, "PostalAddress");
+            if (postalAddress != null) {
+                element = findChildNode(postalAddress, EInvoiceNS.CBC, "StreetName");
+                if (element != null) {
+                    tradeParty.setStreetAddress(element.getTextContent());
+                }
+                element = findChildNode(postalAddress, EInvoiceNS.CBC, "CityName");
+                if (element != null) {
+                    tradeParty.setCityName(element.getTextContent());
+                }
+                element = findChildNode(postalAddress, EInvoiceNS.CBC, "PostalZone");
+                if (element != null) {
+                    tradeParty.setPostcodeCode(element.getTextContent());
+                }
+                element = findChildNode(postalAddress, EInvoiceNS.CAC, "Country");
+                if (element != null) {
+                    element = findChildNode(element, EInvoiceNS.CBC, "IdentificationCode");
+                    if (element != null) {
+                        tradeParty.setCountryId(element.getTextContent());
+                    }
+                }
+            }
+
+            // VAT identifier - the PartyTaxScheme with the TaxScheme 'VAT'
+            for (Element partyTaxScheme : findChildNodesByName(partyElement, EInvoiceNS.CAC, "PartyTaxScheme")) {
+                element = findChildNode(partyTaxScheme, EInvoiceNS.CAC, "TaxScheme");
+                if (element != null) {
+                    element = findChildNode(element, EInvoiceNS.CBC, "ID");
+                }
+                if (element != null && "VAT".equals(element.getTextContent().trim())) {
+                    element = findChildNode(partyTaxScheme, EInvoiceNS.CBC, "CompanyID");
+                    if (element != null) {
+                        tradeParty.setVatNumber(element.getTextContent());
+                    }
+                }
+            }
         }
 
         return tradeParty;
@@ -224,7 +266,22 @@ public class EInvoiceModelUBL extends EInvoiceModel {
                 if (nameElement != null) {
                     item.setName(nameElement.getTextContent());
                 }
-
+                Element descElement = findChildNode(product, EInvoiceNS.CBC, "Description");
+                if (descElement != null) {
+                    item.setDescription(descElement.getTextContent());
+                }
+                // <cac:ClassifiedTaxCategory><cbc:Percent>19</cbc:Percent>
+                Element taxCategory = findChildNode(product, EInvoiceNS.CAC, "ClassifiedTaxCategory");
+                if (taxCategory != null) {
+                    Element percent = findChildNode(taxCategory, EInvoiceNS.CBC, "Percent");
+                    if (percent != null) {
+                        item.setTaxRate(Double.parseDouble(percent.getTextContent()));
+                    }
+                    Element category = findChildNode(taxCategory, EInvoiceNS.CBC, "ID");
+                    if (category != null) {
+                        item.setTaxCategory(category.getTextContent().trim());
+                    }
+                }
             }
 
             // Price info
@@ -234,6 +291,7 @@ public class EInvoiceModelUBL extends EInvoiceModel {
                 Element priceAmount = findChildNode(price, EInvoiceNS.CBC, "PriceAmount");
                 if (priceAmount != null) {
                     item.setGrossPrice(Double.parseDouble(priceAmount.getTextContent()));
+                    item.setNetPrice(Double.parseDouble(priceAmount.getTextContent()));
                 }
             }
 
@@ -254,6 +312,12 @@ public class EInvoiceModelUBL extends EInvoiceModel {
                 item.setQuantity(Double.parseDouble(quantity.getTextContent()));
             }
 
+            // line net amount
+            Element lineExtensionAmount = findChildNode(lineItem, EInvoiceNS.CBC, "LineExtensionAmount");
+            if (lineExtensionAmount != null) {
+                item.setTotal(Double.parseDouble(lineExtensionAmount.getTextContent()));
+            }
+
             items.add(item);
         }
 
@@ -317,4 +381,212 @@ public class EInvoiceModelUBL extends EInvoiceModel {
         taxAmountElement.setTextContent(value.toPlainString());
     }
 
+    /**
+     * Sets the totals and replaces the TaxSubtotal elements of the TaxTotal by
+     * one element per entry of the VAT breakdown. The amounts are written in the
+     * document currency.
+     */
+    @Override
+    public void setTotals(EInvoiceTotals totals) {
+        super.setTotals(totals);
+        Element monetaryTotalElement = findOrCreateChildNode(getRoot(), EInvoiceNS.CAC, "LegalMonetaryTotal");
+        findOrCreateChildNodeAfter(monetaryTotalElement, EInvoiceNS.CBC, "TaxExclusiveAmount", "LineExtensionAmount")
+                .setTextContent(totals.getNetTotalAmount().toPlainString());
+        Element payableElement = findChildNode(monetaryTotalElement, EInvoiceNS.CBC, "PayableAmount");
+        if (payableElement != null) {
+            payableElement.setTextContent(totals.getGrandTotalAmount().toPlainString());
+        }
+
+        String currency = getCurrency();
+        Element taxTotalElement = findOrCreateChildNode(getRoot(), EInvoiceNS.CAC, "TaxTotal");
+        findChildNode(taxTotalElement, EInvoiceNS.CBC, "TaxAmount").setAttribute("currencyID", currency);
+        for (Element subtotal : findChildNodesByName(taxTotalElement, EInvoiceNS.CAC, "TaxSubtotal")) {
+            taxTotalElement.removeChild(subtotal);
+        }
+        for (EInvoiceTotals.TaxBreakdown entry : totals.getBreakdown()) {
+            Element subtotal = createChildNode(taxTotalElement, EInvoiceNS.CAC, "TaxSubtotal");
+            Element amount = createChildNode(subtotal, EInvoiceNS.CBC, "TaxableAmount");
+            amount.setAttribute("currencyID", currency);
+            amount.setTextContent(entry.getBasisAmount().toPlainString());
+            amount = createChildNode(subtotal, EInvoiceNS.CBC, "TaxAmount");
+            amount.setAttribute("currencyID", currency);
+            amount.setTextContent(entry.getTaxAmount().toPlainString());
+            Element category = createChildNode(subtotal, EInvoiceNS.CAC, "TaxCategory");
+            createChildNode(category, EInvoiceNS.CBC, "ID").setTextContent(entry.getCategoryCode());
+            createChildNode(category, EInvoiceNS.CBC, "Percent").setTextContent(entry.getRate().toPlainString());
+            Element scheme = createChildNode(category, EInvoiceNS.CAC, "TaxScheme");
+            createChildNode(scheme, EInvoiceNS.CBC, "ID").setTextContent("VAT");
+        }
+    }
+
+    /**
+     * Updates or creates the AccountingSupplierParty (seller) or the
+     * AccountingCustomerParty (buyer). The name, the postal address, the VAT
+     * identifier and the registration name are written - other elements of the
+     * party are kept. Other party types are not mapped by the UBL model.
+     * 
+     * @param newParty the trade party to be set
+     */
+    @Override
+    public void setTradeParty(TradeParty newParty) {
+        if (newParty == null) {
+            return;
+        }
+        super.setTradeParty(newParty);
+
+        Element tradePartyElement;
+        if ("seller".equals(newParty.getType())) {
+            tradePartyElement = findOrCreateChildNodeBefore(getRoot(), EInvoiceNS.CAC, "AccountingSupplierParty",
+                    "AccountingCustomerParty", "PayeeParty", "TaxRepresentativeParty", "Delivery", "PaymentMeans",
+                    "PaymentTerms", "AllowanceCharge", "TaxTotal", "LegalMonetaryTotal", "InvoiceLine");
+        } else if ("buyer".equals(newParty.getType())) {
+            tradePartyElement = findOrCreateChildNodeBefore(getRoot(), EInvoiceNS.CAC, "AccountingCustomerParty",
+                    "PayeeParty", "TaxRepresentativeParty", "Delivery", "PaymentMeans", "PaymentTerms",
+                    "AllowanceCharge", "TaxTotal", "LegalMonetaryTotal", "InvoiceLine");
+        } else {
+            logger.warning("trade party type '" + newParty.getType() + "' is not supported by the UBL model");
+            return;
+        }
+        Element partyElement = findOrCreateChildNode(tradePartyElement, EInvoiceNS.CAC, "Party");
+
+        if (newParty.getName() != null) {
+            Element partyName = findOrCreateChildNodeBefore(partyElement, EInvoiceNS.CAC, "PartyName",
+                    "PostalAddress", "PartyTaxScheme", "PartyLegalEntity", "Contact");
+            updateElementValue(partyName, EInvoiceNS.CBC, "Name", newParty.getName());
+        }
+
+        // <cac:PostalAddress>
+        // <cbc:StreetName>Lieferantenstraße 20</cbc:StreetName>
+        // <cbc:CityName>München</cbc:CityName>
+        // <cbc:PostalZone>80333</cbc:PostalZone>
+        // <cac:Country><cbc:IdentificationCode>DE</cbc:IdentificationCode></cac:Country>
+        // </cac:PostalAddress>
+        Element postalAddress = findOrCreateChildNodeBefore(partyElement, EInvoiceNS.CAC, "PostalAddress",
+                "PartyTaxScheme", "PartyLegalEntity", "Contact");
+        updateElementValueBefore(postalAddress, EInvoiceNS.CBC, "StreetName", newParty.getStreetAddress(),
+                "AdditionalStreetName", "CityName", "PostalZone", "CountrySubentity", "AddressLine", "Country");
+        updateElementValueBefore(postalAddress, EInvoiceNS.CBC, "CityName", newParty.getCityName(),
+                "PostalZone", "CountrySubentity", "AddressLine", "Country");
+        updateElementValueBefore(postalAddress, EInvoiceNS.CBC, "PostalZone", newParty.getPostcodeCode(),
+                "CountrySubentity", "AddressLine", "Country");
+        if (newParty.getCountryId() != null) {
+            Element country = findOrCreateChildNode(postalAddress, EInvoiceNS.CAC, "Country");
+            updateElementValue(country, EInvoiceNS.CBC, "IdentificationCode", newParty.getCountryId());
+        }
+
+        // VAT identifier - the PartyTaxScheme with the TaxScheme 'VAT'
+        if (newParty.getVatNumber() != null && !newParty.getVatNumber().isEmpty()) {
+            Element vatScheme = null;
+            for (Element partyTaxScheme : findChildNodesByName(partyElement, EInvoiceNS.CAC, "PartyTaxScheme")) {
+                Element element = findChildNode(partyTaxScheme, EInvoiceNS.CAC, "TaxScheme");
+                if (element != null) {
+                    element = findChildNode(element, EInvoiceNS.CBC, "ID");
+                }
+                if (element != null && "VAT".equals(element.getTextContent().trim())) {
+                    vatScheme = partyTaxScheme;
+                    break;
+                }
+            }
+            if (vatScheme == null) {
+                Element successor = findChildNode(partyElement, EInvoiceNS.CAC, "PartyLegalEntity");
+                if (successor == null) {
+                    successor = findChildNode(partyElement, EInvoiceNS.CAC, "Contact");
+                }
+                vatScheme = createChildNode(partyElement, EInvoiceNS.CAC, "PartyTaxScheme", successor);
+                Element taxScheme = createChildNode(vatScheme, EInvoiceNS.CAC, "TaxScheme");
+                createChildNode(taxScheme, EInvoiceNS.CBC, "ID").setTextContent("VAT");
+            }
+            updateElementValueBefore(vatScheme, EInvoiceNS.CBC, "CompanyID", newParty.getVatNumber(),
+                    "TaxScheme");
+        }
+
+        // the registration name is mandatory in the PartyLegalEntity
+        if (newParty.getName() != null) {
+            Element legalEntity = findOrCreateChildNodeBefore(partyElement, EInvoiceNS.CAC, "PartyLegalEntity",
+                    "Contact");
+            updateElementValueBefore(legalEntity, EInvoiceNS.CBC, "RegistrationName", newParty.getName(),
+                    "CompanyID", "CompanyLegalForm");
+        }
+    }
+
+    /**
+     * Adds a new InvoiceLine into the XML tree. An existing InvoiceLine with the
+     * same ID is replaced. The amounts are written in the document currency.
+     * 
+     * @param item
+     */
+    @Override
+    public void setTradeLineItem(TradeLineItem item) {
+        if (item == null) {
+            return;
+        }
+        super.setTradeLineItem(item);
+
+        for (Element invoiceLine : findChildNodesByName(getRoot(), EInvoiceNS.CAC, "InvoiceLine")) {
+            Element idElement = findChildNode(invoiceLine, EInvoiceNS.CBC, "ID");
+            if (idElement != null && idElement.getTextContent().equals(item.getId())) {
+                getRoot().removeChild(invoiceLine);
+            }
+        }
+
+        // the InvoiceLine elements are the last elements of the invoice
+        String currency = getCurrency();
+        Element lineItem = createChildNode(getRoot(), EInvoiceNS.CAC, "InvoiceLine");
+        createChildNode(lineItem, EInvoiceNS.CBC, "ID").setTextContent(item.getId());
+        Element quantity = createChildNode(lineItem, EInvoiceNS.CBC, "InvoicedQuantity");
+        quantity.setAttribute("unitCode", "C62"); // Standard unit code
+        quantity.setTextContent(BigDecimal.valueOf(item.getQuantity()).toPlainString());
+        Element lineExtensionAmount = createChildNode(lineItem, EInvoiceNS.CBC, "LineExtensionAmount");
+        lineExtensionAmount.setAttribute("currencyID", currency);
+        lineExtensionAmount.setTextContent(BigDecimal.valueOf(item.getTotal()).toPlainString());
+        if (item.getOrderReferenceId() != null && !item.getOrderReferenceId().isEmpty()) {
+            Element orderLineReference = createChildNode(lineItem, EInvoiceNS.CAC, "OrderLineReference");
+            createChildNode(orderLineReference, EInvoiceNS.CBC, "LineID").setTextContent(item.getOrderReferenceId());
+        }
+
+        // Product details
+        Element product = createChildNode(lineItem, EInvoiceNS.CAC, "Item");
+        if (item.getDescription() != null) {
+            createChildNode(product, EInvoiceNS.CBC, "Description").setTextContent(item.getDescription());
+        }
+        if (item.getName() != null) {
+            createChildNode(product, EInvoiceNS.CBC, "Name").setTextContent(item.getName());
+        }
+        Element taxCategory = createChildNode(product, EInvoiceNS.CAC, "ClassifiedTaxCategory");
+        createChildNode(taxCategory, EInvoiceNS.CBC, "ID")
+                .setTextContent(EInvoiceTotals.categoryCode(item.getTaxCategory(), item.getTaxRate()));
+        createChildNode(taxCategory, EInvoiceNS.CBC, "Percent")
+                .setTextContent(BigDecimal.valueOf(item.getTaxRate()).toPlainString());
+        Element taxScheme = createChildNode(taxCategory, EInvoiceNS.CAC, "TaxScheme");
+        createChildNode(taxScheme, EInvoiceNS.CBC, "ID").setTextContent("VAT");
+
+        // Price info
+        Element price = createChildNode(lineItem, EInvoiceNS.CAC, "Price");
+        Element priceAmount = createChildNode(price, EInvoiceNS.CBC, "PriceAmount");
+        priceAmount.setAttribute("currencyID", currency);
+        priceAmount.setTextContent(BigDecimal.valueOf(item.getNetPrice()).toPlainString());
+    }
+
+    /**
+     * Returns the DocumentCurrencyCode or 'EUR' if not defined
+     */
+    private String getCurrency() {
+        Element currencyElement = findChildNode(getRoot(), EInvoiceNS.CBC, "DocumentCurrencyCode");
+        if (currencyElement != null && !currencyElement.getTextContent().isBlank()) {
+            return currencyElement.getTextContent().trim();
+        }
+        return "EUR";
+    }
+
+    /**
+     * Updates or creates an element with a given value. A new element is inserted
+     * before the first of the given successors to keep the schema order.
+     */
+    private void updateElementValueBefore(Element parent, EInvoiceNS ns, String elementName, String value,
+            String... successors) {
+        if (value != null) {
+            findOrCreateChildNodeBefore(parent, ns, elementName, successors).setTextContent(value);
+        }
+    }
+
 }
@@ -0,0 +1,739 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * The EInvoicePatcher updates single values of an existing e-invoice document
+ * without a DOM round trip.
+ * <p>
+ * The patcher scans the original bytes once and records the text location of
+ * all elements which are updated by the setter methods of the
+ * {@link EInvoiceModelCII}, {@link EInvoiceModelUBL} and
+ * {@link EInvoiceModelKSeF} implementations. A patched document is written by
+ * copying the untouched byte ranges and substituting only the changed values.
+ * Formatting, comments and signatures elsewhere in the file are preserved.
+ * <p>
+ * Only existing elements can be patched. A setter method returns false if the
+ * document does not contain the corresponding element. In this case the
+ * document has to be updated by a EInvoiceModel. This is also the case for the
+ * net and tax total of a CII document with more than one VAT breakdown, as the
+ * amounts of the breakdown can not be derived from the totals.
+ * <p>
+ * The patcher supports documents encoded in UTF-8 or any other ASCII compatible
+ * encoding.
+ *
+ * <pre>
+ * EInvoicePatcher patcher = new EInvoicePatcher(content);
+ * patcher.setId("R-10001");
+ * patcher.setGrandTotalAmount(new BigDecimal("119.00"));
+ * patcher.writeContent(outputStream);
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoicePatcher {
+    private static Logger logger = Logger.getLogger(EInvoicePatcher.class.getName());
+
+    private static final String ID = "id";
+    private static final String ISSUE_DATE = "issueDate";
+    private static final String DOCUMENT_DATE = "documentDate";
+    private static final String DUE_DATE = "dueDate";
+    private static final String ORDER_REFERENCE_ID = "orderReferenceId";
+    private static final String NET_TOTAL = "netTotal";
+    private static final String TAX_TOTAL = "taxTotal";
+    private static final String GRAND_TOTAL = "grandTotal";
+
+    /**
+     * The element paths which can occur more than once - e.g. one VAT breakdown
+     * per rate. A field with more than one element of these paths can not be
+     * patched.
+     */
+    private static final Set<String> REPEATABLE_PATHS = new HashSet<>();
+
+    /**
+     * Defines the element paths (local names) updated by each field. If a path
+     * contains alternatives separated by '|', only the first existing element is
+     * updated.
+     */
+    private static final Map<EInvoiceFormat, Map<String, String[]>> FIELD_PATHS = new EnumMap<>(
+            EInvoiceFormat.class);
+    static {
+        String cii = "CrossIndustryInvoice/";
+        String agreement = cii + "SupplyChainTradeTransaction/ApplicableHeaderTradeAgreement/";
+        String settlement = cii + "SupplyChainTradeTransaction/ApplicableHeaderTradeSettlement/";
+        String summation = settlement + "SpecifiedTradeSettlementHeaderMonetarySummation/";
+        Map<String, String[]> paths = new HashMap<>();
+        paths.put(ID, new String[] { cii + "ExchangedDocument/ID" });
+        paths.put(ISSUE_DATE, new String[] { cii + "ExchangedDocument/IssueDateTime/DateTimeString" });
+        paths.put(DUE_DATE,
+                new String[] { settlement + "SpecifiedTradePaymentTerms/DueDateDateTime/DateTimeString" });
+        paths.put(ORDER_REFERENCE_ID, new String[] { agreement + "BuyerOrderReferencedDocument/IssuerAssignedID" });
+        paths.put(NET_TOTAL, new String[] { summation + "LineTotalAmount", summation + "TaxBasisTotalAmount",
+                settlement + "ApplicableTradeTax/BasisAmount" });
+        paths.put(TAX_TOTAL,
+                new String[] { summation + "TaxTotalAmount", settlement + "ApplicableTradeTax/CalculatedAmount" });
+        paths.put(GRAND_TOTAL, new String[] { summation + "GrandTotalAmount", summation + "DuePayableAmount" });
+        FIELD_PATHS.put(EInvoiceFormat.CII, paths);
+        REPEATABLE_PATHS.add(settlement + "ApplicableTradeTax/BasisAmount");
+        REPEATABLE_PATHS.add(settlement + "ApplicableTradeTax/CalculatedAmount");
+
+        String ubl = "Invoice/";
+        paths = new HashMap<>();
+        paths.put(ID, new String[] { ubl + "ID" });
+        paths.put(ISSUE_DATE, new String[] { ubl + "IssueDate" });
+        paths.put(DUE_DATE, new String[] { ubl + "DueDate" });
+        paths.put(ORDER_REFERENCE_ID, new String[] { ubl + "OrderReference/ID" });
+        paths.put(NET_TOTAL, new String[] { ubl + "LegalMonetaryTotal/LineExtensionAmount" });
+        paths.put(TAX_TOTAL, new String[] { ubl + "TaxTotal/TaxAmount" });
+        paths.put(GRAND_TOTAL, new String[] { ubl + "LegalMonetaryTotal/TaxInclusiveAmount" });
+        FIELD_PATHS.put(EInvoiceFormat.UBL, paths);
+
+        String fa = "Faktura/Fa/";
+        paths = new HashMap<>();
+        paths.put(ID, new String[] { fa + "P_2" });
+        paths.put(ISSUE_DATE, new String[] { fa + "P_1" });
+        paths.put(DOCUMENT_DATE, new String[] { "Faktura/Naglowek/DataWytworzeniaFa" });
+        paths.put(DUE_DATE, new String[] { fa + "Platnosc/TerminPlatnosci/Termin" });
+        paths.put(NET_TOTAL, new String[] { fa + "P_13_1|" + fa + "P_13_6_2|" + fa + "P_13_6_3" });
+        paths.put(TAX_TOTAL, new String[] { fa + "P_14_1" });
+        paths.put(GRAND_TOTAL, new String[] { fa + "P_15" });
+        FIELD_PATHS.put(EInvoiceFormat.KSEF, paths);
+    }
+
+    private final byte[] content;
+    private final int offset;
+    private final int length;
+    private Charset charset = StandardCharsets.UTF_8;
+    private EInvoiceFormat format = null;
+
+    // text locations by element path
+    private final Map<String, Location> locations = new HashMap<>();
+    // repeatable paths found more than once
+    private final Set<String> repeated = new HashSet<>();
+    // replacements ordered by the start position
+    private final TreeMap<Integer, Replacement> replacements = new TreeMap<>();
+
+    /**
+     * Creates a new patcher for the given document content.
+     *
+     * @param content
+     * @throws EInvoiceFormatException if the format is not supported
+     */
+    public EInvoicePatcher(byte[] content) throws EInvoiceFormatException {
+        this(content, 0, content.length);
+    }
+
+    /**
+     * Creates a new patcher for a region of the given byte array. The array is not
+     * copied and must not be changed as long as the patcher is in use.
+     *
+     * @param content
+     * @param offset
+     * @param length
+     * @throws EInvoiceFormatException if the format is not supported
+     */
+    public EInvoicePatcher(byte[] content, int offset, int length) throws EInvoiceFormatException {
+        if (content == null) {
+            throw new NullPointerException("Content can not be patched: content is null");
+        }
+        if (offset < 0 || length < 0 || offset + length > content.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length);
+        }
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+        scan();
+    }
+
+    /**
+     * Returns the detected e-invoice format
+     *
+     * @return
+     */
+    public EInvoiceFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns true if at least one value was changed.
+     *
+     * @return
+     */
+    public boolean isModified() {
+        return !replacements.isEmpty();
+    }
+
+    /**
+     * Update Invoice Number
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setId(String value) {
+        return update(ID, value);
+    }
+
+    /**
+     * Update Invoice date
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setIssueDateTime(LocalDate value) {
+        if (format == EInvoiceFormat.KSEF) {
+            // same as EInvoiceModelKSeF - the creation timestamp is updated too
+            update(DOCUMENT_DATE, LocalDateTime.now().toString() + "Z");
+        }
+        return update(ISSUE_DATE, formatDate(value));
+    }
+
+    /**
+     * Update Due date
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setDueDateTime(LocalDate value) {
+        return update(DUE_DATE, formatDate(value));
+    }
+
+    /**
+     * Update the order reference id
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setOrderReferenceId(String value) {
+        return update(ORDER_REFERENCE_ID, value);
+    }
+
+    /**
+     * Update the net total amount
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setNetTotalAmount(BigDecimal value) {
+        return update(NET_TOTAL, formatAmount(value));
+    }
+
+    /**
+     * Update the tax total amount
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setTaxTotalAmount(BigDecimal value) {
+        return update(TAX_TOTAL, formatAmount(value));
+    }
+
+    /**
+     * Update the grand total amount
+     *
+     * @return false if the document does not contain the element
+     */
+    public boolean setGrandTotalAmount(BigDecimal value) {
+        return update(GRAND_TOTAL, formatAmount(value));
+    }
+
+    /**
+     * Returns the patched document as a byte array. If no value was changed the
+     * original bytes are returned.
+     *
+     * @return
+     */
+    public byte[] getContent() {
+        int size = length;
+        for (Replacement replacement : replacements.values()) {
+            size += replacement.data.length - (replacement.location.end - replacement.location.start);
+        }
+        byte[] result = new byte[size];
+        int pos = offset;
+        int target = 0;
+        for (Replacement replacement : replacements.values()) {
+            int count = replacement.location.start - pos;
+            System.arraycopy(content, pos, result, target, count);
+            target += count;
+            System.arraycopy(replacement.data, 0, result, target, replacement.data.length);
+            target += replacement.data.length;
+            pos = replacement.location.end;
+        }
+        System.arraycopy(content, pos, result, target, offset + length - pos);
+        return result;
+    }
+
+    /**
+     * Writes the patched document into an output stream
+     *
+     * @param outputStream
+     * @throws IOException
+     */
+    public void writeContent(OutputStream outputStream) throws IOException {
+        int pos = offset;
+        for (Replacement replacement : replacements.values()) {
+            outputStream.write(content, pos, replacement.location.start - pos);
+            outputStream.write(replacement.data);
+            pos = replacement.location.end;
+        }
+        outputStream.write(content, pos, offset + length - pos);
+        outputStream.flush();
+    }
+
+    /**
+     * Writes the patched document into a channel. The unchanged byte ranges are
+     * written from buffers wrapping the original content.
+     *
+     * @param target
+     * @throws IOException
+     */
+    public void writeContent(WritableByteChannel target) throws IOException {
+        int pos = offset;
+        for (Replacement replacement : replacements.values()) {
+            write(target, ByteBuffer.wrap(content, pos, replacement.location.start - pos));
+            write(target, ByteBuffer.wrap(replacement.data));
+            pos = replacement.location.end;
+        }
+        write(target, ByteBuffer.wrap(content, pos, offset + length - pos));
+    }
+
+    private void write(WritableByteChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * Replaces the text of all elements of the given field.
+     *
+     * @return false if no element was found
+     */
+    private boolean update(String field, String value) {
+        if (value == null) {
+            return false;
+        }
+        String[] paths = FIELD_PATHS.get(format).get(field);
+        if (paths == null) {
+            return false;
+        }
+        for (String path : paths) {
+            if (repeated.contains(path)) {
+                logger.fine("...multiple elements '" + path + "' for field '" + field
+                        + "' - document can not be patched");
+                return false;
+            }
+        }
+        boolean found = false;
+        for (String path : paths) {
+            for (String alternative : path.split("\\|")) {
+                Location location = locations.get(alternative);
+                if (location != null) {
+                    replacements.put(location.start, new Replacement(location, encode(location, value)));
+                    found = true;
+                    break;
+                }
+            }
+        }
+        if (!found) {
+            logger.fine("...element for field '" + field + "' not found - document can not be patched");
+        }
+        return found;
+    }
+
+    /**
+     * Encodes the escaped value. A self-closing element is expanded into a start
+     * and end tag.
+     */
+    private byte[] encode(Location location, String value) {
+        StringBuilder text = new StringBuilder();
+        if (location.selfClosing) {
+            text.append('>');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '&':
+                text.append("&amp;");
+                break;
+            case '<':
+                text.append("&lt;");
+                break;
+            case '>':
+                text.append("&gt;");
+                break;
+            default:
+                text.append(c);
+            }
+        }
+        if (location.selfClosing) {
+            text.append("</").append(location.qName).append('>');
+        }
+        return text.toString().getBytes(charset);
+    }
+
+    private String formatDate(LocalDate value) {
+        if (value == null) {
+            return null;
+        }
+        if (format == EInvoiceFormat.CII) {
+            return DateTimeFormatter.ofPattern("yyyyMMdd").format(value);
+        }
+        return DateTimeFormatter.ofPattern("yyyy-MM-dd").format(value);
+    }
+
+    private String formatAmount(BigDecimal value) {
+        if (value == null) {
+            return null;
+        }
+        if (format == EInvoiceFormat.KSEF) {
+            return value.setScale(2, RoundingMode.HALF_UP).toPlainString();
+        }
+        return value.toPlainString();
+    }
+
+    /**
+     * Scans the document once and records the text locations of all leaf elements
+     * matching a field path of the detected format. The scan stops as soon as all
+     * paths are found. If the format has repeatable paths, the whole document is
+     * scanned to detect multiple occurrences.
+     *
+     * @throws EInvoiceFormatException
+     */
+    private void scan() throws EInvoiceFormatException {
+        final int end = offset + length;
+        int pos = offset;
+        // UTF-16 is not supported, skip an UTF-8 BOM
+        if (length >= 2 && ((content[pos] == (byte) 0xFE && content[pos + 1] == (byte) 0xFF)
+                || (content[pos] == (byte) 0xFF && content[pos + 1] == (byte) 0xFE))) {
+            throw new EInvoiceFormatException("XML parsing error", "UTF-16 encoded documents can not be patched");
+        }
+        if (length >= 3 && content[pos] == (byte) 0xEF && content[pos + 1] == (byte) 0xBB
+                && content[pos + 2] == (byte) 0xBF) {
+            pos += 3;
+        }
+
+        PathNode rootNode = null;
+        int remaining = 0;
+        boolean scanAll = false;
+        Deque<Frame> stack = new ArrayDeque<>();
+        while (pos < end) {
+            int lt = indexOf(content, (byte) '<', pos, end);
+            if (lt < 0 || lt + 1 >= end) {
+                break;
+            }
+            byte c = content[lt + 1];
+            if (c == '?') {
+                int piEnd = indexOf(content, "?>", lt + 2, end);
+                if (stack.isEmpty() && rootNode == null && startsWith(content, "<?xml", lt, end)) {
+                    readEncoding(lt, piEnd);
+                }
+                pos = piEnd + 2;
+            } else if (c == '!') {
+                if (startsWith(content, "<!--", lt, end)) {
+                    pos = indexOf(content, "-->", lt + 4, end) + 3;
+                } else if (startsWith(content, "<![CDATA[", lt, end)) {
+                    pos = indexOf(content, "]]>", lt + 9, end) + 3;
+                } else {
+                    pos = skipDoctype(lt, end);
+                }
+            } else if (c == '/') {
+                // end tag
+                int gt = indexOf(content, (byte) '>', lt, end);
+                String qName = new String(content, lt + 2, gt - lt - 2, charset).trim();
+                if (stack.isEmpty() || !stack.peek().qName.equals(qName)) {
+                    throw new EInvoiceFormatException("XML parsing error", "Unexpected end tag '" + qName + "'");
+                }
+                Frame frame = stack.pop();
+                if (frame.node != null && frame.node.path != null && !frame.hasChild) {
+                    remaining -= record(frame.node.path, new Location(frame.contentStart, lt, false, null));
+                }
+                pos = gt + 1;
+                if (stack.isEmpty() || (rootNode != null && remaining == 0 && !scanAll)) {
+                    break;
+                }
+            } else {
+                // start tag
+                int nameEnd = lt + 1;
+                while (nameEnd < end && !isNameEnd(content[nameEnd])) {
+                    nameEnd++;
+                }
+                int gt = skipAttributes(nameEnd, end);
+                boolean selfClosing = content[gt - 1] == '/';
+                String qName = new String(content, lt + 1, nameEnd - lt - 1, charset);
+                String localName = qName.substring(qName.indexOf(':') + 1);
+
+                PathNode node = null;
+                if (stack.isEmpty()) {
+                    if (rootNode != null) {
+                        // second root element
+                        break;
+                    }
+                    // detect the format of the root element
+                    String prefix = qName.indexOf(':') > 0 ? qName.substring(0, qName.indexOf(':')) : null;
+                    Map<String, String> attributes = readAttributes(nameEnd, gt);
+                    String namespaceURI = attributes.get(prefix == null ? "xmlns" : "xmlns:" + prefix);
+                    format = EInvoiceFormat.detect(localName, namespaceURI);
+                    if (format == null) {
+                        throw new EInvoiceFormatException(localName, namespaceURI);
+                    }
+                    rootNode = new PathNode(null);
+                    for (String[] paths : FIELD_PATHS.get(format).values()) {
+                        for (String path : paths) {
+                            for (String alternative : path.split("\\|")) {
+                                rootNode.add(alternative);
+                                remaining++;
+                                scanAll = scanAll || REPEATABLE_PATHS.contains(alternative);
+                            }
+                        }
+                    }
+                    node = rootNode.children.get(localName);
+                } else {
+                    Frame parent = stack.peek();
+                    parent.hasChild = true;
+                    if (parent.node != null) {
+                        node = parent.node.children.get(localName);
+                    }
+                }
+
+                if (selfClosing) {
+                    if (node != null && node.path != null) {
+                        remaining -= record(node.path, new Location(gt - 1, gt + 1, true, qName));
+                    }
+                    if (stack.isEmpty()) {
+                        break;
+                    }
+                } else {
+                    stack.push(new Frame(node, qName, gt + 1));
+                }
+                pos = gt + 1;
+            }
+        }
+        if (format == null) {
+            throw new EInvoiceFormatException("XML parsing error", "No root element found");
+        }
+    }
+
+    /**
+     * Records the location of the first element of a path
+     *
+     * @return 1 if the path was found the first time, otherwise 0
+     */
+    private int record(String path, Location location) {
+        if (locations.containsKey(path)) {
+            if (REPEATABLE_PATHS.contains(path)) {
+                repeated.add(path);
+            }
+            return 0;
+        }
+        locations.put(path, location);
+        return 1;
+    }
+
+    /**
+     * Reads the encoding declaration of the XML declaration.
+     */
+    private void readEncoding(int start, int end) throws EInvoiceFormatException {
+        String declaration = new String(content, start, end - start, StandardCharsets.US_ASCII);
+        Map<String, String> attributes = readAttributes(declaration);
+        String encoding = attributes.get("encoding");
+        if (encoding != null) {
+            try {
+                charset = Charset.forName(encoding);
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+                throw new EInvoiceFormatException("XML parsing error", "Unsupported encoding: " + encoding);
+            }
+            if (charset.name().startsWith("UTF-16") || charset.name().startsWith("UTF-32")) {
+                throw new EInvoiceFormatException("XML parsing error", "Encoding can not be patched: " + encoding);
+            }
+        }
+    }
+
+    private Map<String, String> readAttributes(int start, int end) {
+        return readAttributes(new String(content, start, end - start, charset));
+    }
+
+    /**
+     * Parses the attributes of a tag into a map
+     */
+    private static Map<String, String> readAttributes(String tag) {
+        Map<String, String> result = new LinkedHashMap<>();
+        int i = 0;
+        while (i < tag.length()) {
+            int eq = tag.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String name = tag.substring(i, eq).trim();
+            int nameStart = Math.max(name.lastIndexOf(' '), Math.max(name.lastIndexOf('\n'), name.lastIndexOf('\t')));
+            name = name.substring(nameStart + 1);
+            int q = eq + 1;
+            while (q < tag.length() && tag.charAt(q) != '"' && tag.charAt(q) != '\'') {
+                q++;
+            }
+            if (q >= tag.length()) {
+                break;
+            }
+            int valueEnd = tag.indexOf(tag.charAt(q), q + 1);
+            if (valueEnd < 0) {
+                break;
+            }
+            result.put(name, tag.substring(q + 1, valueEnd));
+            i = valueEnd + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of the closing '&gt;' of a start tag. Quoted attribute
+     * values are skipped.
+     */
+    private int skipAttributes(int pos, int end) throws EInvoiceFormatException {
+        while (pos < end) {
+            byte c = content[pos];
+            if (c == '"' || c == '\'') {
+                pos = indexOf(content, c, pos + 1, end);
+            } else if (c == '>') {
+                return pos;
+            }
+            pos++;
+        }
+        throw new EInvoiceFormatException("XML parsing error", "Unexpected end of document");
+    }
+
+    /**
+     * Skips a DOCTYPE declaration including an internal subset.
+     */
+    private int skipDoctype(int pos, int end) throws EInvoiceFormatException {
+        int depth = 0;
+        while (pos < end) {
+            byte c = content[pos];
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            } else if (c == '>' && depth == 0) {
+                return pos + 1;
+            }
+            pos++;
+        }
+        throw new EInvoiceFormatException("XML parsing error", "Unexpected end of document");
+    }
+
+    private static boolean isNameEnd(byte c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '/' || c == '>';
+    }
+
+    private static boolean startsWith(byte[] data, String prefix, int pos, int end) {
+        if (pos + prefix.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[pos + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, byte b, int pos, int end) throws EInvoiceFormatException {
+        for (int i = pos; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        if (b == '<') {
+            return -1;
+        }
+        throw new EInvoiceFormatException("XML parsing error", "Unexpected end of document");
+    }
+
+    private static int indexOf(byte[] data, String token, int pos, int end) throws EInvoiceFormatException {
+        for (int i = pos; i <= end - token.length(); i++) {
+            if (startsWith(data, token, i, end)) {
+                return i;
+            }
+        }
+        throw new EInvoiceFormatException("XML parsing error", "Unexpected end of document");
+    }
+
+    /**
+     * A node of the tree of element paths to be recorded.
+     */
+    private static class PathNode {
+        private final Map<String, PathNode> children = new HashMap<>();
+        private String path;
+
+        PathNode(String path) {
+            this.path = path;
+        }
+
+        void add(String fullPath) {
+            PathNode node = this;
+            for (String name : fullPath.split("/")) {
+                node = node.children.computeIfAbsent(name, k -> new PathNode(null));
+            }
+            node.path = fullPath;
+        }
+    }
+
+    /**
+     * An open element during the scan.
+     */
+    private static class Frame {
+        private final PathNode node;
+        private final String qName;
+        private final int contentStart;
+        private boolean hasChild = false;
+
+        Frame(PathNode node, String qName, int contentStart) {
+            this.node = node;
+            this.qName = qName;
+            this.contentStart = contentStart;
+        }
+    }
+
+    /**
+     * The text location of an element. For a self-closing element the location
+     * covers the closing '/&gt;'.
+     */
+    private static class Location {
+        private final int start;
+        private final int end;
+        private final boolean selfClosing;
+        private final String qName;
+
+        Location(int start, int end, boolean selfClosing, String qName) {
+            this.start = start;
+            this.end = end;
+            this.selfClosing = selfClosing;
+            this.qName = qName;
+        }
+    }
+
+    private static class Replacement {
+        private final Location location;
+        private final byte[] data;
+
+        Replacement(Location location, byte[] data) {
+            this.location = location;
+            this.data = data;
+        }
+    }
+
+}
@@ -0,0 +1,1062 @@
+package org.imixs.einvoice;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The EInvoicePdfDocument is a minimal reader for the object structure of a
+ * PDF file. It is used to access the embedded files of a hybrid e-invoice
+ * (Factur-X / ZUGFeRD) without a PDF library.
+ * <p>
+ * The document reads the cross-reference sections - classic xref tables as
+ * well as xref streams, including incremental updates (/Prev) - and the
+ * trailer. Objects are parsed lazily when they are requested, objects in
+ * object streams are supported. Page content, fonts and images are never
+ * touched. If the cross-reference data is broken, the object offsets are
+ * rebuilt by scanning the file.
+ * <p>
+ * The PDF objects are represented as follows:
+ * <ul>
+ * <li>dictionary - a LinkedHashMap with the names (without '/') as keys</li>
+ * <li>array - a List</li>
+ * <li>name - a {@link Name}</li>
+ * <li>string - a {@link PdfString}</li>
+ * <li>number - a Long or a Double</li>
+ * <li>boolean - a Boolean, null - null</li>
+ * <li>indirect reference - a {@link Ref}</li>
+ * <li>stream - a {@link Stream} with its dictionary and the data position</li>
+ * </ul>
+ * Encrypted documents are not supported.
+ *
+ * @author rsoika
+ *
+ */
+final class EInvoicePdfDocument {
+    private static Logger logger = Logger.getLogger(EInvoicePdfDocument.class.getName());
+
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * A PDF name
+     */
+    static final class Name {
+        final String value;
+
+        Name(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Name && ((Name) obj).value.equals(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "/" + value;
+        }
+    }
+
+    /**
+     * A PDF literal or hex string
+     */
+    static final class PdfString {
+        final byte[] bytes;
+
+        PdfString(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the text of a UTF-16 (with byte order mark) or PDFDocEncoding
+         * string. PDFDocEncoding is treated as Latin-1.
+         */
+        String getText() {
+            if (bytes.length >= 2 && (bytes[0] & 0xff) == 0xfe && (bytes[1] & 0xff) == 0xff) {
+                return new String(bytes, 2, bytes.length - 2, StandardCharsets.UTF_16BE);
+            }
+            if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb
+                    && (bytes[2] & 0xff) == 0xbf) {
+                return new String(bytes, 3, bytes.length - 3, StandardCharsets.UTF_8);
+            }
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return getText();
+        }
+    }
+
+    /**
+     * An indirect reference
+     */
+    static final class Ref {
+        final int num;
+        final int gen;
+
+        Ref(int num, int gen) {
+            this.num = num;
+            this.gen = gen;
+        }
+
+        @Override
+        public String toString() {
+            return num + " " + gen + " R";
+        }
+    }
+
+    /**
+     * A stream object - the dictionary and the position of the raw data in the
+     * file
+     */
+    static final class Stream {
+        final Map<String, Object> dict;
+        final int offset;
+        final int length;
+
+        Stream(Map<String, Object> dict, int offset, int length) {
+            this.dict = dict;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final ByteBuffer pdf;
+    // object number -> { type (0=free, 1=offset, 2=compressed), offset or stream number, index }
+    private final Map<Integer, long[]> xref = new HashMap<>();
+    private final Map<Integer, Object> objects = new HashMap<>();
+    private final Map<Integer, ByteBuffer> objectStreams = new HashMap<>();
+    // objects currently parsed - detects cyclic references
+    private final Set<Integer> inProgress = new HashSet<>();
+    private Map<String, Object> trailer = null;
+    private long startXref = -1;
+
+    /**
+     * Reads the cross-reference data of a PDF document
+     *
+     * @param pdf - the content of the PDF file, e.g. a memory-mapped file
+     * @throws IOException if the document is not a valid PDF
+     */
+    EInvoicePdfDocument(ByteBuffer pdf) throws IOException {
+        this.pdf = pdf;
+        if (!startsWith(0, "%PDF-")) {
+            throw new IOException("Invalid PDF: missing header");
+        }
+        try {
+            readXref();
+        } catch (IOException | RuntimeException e) {
+            logger.fine("PDF cross-reference data invalid (" + e.getMessage()
+                    + ") - rebuilding the object offsets");
+            xref.clear();
+            trailer = null;
+            rebuildXref();
+        }
+        if (trailer.containsKey("Encrypt")) {
+            throw new IOException("Encrypted PDF documents are not supported");
+        }
+    }
+
+    /**
+     * Returns the trailer dictionary. For incremental updates this is the
+     * trailer of the last update.
+     */
+    Map<String, Object> getTrailer() {
+        return trailer;
+    }
+
+    /**
+     * Returns the offset of the last cross-reference section or -1 if the
+     * offsets were rebuilt
+     */
+    long getStartXref() {
+        return startXref;
+    }
+
+    /**
+     * Returns the highest object number plus one
+     */
+    int getSize() {
+        int size = (int) getLong(trailer.get("Size"), 0);
+        for (Integer num : xref.keySet()) {
+            size = Math.max(size, num + 1);
+        }
+        return size;
+    }
+
+    ByteBuffer getBuffer() {
+        return pdf;
+    }
+
+    /**
+     * Resolves an indirect reference. Other objects are returned unchanged.
+     */
+    Object resolve(Object object) throws IOException {
+        if (object instanceof Ref) {
+            return getObject(((Ref) object).num);
+        }
+        return object;
+    }
+
+    /**
+     * Returns the resolved dictionary value of the given key or null
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> getDict(Map<String, Object> dict, String key) throws IOException {
+        Object value = dict == null ? null : resolve(dict.get(key));
+        if (value instanceof Stream) {
+            return ((Stream) value).dict;
+        }
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    /**
+     * Returns the resolved array value of the given key or null
+     */
+    @SuppressWarnings("unchecked")
+    List<Object> getArray(Map<String, Object> dict, String key) throws IOException {
+        Object value = dict == null ? null : resolve(dict.get(key));
+        return value instanceof List ? (List<Object>) value : null;
+    }
+
+    /**
+     * Returns the document catalog
+     */
+    Map<String, Object> getCatalog() throws IOException {
+        Map<String, Object> catalog = getDict(trailer, "Root");
+        if (catalog == null) {
+            throw new IOException("Invalid PDF: no document catalog");
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns the object with the given number or null if the object does not
+     * exist
+     */
+    Object getObject(int num) throws IOException {
+        if (objects.containsKey(num)) {
+            return objects.get(num);
+        }
+        long[] entry = xref.get(num);
+        if (!inProgress.add(num)) {
+            throw new IOException("Invalid PDF: cyclic reference to object " + num);
+        }
+        Object result = null;
+        try {
+            if (entry != null && entry[0] == 1) {
+                result = parseIndirectObject(num, (int) entry[1]);
+            } else if (entry != null && entry[0] == 2) {
+                result = parseCompressedObject(num, (int) entry[1], (int) entry[2]);
+            }
+        } finally {
+            inProgress.remove(num);
+        }
+        objects.put(num, result);
+        return result;
+    }
+
+    /**
+     * Returns the raw (still encoded) data of a stream
+     */
+    ByteBuffer getRawData(Stream stream) {
+        ByteBuffer data = pdf.duplicate();
+        data.limit(stream.offset + stream.length);
+        data.position(stream.offset);
+        return data.slice();
+    }
+
+    /**
+     * Opens a stream decoding the data of a PDF stream. Only the FlateDecode
+     * filter is supported. A PNG predictor requires the complete data to be
+     * decoded in memory.
+     */
+    InputStream openStream(Stream stream) throws IOException {
+        List<Object> filters = new ArrayList<>();
+        Object filter = resolve(stream.dict.get("Filter"));
+        if (filter instanceof List) {
+            for (Object f : (List<?>) filter) {
+                filters.add(resolve(f));
+            }
+        } else if (filter != null) {
+            filters.add(filter);
+        }
+        InputStream in = new EInvoiceModelFactory.ByteBufferInputStream(getRawData(stream));
+        if (filters.isEmpty()) {
+            return in;
+        }
+        if (filters.size() > 1 || !(new Name("FlateDecode").equals(filters.get(0))
+                || new Name("Fl").equals(filters.get(0)))) {
+            throw new IOException("Unsupported PDF stream filter: " + filters);
+        }
+        in = new InflaterInputStream(in);
+        Object parms = resolve(stream.dict.get("DecodeParms"));
+        if (parms instanceof List) {
+            parms = ((List<?>) parms).isEmpty() ? null : resolve(((List<?>) parms).get(0));
+        }
+        if (parms instanceof Map && getLong(((Map<?, ?>) parms).get("Predictor"), 1) >= 10) {
+            Map<?, ?> p = (Map<?, ?>) parms;
+            int colors = (int) getLong(p.get("Colors"), 1);
+            int bits = (int) getLong(p.get("BitsPerComponent"), 8);
+            int columns = (int) getLong(p.get("Columns"), 1);
+            byte[] data;
+            try (InputStream raw = in) {
+                data = raw.readAllBytes();
+            }
+            return new ByteArrayInputStream(decodePng(data, Math.max(1, colors * bits / 8),
+                    (columns * colors * bits + 7) / 8));
+        }
+        return in;
+    }
+
+    /**
+     * Returns the decoded data of a stream
+     */
+    byte[] getData(Stream stream) throws IOException {
+        try (InputStream in = openStream(stream)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Writes a PDF object in its syntax form. Strings are written as hex
+     * strings. A stream can not be written.
+     */
+    static void write(Object value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof Map) {
+            out.append("<<");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                write(new Name(entry.getKey().toString()), out);
+                out.append(' ');
+                write(entry.getValue(), out);
+            }
+            out.append(">>");
+        } else if (value instanceof List) {
+            out.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) {
+                    out.append(' ');
+                }
+                first = false;
+                write(element, out);
+            }
+            out.append(']');
+        } else if (value instanceof Name) {
+            out.append('/');
+            for (byte b : ((Name) value).value.getBytes(StandardCharsets.UTF_8)) {
+                int c = b & 0xff;
+                if (c < 33 || c > 126 || c == '#' || isDelimiter(c)) {
+                    out.append('#').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+                } else {
+                    out.append((char) c);
+                }
+            }
+        } else if (value instanceof PdfString) {
+            out.append('<');
+            for (byte b : ((PdfString) value).bytes) {
+                out.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            }
+            out.append('>');
+        } else if (value instanceof Double) {
+            out.append(BigDecimal.valueOf((Double) value).stripTrailingZeros().toPlainString());
+        } else if (value instanceof Stream) {
+            throw new IllegalArgumentException("a stream can not be written inline");
+        } else {
+            // Long, Boolean, Ref
+            out.append(value);
+        }
+    }
+
+    static long getLong(Object value, long defaultValue) {
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * Reverses the PNG predictors of a FlateDecode stream
+     */
+    static byte[] decodePng(byte[] data, int bpp, int rowLength) throws IOException {
+        int rows = data.length / (rowLength + 1);
+        byte[] result = new byte[rows * rowLength];
+        for (int row = 0; row < rows; row++) {
+            int type = data[row * (rowLength + 1)] & 0xff;
+            int in = row * (rowLength + 1) + 1;
+            int out = row * rowLength;
+            for (int i = 0; i < rowLength; i++) {
+                int raw = data[in + i] & 0xff;
+                int left = i >= bpp ? result[out + i - bpp] & 0xff : 0;
+                int up = row > 0 ? result[out + i - rowLength] & 0xff : 0;
+                int upLeft = row > 0 && i >= bpp ? result[out + i - rowLength - bpp] & 0xff : 0;
+                int value;
+                switch (type) {
+                case 0:
+                    value = raw;
+                    break;
+                case 1:
+                    value = raw + left;
+                    break;
+                case 2:
+                    value = raw + up;
+                    break;
+                case 3:
+                    value = raw + (left + up) / 2;
+                    break;
+                case 4:
+                    int p = left + up - upLeft;
+                    int pa = Math.abs(p - left);
+                    int pb = Math.abs(p - up);
+                    int pc = Math.abs(p - upLeft);
+                    value = raw + (pa <= pb && pa <= pc ? left : pb <= pc ? up : upLeft);
+                    break;
+                default:
+                    throw new IOException("Invalid PNG predictor: " + type);
+                }
+                result[out + i] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the cross-reference sections starting at the last 'startxref'
+     * offset and following the /Prev and /XRefStm links. Entries of later
+     * sections take precedence.
+     */
+    private void readXref() throws IOException {
+        int pos = lastIndexOf("startxref", pdf.limit() - 1);
+        if (pos < 0) {
+            throw new IOException("Invalid PDF: startxref not found");
+        }
+        Lexer lexer = new Lexer(pdf, pos + 9);
+        startXref = getLong(lexer.readObject(), -1);
+        long offset = startXref;
+        int sections = 0;
+        while (offset >= 0) {
+            if (offset >= pdf.limit() || ++sections > 1000) {
+                throw new IOException("Invalid PDF: xref offset " + offset);
+            }
+            Map<String, Object> sectionTrailer = readXrefSection((int) offset);
+            if (trailer == null) {
+                trailer = sectionTrailer;
+            }
+            Object xrefStm = sectionTrailer.get("XRefStm");
+            if (xrefStm instanceof Number) {
+                // hybrid file: the xref stream complements the table
+                readXrefSection(((Number) xrefStm).intValue());
+            }
+            offset = getLong(sectionTrailer.get("Prev"), -1);
+        }
+        if (trailer == null || !trailer.containsKey("Root")) {
+            throw new IOException("Invalid PDF: no trailer");
+        }
+    }
+
+    /**
+     * Reads a classic xref table with its trailer or a xref stream
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readXrefSection(int offset) throws IOException {
+        Lexer lexer = new Lexer(pdf, offset);
+        lexer.skipWhitespace();
+        if (startsWith(lexer.pos, "xref")) {
+            lexer.pos += 4;
+            while (true) {
+                Object token = lexer.readObject();
+                if ("trailer".equals(token)) {
+                    Object dict = lexer.readObject();
+                    if (!(dict instanceof Map)) {
+                        throw new IOException("Invalid PDF: trailer is not a dictionary");
+                    }
+                    return (Map<String, Object>) dict;
+                }
+                long start = getLong(token, -1);
+                long count = getLong(lexer.readObject(), -1);
+                if (start < 0 || count < 0) {
+                    throw new IOException("Invalid PDF: xref subsection at " + lexer.pos);
+                }
+                for (int i = 0; i < count; i++) {
+                    long entryOffset = getLong(lexer.readObject(), -1);
+                    lexer.readObject();
+                    Object type = lexer.readObject();
+                    xref.putIfAbsent((int) (start + i), new long[] { "n".equals(type) ? 1 : 0, entryOffset, 0 });
+                }
+            }
+        }
+        // xref stream
+        Object object = parseIndirectObject(-1, offset);
+        if (!(object instanceof Stream)) {
+            throw new IOException("Invalid PDF: no xref at offset " + offset);
+        }
+        Stream stream = (Stream) object;
+        List<Object> w = (List<Object>) stream.dict.get("W");
+        int[] widths = new int[3];
+        for (int i = 0; i < 3; i++) {
+            widths[i] = (int) getLong(w.get(i), 0);
+        }
+        List<Object> index = (List<Object>) stream.dict.get("Index");
+        if (index == null) {
+            index = List.of(0L, stream.dict.get("Size"));
+        }
+        byte[] data = getData(stream);
+        int pos = 0;
+        for (int i = 0; i + 1 < index.size(); i += 2) {
+            long start = getLong(index.get(i), 0);
+            long count = getLong(index.get(i + 1), 0);
+            for (int j = 0; j < count && pos + widths[0] + widths[1] + widths[2] <= data.length; j++) {
+                long[] fields = new long[3];
+                for (int f = 0; f < 3; f++) {
+                    long value = 0;
+                    for (int b = 0; b < widths[f]; b++) {
+                        value = (value << 8) | (data[pos++] & 0xff);
+                    }
+                    fields[f] = value;
+                }
+                if (widths[0] == 0) {
+                    fields[0] = 1;
+                }
+                xref.putIfAbsent((int) (start + j), fields);
+            }
+        }
+        return stream.dict;
+    }
+
+    /**
+     * Rebuilds the object offsets by scanning the file for 'n g obj' and takes
+     * the last trailer, the last xref stream or the catalog object as trailer
+     */
+    @SuppressWarnings("unchecked")
+    private void rebuildXref() throws IOException {
+        startXref = -1;
+        int limit = pdf.limit();
+        Ref root = null;
+        for (int i = 1; i + 3 <= limit; i++) {
+            if (pdf.get(i) != 'o' || !startsWith(i, "obj") || !isWhitespace(pdf.get(i - 1))) {
+                continue;
+            }
+            // back over 'num gen '
+            int p = i - 1;
+            while (p > 0 && isWhitespace(pdf.get(p))) {
+                p--;
+            }
+            int genEnd = p;
+            while (p > 0 && isDigit(pdf.get(p))) {
+                p--;
+            }
+            if (p == genEnd || !isWhitespace(pdf.get(p))) {
+                continue;
+            }
+            while (p > 0 && isWhitespace(pdf.get(p))) {
+                p--;
+            }
+            int numEnd = p;
+            while (p >= 0 && isDigit(pdf.get(p))) {
+                p--;
+            }
+            if (p == numEnd) {
+                continue;
+            }
+            int start = p + 1;
+            if (numEnd + 1 - start > 9) {
+                // not a valid object number
+                continue;
+            }
+            int num = Integer.parseInt(ascii(start, numEnd + 1));
+            xref.put(num, new long[] { 1, start, 0 });
+        }
+        int pos = lastIndexOf("trailer", limit - 1);
+        if (pos >= 0) {
+            Object dict = new Lexer(pdf, pos + 7).readObject();
+            if (dict instanceof Map) {
+                trailer = (Map<String, Object>) dict;
+            }
+        }
+        // xref streams add the objects of object streams and may hold the trailer
+        long lastXrefStream = -1;
+        Map<String, Object> xrefTrailer = null;
+        for (long[] entry : new ArrayList<>(xref.values())) {
+            Object object;
+            try {
+                object = parseIndirectObject(-1, (int) entry[1]);
+                if (object instanceof Stream && new Name("XRef").equals(((Stream) object).dict.get("Type"))) {
+                    Map<String, Object> dict = readXrefSection((int) entry[1]);
+                    if (entry[1] > lastXrefStream) {
+                        lastXrefStream = entry[1];
+                        xrefTrailer = dict;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                continue;
+            }
+        }
+        if ((trailer == null || !trailer.containsKey("Root")) && xrefTrailer != null) {
+            trailer = xrefTrailer;
+        }
+        if (trailer == null || !trailer.containsKey("Root")) {
+            for (Integer num : new ArrayList<>(xref.keySet())) {
+                Object object;
+                try {
+                    object = getObject(num);
+                } catch (IOException | RuntimeException e) {
+                    continue;
+                }
+                Map<String, Object> dict = object instanceof Map ? (Map<String, Object>) object : null;
+                if (dict != null && new Name("Catalog").equals(dict.get("Type"))) {
+                    root = new Ref(num, 0);
+                }
+            }
+            if (root == null) {
+                throw new IOException("Invalid PDF: no document catalog found");
+            }
+            trailer = new LinkedHashMap<>();
+            trailer.put("Root", root);
+        }
+    }
+
+    /**
+     * Parses 'num gen obj ... endobj' at the given offset
+     */
+    private Object parseIndirectObject(int num, int offset) throws IOException {
+        Lexer lexer = new Lexer(pdf, offset);
+        long objNum = getLong(lexer.readObject(), -1);
+        lexer.readObject();
+        if (!"obj".equals(lexer.readObject()) || (num >= 0 && objNum != num)) {
+            throw new IOException("Invalid PDF: object " + num + " not found at offset " + offset);
+        }
+        Object value = lexer.readObject();
+        if (!(value instanceof Map)) {
+            return value;
+        }
+        int pos = lexer.pos;
+        lexer.skipWhitespace();
+        if (!startsWith(lexer.pos, "stream")) {
+            lexer.pos = pos;
+            return value;
+        }
+        // the data starts after the EOL following the keyword
+        int start = lexer.pos + 6;
+        if (start < pdf.limit() && pdf.get(start) == '\r') {
+            start++;
+        }
+        if (start < pdf.limit() && pdf.get(start) == '\n') {
+            start++;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> dict = (Map<String, Object>) value;
+        Object lengthObject = dict.get("Length");
+        long length = -1;
+        if (lengthObject instanceof Ref) {
+            if (((Ref) lengthObject).num != num) {
+                length = getLong(resolve(lengthObject), -1);
+            }
+        } else {
+            length = getLong(lengthObject, -1);
+        }
+        if (length < 0 || start + length > pdf.limit() || !isEndStream((int) (start + length))) {
+            // invalid length - search the end of the stream
+            int end = indexOf("endstream", start);
+            if (end < 0) {
+                throw new IOException("Invalid PDF: stream of object " + num + " not terminated");
+            }
+            if (end > start && pdf.get(end - 1) == '\n') {
+                end--;
+            }
+            if (end > start && pdf.get(end - 1) == '\r') {
+                end--;
+            }
+            length = end - start;
+        }
+        return new Stream(dict, start, (int) length);
+    }
+
+    /**
+     * Parses an object of an object stream
+     */
+    private Object parseCompressedObject(int num, int streamNum, int index) throws IOException {
+        ByteBuffer data = objectStreams.get(streamNum);
+        Object object = getObject(streamNum);
+        if (!(object instanceof Stream)) {
+            throw new IOException("Invalid PDF: object stream " + streamNum + " not found");
+        }
+        Stream stream = (Stream) object;
+        if (data == null) {
+            data = ByteBuffer.wrap(getData(stream));
+            objectStreams.put(streamNum, data);
+        }
+        int n = (int) getLong(stream.dict.get("N"), 0);
+        int first = (int) getLong(stream.dict.get("First"), 0);
+        Lexer lexer = new Lexer(data, 0);
+        for (int i = 0; i < n; i++) {
+            long objNum = getLong(lexer.readObject(), -1);
+            long offset = getLong(lexer.readObject(), -1);
+            if (objNum == num) {
+                return new Lexer(data, first + (int) offset).readObject();
+            }
+        }
+        throw new IOException("Invalid PDF: object " + num + " not found in object stream " + streamNum);
+    }
+
+    private boolean isEndStream(int pos) {
+        while (pos < pdf.limit() && isWhitespace(pdf.get(pos))) {
+            pos++;
+        }
+        return startsWith(pos, "endstream");
+    }
+
+    private boolean startsWith(int pos, String token) {
+        if (pos < 0 || pos + token.length() > pdf.limit()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (pdf.get(pos + i) != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lastIndexOf(String token, int from) {
+        for (int i = Math.min(from, pdf.limit() - token.length()); i >= 0; i--) {
+            if (pdf.get(i) == token.charAt(0) && startsWith(i, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(String token, int from) {
+        for (int i = from; i + token.length() <= pdf.limit(); i++) {
+            if (pdf.get(i) == token.charAt(0) && startsWith(i, token)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String ascii(int start, int end) {
+        StringBuilder result = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            result.append((char) (pdf.get(i) & 0xff));
+        }
+        return result.toString();
+    }
+
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+    }
+
+    static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']' || c == '{' || c == '}'
+                || c == '/' || c == '%';
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Reads PDF objects from a buffer. Keywords like 'obj' or 'trailer' are
+     * returned as a String.
+     */
+    static final class Lexer {
+        private final ByteBuffer buffer;
+        int pos;
+        private int depth = 0;
+
+        Lexer(ByteBuffer buffer, int pos) {
+            this.buffer = buffer;
+            this.pos = pos;
+        }
+
+        private int peek() {
+            return pos < buffer.limit() ? buffer.get(pos) & 0xff : -1;
+        }
+
+        void skipWhitespace() {
+            while (pos < buffer.limit()) {
+                int c = buffer.get(pos) & 0xff;
+                if (c == '%') {
+                    while (pos < buffer.limit() && buffer.get(pos) != '\n' && buffer.get(pos) != '\r') {
+                        pos++;
+                    }
+                } else if (isWhitespace(c)) {
+                    pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        Object readObject() throws IOException {
+            skipWhitespace();
+            int c = peek();
+            if (c < 0) {
+                throw new IOException("Invalid PDF: unexpected end of data");
+            }
+            if (++depth > MAX_DEPTH) {
+                throw new IOException("Invalid PDF: objects nested too deep");
+            }
+            try {
+                switch (c) {
+                case '/':
+                    pos++;
+                    return new Name(readName());
+                case '(':
+                    pos++;
+                    return new PdfString(readLiteral());
+                case '<':
+                    if (pos + 1 < buffer.limit() && buffer.get(pos + 1) == '<') {
+                        pos += 2;
+                        return readDictionary();
+                    }
+                    pos++;
+                    return new PdfString(readHex());
+                case '[':
+                    pos++;
+                    return readArray();
+                default:
+                    if (isDigit(c) || c == '+' || c == '-' || c == '.') {
+                        return readNumberOrRef();
+                    }
+                    String keyword = readRegular();
+                    if (keyword.isEmpty()) {
+                        throw new IOException("Invalid PDF: unexpected character '" + (char) c + "' at " + pos);
+                    }
+                    switch (keyword) {
+                    case "true":
+                        return Boolean.TRUE;
+                    case "false":
+                        return Boolean.FALSE;
+                    case "null":
+                        return null;
+                    default:
+                        return keyword;
+                    }
+                }
+            } finally {
+                depth--;
+            }
+        }
+
+        private String readRegular() {
+            int start = pos;
+            while (pos < buffer.limit()) {
+                int c = buffer.get(pos) & 0xff;
+                if (isWhitespace(c) || isDelimiter(c)) {
+                    break;
+                }
+                pos++;
+            }
+            StringBuilder result = new StringBuilder(pos - start);
+            for (int i = start; i < pos; i++) {
+                result.append((char) (buffer.get(i) & 0xff));
+            }
+            return result.toString();
+        }
+
+        private String readName() throws IOException {
+            String raw = readRegular();
+            if (raw.indexOf('#') < 0) {
+                return raw;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c == '#' && i + 2 < raw.length()) {
+                    int high = Character.digit(raw.charAt(i + 1), 16);
+                    int low = Character.digit(raw.charAt(i + 2), 16);
+                    if (high < 0 || low < 0) {
+                        throw new IOException("Invalid PDF: invalid escape in name '" + raw + "'");
+                    }
+                    out.write(high << 4 | low);
+                    i += 2;
+                } else {
+                    out.write(c);
+                }
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        private Object readNumberOrRef() throws IOException {
+            String token = readRegular();
+            Number number;
+            try {
+                if (token.indexOf('.') >= 0) {
+                    number = Double.valueOf(token);
+                } else {
+                    number = Long.valueOf(token);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid PDF: invalid number '" + token + "'");
+            }
+            if (number instanceof Long && ((Long) number) >= 0) {
+                // lookahead for 'num gen R'
+                int mark = pos;
+                skipWhitespace();
+                int start = pos;
+                while (pos < buffer.limit() && isDigit(buffer.get(pos))) {
+                    pos++;
+                }
+                if (pos > start) {
+                    int genEnd = pos;
+                    skipWhitespace();
+                    if (peek() == 'R' && (pos + 1 >= buffer.limit() || isWhitespace(buffer.get(pos + 1))
+                            || isDelimiter(buffer.get(pos + 1)))) {
+                        pos++;
+                        StringBuilder gen = new StringBuilder();
+                        for (int i = start; i < genEnd; i++) {
+                            gen.append((char) buffer.get(i));
+                        }
+                        if (number.longValue() > Integer.MAX_VALUE || gen.length() > 9) {
+                            throw new IOException("Invalid PDF: invalid reference '" + number + " " + gen + " R'");
+                        }
+                        return new Ref(number.intValue(), Integer.parseInt(gen.toString()));
+                    }
+                }
+                pos = mark;
+            }
+            return number;
+        }
+
+        private Map<String, Object> readDictionary() throws IOException {
+            Map<String, Object> result = new LinkedHashMap<>();
+            while (true) {
+                skipWhitespace();
+                if (peek() == '>' && pos + 1 < buffer.limit() && buffer.get(pos + 1) == '>') {
+                    pos += 2;
+                    return result;
+                }
+                Object key = readObject();
+                if (!(key instanceof Name)) {
+                    throw new IOException("Invalid PDF: dictionary key expected at " + pos);
+                }
+                Object value = readObject();
+                if (value != null) {
+                    result.put(((Name) key).value, value);
+                }
+            }
+        }
+
+        private List<Object> readArray() throws IOException {
+            List<Object> result = new ArrayList<>();
+            while (true) {
+                skipWhitespace();
+                if (peek() == ']') {
+                    pos++;
+                    return result;
+                }
+                result.add(readObject());
+            }
+        }
+
+        private byte[] readLiteral() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int nesting = 1;
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    throw new IOException("Invalid PDF: unterminated string");
+                }
+                pos++;
+                if (c == '\\') {
+                    c = peek();
+                    pos++;
+                    switch (c) {
+                    case 'n':
+                        out.write('\n');
+                        break;
+                    case 'r':
+                        out.write('\r');
+                        break;
+                    case 't':
+                        out.write('\t');
+                        break;
+                    case 'b':
+                        out.write('\b');
+                        break;
+                    case 'f':
+                        out.write('\f');
+                        break;
+                    case '\r':
+                        // line continuation
+                        if (peek() == '\n') {
+                            pos++;
+                        }
+                        break;
+                    case '\n':
+                        break;
+                    default:
+                        if (c >= '0' && c <= '7') {
+                            int value = c - '0';
+                            for (int i = 0; i < 2 && peek() >= '0' && peek() <= '7'; i++) {
+                                value = value * 8 + (peek() - '0');
+                                pos++;
+                            }
+                            out.write(value);
+                        } else if (c >= 0) {
+                            out.write(c);
+                        }
+                    }
+                } else if (c == '(') {
+                    nesting++;
+                    out.write(c);
+                } else if (c == ')') {
+                    if (--nesting == 0) {
+                        return out.toByteArray();
+                    }
+                    out.write(c);
+                } else {
+                    out.write(c);
+                }
+            }
+        }
+
+        private byte[] readHex() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int high = -1;
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    throw new IOException("Invalid PDF: unterminated hex string");
+                }
+                pos++;
+                if (c == '>') {
+                    if (high >= 0) {
+                        out.write(high << 4);
+                    }
+                    return out.toByteArray();
+                }
+                int digit = Character.digit(c, 16);
+                if (digit < 0) {
+                    continue;
+                }
+                if (high < 0) {
+                    high = digit;
+                } else {
+                    out.write((high << 4) | digit);
+                    high = -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package org.imixs.einvoice;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.imixs.einvoice.EInvoicePdfDocument.PdfString;
+import org.imixs.einvoice.EInvoicePdfDocument.Stream;
+
+/**
+ * The EInvoicePdfExtractor reads the XML invoice embedded in a hybrid PDF/A-3
+ * invoice (Factur-X / ZUGFeRD) without a PDF library.
+ * <p>
+ * The PDF file is memory-mapped. The extractor follows the cross-reference
+ * table and the trailer to the document catalog and collects the embedded files
+ * from the 'EmbeddedFiles' name tree and the associated files (/AF) of the
+ * catalog. Only the stream of the requested attachment is decoded - the
+ * FlateDecode data is inflated on the fly directly into the
+ * {@link EInvoiceModelFactory}. Pages, fonts and images are never parsed.
+ * <p>
+ * The invoice attachment is selected by its file name (see
+ * {@link #INVOICE_FILE_NAMES}). If none of the names is found, the first XML
+ * attachment is used.
+ *
+ * <pre>
+ * EInvoiceModel model = EInvoicePdfExtractor.read(Paths.get("invoice.pdf"));
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoicePdfExtractor {
+    private static Logger logger = Logger.getLogger(EInvoicePdfExtractor.class.getName());
+
+    /**
+     * The file names of the invoice attachment defined by Factur-X, ZUGFeRD and
+     * XRechnung in the order of preference
+     */
+    public static final String[] INVOICE_FILE_NAMES = { "factur-x.xml", "zugferd-invoice.xml",
+            "ZUGFeRD-invoice.xml", "xrechnung.xml" };
+
+    private static final int MAX_TREE_DEPTH = 32;
+
+    private final EInvoicePdfDocument pdf;
+    private Map<String, Stream> attachments = null;
+
+    /**
+     * Opens a PDF file. The file is memory-mapped, the mapping is released by the
+     * garbage collector.
+     *
+     * @param path
+     * @throws IOException if the file can not be read or is not a valid PDF
+     */
+    public EInvoicePdfExtractor(Path path) throws IOException {
+        this(map(path));
+    }
+
+    /**
+     * Opens a PDF document from a buffer
+     *
+     * @param buffer - the content of the PDF file
+     * @throws IOException if the content is not a valid PDF
+     */
+    public EInvoicePdfExtractor(ByteBuffer buffer) throws IOException {
+        pdf = new EInvoicePdfDocument(buffer.slice());
+    }
+
+    /**
+     * Returns the names of all embedded files
+     *
+     * @return
+     * @throws IOException if the PDF structure is invalid
+     */
+    public List<String> getAttachmentNames() throws IOException {
+        return new ArrayList<>(getAttachments().keySet());
+    }
+
+    /**
+     * Returns the name of the embedded invoice or null if the PDF contains no XML
+     * attachment
+     *
+     * @return
+     * @throws IOException if the PDF structure is invalid
+     */
+    public String getInvoiceAttachmentName() throws IOException {
+        Map<String, Stream> files = getAttachments();
+        for (String name : INVOICE_FILE_NAMES) {
+            if (files.containsKey(name)) {
+                return name;
+            }
+        }
+        for (String name : files.keySet()) {
+            if (name.toLowerCase().endsWith(".xml")) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens a stream decoding the content of an embedded file
+     *
+     * @param name
+     * @return the decoded content or null if there is no such attachment
+     * @throws IOException if the PDF structure is invalid
+     */
+    public InputStream openAttachment(String name) throws IOException {
+        Stream stream = getAttachments().get(name);
+        return stream == null ? null : pdf.openStream(stream);
+    }
+
+    /**
+     * Reads the embedded invoice
+     *
+     * @param options - optional read options
+     * @return a EInvoiceModel instance
+     * @throws EInvoiceFormatException if the PDF contains no e-invoice
+     */
+    public EInvoiceModel readInvoice(EInvoiceReadOptions options) throws EInvoiceFormatException {
+        InputStream is;
+        try {
+            String name = getInvoiceAttachmentName();
+            if (name == null) {
+                throw new EInvoiceFormatException("PDF", "No embedded XML invoice found");
+            }
+            logger.fine("read embedded invoice " + name);
+            is = openAttachment(name);
+        } catch (IOException e) {
+            logger.severe(e.getMessage());
+            throw new EInvoiceFormatException("PDF parsing error", e.getMessage());
+        }
+        try (InputStream attachment = is) {
+            return EInvoiceModelFactory.read(attachment, options);
+        } catch (IOException e) {
+            // the read of a stream throws no FileNotFoundException - only close may fail
+            throw new EInvoiceFormatException("PDF parsing error", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the invoice embedded in a PDF file
+     *
+     * @param path
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException if the file is not a PDF or contains no
+     *                                 e-invoice
+     */
+    public static EInvoiceModel read(Path path) throws FileNotFoundException, EInvoiceFormatException {
+        return read(path, null);
+    }
+
+    /**
+     * Reads the invoice embedded in a PDF file with the given read options
+     *
+     * @param path
+     * @param options
+     * @return a EInvoiceModel instance
+     * @throws FileNotFoundException
+     * @throws EInvoiceFormatException if the file is not a PDF or contains no
+     *                                 e-invoice
+     */
+    public static EInvoiceModel read(Path path, EInvoiceReadOptions options)
+            throws FileNotFoundException, EInvoiceFormatException {
+        EInvoicePdfExtractor extractor;
+        try {
+            extractor = new EInvoicePdfExtractor(path);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(e.getMessage());
+        } catch (IOException e) {
+            logger.severe(e.getMessage());
+            throw new EInvoiceFormatException("PDF parsing error", e.getMessage());
+        }
+        return extractor.readInvoice(options);
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Collects the embedded files of the name tree and the associated files of
+     * the catalog. The first file found for a name wins.
+     */
+    private Map<String, Stream> getAttachments() throws IOException {
+        if (attachments == null) {
+            Map<String, Stream> files = new LinkedHashMap<>();
+            Map<String, Object> catalog = pdf.getCatalog();
+            Map<String, Object> tree = pdf.getDict(pdf.getDict(catalog, "Names"), "EmbeddedFiles");
+            if (tree != null) {
+                collect(tree, files, 0);
+            }
+            List<Object> associated = pdf.getArray(catalog, "AF");
+            if (associated != null) {
+                for (Object spec : associated) {
+                    addFileSpec(null, pdf.resolve(spec), files);
+                }
+            }
+            attachments = files;
+        }
+        return attachments;
+    }
+
+    /**
+     * Walks a node of the name tree
+     */
+    private void collect(Map<String, Object> node, Map<String, Stream> files, int depth) throws IOException {
+        if (depth > MAX_TREE_DEPTH) {
+            throw new IOException("Invalid PDF: name tree nested too deep");
+        }
+        List<Object> names = pdf.getArray(node, "Names");
+        if (names != null) {
+            for (int i = 0; i + 1 < names.size(); i += 2) {
+                Object key = pdf.resolve(names.get(i));
+                addFileSpec(key instanceof PdfString ? ((PdfString) key).getText() : null,
+                        pdf.resolve(names.get(i + 1)), files);
+            }
+        }
+        List<Object> kids = pdf.getArray(node, "Kids");
+        if (kids != null) {
+            for (Object kid : kids) {
+                Object child = pdf.resolve(kid);
+                if (child instanceof Map) {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> childNode = (Map<String, Object>) child;
+                    collect(childNode, files, depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the embedded file of a file specification. The name of the file
+     * specification (/UF, /F) is preferred over the key of the name tree.
+     */
+    private void addFileSpec(String key, Object spec, Map<String, Stream> files) throws IOException {
+        if (!(spec instanceof Map)) {
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> fileSpec = (Map<String, Object>) spec;
+        Map<String, Object> ef = pdf.getDict(fileSpec, "EF");
+        if (ef == null) {
+            return;
+        }
+        Object file = pdf.resolve(ef.containsKey("UF") ? ef.get("UF") : ef.get("F"));
+        if (!(file instanceof Stream)) {
+            return;
+        }
+        String name = key;
+        for (String nameKey : new String[] { "UF", "F" }) {
+            Object value = pdf.resolve(fileSpec.get(nameKey));
+            if (value instanceof PdfString) {
+                name = ((PdfString) value).getText();
+                break;
+            }
+        }
+        if (name == null) {
+            return;
+        }
+        // a file specification may contain a path
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        files.putIfAbsent(name, (Stream) file);
+    }
+}
@@ -0,0 +1,709 @@
+package org.imixs.einvoice;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.xml.transform.TransformerException;
+
+import org.imixs.einvoice.EInvoicePdfDocument.Name;
+import org.imixs.einvoice.EInvoicePdfDocument.PdfString;
+import org.imixs.einvoice.EInvoicePdfDocument.Ref;
+import org.imixs.einvoice.EInvoicePdfDocument.Stream;
+import org.w3c.dom.Element;
+
+/**
+ * The EInvoicePdfWriter embeds the XML of a {@link EInvoiceModelCII} into an
+ * existing PDF/A-3 document to create a Factur-X / ZUGFeRD invoice.
+ * <p>
+ * The XML is attached by an incremental update - the original bytes of the PDF
+ * are not changed. The update appends:
+ * <ul>
+ * <li>the embedded file stream - the XML is serialized and deflated directly
+ * into the output, its length, size and checksum follow the stream</li>
+ * <li>the file specification with the AFRelationship</li>
+ * <li>a new 'EmbeddedFiles' name tree containing the existing attachments</li>
+ * <li>the XMP metadata with the Factur-X extension schema</li>
+ * <li>the updated document catalog with /AF, /Names and /Metadata</li>
+ * <li>a new cross-reference section - a xref table or a xref stream, as used
+ * by the document - linked to the previous one by /Prev</li>
+ * </ul>
+ * Only the cross-reference data and the catalog of the PDF are read. With
+ * {@link #append(Path, EInvoiceModelCII)} the update is appended to the file
+ * in place, so the cost depends on the size of the XML and not on the size of
+ * the PDF. {@link #write(Path, EInvoiceModelCII, Path)} copies the original
+ * file by {@link FileChannel#transferTo} first.
+ * <p>
+ * An existing attachment with the same file name is replaced. The writer does
+ * not convert a document to PDF/A - the source document should be a PDF/A-3
+ * (a PDF/A-1 or PDF/A-2 identification in the XMP metadata is changed to part
+ * 3). Encrypted documents are not supported.
+ *
+ * <pre>
+ * EInvoicePdfWriter writer = new EInvoicePdfWriter();
+ * writer.write(Paths.get("invoice.pdf"), model, Paths.get("invoice-facturx.pdf"));
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoicePdfWriter {
+    private static Logger logger = Logger.getLogger(EInvoicePdfWriter.class.getName());
+
+    public static final String FACTURX_NAMESPACE = "urn:factur-x:pdfa:CrossIndustryDocument:invoice:1p0#";
+
+    private String fileName = "factur-x.xml";
+    private String conformanceLevel = null;
+    private String relationship = "Alternative";
+    private String description = "Factur-X Invoice";
+    private String version = "1.0";
+
+    public EInvoicePdfWriter() {
+        super();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Sets the file name of the attachment. The default is 'factur-x.xml'. For
+     * ZUGFeRD 2.1 XRechnung invoices the file name is 'xrechnung.xml'.
+     *
+     * @param fileName
+     */
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getConformanceLevel() {
+        return conformanceLevel;
+    }
+
+    /**
+     * Sets the Factur-X conformance level written to the XMP metadata -
+     * MINIMUM, BASIC WL, BASIC, EN 16931, EXTENDED or XRECHNUNG. If no level is
+     * set, the level is derived from the guideline of the invoice.
+     *
+     * @param conformanceLevel
+     */
+    public void setConformanceLevel(String conformanceLevel) {
+        this.conformanceLevel = conformanceLevel;
+    }
+
+    public String getRelationship() {
+        return relationship;
+    }
+
+    /**
+     * Sets the AFRelationship of the attachment - Alternative (default), Data or
+     * Source
+     *
+     * @param relationship
+     */
+    public void setRelationship(String relationship) {
+        this.relationship = relationship;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the Factur-X version written to the XMP metadata. The default is
+     * '1.0'.
+     *
+     * @param version
+     */
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Appends the invoice to a PDF file by an incremental update in place
+     *
+     * @param pdf
+     * @param model
+     * @throws IOException if the PDF can not be read or updated
+     */
+    public void append(Path pdf, EInvoiceModelCII model) throws IOException {
+        try (FileChannel channel = FileChannel.open(pdf, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            EInvoicePdfDocument document = new EInvoicePdfDocument(buffer);
+            channel.position(channel.size());
+            update(document, model, channel);
+        }
+    }
+
+    /**
+     * Copies a PDF file and appends the invoice to the copy
+     *
+     * @param source
+     * @param model
+     * @param target
+     * @throws IOException if the PDF can not be read or written
+     */
+    public void write(Path source, EInvoiceModelCII model, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(source, model, channel);
+        }
+    }
+
+    /**
+     * Writes a PDF file followed by the incremental update into a channel. The
+     * channel is not closed.
+     *
+     * @param source
+     * @param model
+     * @param target
+     * @throws IOException if the PDF can not be read or written
+     */
+    public void write(Path source, EInvoiceModelCII model, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            EInvoicePdfDocument document = new EInvoicePdfDocument(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            update(document, model, target);
+        }
+    }
+
+    /**
+     * Writes the incremental update for a document into the channel. The channel
+     * is positioned at the end of the original document.
+     */
+    private void update(EInvoicePdfDocument pdf, EInvoiceModelCII model, WritableByteChannel target)
+            throws IOException {
+        if (pdf.getStartXref() < 0) {
+            throw new IOException(
+                    "Invalid PDF: the cross-reference data is broken - an incremental update is not possible");
+        }
+        Map<String, Object> trailer = pdf.getTrailer();
+        Object rootRef = trailer.get("Root");
+        if (!(rootRef instanceof Ref)) {
+            throw new IOException("Invalid PDF: no document catalog");
+        }
+        Map<String, Object> catalog = pdf.getCatalog();
+        ByteBuffer buffer = pdf.getBuffer();
+        long base = buffer.limit();
+        Output out = new Output(target, base);
+        byte last = buffer.limit() > 0 ? buffer.get(buffer.limit() - 1) : 0;
+        if (last != '\n' && last != '\r') {
+            out.write("\n");
+        }
+
+        int next = pdf.getSize();
+        int fileNum = next++;
+        int lengthNum = next++;
+        int paramsNum = next++;
+        int specNum = next++;
+        int treeNum = next++;
+        int metadataNum = next++;
+        Map<Integer, Long> offsets = new LinkedHashMap<>();
+        String modDate = pdfDate(ZonedDateTime.now());
+
+        // the embedded file - the XML is deflated into the output, the length follows
+        offsets.put(fileNum, out.position());
+        out.write(fileNum + " 0 obj\n<</Type/EmbeddedFile/Subtype/text#2Fxml/Filter/FlateDecode/Length " + lengthNum
+                + " 0 R/Params " + paramsNum + " 0 R>>\nstream\r\n");
+        long start = out.position();
+        MessageDigest md5 = md5();
+        CountingOutputStream xmlSize = new CountingOutputStream(
+                new DeflaterOutputStream(new NonClosingOutputStream(out)));
+        try (OutputStream xml = new DigestOutputStream(xmlSize, md5)) {
+            model.writeContent(xml);
+        } catch (TransformerException e) {
+            throw new IOException("Failed to serialize the invoice: " + e.getMessage(), e);
+        }
+        long length = out.position() - start;
+        out.write("\r\nendstream\nendobj\n");
+        byte[] checksum = md5.digest();
+
+        offsets.put(lengthNum, out.position());
+        out.write(lengthNum + " 0 obj\n" + length + "\nendobj\n");
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("Size", xmlSize.count);
+        params.put("ModDate", text(modDate));
+        params.put("CheckSum", new PdfString(checksum));
+        writeObject(out, offsets, paramsNum, params);
+
+        Map<String, Object> spec = new LinkedHashMap<>();
+        spec.put("Type", new Name("Filespec"));
+        spec.put("F", text(fileName));
+        spec.put("UF", text(fileName));
+        spec.put("Desc", text(description));
+        spec.put("AFRelationship", new Name(relationship));
+        Map<String, Object> ef = new LinkedHashMap<>();
+        ef.put("F", new Ref(fileNum, 0));
+        ef.put("UF", new Ref(fileNum, 0));
+        spec.put("EF", ef);
+        writeObject(out, offsets, specNum, spec);
+
+        // a new name tree with the existing attachments
+        Map<String, Object> names = copy(pdf.getDict(catalog, "Names"));
+        List<Object[]> entries = new ArrayList<>();
+        Map<String, Object> oldTree = pdf.getDict(names, "EmbeddedFiles");
+        if (oldTree != null) {
+            collect(pdf, oldTree, entries, 0);
+        }
+        entries.add(new Object[] { text(fileName), new Ref(specNum, 0) });
+        entries.sort((a, b) -> Arrays.compareUnsigned(((PdfString) a[0]).bytes, ((PdfString) b[0]).bytes));
+        List<Object> treeNames = new ArrayList<>();
+        for (Object[] entry : entries) {
+            treeNames.add(entry[0]);
+            treeNames.add(entry[1]);
+        }
+        Map<String, Object> tree = new LinkedHashMap<>();
+        tree.put("Names", treeNames);
+        writeObject(out, offsets, treeNum, tree);
+
+        // XMP metadata
+        byte[] xmp = createMetadata(pdf, catalog, model);
+        offsets.put(metadataNum, out.position());
+        out.write(metadataNum + " 0 obj\n<</Type/Metadata/Subtype/XML/Length " + xmp.length + ">>\nstream\n");
+        out.write(xmp);
+        out.write("\nendstream\nendobj\n");
+
+        // the updated catalog
+        Map<String, Object> newCatalog = new LinkedHashMap<>(catalog);
+        names.put("EmbeddedFiles", new Ref(treeNum, 0));
+        newCatalog.put("Names", names);
+        List<Object> af = new ArrayList<>();
+        List<Object> oldAf = pdf.getArray(catalog, "AF");
+        if (oldAf != null) {
+            for (Object fileSpec : oldAf) {
+                if (!fileName.equals(getFileName(pdf, pdf.resolve(fileSpec)))) {
+                    af.add(fileSpec);
+                }
+            }
+        }
+        af.add(new Ref(specNum, 0));
+        newCatalog.put("AF", af);
+        newCatalog.put("Metadata", new Ref(metadataNum, 0));
+        Ref root = (Ref) rootRef;
+        offsets.put(root.num, out.position());
+        StringBuilder catalogObject = new StringBuilder();
+        catalogObject.append(root.num).append(' ').append(root.gen).append(" obj\n");
+        EInvoicePdfDocument.write(newCatalog, catalogObject);
+        catalogObject.append("\nendobj\n");
+        out.write(catalogObject.toString());
+
+        // the new cross-reference section
+        Map<String, Object> newTrailer = new LinkedHashMap<>();
+        newTrailer.put("Size", (long) next);
+        newTrailer.put("Root", root);
+        if (trailer.containsKey("Info")) {
+            newTrailer.put("Info", trailer.get("Info"));
+        }
+        newTrailer.put("ID", createId(pdf, trailer, checksum, modDate));
+        newTrailer.put("Prev", pdf.getStartXref());
+        if (new Name("XRef").equals(trailer.get("Type"))) {
+            writeXrefStream(out, offsets, root, next, newTrailer);
+        } else {
+            writeXrefTable(out, offsets, root, newTrailer);
+        }
+        out.flush();
+        logger.fine("embedded " + fileName + " (" + xmlSize.count + " bytes) - " + (out.position() - base)
+                + " bytes appended");
+    }
+
+    /**
+     * Writes a classic xref table with subsections of consecutive object numbers
+     * and the trailer
+     */
+    private void writeXrefTable(Output out, Map<Integer, Long> offsets, Ref root, Map<String, Object> trailer)
+            throws IOException {
+        long xref = out.position();
+        StringBuilder section = new StringBuilder("xref\n");
+        List<Integer> numbers = new ArrayList<>(offsets.keySet());
+        numbers.sort(null);
+        for (int i = 0; i < numbers.size();) {
+            int j = i;
+            while (j + 1 < numbers.size() && numbers.get(j + 1) == numbers.get(j) + 1) {
+                j++;
+            }
+            section.append(numbers.get(i)).append(' ').append(j - i + 1).append('\n');
+            for (int k = i; k <= j; k++) {
+                int num = numbers.get(k);
+                section.append(String.format("%010d %05d n\r\n", offsets.get(num), num == root.num ? root.gen : 0));
+            }
+            i = j + 1;
+        }
+        section.append("trailer\n");
+        EInvoicePdfDocument.write(trailer, section);
+        section.append("\nstartxref\n").append(xref).append("\n%%EOF\n");
+        out.write(section.toString());
+    }
+
+    /**
+     * Writes an uncompressed xref stream including the entry of the stream
+     * itself
+     */
+    private void writeXrefStream(Output out, Map<Integer, Long> offsets, Ref root, int num,
+            Map<String, Object> trailer) throws IOException {
+        long xref = out.position();
+        offsets.put(num, xref);
+        trailer.put("Size", (long) num + 1);
+        List<Integer> numbers = new ArrayList<>(offsets.keySet());
+        numbers.sort(null);
+        List<Object> index = new ArrayList<>();
+        ByteBuffer data = ByteBuffer.allocate(numbers.size() * 7);
+        for (int i = 0; i < numbers.size();) {
+            int j = i;
+            while (j + 1 < numbers.size() && numbers.get(j + 1) == numbers.get(j) + 1) {
+                j++;
+            }
+            index.add((long) numbers.get(i));
+            index.add((long) (j - i + 1));
+            for (int k = i; k <= j; k++) {
+                int n = numbers.get(k);
+                data.put((byte) 1);
+                data.putInt(offsets.get(n).intValue());
+                data.putShort((short) (n == root.num ? root.gen : 0));
+            }
+            i = j + 1;
+        }
+        Map<String, Object> dict = new LinkedHashMap<>();
+        dict.put("Type", new Name("XRef"));
+        dict.putAll(trailer);
+        dict.put("W", List.of(1L, 4L, 2L));
+        dict.put("Index", index);
+        dict.put("Length", (long) data.capacity());
+        StringBuilder header = new StringBuilder();
+        header.append(num).append(" 0 obj\n");
+        EInvoicePdfDocument.write(dict, header);
+        header.append("\nstream\n");
+        out.write(header.toString());
+        out.write(data.array());
+        out.write("\nendstream\nendobj\nstartxref\n" + xref + "\n%%EOF\n");
+    }
+
+    private void writeObject(Output out, Map<Integer, Long> offsets, int num, Object value) throws IOException {
+        offsets.put(num, out.position());
+        StringBuilder object = new StringBuilder();
+        object.append(num).append(" 0 obj\n");
+        EInvoicePdfDocument.write(value, object);
+        object.append("\nendobj\n");
+        out.write(object.toString());
+    }
+
+    /**
+     * Collects the entries of an existing name tree, except an entry with the
+     * file name of the new attachment
+     */
+    private void collect(EInvoicePdfDocument pdf, Map<String, Object> node, List<Object[]> entries, int depth)
+            throws IOException {
+        if (depth > 32) {
+            throw new IOException("Invalid PDF: name tree nested too deep");
+        }
+        List<Object> names = pdf.getArray(node, "Names");
+        if (names != null) {
+            for (int i = 0; i + 1 < names.size(); i += 2) {
+                Object key = pdf.resolve(names.get(i));
+                if (key instanceof PdfString && !fileName.equals(((PdfString) key).getText())
+                        && !fileName.equals(getFileName(pdf, pdf.resolve(names.get(i + 1))))) {
+                    entries.add(new Object[] { key, names.get(i + 1) });
+                }
+            }
+        }
+        List<Object> kids = pdf.getArray(node, "Kids");
+        if (kids != null) {
+            for (Object kid : kids) {
+                Object child = pdf.resolve(kid);
+                if (child instanceof Map) {
+                    collect(pdf, castMap(child), entries, depth + 1);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> castMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Returns the file name of a file specification
+     */
+    private static String getFileName(EInvoicePdfDocument pdf, Object spec) throws IOException {
+        if (spec instanceof Map) {
+            for (String key : new String[] { "UF", "F" }) {
+                Object value = pdf.resolve(castMap(spec).get(key));
+                if (value instanceof PdfString) {
+                    return ((PdfString) value).getText();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the Factur-X properties and the extension schema to the existing XMP
+     * metadata or creates new metadata
+     */
+    private byte[] createMetadata(EInvoicePdfDocument pdf, Map<String, Object> catalog, EInvoiceModelCII model)
+            throws IOException {
+        String level = conformanceLevel != null ? conformanceLevel : getConformanceLevel(model);
+        String properties = "<rdf:Description rdf:about=\"\" xmlns:fx=\"" + FACTURX_NAMESPACE + "\">\n"
+                + "<fx:DocumentType>INVOICE</fx:DocumentType>\n"
+                + "<fx:DocumentFileName>" + escape(fileName) + "</fx:DocumentFileName>\n"
+                + "<fx:Version>" + escape(version) + "</fx:Version>\n"
+                + "<fx:ConformanceLevel>" + escape(level) + "</fx:ConformanceLevel>\n"
+                + "</rdf:Description>\n";
+        String schema = "<rdf:li rdf:parseType=\"Resource\">\n"
+                + "<pdfaSchema:schema>Factur-X PDFA Extension Schema</pdfaSchema:schema>\n"
+                + "<pdfaSchema:namespaceURI>" + FACTURX_NAMESPACE + "</pdfaSchema:namespaceURI>\n"
+                + "<pdfaSchema:prefix>fx</pdfaSchema:prefix>\n"
+                + "<pdfaSchema:property><rdf:Seq>\n"
+                + property("DocumentFileName", "The name of the embedded XML document")
+                + property("DocumentType", "The type of the hybrid document in capital letters, e.g. INVOICE")
+                + property("Version", "The actual version of the standard applying to the embedded XML document")
+                + property("ConformanceLevel", "The conformance level of the embedded XML document")
+                + "</rdf:Seq></pdfaSchema:property>\n"
+                + "</rdf:li>\n";
+
+        String xmp = null;
+        Object metadata = pdf.resolve(catalog.get("Metadata"));
+        if (metadata instanceof Stream) {
+            xmp = new String(pdf.getData((Stream) metadata), StandardCharsets.UTF_8);
+        }
+        if (xmp == null || !xmp.contains("</rdf:RDF>")) {
+            xmp = "<?xpacket begin=\"\uFEFF\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>\n"
+                    + "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">\n"
+                    + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">\n"
+                    + "<rdf:Description rdf:about=\"\" xmlns:pdfaid=\"http://www.aiim.org/pdfa/ns/id/\">\n"
+                    + "<pdfaid:part>3</pdfaid:part>\n<pdfaid:conformance>B</pdfaid:conformance>\n"
+                    + "</rdf:Description>\n</rdf:RDF>\n</x:xmpmeta>\n<?xpacket end=\"w\"?>";
+        }
+        // PDF/A-3 allows embedded files
+        xmp = xmp.replaceAll("pdfaid:part=\"[12]\"", "pdfaid:part=\"3\"")
+                .replaceAll("<pdfaid:part>[12]</pdfaid:part>", "<pdfaid:part>3</pdfaid:part>");
+        if (xmp.contains(FACTURX_NAMESPACE)) {
+            // update the existing Factur-X properties
+            String[][] values = { { "DocumentType", "INVOICE" }, { "DocumentFileName", fileName },
+                    { "Version", version }, { "ConformanceLevel", level } };
+            for (String[] value : values) {
+                String replacement = Matcher.quoteReplacement(escape(value[1]));
+                xmp = xmp.replaceAll("(<fx:" + value[0] + ">)[^<]*(</fx:" + value[0] + ">)", "$1" + replacement + "$2")
+                        .replaceAll("(fx:" + value[0] + "=\")[^\"]*(\")", "$1" + replacement + "$2");
+            }
+            return xmp.getBytes(StandardCharsets.UTF_8);
+        }
+        int bag = xmp.indexOf("<pdfaExtension:schemas>");
+        if (bag >= 0 && xmp.indexOf("<rdf:Bag>", bag) > 0) {
+            // add the schema to the existing extension schemas
+            int pos = xmp.indexOf("<rdf:Bag>", bag) + "<rdf:Bag>".length();
+            xmp = xmp.substring(0, pos) + "\n" + schema + xmp.substring(pos);
+        } else {
+            properties += "<rdf:Description rdf:about=\"\""
+                    + " xmlns:pdfaExtension=\"http://www.aiim.org/pdfa/ns/extension/\""
+                    + " xmlns:pdfaSchema=\"http://www.aiim.org/pdfa/ns/schema#\""
+                    + " xmlns:pdfaProperty=\"http://www.aiim.org/pdfa/ns/property#\">\n"
+                    + "<pdfaExtension:schemas><rdf:Bag>\n" + schema + "</rdf:Bag></pdfaExtension:schemas>\n"
+                    + "</rdf:Description>\n";
+        }
+        int end = xmp.lastIndexOf("</rdf:RDF>");
+        xmp = xmp.substring(0, end) + properties + xmp.substring(end);
+        return xmp.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String property(String name, String description) {
+        return "<rdf:li rdf:parseType=\"Resource\">\n<pdfaProperty:name>" + name + "</pdfaProperty:name>\n"
+                + "<pdfaProperty:valueType>Text</pdfaProperty:valueType>\n"
+                + "<pdfaProperty:category>external</pdfaProperty:category>\n"
+                + "<pdfaProperty:description>" + description + "</pdfaProperty:description>\n</rdf:li>\n";
+    }
+
+    /**
+     * Derives the Factur-X conformance level from the guideline ID of the
+     * invoice. The default is 'EN 16931'.
+     */
+    static String getConformanceLevel(EInvoiceModelCII model) {
+        Element context = model.findChildNode(model.getRoot(), EInvoiceNS.RSM, "ExchangedDocumentContext");
+        Element parameter = context == null ? null
+                : model.findChildNode(context, EInvoiceNS.RAM, "GuidelineSpecifiedDocumentContextParameter");
+        Element id = parameter == null ? null : model.findChildNode(parameter, EInvoiceNS.RAM, "ID");
+        String guideline = id == null ? "" : id.getTextContent().trim().toLowerCase();
+        if (guideline.contains("xrechnung")) {
+            return "XRECHNUNG";
+        }
+        if (guideline.endsWith(":extended")) {
+            return "EXTENDED";
+        }
+        if (guideline.endsWith(":basicwl")) {
+            return "BASIC WL";
+        }
+        if (guideline.endsWith(":basic")) {
+            return "BASIC";
+        }
+        if (guideline.endsWith(":minimum")) {
+            return "MINIMUM";
+        }
+        return "EN 16931";
+    }
+
+    /**
+     * Keeps the first part of the document ID and creates a new second part
+     */
+    private static List<Object> createId(EInvoicePdfDocument pdf, Map<String, Object> trailer, byte[] checksum,
+            String date) throws IOException {
+        MessageDigest md5 = md5();
+        md5.update(checksum);
+        md5.update(date.getBytes(StandardCharsets.ISO_8859_1));
+        md5.update(Long.toString(System.nanoTime()).getBytes(StandardCharsets.ISO_8859_1));
+        PdfString updated = new PdfString(md5.digest());
+        List<Object> oldId = pdf.getArray(trailer, "ID");
+        Object first = oldId != null && !oldId.isEmpty() ? pdf.resolve(oldId.get(0)) : null;
+        return List.of(first instanceof PdfString ? first : updated, updated);
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> dict) {
+        return dict == null ? new LinkedHashMap<>() : new LinkedHashMap<>(dict);
+    }
+
+    private static PdfString text(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 126) {
+                byte[] utf16 = value.getBytes(StandardCharsets.UTF_16BE);
+                byte[] bytes = new byte[utf16.length + 2];
+                bytes[0] = (byte) 0xfe;
+                bytes[1] = (byte) 0xff;
+                System.arraycopy(utf16, 0, bytes, 2, utf16.length);
+                return new PdfString(bytes);
+            }
+        }
+        return new PdfString(value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static String pdfDate(ZonedDateTime time) {
+        String offset = time.format(DateTimeFormatter.ofPattern("xxx"));
+        return "D:" + time.format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"))
+                + (offset.equals("+00:00") ? "Z" : offset.replace(':', '\'') + "'");
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static MessageDigest md5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A buffered output into the target channel tracking the file position
+     */
+    private static class Output extends OutputStream {
+        private final OutputStream out;
+        private long position;
+
+        Output(WritableByteChannel channel, long position) {
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+            this.position = position;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void write(String text) throws IOException {
+            write(text.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Counts the bytes written into the wrapped stream
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Finishes the deflater on close without closing the output
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
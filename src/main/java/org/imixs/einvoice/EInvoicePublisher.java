@@ -0,0 +1,316 @@
+package org.imixs.einvoice;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * The EInvoicePublisher is the source of a backpressured e-invoice pipeline
+ * based on java.util.concurrent.Flow. It publishes the models of a stream of
+ * files or input streams.
+ * <p>
+ * The source stream is consumed lazily and a file is parsed only if there is
+ * downstream demand. At most 'bufferSize' files are read ahead, so the heap use
+ * is bounded even if millions of files are queued. The files are parsed with
+ * the given parallelism, the models are published in the order of the source
+ * stream.
+ * <p>
+ * If a file can not be read, the exception is passed to the error handler and
+ * the file is skipped. Without an error handler the exception terminates the
+ * pipeline. Further stages are added with
+ * {@link #then(EInvoiceStage.Task, int, int)}:
+ *
+ * <pre>
+ * EInvoicePublisher publisher = EInvoicePublisher.ofFiles(Files.list(inbox));
+ * publisher.setParallelism(4);
+ * publisher.setErrorHandler((name, e) -> logger.warning(name + ": " + e.getMessage()));
+ * publisher.then(model -> validate(model), 2, 16) //
+ *         .forEach(model -> archive(model)).join();
+ * </pre>
+ *
+ * A EInvoicePublisher supports a single subscriber.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoicePublisher implements Flow.Publisher<EInvoiceModel> {
+
+    /**
+     * A file or input stream to be parsed
+     */
+    private static class Source {
+        private final Path path;
+        private final InputStream is;
+
+        Source(Path path, InputStream is) {
+            this.path = path;
+            this.is = is;
+        }
+
+        EInvoiceModel read(EInvoiceReadOptions options) throws Exception {
+            if (path != null) {
+                return EInvoiceModelFactory.read(path, options);
+            }
+            return EInvoiceModelFactory.read(is, options);
+        }
+
+        @Override
+        public String toString() {
+            return path != null ? path.toString() : is.toString();
+        }
+    }
+
+    private final Iterator<Source> sources;
+    private EInvoiceReadOptions options = null;
+    private int parallelism = 1;
+    private int bufferSize = EInvoiceStage.DEFAULT_BUFFER_SIZE;
+    private Executor executor = null;
+    private BiConsumer<String, Exception> errorHandler = null;
+    private boolean subscribed = false;
+
+    private EInvoicePublisher(Iterator<Source> sources) {
+        super();
+        this.sources = sources;
+    }
+
+    /**
+     * Creates a publisher reading the files of the given stream
+     *
+     * @param paths
+     * @return a new publisher
+     */
+    public static EInvoicePublisher ofFiles(Stream<Path> paths) {
+        return new EInvoicePublisher(paths.map(path -> new Source(path, null)).iterator());
+    }
+
+    /**
+     * Creates a publisher reading the input streams of the given stream. As the
+     * stream is consumed lazily, a stream mapping a source to an InputStream
+     * opens each InputStream only if the model is requested.
+     *
+     * @param streams
+     * @return a new publisher
+     */
+    public static EInvoicePublisher ofStreams(Stream<? extends InputStream> streams) {
+        return new EInvoicePublisher(streams.map(is -> new Source(null, is)).iterator());
+    }
+
+    public EInvoiceReadOptions getOptions() {
+        return options;
+    }
+
+    public void setOptions(EInvoiceReadOptions options) {
+        this.options = options;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of files parsed concurrently. The parallelism must
+     * not be larger than the buffer size, otherwise the subscriber receives an
+     * IllegalArgumentException by onError.
+     *
+     * @param parallelism
+     * @throws IllegalArgumentException if the parallelism is less than 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Sets the maximum number of files read ahead of the downstream demand
+     *
+     * @param bufferSize
+     * @throws IllegalArgumentException if the buffer size is less than 1
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be at least 1: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used to parse the files. The default is the common
+     * ForkJoinPool.
+     *
+     * @param executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public BiConsumer<String, Exception> getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Sets a handler for files which can not be read. The handler is called with
+     * the name of the file and the exception, the file is skipped.
+     *
+     * @param errorHandler
+     */
+    public void setErrorHandler(BiConsumer<String, Exception> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Subscribes a subscriber to this publisher. The files are parsed by an
+     * EInvoiceStage with the parallelism, buffer size and executor of this
+     * publisher.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super EInvoiceModel> subscriber) {
+        if (parallelism > bufferSize) {
+            EInvoiceStage.reject(subscriber, new IllegalArgumentException(
+                    "parallelism " + parallelism + " is larger than the buffer size " + bufferSize));
+            return;
+        }
+        synchronized (this) {
+            if (subscribed) {
+                EInvoiceStage.reject(subscriber, "EInvoicePublisher supports only one subscriber");
+                return;
+            }
+            subscribed = true;
+        }
+        BiConsumer<String, Exception> handler = errorHandler;
+        EInvoiceReadOptions readOptions = options;
+        EInvoiceStage<Source, EInvoiceModel> stage = new EInvoiceStage<>(source -> {
+            try {
+                return source.read(readOptions);
+            } catch (Exception e) {
+                if (handler == null) {
+                    throw e;
+                }
+                handler.accept(source.toString(), e);
+                return null;
+            }
+        }, parallelism, bufferSize, executor);
+        stage.subscribe(subscriber);
+        new IteratorPublisher<>(sources).subscribe(stage);
+    }
+
+    /**
+     * Adds a processing stage to this publisher
+     *
+     * @param task
+     * @param parallelism
+     * @param bufferSize
+     * @return the new stage
+     */
+    public <R> EInvoiceStage<EInvoiceModel, R> then(EInvoiceStage.Task<? super EInvoiceModel, ? extends R> task,
+            int parallelism, int bufferSize) {
+        EInvoiceStage<EInvoiceModel, R> stage = new EInvoiceStage<>(task, parallelism, bufferSize, executor);
+        subscribe(stage);
+        return stage;
+    }
+
+    /**
+     * Consumes the models of this publisher
+     *
+     * @param consumer
+     * @return a future completed after the last model
+     */
+    public CompletableFuture<Void> forEach(Consumer<? super EInvoiceModel> consumer) {
+        return EInvoiceStage.forEach(this, consumer);
+    }
+
+    /**
+     * Publishes the elements of an iterator in the thread requesting them. A
+     * request from within onNext is added to the demand of the running loop. A
+     * non-positive request cancels the subscription with an
+     * IllegalArgumentException (Reactive Streams rule 3.9).
+     */
+    private static class IteratorPublisher<T> implements Flow.Publisher<T> {
+        private final Iterator<T> iterator;
+
+        IteratorPublisher(Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private long demand = 0;
+                private boolean emitting = false;
+                private boolean cancelled = false;
+                private IllegalArgumentException requestError = null;
+
+                @Override
+                public void request(long n) {
+                    synchronized (this) {
+                        if (n <= 0) {
+                            requestError = new IllegalArgumentException("non-positive request: " + n);
+                        } else {
+                            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                        }
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                    }
+                    while (true) {
+                        IllegalArgumentException error = null;
+                        synchronized (this) {
+                            if (!cancelled && requestError != null) {
+                                cancelled = true;
+                                error = requestError;
+                            }
+                            if (cancelled || demand <= 0) {
+                                emitting = false;
+                                if (error == null) {
+                                    return;
+                                }
+                            } else {
+                                demand--;
+                            }
+                        }
+                        if (error != null) {
+                            // signalled by the emitting thread only
+                            subscriber.onError(error);
+                            return;
+                        }
+                        T item;
+                        try {
+                            if (!iterator.hasNext()) {
+                                cancel();
+                                subscriber.onComplete();
+                                return;
+                            }
+                            item = iterator.next();
+                        } catch (RuntimeException e) {
+                            cancel();
+                            subscriber.onError(e);
+                            return;
+                        }
+                        subscriber.onNext(item);
+                    }
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
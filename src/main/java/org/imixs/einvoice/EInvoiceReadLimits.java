@@ -0,0 +1,252 @@
+package org.imixs.einvoice;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * The EInvoiceReadLimits enforce the limits of the {@link EInvoiceReadOptions}
+ * during a single read of the {@link EInvoiceModelFactory}.
+ * <p>
+ * The deadline, the number of bytes and the interrupt status of the reading
+ * thread are checked by a counting input stream for each read from the source.
+ * The number of elements and the nesting depth are checked by a SAX filter
+ * before the elements are added to the DOM tree. If a deadline is set, the
+ * filter checks it for each element too - a source in memory is read in a few
+ * large chunks, so a check per read alone would be too coarse. A exceeded limit is thrown as a
+ * {@link EInvoiceLimitException}, an interrupt as a
+ * {@link EInvoiceCancelledException}. Both are wrapped into the IOException or
+ * SAXException expected by the parser and unwrapped again by {@link #unwrap}.
+ *
+ * @author rsoika
+ *
+ */
+final class EInvoiceReadLimits {
+
+    private final long deadline;
+    private final long timeoutMillis;
+    private final long maxBytes;
+    private final long maxElements;
+    private final int maxDepth;
+
+    private EInvoiceReadLimits(EInvoiceReadOptions options) {
+        long now = System.nanoTime();
+        long millis = 0;
+        long end = Long.MAX_VALUE;
+        if (options != null) {
+            Duration timeout = options.getTimeout();
+            if (timeout != null) {
+                millis = timeout.toMillis();
+                end = now + timeout.toNanos();
+            }
+            Instant instant = options.getDeadline();
+            if (instant != null) {
+                long remaining = Duration.between(Instant.now(), instant).toNanos();
+                if (now + remaining < end) {
+                    end = now + remaining;
+                    millis = Math.max(0, remaining / 1000000);
+                }
+            }
+        }
+        this.deadline = end;
+        this.timeoutMillis = millis;
+        this.maxBytes = options == null ? 0 : options.getMaxBytes();
+        this.maxElements = options == null ? 0 : options.getMaxElements();
+        this.maxDepth = options == null ? 0 : options.getMaxDepth();
+    }
+
+    /**
+     * Creates the limits for a new read. The timeout starts now.
+     *
+     * @param options - can be null
+     * @return the limits
+     */
+    static EInvoiceReadLimits of(EInvoiceReadOptions options) {
+        return new EInvoiceReadLimits(options);
+    }
+
+    /**
+     * Returns true if the elements have to be checked by a SAX filter - for the
+     * element limits or the deadline
+     */
+    boolean hasElementChecks() {
+        return maxElements > 0 || maxDepth > 0 || deadline != Long.MAX_VALUE;
+    }
+
+    /**
+     * Wraps the source stream into a stream counting the bytes
+     */
+    InputStream wrap(InputStream is) {
+        return new LimitInputStream(is);
+    }
+
+    /**
+     * Wraps the XMLReader into a filter counting the elements and the nesting
+     * depth
+     */
+    XMLFilterImpl filter(XMLReader reader) {
+        return new LimitFilter(reader);
+    }
+
+    /**
+     * Throws a EInvoiceCancelledException if the current thread was interrupted
+     * or a EInvoiceLimitException if the deadline has passed.
+     */
+    void check() throws EInvoiceFormatException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new EInvoiceCancelledException();
+        }
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+            throw new EInvoiceLimitException(EInvoiceLimitException.Limit.DEADLINE, timeoutMillis,
+                    "Deadline exceeded: the read took longer than " + timeoutMillis + "ms");
+        }
+    }
+
+    /**
+     * Returns the EInvoiceLimitException or EInvoiceCancelledException causing a
+     * parser or I/O exception or null if the exception was not caused by a limit
+     * or an interrupt.
+     *
+     * @param ex
+     * @return the cause or null
+     */
+    static EInvoiceFormatException unwrap(Throwable ex) {
+        Throwable cause = ex;
+        for (int i = 0; cause != null && i < 10; i++) {
+            if (cause instanceof EInvoiceFormatException) {
+                return (EInvoiceFormatException) cause;
+            }
+            if (cause instanceof ClosedByInterruptException) {
+                // an interruptible channel was closed by Thread.interrupt()
+                return new EInvoiceCancelledException();
+            }
+            Throwable next = cause.getCause();
+            if (next == null && cause instanceof SAXException) {
+                next = ((SAXException) cause).getException();
+            }
+            cause = next;
+        }
+        return null;
+    }
+
+    /**
+     * Counts the bytes read from the source
+     */
+    private class LimitInputStream extends FilterInputStream {
+        private long count = 0;
+        private long markCount = 0;
+
+        LimitInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkStream();
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkStream();
+            if (maxBytes > 0) {
+                // read at most one byte more than allowed
+                len = (int) Math.min(len, maxBytes - count + 1);
+            }
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkStream();
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        /**
+         * Bytes read again after a reset are not counted twice
+         */
+        @Override
+        public synchronized void mark(int readlimit) {
+            super.mark(readlimit);
+            markCount = count;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            super.reset();
+            count = markCount;
+        }
+
+        private void count(long n) throws IOException {
+            count += n;
+            if (maxBytes > 0 && count > maxBytes) {
+                throw new IOException(new EInvoiceLimitException(EInvoiceLimitException.Limit.BYTES, maxBytes,
+                        "Document exceeds the maximum size of " + maxBytes + " bytes"));
+            }
+        }
+
+        private void checkStream() throws IOException {
+            try {
+                check();
+            } catch (EInvoiceFormatException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Counts the elements and the nesting depth and checks the deadline
+     */
+    private class LimitFilter extends XMLFilterImpl {
+        private long elements = 0;
+        private int depth = 0;
+
+        LimitFilter(XMLReader parent) {
+            super(parent);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            elements++;
+            depth++;
+            try {
+                if (maxElements > 0 && elements > maxElements) {
+                    throw new EInvoiceLimitException(EInvoiceLimitException.Limit.ELEMENTS, maxElements,
+                            "Document exceeds the maximum number of " + maxElements + " elements");
+                }
+                if (maxDepth > 0 && depth > maxDepth) {
+                    throw new EInvoiceLimitException(EInvoiceLimitException.Limit.DEPTH, maxDepth,
+                            "Document exceeds the maximum nesting depth of " + maxDepth + " at element " + qName);
+                }
+                check();
+            } catch (EInvoiceFormatException e) {
+                throw new SAXException(e);
+            }
+            super.startElement(uri, localName, qName, atts);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            depth--;
+            super.endElement(uri, localName, qName);
+        }
+    }
+}
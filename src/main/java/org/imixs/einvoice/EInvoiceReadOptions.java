@@ -0,0 +1,162 @@
+package org.imixs.einvoice;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * The EInvoiceReadOptions define optional settings used by the
+ * {@link EInvoiceModelFactory} when reading an e-invoice document.
+ * <p>
+ * If no options are given, the factory uses the default settings.
+ * <p>
+ * The limits - a timeout or deadline, the maximum number of bytes and elements
+ * and the maximum nesting depth - are enforced while the document is parsed. If
+ * a limit is exceeded, the read is aborted with a
+ * {@link EInvoiceLimitException}. A value of 0 or null means no limit.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceReadOptions {
+
+    private boolean retainSource = false;
+    private Duration timeout = null;
+    private Instant deadline = null;
+    private long maxBytes = 0;
+    private long maxElements = 0;
+    private int maxDepth = 0;
+    private long attachmentThreshold = 0;
+    private Path attachmentDirectory = null;
+
+    public EInvoiceReadOptions() {
+        super();
+    }
+
+    /**
+     * Returns true if the factory should keep the original bytes (or the original
+     * file) of a parsed document.
+     * <p>
+     * A model with a retained source returns these bytes from
+     * {@link EInvoiceModel#getContent()} as long as no setter was called since
+     * parsing. This avoids a full serialization of the DOM for invoices which are
+     * only read and then archived or forwarded.
+     *
+     * @return true if the source should be retained
+     */
+    public boolean isRetainSource() {
+        return retainSource;
+    }
+
+    public void setRetainSource(boolean retainSource) {
+        this.retainSource = retainSource;
+    }
+
+    /**
+     * Returns the maximum time a single read may take. The timeout starts with
+     * each read, so the same options can be used for a batch of documents.
+     *
+     * @return the timeout or null
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the absolute point in time after which a read is aborted - e.g. the
+     * end of the time slot of a batch job. If a timeout is also set, the earlier
+     * point in time applies.
+     * <p>
+     * The deadline is checked between the reads from the input stream and for
+     * each parsed element. A read blocking on a stalled stream is not
+     * interrupted.
+     *
+     * @return the deadline or null
+     */
+    public Instant getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(Instant deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the maximum number of bytes read from the input stream
+     *
+     * @return the maximum number of bytes or 0 for no limit
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the maximum number of XML elements of a document
+     *
+     * @return the maximum number of elements or 0 for no limit
+     */
+    public long getMaxElements() {
+        return maxElements;
+    }
+
+    public void setMaxElements(long maxElements) {
+        this.maxElements = maxElements;
+    }
+
+    /**
+     * Returns the maximum nesting depth of the XML elements. The root element has
+     * the depth 1.
+     *
+     * @return the maximum depth or 0 for no limit
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Returns the number of base64 characters up to which an embedded document
+     * (cbc:EmbeddedDocumentBinaryObject or ram:AttachmentBinaryObject) is kept
+     * in the DOM tree.
+     * <p>
+     * The text of a larger attachment is spooled into a temporary file while
+     * parsing and the element only contains a placeholder. The content is
+     * accessed by the {@link EInvoiceAttachment} handles returned by
+     * {@link EInvoiceModel#getAttachments()} and streamed back when the model is
+     * written.
+     *
+     * @return the threshold or 0 if all attachments are kept in the DOM tree
+     */
+    public long getAttachmentThreshold() {
+        return attachmentThreshold;
+    }
+
+    public void setAttachmentThreshold(long attachmentThreshold) {
+        this.attachmentThreshold = attachmentThreshold;
+    }
+
+    /**
+     * Returns the directory of the temporary attachment files
+     *
+     * @return the directory or null for the default temporary directory
+     */
+    public Path getAttachmentDirectory() {
+        return attachmentDirectory;
+    }
+
+    public void setAttachmentDirectory(Path attachmentDirectory) {
+        this.attachmentDirectory = attachmentDirectory;
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.imixs.einvoice;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The EInvoiceRuleEngine checks the EN16931 business rules on the values
+ * extracted by a {@link EInvoiceModel} or read into a {@link EInvoiceData}
+ * container. All rules are checked in one walk over the values, without an
+ * XSLT transformation of the document.
+ * <p>
+ * The engine covers the rules which can be evaluated from the model values:
+ *
+ * <ul>
+ * <li>BR-02, BR-03 - invoice number and issue date</li>
+ * <li>BR-06, BR-07, BR-09, BR-11 - seller/buyer name and country code</li>
+ * <li>BR-16, BR-21, BR-25 - at least one line with identifier and item
+ * name</li>
+ * <li>BR-27, BR-28 - item net and gross price not negative</li>
+ * <li>BR-CO-10 - sum of line net amounts = invoice total line net amount</li>
+ * <li>BR-CO-14 - invoice total VAT amount = sum of the VAT category amounts,
+ * computed per tax rate from the line net amounts (see {@link EInvoiceTotals})</li>
+ * <li>BR-CO-15 - invoice total with VAT = total without VAT + total VAT</li>
+ * <li>BR-S-02 - a standard rated line requires the seller VAT identifier</li>
+ * <li>BR-DEC-12, BR-DEC-13, BR-DEC-14, BR-DEC-23 - max. two decimals</li>
+ * <li>BR-CL-04, BR-CL-14 - currency and country codes (see
+ * {@link EInvoiceCodeList})</li>
+ * </ul>
+ *
+ * Rules for elements not covered by the model (allowances, charges, payment
+ * instructions) are not checked. A EInvoiceRuleEngine instance is thread-safe.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceRuleEngine {
+
+    private static final BigDecimal ROUNDING_TOLERANCE = new BigDecimal("0.01");
+
+    public EInvoiceRuleEngine() {
+        super();
+    }
+
+    /**
+     * Checks the business rules on the values of a model
+     *
+     * @param model
+     * @return the list of violations - empty if all rules are met
+     */
+    public List<EInvoiceRuleViolation> validate(EInvoiceModel model) {
+        return validate(EInvoiceData.of(model));
+    }
+
+    /**
+     * Checks the business rules on the given invoice values
+     *
+     * @param data
+     * @return the list of violations - empty if all rules are met
+     */
+    public List<EInvoiceRuleViolation> validate(EInvoiceData data) {
+        List<EInvoiceRuleViolation> violations = new ArrayList<>();
+
+        if (isEmpty(data.getId())) {
+            violations.add(new EInvoiceRuleViolation("BR-02", "An Invoice shall have an Invoice number"));
+        }
+        if (data.getIssueDateTime() == null) {
+            violations.add(new EInvoiceRuleViolation("BR-03", "An Invoice shall have an Invoice issue date"));
+        }
+
+        if (data.getCurrencyCode() != null && !EInvoiceCodeList.CURRENCY.contains(data.getCurrencyCode())) {
+            violations.add(new EInvoiceRuleViolation("BR-CL-04",
+                    "Invoice currency code " + data.getCurrencyCode() + " is not a ISO 4217 code"));
+        }
+
+        TradeParty seller = data.findTradeParty("seller");
+        if (seller == null || isEmpty(seller.getName())) {
+            violations.add(new EInvoiceRuleViolation("BR-06", "An Invoice shall contain the Seller name"));
+        }
+        if (seller != null && isEmpty(seller.getCountryId())) {
+            violations.add(new EInvoiceRuleViolation("BR-09", "The Seller postal address shall contain a country code"));
+        }
+        checkCountryCode(violations, "Seller", seller);
+        TradeParty buyer = data.findTradeParty("buyer");
+        if (buyer == null || isEmpty(buyer.getName())) {
+            violations.add(new EInvoiceRuleViolation("BR-07", "An Invoice shall contain the Buyer name"));
+        }
+        if (buyer != null && isEmpty(buyer.getCountryId())) {
+            violations.add(new EInvoiceRuleViolation("BR-11", "The Buyer postal address shall contain a country code"));
+        }
+        checkCountryCode(violations, "Buyer", buyer);
+
+        // one walk over the line items - sum the net amounts per tax rate
+        if (data.getTradeLineItems().isEmpty()) {
+            violations.add(new EInvoiceRuleViolation("BR-16", "An Invoice shall have at least one Invoice line"));
+        }
+        BigDecimal lineNetTotal = BigDecimal.ZERO;
+        boolean standardRated = false;
+        for (TradeLineItem item : data.getTradeLineItems()) {
+            String line = "Invoice line " + item.getId() + ": ";
+            if (isEmpty(item.getId())) {
+                violations.add(new EInvoiceRuleViolation("BR-21", "Each Invoice line shall have an identifier"));
+            }
+            if (isEmpty(item.getName())) {
+                violations.add(new EInvoiceRuleViolation("BR-25", line + "Each Invoice line shall contain the Item name"));
+            }
+            if (item.getNetPrice() < 0) {
+                violations.add(new EInvoiceRuleViolation("BR-27", line + "The Item net price shall NOT be negative"));
+            }
+            if (item.getGrossPrice() < 0) {
+                violations.add(new EInvoiceRuleViolation("BR-28", line + "The Item gross price shall NOT be negative"));
+            }
+            BigDecimal lineNet = BigDecimal.valueOf(item.getTotal());
+            if (!hasMaxTwoDecimals(lineNet)) {
+                violations.add(new EInvoiceRuleViolation("BR-DEC-23",
+                        line + "The Invoice line net amount shall have max. 2 decimals"));
+            }
+            lineNetTotal = lineNetTotal.add(lineNet);
+            if (item.getTaxRate() > 0) {
+                standardRated = true;
+            }
+        }
+
+        if (standardRated && (seller == null || isEmpty(seller.getVatNumber()))) {
+            violations.add(new EInvoiceRuleViolation("BR-S-02",
+                    "An Invoice with a standard rated Invoice line shall contain the Seller VAT identifier"));
+        }
+
+        BigDecimal net = data.getNetTotalAmount();
+        BigDecimal tax = data.getTaxTotalAmount();
+        BigDecimal grand = data.getGrandTotalAmount();
+        checkDecimals(violations, "BR-DEC-12", "Invoice total amount without VAT", net);
+        checkDecimals(violations, "BR-DEC-13", "Invoice total VAT amount", tax);
+        checkDecimals(violations, "BR-DEC-14", "Invoice total amount with VAT", grand);
+
+        if (!data.getTradeLineItems().isEmpty()) {
+            if (net != null && lineNetTotal.compareTo(net) != 0) {
+                violations.add(new EInvoiceRuleViolation("BR-CO-10", "Sum of Invoice line net amount "
+                        + lineNetTotal.toPlainString() + " does not match " + net.toPlainString()));
+            }
+            if (tax != null) {
+                // the VAT category tax amount is rounded per category
+                EInvoiceTotals totals = EInvoiceTotals.of(data.getTradeLineItems());
+                BigDecimal categoryTaxTotal = totals.getTaxTotalAmount();
+                BigDecimal tolerance = ROUNDING_TOLERANCE.multiply(BigDecimal.valueOf(totals.getBreakdown().size()));
+                if (categoryTaxTotal.subtract(tax).abs().compareTo(tolerance) > 0) {
+                    violations.add(new EInvoiceRuleViolation("BR-CO-14", "Invoice total VAT amount "
+                            + tax.toPlainString() + " does not match the VAT category tax amounts "
+                            + categoryTaxTotal.toPlainString()));
+                }
+            }
+        }
+        if (net != null && tax != null && grand != null && net.add(tax).compareTo(grand) != 0) {
+            violations.add(new EInvoiceRuleViolation("BR-CO-15", "Invoice total amount with VAT "
+                    + grand.toPlainString() + " does not match " + net.add(tax).toPlainString()));
+        }
+        return violations;
+    }
+
+    private static void checkCountryCode(List<EInvoiceRuleViolation> violations, String role, TradeParty party) {
+        if (party != null && !isEmpty(party.getCountryId())
+                && !EInvoiceCodeList.COUNTRY.contains(party.getCountryId())) {
+            violations.add(new EInvoiceRuleViolation("BR-CL-14",
+                    "The " + role + " country code " + party.getCountryId() + " is not a ISO 3166-1 code"));
+        }
+    }
+
+    private static void checkDecimals(List<EInvoiceRuleViolation> violations, String rule, String field,
+            BigDecimal value) {
+        if (value != null && !hasMaxTwoDecimals(value)) {
+            violations.add(new EInvoiceRuleViolation(rule, "The " + field + " shall have max. 2 decimals"));
+        }
+    }
+
+    private static boolean hasMaxTwoDecimals(BigDecimal value) {
+        return value.stripTrailingZeros().scale() <= 2;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isBlank();
+    }
+}
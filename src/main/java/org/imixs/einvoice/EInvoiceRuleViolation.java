@@ -0,0 +1,38 @@
+package org.imixs.einvoice;
+
+/**
+ * A EInvoiceRuleViolation describes the violation of an EN16931 business rule
+ * identified by its rule code - e.g. 'BR-CO-10'.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceRuleViolation {
+
+    private String rule;
+    private String message;
+
+    public EInvoiceRuleViolation(String rule, String message) {
+        super();
+        this.rule = rule;
+        this.message = message;
+    }
+
+    /**
+     * Returns the EN16931 rule code - e.g. 'BR-CO-15'
+     *
+     * @return
+     */
+    public String getRule() {
+        return rule;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + rule + "] " + message;
+    }
+}
@@ -0,0 +1,428 @@
+package org.imixs.einvoice;
+
+import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * The EInvoiceSchemaValidator validates e-invoice documents against the XML
+ * schema of their format (CII D16B, UBL 2.1, KSeF FA(3)).
+ * <p>
+ * The schema of each format is registered once from a local file or a
+ * classpath resource and compiled only once. Imported and included schema
+ * documents are resolved relative to the main schema. A remote schema location
+ * (e.g. the KSeF 'StrukturyDanych' imports) is never loaded from the network.
+ * It is resolved from a location registered by
+ * {@link #setSchemaLocation(String, URL)} or from a file with the same name in
+ * the directory of the importing schema.
+ * <p>
+ * Validator instances are pooled per thread. A EInvoiceSchemaValidator instance
+ * is thread-safe.
+ *
+ * <pre>
+ * EInvoiceSchemaValidator validator = new EInvoiceSchemaValidator();
+ * validator.setSchema(EInvoiceFormat.CII, Path.of("xsd/CrossIndustryInvoice_100pD16B.xsd"));
+ * List&lt;EInvoiceValidationError&gt; errors = validator.validate(model);
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceSchemaValidator {
+    private static Logger logger = Logger.getLogger(EInvoiceSchemaValidator.class.getName());
+
+    private final Map<EInvoiceFormat, Schema> schemas = new EnumMap<>(EInvoiceFormat.class);
+    private final Map<String, URL> schemaLocations = new ConcurrentHashMap<>();
+    // the validator of each format and thread - replaced if the schema changes
+    private final ThreadLocal<Map<EInvoiceFormat, PooledValidator>> validators = ThreadLocal
+            .withInitial(() -> new EnumMap<>(EInvoiceFormat.class));
+
+    public EInvoiceSchemaValidator() {
+        super();
+    }
+
+    /**
+     * Registers and compiles the schema of a format from a local file.
+     *
+     * @param format
+     * @param xsdFile
+     * @throws IOException if the schema can not be compiled
+     */
+    public void setSchema(EInvoiceFormat format, Path xsdFile) throws IOException {
+        setSchema(format, xsdFile.toUri().toURL());
+    }
+
+    /**
+     * Registers and compiles the schema of a format from a classpath resource -
+     * e.g. '/xsd/ubl/maindoc/UBL-Invoice-2.1.xsd'
+     *
+     * @param format
+     * @param resource
+     * @throws IOException if the resource does not exist or can not be compiled
+     */
+    public void setSchema(EInvoiceFormat format, String resource) throws IOException {
+        URL url = EInvoiceSchemaValidator.class.getResource(resource);
+        if (url == null) {
+            throw new FileNotFoundException("Schema resource not found: " + resource);
+        }
+        setSchema(format, url);
+    }
+
+    /**
+     * Maps a remote schema location, used in an import or include, to a local
+     * file or classpath URL.
+     *
+     * @param systemId - the schema location as used in the schema document
+     * @param location - a 'file:' or 'jar:' URL
+     */
+    public void setSchemaLocation(String systemId, URL location) {
+        if (!isLocal(location)) {
+            throw new IllegalArgumentException("Schema location must be a local file: " + location);
+        }
+        schemaLocations.put(systemId, location);
+    }
+
+    /**
+     * Returns true if a schema is registered for the given format
+     *
+     * @param format
+     * @return
+     */
+    public boolean hasSchema(EInvoiceFormat format) {
+        synchronized (schemas) {
+            return schemas.containsKey(format);
+        }
+    }
+
+    private void setSchema(EInvoiceFormat format, URL url) throws IOException {
+        if (!isLocal(url)) {
+            throw new IOException("Schema must be a local file: " + url);
+        }
+        long start = System.currentTimeMillis();
+        Schema schema;
+        try (InputStream is = url.openStream()) {
+            // a SchemaFactory is not thread-safe
+            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar:file");
+            factory.setResourceResolver(new LocalResourceResolver());
+            schema = factory.newSchema(new StreamSource(is, url.toExternalForm()));
+        } catch (SAXException e) {
+            throw new IOException("Failed to compile schema " + url + ": " + e.getMessage(), e);
+        }
+        synchronized (schemas) {
+            schemas.put(format, schema);
+        }
+        // the validators of other threads are replaced on their next use
+        validators.get().remove(format);
+        logger.fine("...compiled " + format + " schema in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Validates the DOM of a model instance. The model must not be modified
+     * concurrently.
+     *
+     * @param model
+     * @return the list of validation errors - empty if the document is valid
+     * @throws EInvoiceFormatException if no schema is registered for the format of
+     *                                 the model
+     */
+    public List<EInvoiceValidationError> validate(EInvoiceModel model) throws EInvoiceFormatException {
+        EInvoiceFormat format = EInvoiceFormat.of(model);
+        try {
+            return validate(format, new DOMSource(model.getDoc()));
+        } catch (IOException e) {
+            // not expected for a DOM source
+            List<EInvoiceValidationError> errors = new ArrayList<>();
+            errors.add(new EInvoiceValidationError(EInvoiceValidationError.Severity.FATAL, e.getMessage(), -1, -1));
+            return errors;
+        }
+    }
+
+    /**
+     * Validates a raw e-invoice document. The format is detected from the root
+     * element. The stream is not closed.
+     *
+     * @param is
+     * @return the list of validation errors - empty if the document is valid
+     * @throws EInvoiceFormatException if the document is not a supported
+     *                                 e-invoice or no schema is registered
+     * @throws IOException
+     */
+    public List<EInvoiceValidationError> validate(InputStream is) throws EInvoiceFormatException, IOException {
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+        EInvoiceFormat format = EInvoiceFormat.detect(is);
+        if (format == null) {
+            throw new EInvoiceFormatException("XML parsing error", "unsupported root element");
+        }
+        return validate(format, is);
+    }
+
+    /**
+     * Validates a raw document against the schema of the given format. The
+     * stream is not closed.
+     *
+     * @param format
+     * @param is
+     * @return the list of validation errors - empty if the document is valid
+     * @throws EInvoiceFormatException if no schema is registered for the format
+     * @throws IOException
+     */
+    public List<EInvoiceValidationError> validate(EInvoiceFormat format, InputStream is)
+            throws EInvoiceFormatException, IOException {
+        return validate(format, new StreamSource(is));
+    }
+
+    private List<EInvoiceValidationError> validate(EInvoiceFormat format, Source source)
+            throws EInvoiceFormatException, IOException {
+        Schema schema;
+        synchronized (schemas) {
+            schema = schemas.get(format);
+        }
+        if (schema == null) {
+            throw new EInvoiceFormatException(String.valueOf(format), "No schema defined");
+        }
+        Map<EInvoiceFormat, PooledValidator> pool = validators.get();
+        PooledValidator pooled = pool.get(format);
+        if (pooled == null || pooled.schema != schema) {
+            pooled = new PooledValidator(schema, createValidator(schema));
+            pool.put(format, pooled);
+        }
+        Validator validator = pooled.validator;
+        CollectingErrorHandler errorHandler = new CollectingErrorHandler();
+        validator.setErrorHandler(errorHandler);
+        try {
+            validator.validate(source);
+        } catch (SAXException e) {
+            // a fatal error is already collected by the error handler
+            if (errorHandler.errors.isEmpty()) {
+                errorHandler.add(EInvoiceValidationError.Severity.FATAL, e);
+            }
+        } finally {
+            // Validator.reset() is not used as it drops the access restrictions
+            validator.setErrorHandler(null);
+        }
+        return errorHandler.errors;
+    }
+
+    private Validator createValidator(Schema schema) {
+        Validator validator = schema.newValidator();
+        try {
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXException e) {
+            logger.warning("Validator does not support access restrictions: " + e.getMessage());
+        }
+        return validator;
+    }
+
+    private static boolean isLocal(URL url) {
+        String protocol = url.getProtocol();
+        return "file".equals(protocol) || "jar".equals(protocol);
+    }
+
+    /**
+     * A validator of a thread together with the schema it was created for
+     */
+    private static class PooledValidator {
+        private final Schema schema;
+        private final Validator validator;
+
+        PooledValidator(Schema schema, Validator validator) {
+            this.schema = schema;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * Collects all errors instead of stopping at the first one.
+     */
+    private static class CollectingErrorHandler implements ErrorHandler {
+        private final List<EInvoiceValidationError> errors = new ArrayList<>();
+
+        @Override
+        public void warning(SAXParseException e) {
+            add(EInvoiceValidationError.Severity.WARNING, e);
+        }
+
+        @Override
+        public void error(SAXParseException e) {
+            add(EInvoiceValidationError.Severity.ERROR, e);
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException {
+            add(EInvoiceValidationError.Severity.FATAL, e);
+            throw e;
+        }
+
+        private void add(EInvoiceValidationError.Severity severity, SAXException e) {
+            int line = -1;
+            int column = -1;
+            if (e instanceof SAXParseException) {
+                line = ((SAXParseException) e).getLineNumber();
+                column = ((SAXParseException) e).getColumnNumber();
+            }
+            errors.add(new EInvoiceValidationError(severity, e.getMessage(), line, column));
+        }
+    }
+
+    /**
+     * Resolves imported and included schema documents from local files only.
+     */
+    private class LocalResourceResolver implements LSResourceResolver {
+
+        @Override
+        public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId,
+                String baseURI) {
+            if (systemId == null) {
+                return null;
+            }
+            URL location = schemaLocations.get(systemId);
+            try {
+                if (location == null) {
+                    URL base = baseURI != null ? new URL(baseURI) : null;
+                    location = new URL(base, systemId);
+                    if (!isLocal(location) && base != null && isLocal(base)) {
+                        // a remote location - look for a local copy next to the importing schema
+                        String path = location.getPath();
+                        location = new URL(base, path.substring(path.lastIndexOf('/') + 1));
+                    }
+                }
+                if (!isLocal(location)) {
+                    logger.warning("Remote schema location not resolved: " + systemId);
+                    // the access to remote schemas is blocked by ACCESS_EXTERNAL_SCHEMA
+                    return null;
+                }
+                return new LocalInput(publicId, location.toExternalForm(), baseURI, location.openStream());
+            } catch (MalformedURLException e) {
+                logger.warning("Invalid schema location: " + systemId);
+                return null;
+            } catch (IOException e) {
+                logger.warning("Schema location not found: " + location);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A LSInput for a local schema document.
+     */
+    private static class LocalInput implements LSInput {
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+        private InputStream byteStream;
+
+        LocalInput(String publicId, String systemId, String baseURI, InputStream byteStream) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.baseURI = baseURI;
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public Reader getCharacterStream() {
+            return null;
+        }
+
+        @Override
+        public void setCharacterStream(Reader characterStream) {
+        }
+
+        @Override
+        public InputStream getByteStream() {
+            return byteStream;
+        }
+
+        @Override
+        public void setByteStream(InputStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        @Override
+        public String getStringData() {
+            return null;
+        }
+
+        @Override
+        public void setStringData(String stringData) {
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+
+        @Override
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        @Override
+        public String getPublicId() {
+            return publicId;
+        }
+
+        @Override
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return baseURI;
+        }
+
+        @Override
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public String getEncoding() {
+            return null;
+        }
+
+        @Override
+        public void setEncoding(String encoding) {
+        }
+
+        @Override
+        public boolean getCertifiedText() {
+            return false;
+        }
+
+        @Override
+        public void setCertifiedText(boolean certifiedText) {
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package org.imixs.einvoice;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A EInvoiceStage is a processing stage of a backpressured e-invoice pipeline
+ * based on java.util.concurrent.Flow - e.g. to validate, enrich, render or
+ * archive the models published by a {@link EInvoicePublisher}.
+ * <p>
+ * Each stage applies a task to the items of its upstream publisher with a
+ * stage-specific parallelism. The stage holds at most 'bufferSize' items -
+ * queued, in progress or waiting for downstream demand - and requests a new
+ * item from upstream only when an item has left the stage. So the memory used
+ * by a pipeline is bounded even if the source is much faster than the slowest
+ * stage. No item is requested from upstream before the first downstream
+ * demand.
+ * <p>
+ * The results are published in the order of the upstream items. If the task
+ * returns null, the item is dropped - so a stage can also act as a filter. If
+ * the task throws an exception, the upstream subscription is cancelled and the
+ * exception is passed to the downstream subscriber.
+ *
+ * <pre>
+ * EInvoicePublisher.ofFiles(paths) //
+ *         .then(model -> validate(model), 4, 16) //
+ *         .then(model -> archive(model)) //
+ *         .forEach(model -> ...).join();
+ * </pre>
+ *
+ * A stage supports a single subscriber.
+ *
+ * @author rsoika
+ *
+ * @param <T> the type of the upstream items
+ * @param <R> the type of the published results
+ */
+public class EInvoiceStage<T, R> implements Flow.Processor<T, R> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    /**
+     * The task applied to each item of a stage
+     */
+    @FunctionalInterface
+    public interface Task<T, R> {
+        /**
+         * Processes a single item
+         *
+         * @param item
+         * @return the result or null to drop the item
+         * @throws Exception
+         */
+        R apply(T item) throws Exception;
+    }
+
+    private static class Slot<R> {
+        R value;
+        Exception error;
+        boolean done;
+    }
+
+    private final Task<? super T, ? extends R> task;
+    private final int parallelism;
+    private final int bufferSize;
+    private final Executor executor;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<T> input = new ArrayDeque<>();
+    private final ArrayDeque<Slot<R>> output = new ArrayDeque<>();
+    private Flow.Subscription upstream;
+    private Flow.Subscriber<? super R> downstream;
+    private long demand = 0;
+    private int running = 0;
+    private boolean started = false;
+    private boolean upstreamDone = false;
+    private Throwable upstreamError = null;
+    private Throwable requestError = null;
+    private boolean cancelled = false;
+    private boolean terminated = false;
+    private boolean draining = false;
+
+    /**
+     * Creates a sequential stage with the default buffer size
+     *
+     * @param task
+     */
+    public EInvoiceStage(Task<? super T, ? extends R> task) {
+        this(task, 1, DEFAULT_BUFFER_SIZE, null);
+    }
+
+    /**
+     * Creates a stage running the task in the common ForkJoinPool
+     *
+     * @param task
+     * @param parallelism - the maximum number of items processed concurrently
+     * @param bufferSize  - the maximum number of items held by the stage
+     */
+    public EInvoiceStage(Task<? super T, ? extends R> task, int parallelism, int bufferSize) {
+        this(task, parallelism, bufferSize, null);
+    }
+
+    /**
+     * Creates a stage running the task in the given executor
+     *
+     * @param task
+     * @param parallelism - the maximum number of items processed concurrently
+     * @param bufferSize  - the maximum number of items held by the stage
+     * @param executor    - the executor or null for the common ForkJoinPool
+     */
+    public EInvoiceStage(Task<? super T, ? extends R> task, int parallelism, int bufferSize, Executor executor) {
+        super();
+        if (parallelism < 1 || bufferSize < parallelism) {
+            throw new IllegalArgumentException("parallelism must be at least 1 and not larger than the buffer size");
+        }
+        this.task = task;
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.executor = executor == null ? ForkJoinPool.commonPool() : executor;
+    }
+
+    /**
+     * Adds a sequential stage to this stage
+     *
+     * @param next
+     * @return the new stage
+     */
+    public <V> EInvoiceStage<R, V> then(Task<? super R, ? extends V> next) {
+        return then(next, 1, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Adds a stage to this stage. The new stage runs in the same executor.
+     *
+     * @param next
+     * @param parallelism
+     * @param bufferSize
+     * @return the new stage
+     */
+    public <V> EInvoiceStage<R, V> then(Task<? super R, ? extends V> next, int parallelism, int bufferSize) {
+        EInvoiceStage<R, V> stage = new EInvoiceStage<>(next, parallelism, bufferSize, executor);
+        subscribe(stage);
+        return stage;
+    }
+
+    /**
+     * Consumes the results of this stage
+     *
+     * @param consumer
+     * @return a future completed after the last result or with the error of the
+     *         pipeline
+     */
+    public CompletableFuture<Void> forEach(Consumer<? super R> consumer) {
+        return forEach(this, consumer);
+    }
+
+    /**
+     * Consumes the items of a publisher one by one. If the consumer throws an
+     * exception, the subscription is cancelled and the future completes
+     * exceptionally.
+     *
+     * @param publisher
+     * @param consumer
+     * @return a future completed after the last item
+     */
+    public static <T> CompletableFuture<Void> forEach(Flow.Publisher<T> publisher, Consumer<? super T> consumer) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<T>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(T item) {
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    consumer.accept(item);
+                } catch (RuntimeException e) {
+                    subscription.cancel();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                result.complete(null);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Signals an IllegalStateException to a subscriber which can not be
+     * subscribed
+     */
+    static void reject(Flow.Subscriber<?> subscriber, String message) {
+        reject(subscriber, new IllegalStateException(message));
+    }
+
+    /**
+     * Signals an error to a subscriber which can not be subscribed
+     */
+    static void reject(Flow.Subscriber<?> subscriber, Throwable error) {
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(error);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super R> subscriber) {
+        synchronized (lock) {
+            if (downstream == null) {
+                downstream = subscriber;
+                subscriber = null;
+            }
+        }
+        if (subscriber != null) {
+            reject(subscriber, "EInvoiceStage supports only one subscriber");
+            return;
+        }
+        downstream.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                synchronized (lock) {
+                    if (n <= 0) {
+                        requestError = new IllegalArgumentException("non-positive request: " + n);
+                    } else {
+                        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    }
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                Flow.Subscription subscription;
+                synchronized (lock) {
+                    cancelled = true;
+                    input.clear();
+                    output.clear();
+                    subscription = upstream;
+                }
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+            }
+        });
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (lock) {
+            if (upstream == null && !cancelled) {
+                upstream = subscription;
+                subscription = null;
+            }
+        }
+        if (subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        drain();
+    }
+
+    @Override
+    public void onNext(T item) {
+        synchronized (lock) {
+            if (cancelled || terminated) {
+                return;
+            }
+            input.add(item);
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (lock) {
+            upstreamError = throwable;
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (lock) {
+            upstreamDone = true;
+        }
+        drain();
+    }
+
+    /**
+     * Starts the tasks of the queued items and publishes the completed results.
+     * Only one thread drains at a time, so the downstream subscriber is never
+     * called concurrently. The loop ends after a pass without any work.
+     */
+    private void drain() {
+        synchronized (lock) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Flow.Subscription subscription;
+            Flow.Subscriber<? super R> subscriber;
+            List<Runnable> tasks = new ArrayList<>();
+            List<R> results = new ArrayList<>();
+            long request = 0;
+            Throwable error = null;
+            boolean complete = false;
+            boolean done;
+            synchronized (lock) {
+                done = upstreamDone;
+                subscription = upstream;
+                subscriber = downstream;
+                if (cancelled || terminated || subscriber == null) {
+                    draining = false;
+                    return;
+                }
+                if (!started && subscription != null && demand > 0) {
+                    started = true;
+                    request = bufferSize;
+                }
+                while (running < parallelism && !input.isEmpty()) {
+                    T item = input.poll();
+                    Slot<R> slot = new Slot<>();
+                    output.add(slot);
+                    running++;
+                    tasks.add(() -> process(item, slot));
+                }
+                while (!output.isEmpty() && output.peek().done) {
+                    Slot<R> slot = output.peek();
+                    if (slot.error != null) {
+                        error = slot.error;
+                        break;
+                    }
+                    if (slot.value != null) {
+                        if (demand == 0) {
+                            break;
+                        }
+                        results.add(slot.value);
+                        demand--;
+                    }
+                    output.poll();
+                    request++;
+                }
+                if (requestError != null) {
+                    error = requestError;
+                }
+                if (error == null && upstreamDone && input.isEmpty() && output.isEmpty() && running == 0) {
+                    error = upstreamError;
+                    complete = upstreamError == null;
+                }
+                if (error != null || complete) {
+                    terminated = true;
+                    input.clear();
+                    output.clear();
+                } else if (tasks.isEmpty() && results.isEmpty() && request == 0) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            for (Runnable runnable : tasks) {
+                try {
+                    executor.execute(runnable);
+                } catch (RejectedExecutionException e) {
+                    synchronized (lock) {
+                        requestError = e;
+                    }
+                }
+            }
+            for (R result : results) {
+                subscriber.onNext(result);
+            }
+            if (error != null) {
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                subscriber.onError(error);
+                return;
+            }
+            if (complete) {
+                subscriber.onComplete();
+                return;
+            }
+            if (request > 0 && !done) {
+                subscription.request(request);
+            }
+        }
+    }
+
+    private void process(T item, Slot<R> slot) {
+        R value = null;
+        Exception error = null;
+        try {
+            value = task.apply(item);
+        } catch (Exception e) {
+            error = e;
+        }
+        synchronized (lock) {
+            slot.value = value;
+            slot.error = error;
+            slot.done = true;
+            running--;
+        }
+        drain();
+    }
+}
@@ -0,0 +1,695 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The EInvoiceStreamReader reads the values of a CII, UBL or KSeF document in
+ * one StAX pass into a {@link EInvoiceData} container without building a DOM.
+ * <p>
+ * The field mapping follows the parse methods of {@link EInvoiceModelCII},
+ * {@link EInvoiceModelUBL} and {@link EInvoiceModelKSeF}. Values which can not
+ * be parsed are reported as {@link EInvoiceMappingGap}. Currency, country, VAT
+ * category and payment means codes are checked against the
+ * {@link EInvoiceCodeList}s - an unknown code is reported as a gap too. The
+ * unit code list only contains the commonly used codes of UN/ECE
+ * Recommendation 20, so a unit code is only reported if it is malformed.
+ *
+ * <pre>
+ * EInvoiceStreamReader reader = new EInvoiceStreamReader();
+ * EInvoiceData data = reader.read(inputStream);
+ * EInvoiceFormat format = reader.getFormat();
+ * </pre>
+ *
+ * A reader instance is not thread-safe but can be reused for many documents.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceStreamReader {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+    private static final DateTimeFormatter CII_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter ISO_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    // element paths relative to the root element
+    private static final String CII_TRANSACTION = "SupplyChainTradeTransaction/";
+    private static final String CII_LINE_ITEM = CII_TRANSACTION + "IncludedSupplyChainTradeLineItem";
+    private static final String CII_AGREEMENT = CII_TRANSACTION + "ApplicableHeaderTradeAgreement/";
+    private static final String CII_SETTLEMENT = CII_TRANSACTION + "ApplicableHeaderTradeSettlement/";
+    private static final String CII_SUMMATION = CII_SETTLEMENT + "SpecifiedTradeSettlementHeaderMonetarySummation/";
+    private static final String CII_QUANTITY = CII_LINE_ITEM + "/SpecifiedLineTradeDelivery/BilledQuantity";
+    private static final String UBL_QUANTITY = "InvoiceLine/InvoicedQuantity";
+
+    private EInvoiceFormat format;
+    private EInvoiceData data;
+    private List<EInvoiceMappingGap> gaps;
+
+    private final Deque<String> paths = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+    private TradeParty party;
+    private String partyPath;
+    private TradeLineItem item;
+    private String itemPath;
+    private boolean hasHeaderTaxRate;
+    private BigDecimal kSeFNetTotal;
+    private BigDecimal kSeFTaxTotal;
+
+    public EInvoiceStreamReader() {
+        super();
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Returns the format of the last document read
+     *
+     * @return
+     */
+    public EInvoiceFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the values of the last document which could not be read
+     *
+     * @return
+     */
+    public List<EInvoiceMappingGap> getMappingGaps() {
+        return gaps;
+    }
+
+    /**
+     * Reads the invoice values from a CII, UBL or KSeF document. The stream is
+     * not closed.
+     *
+     * @param is
+     * @return the invoice values
+     * @throws EInvoiceFormatException if the document is not a supported
+     *                                 e-invoice
+     * @throws IOException
+     */
+    public EInvoiceData read(InputStream is) throws EInvoiceFormatException, IOException {
+        format = null;
+        data = new EInvoiceData();
+        gaps = new ArrayList<>();
+        paths.clear();
+        party = null;
+        item = null;
+        hasHeaderTaxRate = false;
+        kSeFNetTotal = null;
+        kSeFTaxTotal = null;
+
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(is);
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    text.setLength(0);
+                    if (format == null) {
+                        format = EInvoiceFormat.detect(reader.getLocalName(), reader.getNamespaceURI());
+                        if (format == null) {
+                            throw new EInvoiceFormatException(reader.getLocalName(), reader.getNamespaceURI());
+                        }
+                        paths.push("");
+                        continue;
+                    }
+                    String parent = paths.peek();
+                    String path = parent.isEmpty() ? reader.getLocalName() : parent + "/" + reader.getLocalName();
+                    paths.push(path);
+                    startElement(path, reader);
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    text.append(reader.getText());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String path = paths.pop();
+                    if (!path.isEmpty()) {
+                        endElement(path, text.toString().trim());
+                    }
+                    text.setLength(0);
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new EInvoiceFormatException("XML parsing error", e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // no op
+                }
+            }
+        }
+        if (format == null) {
+            throw new EInvoiceFormatException("XML parsing error", "empty document");
+        }
+        finish();
+        return data;
+    }
+
+    private void startElement(String path, XMLStreamReader reader) {
+        switch (format) {
+        case CII:
+            if (path.equals(CII_QUANTITY)) {
+                checkLineUnit(reader.getAttributeValue(null, "unitCode"));
+            } else if (path.equals(CII_LINE_ITEM)) {
+                startItem(path);
+            } else if (path.equals(CII_AGREEMENT + "SellerTradeParty")) {
+                startParty(path, "seller");
+            } else if (path.equals(CII_AGREEMENT + "BuyerTradeParty")) {
+                startParty(path, "buyer");
+            } else if (path.equals(CII_TRANSACTION + "ApplicableHeaderTradeDelivery/ShipToTradeParty")) {
+                startParty(path, "ship_to");
+            }
+            break;
+        case UBL:
+            if (path.equals(UBL_QUANTITY)) {
+                checkLineUnit(reader.getAttributeValue(null, "unitCode"));
+            } else if (path.equals("InvoiceLine")) {
+                startItem(path);
+            } else if (path.equals("AccountingSupplierParty")) {
+                startParty(path, "seller");
+            } else if (path.equals("AccountingCustomerParty")) {
+                startParty(path, "buyer");
+            } else if (path.equals("Delivery")) {
+                startParty(path, "ship_to");
+            }
+            break;
+        case KSEF:
+            if (path.equals("Fa/FaWiersz")) {
+                startItem(path);
+            } else if (path.equals("Podmiot1")) {
+                startParty(path, "seller");
+            } else if (path.equals("Podmiot2")) {
+                startParty(path, "buyer");
+            }
+            break;
+        }
+    }
+
+    private void endElement(String path, String value) {
+        if (path.equals(itemPath)) {
+            // items without a line id are skipped (see parseTradeLineItems)
+            if (item.getId() != null) {
+                data.getTradeLineItems().add(item);
+            }
+            item = null;
+            itemPath = null;
+            return;
+        }
+        if (path.equals(partyPath)) {
+            // a UBL Delivery element does not need to contain a party
+            if (!"ship_to".equals(party.getType()) || party.getName() != null || party.getCityName() != null) {
+                data.setTradeParty(party);
+            }
+            party = null;
+            partyPath = null;
+            return;
+        }
+        if (item != null) {
+            endItemElement(path.substring(itemPath.length() + 1), value);
+        } else if (party != null) {
+            endPartyElement(path.substring(partyPath.length() + 1), value);
+        } else {
+            switch (format) {
+            case CII:
+                endCIIElement(path, value);
+                break;
+            case UBL:
+                endUBLElement(path, value);
+                break;
+            case KSEF:
+                endKSeFElement(path, value);
+                break;
+            }
+        }
+    }
+
+    private void startItem(String path) {
+        item = new TradeLineItem(null);
+        itemPath = path;
+    }
+
+    private void startParty(String path, String type) {
+        party = new TradeParty(type);
+        partyPath = path;
+    }
+
+    private void endCIIElement(String path, String value) {
+        switch (path) {
+        case "ExchangedDocument/ID":
+            data.setId(value);
+            break;
+        case "ExchangedDocument/IssueDateTime/DateTimeString":
+            data.setIssueDateTime(parseDate("issueDateTime", value, CII_DATE));
+            break;
+        case CII_AGREEMENT + "BuyerReference":
+            data.setBuyerReference(value);
+            break;
+        case CII_AGREEMENT + "BuyerOrderReferencedDocument/IssuerAssignedID":
+            data.setOrderReferenceId(value);
+            break;
+        case CII_SETTLEMENT + "InvoiceCurrencyCode":
+            data.setCurrencyCode(value);
+            checkCode("currencyCode", EInvoiceCodeList.CURRENCY, value);
+            break;
+        case CII_SETTLEMENT + "ApplicableTradeTax/RateApplicablePercent":
+            headerTaxRate(value);
+            break;
+        case CII_SETTLEMENT + "ApplicableTradeTax/CategoryCode":
+            checkCode("taxCategory", EInvoiceCodeList.VAT_CATEGORY, value);
+            break;
+        case CII_SETTLEMENT + "SpecifiedTradeSettlementPaymentMeans/TypeCode":
+            checkCode("paymentMeans", EInvoiceCodeList.PAYMENT_MEANS, value);
+            break;
+        case CII_SETTLEMENT + "SpecifiedTradePaymentTerms/DueDateDateTime/DateTimeString":
+            data.setDueDateTime(parseDate("dueDateTime", value, CII_DATE));
+            break;
+        case CII_SUMMATION + "GrandTotalAmount":
+            data.setGrandTotalAmount(parseAmount("grandTotalAmount", value));
+            break;
+        case CII_SUMMATION + "TaxTotalAmount":
+            data.setTaxTotalAmount(parseAmount("taxTotalAmount", value));
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void endUBLElement(String path, String value) {
+        switch (path) {
+        case "ID":
+            data.setId(value);
+            break;
+        case "IssueDate":
+            data.setIssueDateTime(parseDate("issueDateTime", value, ISO_DATE));
+            break;
+        case "DueDate":
+        case "PaymentMeans/PaymentDueDate":
+            if (data.getDueDateTime() == null) {
+                data.setDueDateTime(parseDate("dueDateTime", value, ISO_DATE));
+            }
+            break;
+        case "DocumentCurrencyCode":
+            data.setCurrencyCode(value);
+            checkCode("currencyCode", EInvoiceCodeList.CURRENCY, value);
+            break;
+        case "BuyerReference":
+            data.setBuyerReference(value);
+            break;
+        case "OrderReference/ID":
+            data.setOrderReferenceId(value);
+            break;
+        case "TaxTotal/TaxSubtotal/TaxCategory/Percent":
+            headerTaxRate(value);
+            break;
+        case "TaxTotal/TaxSubtotal/TaxCategory/ID":
+            checkCode("taxCategory", EInvoiceCodeList.VAT_CATEGORY, value);
+            break;
+        case "PaymentMeans/PaymentMeansCode":
+            checkCode("paymentMeans", EInvoiceCodeList.PAYMENT_MEANS, value);
+            break;
+        case "LegalMonetaryTotal/TaxInclusiveAmount":
+            data.setGrandTotalAmount(parseAmount("grandTotalAmount", value));
+            break;
+        case "LegalMonetaryTotal/LineExtensionAmount":
+            data.setNetTotalAmount(parseAmount("netTotalAmount", value));
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void endKSeFElement(String path, String value) {
+        switch (path) {
+        case "Fa/P_2":
+            data.setId(value);
+            break;
+        case "Fa/P_1":
+            data.setIssueDateTime(parseDate("issueDateTime", value, ISO_DATE));
+            break;
+        case "Fa/P_6":
+            if (data.getDueDateTime() == null) {
+                data.setDueDateTime(parseDate("dueDateTime", value, ISO_DATE));
+            }
+            break;
+        case "Fa/Platnosc/TerminPlatnosci/Termin":
+            data.setDueDateTime(parseDate("dueDateTime", value, ISO_DATE));
+            break;
+        case "Fa/KodWaluty":
+            data.setCurrencyCode(value);
+            checkCode("currencyCode", EInvoiceCodeList.CURRENCY, value);
+            break;
+        case "Fa/P_15":
+            data.setGrandTotalAmount(parseAmount("grandTotalAmount", value));
+            break;
+        default:
+            // net and tax amounts are split by the tax rate (P_13_1, P_13_2...)
+            if (path.startsWith("Fa/P_13_")) {
+                kSeFNetTotal = add(kSeFNetTotal, parseAmount("netTotalAmount", value));
+            } else if (path.startsWith("Fa/P_14_") && !path.endsWith("W")) {
+                kSeFTaxTotal = add(kSeFTaxTotal, parseAmount("taxTotalAmount", value));
+            }
+            break;
+        }
+    }
+
+    private void endPartyElement(String path, String value) {
+        switch (format) {
+        case CII:
+            switch (path) {
+            case "Name":
+                party.setName(value);
+                break;
+            case "PostalTradeAddress/PostcodeCode":
+                party.setPostcodeCode(value);
+                break;
+            case "PostalTradeAddress/LineOne":
+                party.setStreetAddress(value);
+                break;
+            case "PostalTradeAddress/CityName":
+                party.setCityName(value);
+                break;
+            case "PostalTradeAddress/CountryID":
+                party.setCountryId(value);
+                checkPartyCode("countryId", EInvoiceCodeList.COUNTRY, value);
+                break;
+            case "SpecifiedTaxRegistration/ID":
+                if (party.getVatNumber() == null) {
+                    party.setVatNumber(value);
+                }
+                break;
+            default:
+                break;
+            }
+            break;
+        case UBL:
+            // the delivery party is nested in DeliveryParty and DeliveryLocation
+            if (path.startsWith("DeliveryParty/")) {
+                path = path.substring(14);
+            } else if (path.startsWith("DeliveryLocation/Address/")) {
+                path = "Party/PostalAddress/" + path.substring(25);
+            }
+            switch (path) {
+            case "Party/PartyName/Name":
+            case "PartyName/Name":
+                party.setName(value);
+                break;
+            case "Party/PartyLegalEntity/RegistrationName":
+                if (party.getName() == null) {
+                    party.setName(value);
+                }
+                break;
+            case "Party/PostalAddress/StreetName":
+                party.setStreetAddress(value);
+                break;
+            case "Party/PostalAddress/CityName":
+                party.setCityName(value);
+                break;
+            case "Party/PostalAddress/PostalZone":
+                party.setPostcodeCode(value);
+                break;
+            case "Party/PostalAddress/Country/IdentificationCode":
+                party.setCountryId(value);
+                checkPartyCode("countryId", EInvoiceCodeList.COUNTRY, value);
+                break;
+            case "Party/PartyTaxScheme/CompanyID":
+                if (party.getVatNumber() == null) {
+                    party.setVatNumber(value);
+                }
+                break;
+            default:
+                break;
+            }
+            break;
+        case KSEF:
+            switch (path) {
+            case "DaneIdentyfikacyjne/NIP":
+                party.setVatNumber(value);
+                break;
+            case "DaneIdentyfikacyjne/Nazwa":
+                party.setName(value);
+                break;
+            case "Adres/KodKraju":
+                party.setCountryId(value);
+                checkPartyCode("countryId", EInvoiceCodeList.COUNTRY, value);
+                break;
+            case "Adres/AdresL1":
+                party.setStreetAddress(value);
+                break;
+            case "Adres/AdresL2":
+                // "87-607 Środa Śląska"
+                if (value.contains(" ")) {
+                    String[] parts = value.split(" ", 2);
+                    party.setPostcodeCode(parts[0]);
+                    party.setCityName(parts[1]);
+                } else {
+                    party.setCityName(value);
+                }
+                break;
+            default:
+                break;
+            }
+            break;
+        }
+    }
+
+    private void endItemElement(String path, String value) {
+        switch (format) {
+        case CII:
+            switch (path) {
+            case "AssociatedDocumentLineDocument/LineID":
+                item.setId(value);
+                break;
+            case "SpecifiedTradeProduct/Name":
+                item.setName(value);
+                break;
+            case "SpecifiedTradeProduct/Description":
+                item.setDescription(value);
+                break;
+            case "SpecifiedLineTradeAgreement/GrossPriceProductTradePrice/ChargeAmount":
+                item.setGrossPrice(parseDouble("grossPrice", value));
+                break;
+            case "SpecifiedLineTradeAgreement/NetPriceProductTradePrice/ChargeAmount":
+                item.setNetPrice(parseDouble("netPrice", value));
+                break;
+            case "SpecifiedLineTradeAgreement/BuyerOrderReferencedDocument/LineID":
+                item.setOrderReferenceId(value);
+                break;
+            case "SpecifiedLineTradeDelivery/BilledQuantity":
+                item.setQuantity(parseDouble("quantity", value));
+                break;
+            case "SpecifiedLineTradeSettlement/ApplicableTradeTax/RateApplicablePercent":
+                item.setTaxRate(parseDouble("taxRate", value));
+                break;
+            case "SpecifiedLineTradeSettlement/ApplicableTradeTax/CategoryCode":
+                checkLineCode("taxCategory", EInvoiceCodeList.VAT_CATEGORY, value);
+                item.setTaxCategory(value);
+                break;
+            case "SpecifiedLineTradeSettlement/SpecifiedTradeSettlementLineMonetarySummation/LineTotalAmount":
+                item.setTotal(parseDouble("total", value));
+                break;
+            default:
+                break;
+            }
+            break;
+        case UBL:
+            switch (path) {
+            case "ID":
+                item.setId(value);
+                break;
+            case "Item/Name":
+                item.setName(value);
+                break;
+            case "Item/Description":
+                item.setDescription(value);
+                break;
+            case "Price/PriceAmount":
+                item.setGrossPrice(parseDouble("grossPrice", value));
+                item.setNetPrice(item.getGrossPrice());
+                break;
+            case "OrderLineReference/LineID":
+                item.setOrderReferenceId(value);
+                break;
+            case "InvoicedQuantity":
+                item.setQuantity(parseDouble("quantity", value));
+                break;
+            case "LineExtensionAmount":
+                item.setTotal(parseDouble("total", value));
+                break;
+            case "Item/ClassifiedTaxCategory/Percent":
+                item.setTaxRate(parseDouble("taxRate", value));
+                break;
+            case "Item/ClassifiedTaxCategory/ID":
+                checkLineCode("taxCategory", EInvoiceCodeList.VAT_CATEGORY, value);
+                item.setTaxCategory(value);
+                break;
+            default:
+                break;
+            }
+            break;
+        case KSEF:
+            switch (path) {
+            case "NrWierszaFa":
+                item.setId(value);
+                break;
+            case "UU_ID":
+                item.setOrderReferenceId(value);
+                break;
+            case "P_7":
+                item.setName(value);
+                break;
+            case "P_8A":
+                item.setDescription(value);
+                break;
+            case "P_8B":
+                item.setQuantity(parseDouble("quantity", value));
+                break;
+            case "P_9A":
+                item.setGrossPrice(parseDouble("grossPrice", value));
+                item.setNetPrice(item.getGrossPrice());
+                break;
+            case "P_11":
+                item.setTotal(parseDouble("total", value));
+                break;
+            case "P_12":
+                item.setTaxRate(parseDouble("taxRate", value));
+                break;
+            default:
+                break;
+            }
+            break;
+        }
+    }
+
+    /**
+     * Only the first tax rate of the header is used (see getTaxRate)
+     */
+    private void headerTaxRate(String value) {
+        if (!hasHeaderTaxRate) {
+            hasHeaderTaxRate = true;
+            data.setTaxRate(parseAmount("taxRate", value));
+        }
+    }
+
+    /**
+     * Computes the derived totals in the same way as the models do.
+     */
+    private void finish() {
+        if (format == EInvoiceFormat.CII) {
+            // net = grand - tax
+            if (data.getGrandTotalAmount() != null && data.getTaxTotalAmount() != null) {
+                data.setNetTotalAmount(data.getGrandTotalAmount()
+                        .subtract(data.getTaxTotalAmount().setScale(2, RoundingMode.HALF_UP)));
+            }
+        } else if (format == EInvoiceFormat.UBL) {
+            // tax = grand - net
+            if (data.getGrandTotalAmount() != null && data.getNetTotalAmount() != null) {
+                data.setGrandTotalAmount(data.getGrandTotalAmount().setScale(2, RoundingMode.HALF_UP));
+                data.setNetTotalAmount(data.getNetTotalAmount().setScale(2, RoundingMode.HALF_UP));
+                data.setTaxTotalAmount(data.getGrandTotalAmount().subtract(data.getNetTotalAmount()));
+            }
+        } else {
+            data.setNetTotalAmount(kSeFNetTotal);
+            data.setTaxTotalAmount(kSeFTaxTotal);
+        }
+    }
+
+    /**
+     * Reports a code which is not part of the code list. Missing codes are not
+     * reported.
+     */
+    private void checkCode(String field, EInvoiceCodeList codeList, String value) {
+        if (value != null && !value.isEmpty() && !codeList.contains(value)) {
+            gaps.add(new EInvoiceMappingGap(field, "unknown code '" + value + "'"));
+        }
+    }
+
+    private void checkPartyCode(String field, EInvoiceCodeList codeList, String value) {
+        if (value != null && !value.isEmpty() && !codeList.contains(value)) {
+            gaps.add(new EInvoiceMappingGap(party.getType() + "." + field, "unknown code '" + value + "'"));
+        }
+    }
+
+    private void checkLineCode(String field, EInvoiceCodeList codeList, String value) {
+        if (value != null && !value.isEmpty() && !codeList.contains(value)) {
+            gaps.add(new EInvoiceMappingGap("line " + item.getId() + "." + field, "unknown code '" + value + "'"));
+        }
+    }
+
+    /**
+     * Reports a unit code which is not a code of two or three characters A-Z and
+     * 0-9. A well-formed code missing in {@link EInvoiceCodeList#UNIT} is not
+     * reported, because the list does not contain all codes.
+     */
+    private void checkLineUnit(String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        boolean valid = value.length() >= 2 && value.length() <= 3;
+        for (int i = 0; valid && i < value.length(); i++) {
+            char c = value.charAt(i);
+            valid = (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+        }
+        if (!valid) {
+            gaps.add(new EInvoiceMappingGap("line " + item.getId() + ".unitCode", "invalid code '" + value + "'"));
+        }
+    }
+
+    private LocalDate parseDate(String field, String value, DateTimeFormatter formatter) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value, formatter);
+        } catch (DateTimeParseException e) {
+            gaps.add(new EInvoiceMappingGap(field, "invalid date '" + value + "'"));
+            return null;
+        }
+    }
+
+    private BigDecimal parseAmount(String field, String value) {
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            gaps.add(new EInvoiceMappingGap(field, "invalid number '" + value + "'"));
+            return null;
+        }
+    }
+
+    private double parseDouble(String field, String value) {
+        BigDecimal result = parseAmount("line " + item.getId() + "." + field, value);
+        return result == null ? 0 : result.doubleValue();
+    }
+
+    private static BigDecimal add(BigDecimal total, BigDecimal value) {
+        if (value == null) {
+            return total;
+        }
+        return total == null ? value : total.add(value);
+    }
+}
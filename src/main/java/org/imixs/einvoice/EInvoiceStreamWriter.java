@@ -0,0 +1,655 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * The EInvoiceStreamWriter writes the values of a {@link EInvoiceData}
+ * container as a new CII, UBL or KSeF FA(3) document directly into an output
+ * stream, without a template and without building a DOM.
+ * <p>
+ * The field mapping follows the setter methods of {@link EInvoiceModelCII},
+ * {@link EInvoiceModelUBL} and {@link EInvoiceModelKSeF}. The VAT breakdown is
+ * grouped by the tax rates of the line items. Values which can not be
+ * represented in the target format, and required values which are missing, are
+ * returned as a list of {@link EInvoiceMappingGap}.
+ * <p>
+ * A writer instance is thread-safe.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceStreamWriter {
+
+    public static final String RAM_NAMESPACE = "urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100";
+    public static final String UDT_NAMESPACE = "urn:un:unece:uncefact:data:standard:UnqualifiedDataType:100";
+    public static final String UBL_NAMESPACE = "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2";
+    public static final String CAC_NAMESPACE = "urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2";
+    public static final String CBC_NAMESPACE = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
+    public static final String KSEF_NAMESPACE = "http://crd.gov.pl/wzor/2025/06/25/13775/";
+
+    private static final String EN16931 = "urn:cen.eu:en16931:2017";
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+    private static final DateTimeFormatter CII_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter ISO_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    public EInvoiceStreamWriter() {
+        super();
+    }
+
+    /**
+     * Writes the invoice values in the given format. The output stream is not
+     * closed.
+     *
+     * @param data   - the invoice values
+     * @param format - the target format
+     * @param out
+     * @return the list of fields which could not be mapped
+     * @throws IOException
+     */
+    public List<EInvoiceMappingGap> write(EInvoiceData data, EInvoiceFormat format, OutputStream out)
+            throws IOException {
+        List<EInvoiceMappingGap> gaps = new ArrayList<>();
+        Totals totals = new Totals(data);
+        try {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            switch (format) {
+            case CII:
+                writeCII(writer, data, totals, gaps);
+                break;
+            case UBL:
+                writeUBL(writer, data, totals, gaps);
+                break;
+            case KSEF:
+                writeKSeF(writer, data, totals, gaps);
+                break;
+            }
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write " + format + ": " + e.getMessage(), e);
+        }
+        checkRequired(data, gaps);
+        return gaps;
+    }
+
+    /**
+     * Writes a CII document (EN16931 profile).
+     */
+    private void writeCII(XMLStreamWriter w, EInvoiceData data, Totals totals, List<EInvoiceMappingGap> gaps)
+            throws XMLStreamException {
+        String currency = currency(data, "EUR");
+        w.writeStartElement("rsm", "CrossIndustryInvoice", EInvoiceFormat.CII_NAMESPACE);
+        w.writeNamespace("rsm", EInvoiceFormat.CII_NAMESPACE);
+        w.writeNamespace("ram", RAM_NAMESPACE);
+        w.writeNamespace("udt", UDT_NAMESPACE);
+
+        w.writeStartElement(EInvoiceFormat.CII_NAMESPACE, "ExchangedDocumentContext");
+        w.writeStartElement(RAM_NAMESPACE, "GuidelineSpecifiedDocumentContextParameter");
+        element(w, RAM_NAMESPACE, "ID", EN16931);
+        w.writeEndElement();
+        w.writeEndElement();
+
+        w.writeStartElement(EInvoiceFormat.CII_NAMESPACE, "ExchangedDocument");
+        element(w, RAM_NAMESPACE, "ID", data.getId());
+        element(w, RAM_NAMESPACE, "TypeCode", "380");
+        writeCIIDate(w, "IssueDateTime", data.getIssueDateTime());
+        w.writeEndElement();
+
+        w.writeStartElement(EInvoiceFormat.CII_NAMESPACE, "SupplyChainTradeTransaction");
+        for (TradeLineItem item : data.getTradeLineItems()) {
+            w.writeStartElement(RAM_NAMESPACE, "IncludedSupplyChainTradeLineItem");
+            w.writeStartElement(RAM_NAMESPACE, "AssociatedDocumentLineDocument");
+            element(w, RAM_NAMESPACE, "LineID", item.getId());
+            w.writeEndElement();
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedTradeProduct");
+            element(w, RAM_NAMESPACE, "Name", item.getName());
+            element(w, RAM_NAMESPACE, "Description", item.getDescription());
+            w.writeEndElement();
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedLineTradeAgreement");
+            if (hasValue(item.getOrderReferenceId())) {
+                w.writeStartElement(RAM_NAMESPACE, "BuyerOrderReferencedDocument");
+                element(w, RAM_NAMESPACE, "LineID", item.getOrderReferenceId());
+                w.writeEndElement();
+            }
+            w.writeStartElement(RAM_NAMESPACE, "GrossPriceProductTradePrice");
+            element(w, RAM_NAMESPACE, "ChargeAmount", decimal(item.getGrossPrice()));
+            w.writeEndElement();
+            w.writeStartElement(RAM_NAMESPACE, "NetPriceProductTradePrice");
+            element(w, RAM_NAMESPACE, "ChargeAmount", decimal(item.getNetPrice()));
+            w.writeEndElement();
+            w.writeEndElement();
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedLineTradeDelivery");
+            w.writeStartElement(RAM_NAMESPACE, "BilledQuantity");
+            w.writeAttribute("unitCode", "C62");
+            w.writeCharacters(decimal(item.getQuantity()));
+            w.writeEndElement();
+            w.writeEndElement();
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedLineTradeSettlement");
+            w.writeStartElement(RAM_NAMESPACE, "ApplicableTradeTax");
+            element(w, RAM_NAMESPACE, "TypeCode", "VAT");
+            element(w, RAM_NAMESPACE, "CategoryCode",
+                    EInvoiceTotals.categoryCode(item.getTaxCategory(), item.getTaxRate()));
+            element(w, RAM_NAMESPACE, "RateApplicablePercent", decimal(item.getTaxRate()));
+            w.writeEndElement();
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedTradeSettlementLineMonetarySummation");
+            element(w, RAM_NAMESPACE, "LineTotalAmount", decimal(item.getTotal()));
+            w.writeEndElement();
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+
+        w.writeStartElement(RAM_NAMESPACE, "ApplicableHeaderTradeAgreement");
+        element(w, RAM_NAMESPACE, "BuyerReference", data.getBuyerReference());
+        writeCIIParty(w, "SellerTradeParty", data.findTradeParty("seller"));
+        writeCIIParty(w, "BuyerTradeParty", data.findTradeParty("buyer"));
+        if (hasValue(data.getOrderReferenceId())) {
+            w.writeStartElement(RAM_NAMESPACE, "BuyerOrderReferencedDocument");
+            element(w, RAM_NAMESPACE, "IssuerAssignedID", data.getOrderReferenceId());
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+
+        w.writeStartElement(RAM_NAMESPACE, "ApplicableHeaderTradeDelivery");
+        writeCIIParty(w, "ShipToTradeParty", data.findTradeParty("ship_to"));
+        w.writeEndElement();
+
+        w.writeStartElement(RAM_NAMESPACE, "ApplicableHeaderTradeSettlement");
+        element(w, RAM_NAMESPACE, "InvoiceCurrencyCode", currency);
+        for (EInvoiceTotals.TaxBreakdown entry : totals.breakdown) {
+            w.writeStartElement(RAM_NAMESPACE, "ApplicableTradeTax");
+            element(w, RAM_NAMESPACE, "CalculatedAmount", amount(entry.getTaxAmount()));
+            element(w, RAM_NAMESPACE, "TypeCode", "VAT");
+            element(w, RAM_NAMESPACE, "BasisAmount", amount(entry.getBasisAmount()));
+            element(w, RAM_NAMESPACE, "CategoryCode", entry.getCategoryCode());
+            element(w, RAM_NAMESPACE, "RateApplicablePercent", entry.getRate().toPlainString());
+            w.writeEndElement();
+        }
+        if (data.getDueDateTime() != null) {
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedTradePaymentTerms");
+            writeCIIDate(w, "DueDateDateTime", data.getDueDateTime());
+            w.writeEndElement();
+        }
+        w.writeStartElement(RAM_NAMESPACE, "SpecifiedTradeSettlementHeaderMonetarySummation");
+        element(w, RAM_NAMESPACE, "LineTotalAmount", amount(totals.net));
+        element(w, RAM_NAMESPACE, "TaxBasisTotalAmount", amount(totals.net));
+        w.writeStartElement(RAM_NAMESPACE, "TaxTotalAmount");
+        w.writeAttribute("currencyID", currency);
+        w.writeCharacters(amount(totals.tax));
+        w.writeEndElement();
+        element(w, RAM_NAMESPACE, "GrandTotalAmount", amount(totals.grand));
+        element(w, RAM_NAMESPACE, "DuePayableAmount", amount(totals.grand));
+        w.writeEndElement();
+        w.writeEndElement();
+
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    private void writeCIIDate(XMLStreamWriter w, String name, LocalDate date) throws XMLStreamException {
+        if (date == null) {
+            return;
+        }
+        w.writeStartElement(RAM_NAMESPACE, name);
+        w.writeStartElement(UDT_NAMESPACE, "DateTimeString");
+        w.writeAttribute("format", "102");
+        w.writeCharacters(CII_DATE.format(date));
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    private void writeCIIParty(XMLStreamWriter w, String name, TradeParty party) throws XMLStreamException {
+        if (party == null) {
+            return;
+        }
+        w.writeStartElement(RAM_NAMESPACE, name);
+        element(w, RAM_NAMESPACE, "Name", party.getName());
+        w.writeStartElement(RAM_NAMESPACE, "PostalTradeAddress");
+        element(w, RAM_NAMESPACE, "PostcodeCode", party.getPostcodeCode());
+        element(w, RAM_NAMESPACE, "LineOne", party.getStreetAddress());
+        element(w, RAM_NAMESPACE, "CityName", party.getCityName());
+        element(w, RAM_NAMESPACE, "CountryID", party.getCountryId());
+        w.writeEndElement();
+        if (hasValue(party.getVatNumber())) {
+            w.writeStartElement(RAM_NAMESPACE, "SpecifiedTaxRegistration");
+            w.writeStartElement(RAM_NAMESPACE, "ID");
+            w.writeAttribute("schemeID", "VA");
+            w.writeCharacters(party.getVatNumber());
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+    /**
+     * Writes a UBL 2.1 invoice (EN16931 profile).
+     */
+    private void writeUBL(XMLStreamWriter w, EInvoiceData data, Totals totals, List<EInvoiceMappingGap> gaps)
+            throws XMLStreamException {
+        String currency = currency(data, "EUR");
+        w.writeStartElement("", "Invoice", UBL_NAMESPACE);
+        w.writeDefaultNamespace(UBL_NAMESPACE);
+        w.writeNamespace("cac", CAC_NAMESPACE);
+        w.writeNamespace("cbc", CBC_NAMESPACE);
+
+        element(w, CBC_NAMESPACE, "CustomizationID", EN16931);
+        element(w, CBC_NAMESPACE, "ID", data.getId());
+        element(w, CBC_NAMESPACE, "IssueDate", isoDate(data.getIssueDateTime()));
+        element(w, CBC_NAMESPACE, "DueDate", isoDate(data.getDueDateTime()));
+        element(w, CBC_NAMESPACE, "InvoiceTypeCode", "380");
+        element(w, CBC_NAMESPACE, "DocumentCurrencyCode", currency);
+        element(w, CBC_NAMESPACE, "BuyerReference", data.getBuyerReference());
+        if (hasValue(data.getOrderReferenceId())) {
+            w.writeStartElement(CAC_NAMESPACE, "OrderReference");
+            element(w, CBC_NAMESPACE, "ID", data.getOrderReferenceId());
+            w.writeEndElement();
+        }
+        writeUBLParty(w, "AccountingSupplierParty", data.findTradeParty("seller"));
+        writeUBLParty(w, "AccountingCustomerParty", data.findTradeParty("buyer"));
+
+        TradeParty shipTo = data.findTradeParty("ship_to");
+        if (shipTo != null) {
+            w.writeStartElement(CAC_NAMESPACE, "Delivery");
+            w.writeStartElement(CAC_NAMESPACE, "DeliveryLocation");
+            writeUBLAddress(w, "Address", shipTo);
+            w.writeEndElement();
+            if (hasValue(shipTo.getName())) {
+                w.writeStartElement(CAC_NAMESPACE, "DeliveryParty");
+                w.writeStartElement(CAC_NAMESPACE, "PartyName");
+                element(w, CBC_NAMESPACE, "Name", shipTo.getName());
+                w.writeEndElement();
+                w.writeEndElement();
+            }
+            w.writeEndElement();
+        }
+
+        w.writeStartElement(CAC_NAMESPACE, "TaxTotal");
+        amountElement(w, "TaxAmount", totals.tax, currency);
+        for (EInvoiceTotals.TaxBreakdown entry : totals.breakdown) {
+            w.writeStartElement(CAC_NAMESPACE, "TaxSubtotal");
+            amountElement(w, "TaxableAmount", entry.getBasisAmount(), currency);
+            amountElement(w, "TaxAmount", entry.getTaxAmount(), currency);
+            writeUBLTaxCategory(w, "TaxCategory", entry.getCategoryCode(), entry.getRate());
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+
+        w.writeStartElement(CAC_NAMESPACE, "LegalMonetaryTotal");
+        amountElement(w, "LineExtensionAmount", totals.net, currency);
+        amountElement(w, "TaxExclusiveAmount", totals.net, currency);
+        amountElement(w, "TaxInclusiveAmount", totals.grand, currency);
+        amountElement(w, "PayableAmount", totals.grand, currency);
+        w.writeEndElement();
+
+        for (TradeLineItem item : data.getTradeLineItems()) {
+            w.writeStartElement(CAC_NAMESPACE, "InvoiceLine");
+            element(w, CBC_NAMESPACE, "ID", item.getId());
+            w.writeStartElement(CBC_NAMESPACE, "InvoicedQuantity");
+            w.writeAttribute("unitCode", "C62");
+            w.writeCharacters(decimal(item.getQuantity()));
+            w.writeEndElement();
+            w.writeStartElement(CBC_NAMESPACE, "LineExtensionAmount");
+            w.writeAttribute("currencyID", currency);
+            w.writeCharacters(decimal(item.getTotal()));
+            w.writeEndElement();
+            if (hasValue(item.getOrderReferenceId())) {
+                w.writeStartElement(CAC_NAMESPACE, "OrderLineReference");
+                element(w, CBC_NAMESPACE, "LineID", item.getOrderReferenceId());
+                w.writeEndElement();
+            }
+            w.writeStartElement(CAC_NAMESPACE, "Item");
+            element(w, CBC_NAMESPACE, "Description", item.getDescription());
+            element(w, CBC_NAMESPACE, "Name", item.getName());
+            writeUBLTaxCategory(w, "ClassifiedTaxCategory",
+                    EInvoiceTotals.categoryCode(item.getTaxCategory(), item.getTaxRate()),
+                    BigDecimal.valueOf(item.getTaxRate()));
+            w.writeEndElement();
+            w.writeStartElement(CAC_NAMESPACE, "Price");
+            w.writeStartElement(CBC_NAMESPACE, "PriceAmount");
+            w.writeAttribute("currencyID", currency);
+            w.writeCharacters(decimal(netPrice(item)));
+            w.writeEndElement();
+            w.writeEndElement();
+            w.writeEndElement();
+            checkGrossPrice(item, gaps);
+        }
+
+        w.writeEndElement();
+    }
+
+    private void writeUBLParty(XMLStreamWriter w, String name, TradeParty party) throws XMLStreamException {
+        if (party == null) {
+            return;
+        }
+        w.writeStartElement(CAC_NAMESPACE, name);
+        w.writeStartElement(CAC_NAMESPACE, "Party");
+        if (hasValue(party.getName())) {
+            w.writeStartElement(CAC_NAMESPACE, "PartyName");
+            element(w, CBC_NAMESPACE, "Name", party.getName());
+            w.writeEndElement();
+        }
+        writeUBLAddress(w, "PostalAddress", party);
+        if (hasValue(party.getVatNumber())) {
+            w.writeStartElement(CAC_NAMESPACE, "PartyTaxScheme");
+            element(w, CBC_NAMESPACE, "CompanyID", party.getVatNumber());
+            w.writeStartElement(CAC_NAMESPACE, "TaxScheme");
+            element(w, CBC_NAMESPACE, "ID", "VAT");
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+        w.writeStartElement(CAC_NAMESPACE, "PartyLegalEntity");
+        element(w, CBC_NAMESPACE, "RegistrationName", party.getName());
+        w.writeEndElement();
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    private void writeUBLAddress(XMLStreamWriter w, String name, TradeParty party) throws XMLStreamException {
+        w.writeStartElement(CAC_NAMESPACE, name);
+        element(w, CBC_NAMESPACE, "StreetName", party.getStreetAddress());
+        element(w, CBC_NAMESPACE, "CityName", party.getCityName());
+        element(w, CBC_NAMESPACE, "PostalZone", party.getPostcodeCode());
+        if (hasValue(party.getCountryId())) {
+            w.writeStartElement(CAC_NAMESPACE, "Country");
+            element(w, CBC_NAMESPACE, "IdentificationCode", party.getCountryId());
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+    private void writeUBLTaxCategory(XMLStreamWriter w, String name, String category, BigDecimal rate)
+            throws XMLStreamException {
+        w.writeStartElement(CAC_NAMESPACE, name);
+        element(w, CBC_NAMESPACE, "ID", category);
+        element(w, CBC_NAMESPACE, "Percent", rate.toPlainString());
+        w.writeStartElement(CAC_NAMESPACE, "TaxScheme");
+        element(w, CBC_NAMESPACE, "ID", "VAT");
+        w.writeEndElement();
+        w.writeEndElement();
+    }
+
+    private void amountElement(XMLStreamWriter w, String name, BigDecimal value, String currency)
+            throws XMLStreamException {
+        w.writeStartElement(CBC_NAMESPACE, name);
+        w.writeAttribute("currencyID", currency);
+        w.writeCharacters(amount(value));
+        w.writeEndElement();
+    }
+
+    /**
+     * Writes a KSeF FA(3) invoice. The mapping of the totals depends on the tax
+     * type of the buyer (see {@link EInvoiceModelKSeF#setNetTotalAmount})
+     */
+    private void writeKSeF(XMLStreamWriter w, EInvoiceData data, Totals totals, List<EInvoiceMappingGap> gaps)
+            throws XMLStreamException {
+        TradeParty seller = data.findTradeParty("seller");
+        TradeParty buyer = data.findTradeParty("buyer");
+        String taxType = buyer == null ? null : EInvoiceModelKSeF.resolveTaxType(buyer.getVatNumber());
+
+        w.writeStartElement("", "Faktura", KSEF_NAMESPACE);
+        w.writeDefaultNamespace(KSEF_NAMESPACE);
+
+        w.writeStartElement(KSEF_NAMESPACE, "Naglowek");
+        w.writeStartElement(KSEF_NAMESPACE, "KodFormularza");
+        w.writeAttribute("kodSystemowy", "FA (3)");
+        w.writeAttribute("wersjaSchemy", "1-0E");
+        w.writeCharacters("FA");
+        w.writeEndElement();
+        element(w, KSEF_NAMESPACE, "WariantFormularza", "3");
+        element(w, KSEF_NAMESPACE, "DataWytworzeniaFa", LocalDateTime.now().toString() + "Z");
+        w.writeEndElement();
+
+        if (seller != null && (seller.getVatNumber() == null || !normalizeVatId(seller.getVatNumber()).startsWith("PL"))) {
+            gaps.add(new EInvoiceMappingGap("seller.vatNumber", "KSeF requires a Polish NIP"));
+        }
+        writeKSeFParty(w, "Podmiot1", seller, gaps);
+        writeKSeFParty(w, "Podmiot2", buyer, gaps);
+        if (data.findTradeParty("ship_to") != null) {
+            gaps.add(new EInvoiceMappingGap("ship_to", "not supported by KSeF"));
+        }
+
+        w.writeStartElement(KSEF_NAMESPACE, "Fa");
+        element(w, KSEF_NAMESPACE, "KodWaluty", currency(data, "PLN"));
+        element(w, KSEF_NAMESPACE, "P_1", isoDate(data.getIssueDateTime()));
+        element(w, KSEF_NAMESPACE, "P_2", data.getId());
+        if ("2".equals(taxType) || "3".equals(taxType)) {
+            // 0% intra-community delivery or export
+            element(w, KSEF_NAMESPACE, "2".equals(taxType) ? "P_13_6_2" : "P_13_6_3", amount(totals.net));
+            if (totals.tax.signum() != 0) {
+                gaps.add(new EInvoiceMappingGap("taxTotalAmount", "not supported for KSeF tax type " + taxType));
+            }
+        } else {
+            // domestic - the amounts are split by the tax rate
+            Map<String, BigDecimal[]> fields = new LinkedHashMap<>();
+            for (EInvoiceTotals.TaxBreakdown entry : totals.breakdown) {
+                String suffix = EInvoiceModelKSeF.rateField(entry.getCategoryCode(), entry.getRate());
+                if (suffix == null) {
+                    // not written - the amounts must not be reported under another rate
+                    gaps.add(new EInvoiceMappingGap("taxRate", "category " + entry.getCategoryCode() + " rate "
+                            + entry.getRate().toPlainString() + " not supported by KSeF"));
+                    continue;
+                }
+                BigDecimal[] amounts = fields.computeIfAbsent(suffix,
+                        k -> new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO });
+                amounts[0] = amounts[0].add(entry.getBasisAmount());
+                amounts[1] = amounts[1].add(entry.getTaxAmount());
+            }
+            for (String suffix : new String[] { "1", "2", "3", "6_1" }) {
+                BigDecimal[] amounts = fields.get(suffix);
+                if (amounts != null) {
+                    element(w, KSEF_NAMESPACE, "P_13_" + suffix, amount(amounts[0]));
+                    if (!"6_1".equals(suffix)) {
+                        element(w, KSEF_NAMESPACE, "P_14_" + suffix, amount(amounts[1]));
+                    }
+                }
+            }
+        }
+        element(w, KSEF_NAMESPACE, "P_15", amount(totals.grand));
+
+        // default annotations - no special procedure
+        w.writeStartElement(KSEF_NAMESPACE, "Adnotacje");
+        element(w, KSEF_NAMESPACE, "P_16", "2");
+        element(w, KSEF_NAMESPACE, "P_17", "2");
+        element(w, KSEF_NAMESPACE, "P_18", "2");
+        element(w, KSEF_NAMESPACE, "P_18A", "2");
+        w.writeStartElement(KSEF_NAMESPACE, "Zwolnienie");
+        element(w, KSEF_NAMESPACE, "P_19N", "1");
+        w.writeEndElement();
+        w.writeStartElement(KSEF_NAMESPACE, "NoweSrodkiTransportu");
+        element(w, KSEF_NAMESPACE, "P_22N", "1");
+        w.writeEndElement();
+        element(w, KSEF_NAMESPACE, "P_23", "2");
+        w.writeStartElement(KSEF_NAMESPACE, "PMarzy");
+        element(w, KSEF_NAMESPACE, "P_PMarzyN", "1");
+        w.writeEndElement();
+        w.writeEndElement();
+        element(w, KSEF_NAMESPACE, "RodzajFaktury", "VAT");
+
+        for (TradeLineItem item : data.getTradeLineItems()) {
+            w.writeStartElement(KSEF_NAMESPACE, "FaWiersz");
+            element(w, KSEF_NAMESPACE, "NrWierszaFa", item.getId());
+            element(w, KSEF_NAMESPACE, "UU_ID", item.getOrderReferenceId());
+            element(w, KSEF_NAMESPACE, "P_7", item.getName());
+            // the unit is mapped to the description (see parseTradeLineItems)
+            element(w, KSEF_NAMESPACE, "P_8A", hasValue(item.getDescription()) ? item.getDescription() : "szt.");
+            element(w, KSEF_NAMESPACE, "P_8B", decimal(item.getQuantity()));
+            element(w, KSEF_NAMESPACE, "P_9A", amount(BigDecimal.valueOf(netPrice(item))));
+            element(w, KSEF_NAMESPACE, "P_11", amount(BigDecimal.valueOf(item.getTotal())));
+            if (item.getTaxRate() > 0) {
+                element(w, KSEF_NAMESPACE, "P_12", String.valueOf((int) item.getTaxRate()));
+            }
+            w.writeEndElement();
+            checkGrossPrice(item, gaps);
+        }
+
+        if (data.getDueDateTime() != null) {
+            w.writeStartElement(KSEF_NAMESPACE, "Platnosc");
+            w.writeStartElement(KSEF_NAMESPACE, "TerminPlatnosci");
+            element(w, KSEF_NAMESPACE, "Termin", isoDate(data.getDueDateTime()));
+            w.writeEndElement();
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+
+        if (hasValue(data.getBuyerReference())) {
+            gaps.add(new EInvoiceMappingGap("buyerReference", "not supported by KSeF"));
+        }
+        if (hasValue(data.getOrderReferenceId())) {
+            gaps.add(new EInvoiceMappingGap("orderReferenceId", "not supported by KSeF"));
+        }
+        w.writeEndElement();
+    }
+
+    /**
+     * Writes Podmiot1 or Podmiot2. A Polish VAT ID is written as NIP, all others
+     * as NrID (see {@link EInvoiceModelKSeF#setTradeParty}). An ID with invalid
+     * check digits is written but reported as a gap.
+     */
+    private void writeKSeFParty(XMLStreamWriter w, String name, TradeParty party, List<EInvoiceMappingGap> gaps)
+            throws XMLStreamException {
+        if (party == null) {
+            return;
+        }
+        w.writeStartElement(KSEF_NAMESPACE, name);
+        w.writeStartElement(KSEF_NAMESPACE, "DaneIdentyfikacyjne");
+        if (hasValue(party.getVatNumber())) {
+            String vatID = normalizeVatId(party.getVatNumber());
+            if (vatID.startsWith("PL")) {
+                if (!EInvoiceIdValidator.isValidNIP(vatID)) {
+                    gaps.add(new EInvoiceMappingGap(party.getType() + ".vatNumber", "invalid NIP check digit"));
+                }
+                element(w, KSEF_NAMESPACE, "NIP", vatID.substring(2));
+            } else if ("buyer".equals(party.getType())) {
+                if (!EInvoiceIdValidator.isValidVatId(vatID)) {
+                    gaps.add(new EInvoiceMappingGap(party.getType() + ".vatNumber", "invalid VAT ID check digits"));
+                }
+                element(w, KSEF_NAMESPACE, "NrID", vatID);
+            }
+        }
+        element(w, KSEF_NAMESPACE, "Nazwa", party.getName());
+        w.writeEndElement();
+        w.writeStartElement(KSEF_NAMESPACE, "Adres");
+        element(w, KSEF_NAMESPACE, "KodKraju", party.getCountryId());
+        element(w, KSEF_NAMESPACE, "AdresL1", party.getStreetAddress());
+        if (party.getPostcodeCode() != null && party.getCityName() != null) {
+            element(w, KSEF_NAMESPACE, "AdresL2", party.getPostcodeCode() + " " + party.getCityName());
+        }
+        w.writeEndElement();
+        if ("Podmiot2".equals(name)) {
+            // no local government unit / no VAT group member
+            element(w, KSEF_NAMESPACE, "JST", "2");
+            element(w, KSEF_NAMESPACE, "GV", "2");
+        }
+        w.writeEndElement();
+    }
+
+    private void checkRequired(EInvoiceData data, List<EInvoiceMappingGap> gaps) {
+        if (!hasValue(data.getId())) {
+            gaps.add(new EInvoiceMappingGap("id", "required value missing"));
+        }
+        if (data.getIssueDateTime() == null) {
+            gaps.add(new EInvoiceMappingGap("issueDateTime", "required value missing"));
+        }
+        TradeParty seller = data.findTradeParty("seller");
+        if (seller == null || !hasValue(seller.getName())) {
+            gaps.add(new EInvoiceMappingGap("seller.name", "required value missing"));
+        }
+        TradeParty buyer = data.findTradeParty("buyer");
+        if (buyer == null || !hasValue(buyer.getName())) {
+            gaps.add(new EInvoiceMappingGap("buyer.name", "required value missing"));
+        }
+    }
+
+    /**
+     * UBL and KSeF only support a net unit price.
+     */
+    private void checkGrossPrice(TradeLineItem item, List<EInvoiceMappingGap> gaps) {
+        if (item.getGrossPrice() != 0 && item.getNetPrice() != 0 && item.getGrossPrice() != item.getNetPrice()) {
+            gaps.add(new EInvoiceMappingGap("line " + item.getId() + ".grossPrice", "only the net price is mapped"));
+        }
+    }
+
+    private static double netPrice(TradeLineItem item) {
+        return item.getNetPrice() != 0 ? item.getNetPrice() : item.getGrossPrice();
+    }
+
+    private static String normalizeVatId(String vatID) {
+        return vatID.trim().toUpperCase().replace(" ", "");
+    }
+
+    private static String currency(EInvoiceData data, String defaultCurrency) {
+        return hasValue(data.getCurrencyCode()) ? data.getCurrencyCode() : defaultCurrency;
+    }
+
+    private static boolean hasValue(String value) {
+        return value != null && !value.isEmpty();
+    }
+
+    private static String isoDate(LocalDate date) {
+        return date == null ? null : ISO_DATE.format(date);
+    }
+
+    private static String amount(BigDecimal value) {
+        return value.setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private static String decimal(double value) {
+        return BigDecimal.valueOf(value).toPlainString();
+    }
+
+    /**
+     * Writes a simple element. Empty values are skipped.
+     */
+    private static void element(XMLStreamWriter w, String namespace, String name, String value)
+            throws XMLStreamException {
+        if (!hasValue(value)) {
+            return;
+        }
+        w.writeStartElement(namespace, name);
+        w.writeCharacters(value);
+        w.writeEndElement();
+    }
+
+    /**
+     * The invoice totals and the VAT breakdown by tax rate (see
+     * {@link EInvoiceTotals}). Totals set in the invoice values take precedence
+     * over the totals computed from the line items.
+     */
+    private static class Totals {
+        private final List<EInvoiceTotals.TaxBreakdown> breakdown;
+        private final BigDecimal net;
+        private final BigDecimal tax;
+        private final BigDecimal grand;
+
+        Totals(EInvoiceData data) {
+            EInvoiceTotals computed = EInvoiceTotals.of(data.getTradeLineItems());
+            net = data.getNetTotalAmount() != null ? data.getNetTotalAmount() : computed.getNetTotalAmount();
+            tax = data.getTaxTotalAmount() != null ? data.getTaxTotalAmount() : computed.getTaxTotalAmount();
+            grand = data.getGrandTotalAmount() != null ? data.getGrandTotalAmount() : net.add(tax);
+
+            if (computed.getBreakdown().isEmpty()) {
+                // no line items - a single breakdown based on the invoice tax rate
+                BigDecimal rate = data.getTaxRate() != null ? data.getTaxRate() : BigDecimal.ZERO;
+                rate = rate.setScale(2, RoundingMode.HALF_UP);
+                breakdown = List.of(new EInvoiceTotals.TaxBreakdown(rate.signum() > 0 ? "S" : "Z", rate, net, tax));
+            } else {
+                breakdown = computed.getBreakdown();
+            }
+        }
+    }
+}
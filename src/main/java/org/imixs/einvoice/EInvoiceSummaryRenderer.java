@@ -0,0 +1,388 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The EInvoiceSummaryRenderer writes a compact summary of an e-invoice - header,
+ * trade parties, line items and totals - as HTML or plain text, e.g. for email
+ * notifications or previews.
+ * <p>
+ * In difference to the {@link EInvoiceHtmlRenderer} no XSLT is used. The
+ * summary is written directly from the values of a {@link EInvoiceModel} or
+ * {@link EInvoiceData} into a Writer, so the output is the same for CII, UBL
+ * and KSeF documents. Values are escaped while they are written, without
+ * building intermediate strings. For best performance the Writer should be
+ * buffered.
+ * <p>
+ * The HTML output is a fragment (a 'div' element with the class 'e-invoice')
+ * to be embedded into a page or mail body. A EInvoiceSummaryRenderer instance
+ * is thread-safe.
+ *
+ * <pre>
+ * new EInvoiceSummaryRenderer(EInvoiceSummaryRenderer.Format.HTML).render(model, writer);
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceSummaryRenderer {
+
+    public enum Format {
+        HTML, //
+        TEXT;
+    }
+
+    private static final String[] PARTY_TYPES = { "seller", "buyer", "ship_to" };
+    private static final String[] PARTY_LABELS = { "Seller", "Buyer", "Ship to" };
+
+    private final Format format;
+
+    public EInvoiceSummaryRenderer(Format format) {
+        super();
+        this.format = format;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Writes the summary of a model. The writer is not flushed or closed.
+     *
+     * @param model
+     * @param writer
+     * @throws IOException
+     */
+    public void render(EInvoiceModel model, Writer writer) throws IOException {
+        render(EInvoiceData.of(model), writer);
+    }
+
+    /**
+     * Writes the summary of the given invoice values. The writer is not flushed
+     * or closed.
+     *
+     * @param data
+     * @param writer
+     * @throws IOException
+     */
+    public void render(EInvoiceData data, Writer writer) throws IOException {
+        if (format == Format.HTML) {
+            renderHtml(data, writer);
+        } else {
+            renderText(data, writer);
+        }
+    }
+
+    /**
+     * Returns the summary as a String
+     *
+     * @param model
+     * @return
+     */
+    public String render(EInvoiceModel model) {
+        StringWriter writer = new StringWriter(2048);
+        try {
+            render(model, writer);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    private void renderHtml(EInvoiceData data, Writer w) throws IOException {
+        w.write("<div class=\"e-invoice\">\n<h2>Invoice ");
+        escape(data.getId(), w);
+        w.write("</h2>\n<table class=\"header\">\n");
+        htmlRow("Issue date", data.getIssueDateTime(), w);
+        htmlRow("Due date", data.getDueDateTime(), w);
+        htmlRow("Buyer reference", data.getBuyerReference(), w);
+        htmlRow("Order reference", data.getOrderReferenceId(), w);
+        w.write("</table>\n");
+
+        for (int i = 0; i < PARTY_TYPES.length; i++) {
+            TradeParty party = data.findTradeParty(PARTY_TYPES[i]);
+            if (party != null) {
+                htmlParty(PARTY_LABELS[i], party, w);
+            }
+        }
+        for (TradeParty party : data.getTradeParties()) {
+            if (partyIndex(party) == -1) {
+                htmlParty(party.getType(), party, w);
+            }
+        }
+
+        if (!data.getTradeLineItems().isEmpty()) {
+            w.write("<table class=\"lines\">\n<thead><tr><th>Pos</th><th>Item</th><th>Quantity</th>"
+                    + "<th>Price</th><th>VAT %</th><th>Total</th></tr></thead>\n<tbody>\n");
+            for (TradeLineItem item : data.getTradeLineItems()) {
+                w.write("<tr><td>");
+                escape(item.getId(), w);
+                w.write("</td><td>");
+                escape(item.getName(), w);
+                w.write("</td><td class=\"number\">");
+                writeNumber(item.getQuantity(), -1, w);
+                w.write("</td><td class=\"number\">");
+                writeNumber(item.getNetPrice(), 2, w);
+                w.write("</td><td class=\"number\">");
+                writeNumber(item.getTaxRate(), -1, w);
+                w.write("</td><td class=\"number\">");
+                writeNumber(item.getTotal(), 2, w);
+                w.write("</td></tr>\n");
+            }
+            w.write("</tbody>\n</table>\n");
+        }
+
+        w.write("<table class=\"totals\">\n");
+        htmlAmountRow("Total without VAT", data.getNetTotalAmount(), data.getCurrencyCode(), w);
+        htmlAmountRow("VAT", data.getTaxTotalAmount(), data.getCurrencyCode(), w);
+        htmlAmountRow("Total with VAT", data.getGrandTotalAmount(), data.getCurrencyCode(), w);
+        w.write("</table>\n</div>\n");
+    }
+
+    private void htmlRow(String label, Object value, Writer w) throws IOException {
+        if (value == null) {
+            return;
+        }
+        w.write("<tr><th>");
+        w.write(label);
+        w.write("</th><td>");
+        escape(value.toString(), w);
+        w.write("</td></tr>\n");
+    }
+
+    private void htmlAmountRow(String label, BigDecimal value, String currency, Writer w) throws IOException {
+        if (value == null) {
+            return;
+        }
+        w.write("<tr><th>");
+        w.write(label);
+        w.write("</th><td class=\"number\">");
+        w.write(value.toPlainString());
+        if (currency != null) {
+            w.write(' ');
+            escape(currency, w);
+        }
+        w.write("</td></tr>\n");
+    }
+
+    private void htmlParty(String label, TradeParty party, Writer w) throws IOException {
+        w.write("<div class=\"party\">\n<h3>");
+        escape(label, w);
+        w.write("</h3>\n<p>");
+        escape(party.getName(), w);
+        if (!isEmpty(party.getStreetAddress())) {
+            w.write("<br>");
+            escape(party.getStreetAddress(), w);
+        }
+        if (!isEmpty(party.getPostcodeCode()) || !isEmpty(party.getCityName())) {
+            w.write("<br>");
+            writeCity(party, w);
+        }
+        if (!isEmpty(party.getCountryId())) {
+            w.write("<br>");
+            escape(party.getCountryId(), w);
+        }
+        if (!isEmpty(party.getVatNumber())) {
+            w.write("<br>VAT ID: ");
+            escape(party.getVatNumber(), w);
+        }
+        w.write("</p>\n</div>\n");
+    }
+
+    private void renderText(EInvoiceData data, Writer w) throws IOException {
+        w.write("Invoice ");
+        escape(data.getId(), w);
+        w.write('\n');
+        textRow("Issue date", data.getIssueDateTime(), w);
+        textRow("Due date", data.getDueDateTime(), w);
+        textRow("Buyer reference", data.getBuyerReference(), w);
+        textRow("Order reference", data.getOrderReferenceId(), w);
+
+        for (int i = 0; i < PARTY_TYPES.length; i++) {
+            TradeParty party = data.findTradeParty(PARTY_TYPES[i]);
+            if (party != null) {
+                textParty(PARTY_LABELS[i], party, w);
+            }
+        }
+        for (TradeParty party : data.getTradeParties()) {
+            if (partyIndex(party) == -1) {
+                textParty(party.getType(), party, w);
+            }
+        }
+
+        if (!data.getTradeLineItems().isEmpty()) {
+            w.write("\nPos | Item | Quantity x Price | VAT % | Total\n");
+            for (TradeLineItem item : data.getTradeLineItems()) {
+                escape(item.getId(), w);
+                w.write(" | ");
+                escape(item.getName(), w);
+                w.write(" | ");
+                writeNumber(item.getQuantity(), -1, w);
+                w.write(" x ");
+                writeNumber(item.getNetPrice(), 2, w);
+                w.write(" | ");
+                writeNumber(item.getTaxRate(), -1, w);
+                w.write(" | ");
+                writeNumber(item.getTotal(), 2, w);
+                w.write('\n');
+            }
+        }
+
+        w.write('\n');
+        textAmountRow("Total without VAT", data.getNetTotalAmount(), data.getCurrencyCode(), w);
+        textAmountRow("VAT", data.getTaxTotalAmount(), data.getCurrencyCode(), w);
+        textAmountRow("Total with VAT", data.getGrandTotalAmount(), data.getCurrencyCode(), w);
+    }
+
+    private void textRow(String label, Object value, Writer w) throws IOException {
+        if (value == null) {
+            return;
+        }
+        w.write(label);
+        w.write(": ");
+        escape(value.toString(), w);
+        w.write('\n');
+    }
+
+    private void textAmountRow(String label, BigDecimal value, String currency, Writer w) throws IOException {
+        if (value == null) {
+            return;
+        }
+        w.write(label);
+        w.write(": ");
+        w.write(value.toPlainString());
+        if (currency != null) {
+            w.write(' ');
+            escape(currency, w);
+        }
+        w.write('\n');
+    }
+
+    private void textParty(String label, TradeParty party, Writer w) throws IOException {
+        w.write('\n');
+        escape(label, w);
+        w.write(":\n  ");
+        escape(party.getName(), w);
+        w.write('\n');
+        if (!isEmpty(party.getStreetAddress())) {
+            w.write("  ");
+            escape(party.getStreetAddress(), w);
+            w.write('\n');
+        }
+        if (!isEmpty(party.getPostcodeCode()) || !isEmpty(party.getCityName())) {
+            w.write("  ");
+            writeCity(party, w);
+            w.write('\n');
+        }
+        if (!isEmpty(party.getCountryId())) {
+            w.write("  ");
+            escape(party.getCountryId(), w);
+            w.write('\n');
+        }
+        if (!isEmpty(party.getVatNumber())) {
+            w.write("  VAT ID: ");
+            escape(party.getVatNumber(), w);
+            w.write('\n');
+        }
+    }
+
+    private void writeCity(TradeParty party, Writer w) throws IOException {
+        if (!isEmpty(party.getPostcodeCode())) {
+            escape(party.getPostcodeCode(), w);
+            if (!isEmpty(party.getCityName())) {
+                w.write(' ');
+            }
+        }
+        escape(party.getCityName(), w);
+    }
+
+    /**
+     * Writes a value with the escaping of the output format. Runs of characters
+     * which need no escaping are written in one call. For HTML the markup
+     * characters are replaced by entities. Line breaks and other control characters
+     * are replaced by a blank to keep the layout.
+     *
+     * @param value - null is ignored
+     * @param w
+     * @throws IOException
+     */
+    private void escape(String value, Writer w) throws IOException {
+        if (value == null) {
+            return;
+        }
+        int start = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c < 0x20) {
+                replacement = " ";
+            } else if (format == Format.HTML) {
+                switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    replacement = null;
+                }
+            } else {
+                replacement = null;
+            }
+            if (replacement != null) {
+                if (i > start) {
+                    w.write(value, start, i - start);
+                }
+                w.write(replacement);
+                start = i + 1;
+            }
+        }
+        if (start < length) {
+            w.write(value, start, length - start);
+        }
+    }
+
+    /**
+     * Writes a number with a fixed scale or - for scale -1 - without trailing
+     * zeros
+     */
+    private static void writeNumber(double value, int scale, Writer w) throws IOException {
+        if (scale < 0 && value == Math.rint(value) && Math.abs(value) < 1e15) {
+            // fast path for integer values like quantities and tax rates
+            w.write(Long.toString((long) value));
+            return;
+        }
+        BigDecimal decimal = BigDecimal.valueOf(value);
+        decimal = scale < 0 ? decimal.stripTrailingZeros() : decimal.setScale(scale, RoundingMode.HALF_UP);
+        w.write(decimal.toPlainString());
+    }
+
+    private static int partyIndex(TradeParty party) {
+        for (int i = 0; i < PARTY_TYPES.length; i++) {
+            if (PARTY_TYPES[i].equals(party.getType())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,302 @@
+package org.imixs.einvoice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * The EInvoiceTemplatesCache holds the compiled {@link Templates} of XSLT
+ * stylesheets used by the {@link EInvoiceHtmlRenderer}.
+ * <p>
+ * Each stylesheet is identified by a SHA-256 content hash computed from the
+ * stylesheet and all stylesheets it includes or imports. A stylesheet is
+ * compiled only once per hash. If the stylesheet or one of its includes
+ * changes, the hash changes and the stylesheet is compiled again.
+ * <p>
+ * The templates are cached in memory. To share the compiled templates, use one
+ * cache instance for all renderers.
+ * <p>
+ * If a cache directory is defined, serializable templates - e.g. the compiled
+ * translets of the XSLTC processor built into the JDK - are also stored in the
+ * file '&lt;cacheDirectory&gt;/&lt;hash&gt;.templates'. A new process loads
+ * the templates from this file instead of compiling the stylesheet again. If
+ * the file can not be loaded or was written for another hash, the stylesheet is
+ * compiled and the file is replaced. Templates which are not serializable (e.g.
+ * Saxon) are cached in memory only.
+ * <p>
+ * A EInvoiceTemplatesCache instance is thread-safe.
+ *
+ * <pre>
+ * EInvoiceTemplatesCache cache = new EInvoiceTemplatesCache(factory, Paths.get("/var/cache/e-invoice"));
+ * EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(cache, ciiXrUrl, htmlUrl);
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceTemplatesCache {
+    private static Logger logger = Logger.getLogger(EInvoiceTemplatesCache.class.getName());
+
+    public static final String FILE_EXTENSION = ".templates";
+
+    private static final String XSL_NAMESPACE = "http://www.w3.org/1999/XSL/Transform";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+    static {
+        XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final TransformerFactory factory;
+    private final Path cacheDirectory;
+    private final Map<String, Templates> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a memory only cache for the given TransformerFactory
+     *
+     * @param factory
+     */
+    public EInvoiceTemplatesCache(TransformerFactory factory) {
+        this(factory, null);
+    }
+
+    /**
+     * Creates a cache for the given TransformerFactory storing the compiled
+     * templates in the given cache directory.
+     *
+     * @param factory
+     * @param cacheDirectory - the cache directory or null for a memory only cache
+     */
+    public EInvoiceTemplatesCache(TransformerFactory factory, Path cacheDirectory) {
+        super();
+        this.factory = factory;
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the TransformerFactory used to compile the stylesheets
+     *
+     * @return
+     */
+    public TransformerFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Returns the cache directory or null for a memory only cache
+     *
+     * @return
+     */
+    public Path getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Returns the compiled templates of a stylesheet. The stylesheet is loaded
+     * from the cache directory or compiled only if its content hash is not yet
+     * known.
+     *
+     * @param stylesheet
+     * @return
+     * @throws TransformerConfigurationException if the stylesheet can not be read
+     *                                           or compiled
+     */
+    public Templates getTemplates(URL stylesheet) throws TransformerConfigurationException {
+        String hash;
+        try {
+            hash = hash(stylesheet);
+        } catch (IOException e) {
+            throw new TransformerConfigurationException("Unable to read stylesheet " + stylesheet, e);
+        }
+        Templates result = templates.get(hash);
+        if (result != null) {
+            return result;
+        }
+        // a TransformerFactory is not thread-safe
+        synchronized (factory) {
+            result = templates.get(hash);
+            if (result == null) {
+                result = load(hash);
+                if (result == null) {
+                    result = compile(stylesheet);
+                    store(hash, result);
+                }
+                templates.put(hash, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the SHA-256 content hash of a stylesheet including all
+     * stylesheets referred by xsl:include and xsl:import. The hash also covers the
+     * TransformerFactory implementation as compiled templates are processor
+     * specific.
+     *
+     * @param stylesheet
+     * @return the hex encoded hash
+     * @throws IOException if a stylesheet can not be read
+     */
+    public String hash(URL stylesheet) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(factory.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        updateDigest(digest, stylesheet, new HashSet<>());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private void updateDigest(MessageDigest digest, URL stylesheet, Set<String> visited) throws IOException {
+        if (!visited.add(stylesheet.toExternalForm())) {
+            return;
+        }
+        byte[] content;
+        try (InputStream is = stylesheet.openStream()) {
+            content = is.readAllBytes();
+        }
+        digest.update(content);
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(content));
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT
+                            && XSL_NAMESPACE.equals(reader.getNamespaceURI())
+                            && ("include".equals(reader.getLocalName()) || "import".equals(reader.getLocalName()))) {
+                        String href = reader.getAttributeValue(null, "href");
+                        if (href != null && !href.isEmpty()) {
+                            updateDigest(digest, new URL(stylesheet, href), visited);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid stylesheet " + stylesheet + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the templates stored for the given hash. Returns null if no file
+     * exists or the file can not be loaded.
+     */
+    private Templates load(String hash) {
+        if (cacheDirectory == null) {
+            return null;
+        }
+        Path file = cacheDirectory.resolve(hash + FILE_EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.setObjectInputFilter(this::filter);
+            if (!hash.equals(in.readUTF())) {
+                logger.warning("Templates file " + file + " does not match its hash - compiling stylesheet");
+                return null;
+            }
+            Templates result = (Templates) in.readObject();
+            logger.fine("...loaded " + file + " in " + (System.currentTimeMillis() - start) + "ms");
+            return result;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.warning("Unable to load templates file " + file + " - compiling stylesheet: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores serializable templates in the cache directory. The file is written
+     * under a temporary name and renamed, so a concurrent process never reads a
+     * partial file.
+     */
+    private void store(String hash, Templates result) {
+        if (cacheDirectory == null || !(result instanceof Serializable)) {
+            return;
+        }
+        Path file = cacheDirectory.resolve(hash + FILE_EXTENSION);
+        Path temp = null;
+        try {
+            Files.createDirectories(cacheDirectory);
+            temp = Files.createTempFile(cacheDirectory, hash, ".tmp");
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temp));
+                    ObjectOutputStream out = new ObjectOutputStream(os)) {
+                out.writeUTF(hash);
+                out.writeObject(result);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Unable to store templates file " + file + ": " + e.getMessage());
+            try {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e1) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Accepts only the classes of the TransformerFactory implementation and the
+     * JDK classes used by the compiled templates
+     */
+    private ObjectInputFilter.Status filter(ObjectInputFilter.FilterInfo info) {
+        Class<?> type = info.serialClass();
+        while (type != null && type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type == null || type.isPrimitive()) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+        String name = type.getName();
+        if (name.startsWith("java.lang.") || name.startsWith("java.util.")
+                || name.startsWith(factory.getClass().getPackageName() + ".")) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    private Templates compile(URL stylesheet) throws TransformerConfigurationException {
+        long start = System.currentTimeMillis();
+        // the system id is used to resolve includes
+        Templates result = factory.newTemplates(new StreamSource(stylesheet.toExternalForm()));
+        logger.fine("...compiled " + stylesheet + " in " + (System.currentTimeMillis() - start) + "ms");
+        return result;
+    }
+}
@@ -0,0 +1,319 @@
+package org.imixs.einvoice;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The EInvoiceTotals computes the document totals and the VAT breakdown of an
+ * invoice from its line items, following the EN16931 calculation rules:
+ *
+ * <ul>
+ * <li>the line net amount (BT-131) is rounded to 2 decimals. If a line has no
+ * total, quantity x net price is used</li>
+ * <li>the VAT category taxable amount (BT-116) is the sum of the line net
+ * amounts per VAT category and rate (BR-S-08)</li>
+ * <li>the VAT category tax amount (BT-117) is computed per category from the
+ * taxable amount and rounded to 2 decimals (BR-S-09)</li>
+ * <li>the invoice totals (BT-109, BT-110, BT-112) are the sums of the
+ * breakdown (BR-CO-13, BR-CO-14, BR-CO-15)</li>
+ * </ul>
+ *
+ * The line items are aggregated in one pass with the amounts in cents, so no
+ * BigDecimal is created per line. Invoices with more than
+ * {@link #PARALLEL_THRESHOLD} lines are aggregated in parallel. The order of the
+ * breakdown is the order in which the category and rate first appear in the
+ * line items.
+ * <p>
+ * The VAT category of a line is taken from the line item (see
+ * {@link TradeLineItem#getTaxCategory()}). Only if a line has no category code,
+ * the category is 'S' (standard rate) for a positive rate and 'Z' (zero rated)
+ * otherwise.
+ * <p>
+ * The totals can be written into a model with
+ * {@link EInvoiceModel#setTotals(EInvoiceTotals)}:
+ *
+ * <pre>
+ * model.setTotals(EInvoiceTotals.of(model));
+ * </pre>
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceTotals {
+
+    public static final int PARALLEL_THRESHOLD = 10000;
+
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+
+    private final List<TaxBreakdown> breakdown;
+    private final BigDecimal netTotalAmount;
+    private final BigDecimal taxTotalAmount;
+    private final BigDecimal grandTotalAmount;
+    private final int lineCount;
+
+    EInvoiceTotals(Accumulator accumulator) {
+        List<TaxBreakdown> list = new ArrayList<>(accumulator.size);
+        BigDecimal net = BigDecimal.ZERO.setScale(2);
+        BigDecimal tax = BigDecimal.ZERO.setScale(2);
+        for (int i = 0; i < accumulator.size; i++) {
+            if (accumulator.counts[i] == 0) {
+                // all lines of this rate were removed
+                continue;
+            }
+            BigDecimal rate = BigDecimal.valueOf(accumulator.rates[i], 2);
+            BigDecimal basis = BigDecimal.valueOf(accumulator.cents[i], 2);
+            BigDecimal amount = basis.multiply(rate).divide(HUNDRED, 2, RoundingMode.HALF_UP);
+            list.add(new TaxBreakdown(accumulator.categories[i], rate, basis, amount));
+            net = net.add(basis);
+            tax = tax.add(amount);
+        }
+        this.breakdown = Collections.unmodifiableList(list);
+        this.netTotalAmount = net;
+        this.taxTotalAmount = tax;
+        this.grandTotalAmount = net.add(tax);
+        this.lineCount = accumulator.lines;
+    }
+
+    /**
+     * Computes the totals of the line items of a model
+     *
+     * @param model
+     * @return
+     */
+    public static EInvoiceTotals of(EInvoiceModel model) {
+        return of(model.getTradeLineItems());
+    }
+
+    /**
+     * Computes the totals of the given line items
+     *
+     * @param items
+     * @return
+     */
+    public static EInvoiceTotals of(Collection<TradeLineItem> items) {
+        Accumulator accumulator;
+        if (items.size() > PARALLEL_THRESHOLD) {
+            accumulator = items.parallelStream().collect(Accumulator::new, Accumulator::add, Accumulator::merge);
+        } else {
+            accumulator = new Accumulator();
+            for (TradeLineItem item : items) {
+                accumulator.add(item);
+            }
+        }
+        return new EInvoiceTotals(accumulator);
+    }
+
+    /**
+     * Returns the VAT breakdown - one entry per VAT category and rate
+     *
+     * @return
+     */
+    public List<TaxBreakdown> getBreakdown() {
+        return breakdown;
+    }
+
+    /**
+     * Returns the breakdown entry of a tax rate or null if no line has this rate
+     *
+     * @param rate
+     * @return
+     */
+    public TaxBreakdown findBreakdown(BigDecimal rate) {
+        for (TaxBreakdown entry : breakdown) {
+            if (entry.getRate().compareTo(rate) == 0) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Sum of the line net amounts (BT-106, BT-109) */
+    public BigDecimal getNetTotalAmount() {
+        return netTotalAmount;
+    }
+
+    /** Invoice total VAT amount (BT-110) */
+    public BigDecimal getTaxTotalAmount() {
+        return taxTotalAmount;
+    }
+
+    /** Invoice total amount with VAT (BT-112) */
+    public BigDecimal getGrandTotalAmount() {
+        return grandTotalAmount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public String toString() {
+        return "EInvoiceTotals [net=" + netTotalAmount + ", tax=" + taxTotalAmount + ", grand=" + grandTotalAmount
+                + ", breakdown=" + breakdown + "]";
+    }
+
+    /**
+     * Returns the VAT category code of a line or a document. If no code is given,
+     * the category is 'S' for a positive rate and 'Z' otherwise.
+     */
+    static String categoryCode(String code, double rate) {
+        if (code != null && !code.trim().isEmpty()) {
+            return code.trim();
+        }
+        return rate > 0 ? "S" : "Z";
+    }
+
+    /**
+     * Returns the amount in cents, rounded half up. Amounts with max. 2 decimals
+     * - the normal case - are converted without a BigDecimal.
+     */
+    static long cents(double amount) {
+        long cents = Math.round(amount * 100);
+        if (cents / 100.0 == amount) {
+            return cents;
+        }
+        return BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /**
+     * The VAT breakdown of one VAT category and rate (BG-23)
+     */
+    public static class TaxBreakdown {
+        private final String categoryCode;
+        private final BigDecimal rate;
+        private final BigDecimal basisAmount;
+        private final BigDecimal taxAmount;
+
+        public TaxBreakdown(String categoryCode, BigDecimal rate, BigDecimal basisAmount, BigDecimal taxAmount) {
+            super();
+            this.categoryCode = categoryCode;
+            this.rate = rate;
+            this.basisAmount = basisAmount;
+            this.taxAmount = taxAmount;
+        }
+
+        /** VAT category code (BT-118) */
+        public String getCategoryCode() {
+            return categoryCode;
+        }
+
+        /** VAT category rate (BT-119) */
+        public BigDecimal getRate() {
+            return rate;
+        }
+
+        /** VAT category taxable amount (BT-116) */
+        public BigDecimal getBasisAmount() {
+            return basisAmount;
+        }
+
+        /** VAT category tax amount (BT-117) */
+        public BigDecimal getTaxAmount() {
+            return taxAmount;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(categoryCode, rate, basisAmount, taxAmount);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TaxBreakdown)) {
+                return false;
+            }
+            TaxBreakdown other = (TaxBreakdown) obj;
+            return Objects.equals(categoryCode, other.categoryCode) && Objects.equals(rate, other.rate)
+                    && Objects.equals(basisAmount, other.basisAmount) && Objects.equals(taxAmount, other.taxAmount);
+        }
+
+        @Override
+        public String toString() {
+            return categoryCode + " " + rate.toPlainString() + "%: " + basisAmount.toPlainString() + " / "
+                    + taxAmount.toPlainString();
+        }
+    }
+
+    /**
+     * Sums the line amounts in cents per VAT category and rate. The entries are
+     * kept in the order of their first appearance, an invoice has only a few of
+     * them.
+     * <p>
+     * The accumulator is also used for the running totals of a model (see
+     * {@link EInvoiceModel#getLineTotals()}). A line can be removed by the
+     * contribution returned when it was added, so the sums stay correct even if
+     * the line item was changed in the meantime.
+     */
+    static final class Accumulator {
+        private String[] categories = new String[4];
+        private long[] rates = new long[4];
+        private long[] cents = new long[4];
+        private int[] counts = new int[4];
+        private int size;
+        private int lines;
+
+        /**
+         * Adds a line item
+         *
+         * @return the contribution of the line - the breakdown entry and amount
+         */
+        long[] add(TradeLineItem item) {
+            double total = item.getTotal();
+            if (total == 0) {
+                total = item.getQuantity() * item.getNetPrice();
+            }
+            long amount = cents(total);
+            int index = add(categoryCode(item.getTaxCategory(), item.getTaxRate()),
+                    Math.round(item.getTaxRate() * 100), amount, 1);
+            lines++;
+            return new long[] { index, amount };
+        }
+
+        /**
+         * Removes the contribution of a line added before
+         */
+        void remove(long[] contribution) {
+            int index = (int) contribution[0];
+            cents[index] -= contribution[1];
+            counts[index]--;
+            lines--;
+        }
+
+        private int add(String category, long rate, long amount, int count) {
+            for (int i = 0; i < size; i++) {
+                if (rates[i] == rate && categories[i].equals(category)) {
+                    cents[i] += amount;
+                    counts[i] += count;
+                    return i;
+                }
+            }
+            if (size == rates.length) {
+                categories = Arrays.copyOf(categories, size * 2);
+                rates = Arrays.copyOf(rates, size * 2);
+                cents = Arrays.copyOf(cents, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            categories[size] = category;
+            rates[size] = rate;
+            cents[size] = amount;
+            counts[size] = count;
+            return size++;
+        }
+
+        void merge(Accumulator other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.categories[i], other.rates[i], other.cents[i], other.counts[i]);
+            }
+            lines += other.lines;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.imixs.einvoice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The EInvoiceTranscoder converts an e-invoice from one format into another -
+ * CII to UBL, UBL to CII and CII or UBL to KSeF FA(3).
+ * <p>
+ * The source document is read in one StAX pass by the
+ * {@link EInvoiceStreamReader} and the target document is streamed by the
+ * {@link EInvoiceStreamWriter}. No DOM and no template is needed, so the
+ * transcoder is suitable for large archives with mixed formats.
+ * <p>
+ * The result of a conversion is the list of fields which could not be mapped.
+ * An empty list means that all values supported by the e-invoice models were
+ * converted.
+ *
+ * <pre>
+ * EInvoiceTranscoder transcoder = new EInvoiceTranscoder();
+ * List&lt;EInvoiceMappingGap&gt; gaps = transcoder.transcode(in, out, EInvoiceFormat.UBL);
+ * </pre>
+ *
+ * A transcoder instance is thread-safe.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceTranscoder {
+    private static Logger logger = Logger.getLogger(EInvoiceTranscoder.class.getName());
+
+    private final EInvoiceStreamWriter writer = new EInvoiceStreamWriter();
+
+    public EInvoiceTranscoder() {
+        super();
+    }
+
+    /**
+     * Converts the source document into the given target format. The streams are
+     * not closed.
+     *
+     * @param in     - a CII, UBL or KSeF document
+     * @param out    - the target document
+     * @param target - the target format
+     * @return the list of fields which could not be mapped
+     * @throws EInvoiceFormatException if the source is not a supported e-invoice
+     * @throws IOException
+     */
+    public List<EInvoiceMappingGap> transcode(InputStream in, OutputStream out, EInvoiceFormat target)
+            throws EInvoiceFormatException, IOException {
+        EInvoiceStreamReader reader = new EInvoiceStreamReader();
+        EInvoiceData data = reader.read(in);
+        List<EInvoiceMappingGap> gaps = new ArrayList<>(reader.getMappingGaps());
+        gaps.addAll(writer.write(data, target, out));
+        if (!gaps.isEmpty()) {
+            logger.fine("..." + reader.getFormat() + " -> " + target + ": " + gaps.size() + " mapping gaps");
+        }
+        return gaps;
+    }
+}
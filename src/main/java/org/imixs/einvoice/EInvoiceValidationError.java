@@ -0,0 +1,62 @@
+package org.imixs.einvoice;
+
+/**
+ * A EInvoiceValidationError describes a single problem found during the
+ * validation of an e-invoice document.
+ *
+ * @author rsoika
+ *
+ */
+public class EInvoiceValidationError {
+
+    public enum Severity {
+        WARNING, //
+        ERROR, //
+        FATAL;
+    }
+
+    private Severity severity;
+    private String message;
+    private int lineNumber;
+    private int columnNumber;
+
+    public EInvoiceValidationError(Severity severity, String message, int lineNumber, int columnNumber) {
+        super();
+        this.severity = severity;
+        this.message = message;
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+    }
+
+    public Severity getSeverity() {
+        return severity;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the line number in the source document or -1 if not known (e.g. for
+     * a DOM validation)
+     *
+     * @return
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns the column number in the source document or -1 if not known
+     *
+     * @return
+     */
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+
+    @Override
+    public String toString() {
+        return severity + " [" + lineNumber + ":" + columnNumber + "] " + message;
+    }
+}
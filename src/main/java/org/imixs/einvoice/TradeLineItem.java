@@ -15,6 +15,7 @@ public class TradeLineItem {
     private double netPrice;
     private double quantity;
     private double taxRate;
+    private String taxCategory; // VAT category code (BT-151)
     private double total;
     private String orderReferenceId; // Order-ID
 
@@ -78,6 +79,20 @@ public class TradeLineItem {
         this.taxRate = taxRate;
     }
 
+    /**
+     * Returns the VAT category code of the line (e.g. 'S', 'Z', 'E', 'AE') or
+     * null if the document does not define it
+     * 
+     * @return
+     */
+    public String getTaxCategory() {
+        return taxCategory;
+    }
+
+    public void setTaxCategory(String taxCategory) {
+        this.taxCategory = taxCategory;
+    }
+
     public double getTotal() {
         return total;
     }
@@ -104,6 +119,7 @@ public class TradeLineItem {
                 ", netPrice='" + netPrice + '\'' +
                 ", quantity='" + quantity + '\'' +
                 ", taxRate='" + taxRate + '\'' +
+                ", taxCategory='" + taxCategory + '\'' +
                 ", total='" + total + '\'' +
                 '}';
     }
@@ -0,0 +1,36 @@
+package org.imixs.einvoice;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor used by the {@link EInvoiceBatchReader}.
+ * <p>
+ * This is the Java 21 version of the class. Each read runs in its own virtual
+ * thread, the concurrency is limited by the EInvoiceBatchReader.
+ *
+ * @author rsoika
+ *
+ */
+final class EInvoiceBatchExecutors {
+
+    private EInvoiceBatchExecutors() {
+    }
+
+    /**
+     * Creates a new executor for the given number of concurrent reads
+     *
+     * @param concurrency
+     * @return a new executor - must be shut down by the caller
+     */
+    static ExecutorService newExecutor(int concurrency) {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Returns the name of the executor type for logging
+     */
+    static String getType() {
+        return "virtual-threads";
+    }
+}
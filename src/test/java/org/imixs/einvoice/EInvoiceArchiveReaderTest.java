@@ -0,0 +1,125 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the EInvoiceArchiveReader reading the invoices of
+ * ZIP and GZIP archives
+ *
+ */
+class EInvoiceArchiveReaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testZip() throws Exception {
+        List<EInvoiceBatchResult> results;
+        try (InputStream is = getClass().getResourceAsStream("/e-invoice/XRechnung_Beispiel.zip")) {
+            results = new ArrayList<>();
+            new EInvoiceArchiveReader().read(is, results::add);
+        }
+        assertEquals(1, results.size());
+        assertEquals("Rechnung_R_00010.xml", results.get(0).getName());
+        assertNull(results.get(0).getPath());
+        assertEquals("R-00010", results.get(0).getModel().getId());
+    }
+
+    /**
+     * Non-invoice entries are skipped, GZIP entries are decompressed and a broken
+     * invoice is reported as a failure - sequential and in parallel
+     */
+    @Test
+    void testMixedArchive() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("docs/"));
+            add(zip, "docs/readme.txt", "no invoice".getBytes(StandardCharsets.UTF_8));
+            add(zip, "a.xml", resource("/e-invoice/Rechnung_R_00010.xml"));
+            add(zip, "other.xml", "<order><id>1</id></order>".getBytes(StandardCharsets.UTF_8));
+            add(zip, "b.xml.gz", gzip(resource("/e-invoice/EN16931_Einfach.ubl.xml")));
+            add(zip, "broken.xml", ("<rsm:CrossIndustryInvoice xmlns:rsm=\"" + EInvoiceFormat.CII_NAMESPACE + "\">")
+                    .getBytes(StandardCharsets.UTF_8));
+            add(zip, "c.xml", resource("/e-invoice/ksef/FA_VAT_FA3_template.xml"));
+        }
+        Path archive = dir.resolve("invoices.zip");
+        Files.write(archive, out.toByteArray());
+
+        EInvoiceArchiveReader reader = new EInvoiceArchiveReader();
+        for (int concurrency : new int[] { 1, 3 }) {
+            reader.setConcurrency(concurrency);
+            List<EInvoiceBatchResult> results = reader.read(archive);
+            assertEquals(List.of("a.xml", "b.xml", "broken.xml", "c.xml"),
+                    results.stream().map(EInvoiceBatchResult::getName).collect(Collectors.toList()));
+            assertEquals("R-00010", results.get(0).getModel().getId());
+            assertEquals("471102", results.get(1).getModel().getId());
+            assertFalse(results.get(2).isSuccess());
+            assertTrue(results.get(2).getError() instanceof EInvoiceFormatException);
+            assertTrue(results.get(3).getModel() instanceof EInvoiceModelKSeF);
+        }
+
+        // the byte limit applies to each entry
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setMaxBytes(4000);
+        reader.setOptions(options);
+        List<EInvoiceBatchResult> results = reader.read(archive);
+        assertTrue(results.get(0).getError() instanceof EInvoiceLimitException);
+    }
+
+    @Test
+    void testGzip() throws Exception {
+        Path archive = dir.resolve("R_00010.xml.gz");
+        Files.write(archive, gzip(resource("/e-invoice/Rechnung_R_00010.xml")));
+        List<EInvoiceBatchResult> results = new EInvoiceArchiveReader().read(archive);
+        assertEquals(1, results.size());
+        assertEquals("R_00010.xml", results.get(0).getName());
+        assertEquals("R-00010", results.get(0).getModel().getId());
+
+        // a plain document is read as a single invoice
+        results = new ArrayList<>();
+        new EInvoiceArchiveReader().read(new ByteArrayInputStream(resource("/e-invoice/Rechnung_R_00010.xml")),
+                results::add);
+        assertEquals(1, results.size());
+    }
+
+    private static void add(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream is = EInvoiceArchiveReaderTest.class.getResourceAsStream(name)) {
+            return is.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Element;
+
+/**
+ * This test class is testing the streaming of large base64 attachments by
+ * EInvoiceAttachment handles
+ *
+ */
+class EInvoiceAttachmentTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * A large UBL attachment is spooled while parsing and written back
+     */
+    @Test
+    void testSpool() throws Exception {
+        byte[] data = random(300000);
+        byte[] content = ubl(Base64.getMimeEncoder().encodeToString(data));
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(content), options());
+        assertEquals("TOSL108", model.getId());
+        assertEquals(1, model.getAttachments().size());
+        EInvoiceAttachment attachment = model.getAttachments().get(0);
+        assertEquals("application/pdf", attachment.getMimeCode());
+        assertEquals(data.length, attachment.getSize());
+        assertEquals(EInvoiceAttachment.TOKEN_LENGTH, attachment.getElement().getTextContent().length());
+        assertEquals(1, files());
+
+        // decode on demand
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, attachment.transferTo(Channels.newChannel(out)));
+        assertArrayEquals(data, out.toByteArray());
+        try (InputStream in = attachment.openStream()) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+
+        // the written document contains the attachment
+        out = new ByteArrayOutputStream();
+        model.writeContent(out);
+        EInvoiceModel copy = EInvoiceModelFactory.read(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(copy.getAttachments().isEmpty());
+        Element element = (Element) copy.getDoc().getElementsByTagNameNS("*", EInvoiceAttachment.UBL_ELEMENT)
+                .item(0);
+        assertArrayEquals(data, Base64.getMimeDecoder().decode(element.getTextContent()));
+
+        attachment.release();
+        assertEquals(0, files());
+
+        // small attachments are kept in the DOM tree
+        model = EInvoiceModelFactory.read(Paths.get("src/test/resources/e-invoice/UBL-Invoice-2.1-Example.xml"),
+                options());
+        assertTrue(model.getAttachments().isEmpty());
+    }
+
+    /**
+     * A CII attachment is set from a file and streamed into the written document
+     */
+    @Test
+    void testSetAttachment() throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/e-invoice/Rechnung_R_00010.xml")),
+                StandardCharsets.UTF_8);
+        xml = xml.replace("</ram:ApplicableHeaderTradeAgreement>", "<ram:AdditionalReferencedDocument>"
+                + "<ram:IssuerAssignedID>A-1</ram:IssuerAssignedID><ram:TypeCode>916</ram:TypeCode>"
+                + "<ram:AttachmentBinaryObject mimeCode=\"application/pdf\" filename=\"timesheet.pdf\">AAAA"
+                + "</ram:AttachmentBinaryObject></ram:AdditionalReferencedDocument>"
+                + "</ram:ApplicableHeaderTradeAgreement>");
+        EInvoiceModel model = EInvoiceModelFactory
+                .read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        Element element = (Element) model.getDoc().getElementsByTagNameNS("*", EInvoiceAttachment.CII_ELEMENT)
+                .item(0);
+        byte[] data = random(100000);
+        Path file = Files.write(dir.resolve("timesheet.pdf"), data);
+        EInvoiceAttachment attachment = model.setAttachment(element, file);
+        assertTrue(model.isModified());
+        assertEquals(data.length, attachment.getSize());
+        assertEquals("timesheet.pdf", attachment.getFileName());
+
+        Path target = dir.resolve("invoice.xml");
+        try (FileOutputStream out = new FileOutputStream(target.toFile())) {
+            model.writeContent(out);
+        }
+        assertTrue(Files.size(target) > data.length);
+
+        EInvoiceModel copy = EInvoiceModelFactory.read(target, options());
+        assertEquals("R-00010", copy.getId());
+        assertEquals(1, copy.getAttachments().size());
+        attachment = copy.getAttachments().get(0);
+        assertEquals("timesheet.pdf", attachment.getFileName());
+        Path decoded = dir.resolve("decoded.pdf");
+        attachment.writeTo(decoded);
+        assertArrayEquals(data, Files.readAllBytes(decoded));
+        // the source file is not deleted
+        model.getAttachments().get(0).release();
+        assertTrue(Files.exists(file));
+    }
+
+    /**
+     * The EInvoiceDiff compares a spooled attachment by its handle
+     */
+    @Test
+    void testDiff() throws Exception {
+        byte[] data = random(300000);
+        byte[] content = ubl(Base64.getMimeEncoder().encodeToString(data));
+        EInvoiceModel spooled = EInvoiceModelFactory.read(new ByteArrayInputStream(content), options());
+        EInvoiceModel inline = EInvoiceModelFactory.read(new ByteArrayInputStream(content));
+        assertEquals(1, spooled.getAttachments().size());
+        assertTrue(inline.getAttachments().isEmpty());
+        assertTrue(new EInvoiceDiff().compare(inline, spooled).isEmpty());
+
+        data[1000]++;
+        EInvoiceModel revised = EInvoiceModelFactory
+                .read(new ByteArrayInputStream(ubl(Base64.getMimeEncoder().encodeToString(data))), options());
+        List<EInvoiceChange> changes = new EInvoiceDiff().compare(spooled, revised);
+        assertEquals(1, changes.size());
+        assertEquals(EInvoiceChange.Scope.ATTACHMENT, changes.get(0).getScope());
+        assertEquals("attachment 1.content", changes.get(0).getPath());
+    }
+
+    /**
+     * The spooled files are deleted if the document can not be parsed
+     */
+    @Test
+    void testParsingError() throws Exception {
+        String xml = new String(ubl(Base64.getEncoder().encodeToString(random(10000))), StandardCharsets.UTF_8);
+        byte[] content = xml.replace("</Invoice>", "</Invalid>").getBytes(StandardCharsets.UTF_8);
+        assertThrows(EInvoiceFormatException.class,
+                () -> EInvoiceModelFactory.read(new ByteArrayInputStream(content), options()));
+        assertEquals(0, files());
+    }
+
+    private EInvoiceReadOptions options() {
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setAttachmentThreshold(1024);
+        options.setAttachmentDirectory(dir);
+        return options;
+    }
+
+    private long files() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".b64")).count();
+        }
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] ubl(String base64) throws Exception {
+        String xml = new String(
+                Files.readAllBytes(Paths.get("src/test/resources/e-invoice/UBL-Invoice-2.1-Example.xml")),
+                StandardCharsets.UTF_8);
+        return xml.replace("UjBsR09EbGhjZ0dTQUxNQUFBUUNBRU1tQ1p0dU1GUXhEUzhi", base64)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+}
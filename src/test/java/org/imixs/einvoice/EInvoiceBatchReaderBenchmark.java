@@ -0,0 +1,45 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Measures the throughput of the EInvoiceBatchReader. The benchmark is not
+ * part of the unit tests and is run with the profile 'benchmark':
+ *
+ * <pre>
+ * mvn test -Pbenchmark
+ * </pre>
+ *
+ */
+class EInvoiceBatchReaderBenchmark {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Prints the throughput for 1 to N concurrent reads
+     */
+    @Test
+    void benchmarkThroughput() throws Exception {
+        EInvoiceBatchReaderTest.createFiles(dir, 300);
+        EInvoiceBatchReader reader = new EInvoiceBatchReader();
+        // warm up
+        reader.read(dir);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int concurrency = 1; concurrency <= Math.max(4, cores); concurrency *= 2) {
+            reader.setConcurrency(concurrency);
+            long start = System.nanoTime();
+            List<EInvoiceBatchResult> results = reader.read(dir);
+            long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+            assertEquals(300, results.size());
+            System.out.println("Batch read with concurrency " + concurrency + ": " + (300 * 1000L / millis)
+                    + " files/s (" + EInvoiceBatchExecutors.getType() + ")");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the parallel reading of a directory of e-invoice
+ * files by the EInvoiceBatchReader
+ *
+ */
+class EInvoiceBatchReaderTest {
+
+    private static final String[] SAMPLES = { "/e-invoice/Rechnung_R_00010.xml",
+            "/e-invoice/EN16931_Einfach.ubl.xml", "/e-invoice/ksef/FA_VAT_FA3_template.xml" };
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The results are returned in the input order, a broken file is reported as
+     * a failure
+     */
+    @Test
+    void testInputOrder() throws Exception {
+        List<Path> files = createFiles(dir, 30);
+        Path broken = dir.resolve("invoice-0015.xml");
+        Files.write(broken, "<Invoice>".getBytes(StandardCharsets.UTF_8));
+
+        EInvoiceBatchReader reader = new EInvoiceBatchReader();
+        reader.setConcurrency(4);
+        List<EInvoiceBatchResult> results = reader.read(dir);
+        assertEquals(files.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+            assertEquals(files.get(i), results.get(i).getPath());
+        }
+        List<EInvoiceBatchResult> failures = EInvoiceBatchReader.getFailures(results);
+        assertEquals(1, failures.size());
+        assertEquals(broken, failures.get(0).getPath());
+        assertTrue(failures.get(0).getError() instanceof EInvoiceFormatException);
+        assertNotNull(results.get(16).getModel());
+    }
+
+    @Test
+    void testCompletionOrder() throws Exception {
+        createFiles(dir, 30);
+        EInvoiceBatchReader reader = new EInvoiceBatchReader();
+        reader.setOrder(EInvoiceBatchReader.Order.COMPLETION);
+        List<EInvoiceBatchResult> results = reader.read(dir);
+        Set<Integer> indexes = new HashSet<>();
+        for (EInvoiceBatchResult result : results) {
+            assertTrue(result.isSuccess(), result.toString());
+            indexes.add(result.getIndex());
+        }
+        assertEquals(30, indexes.size());
+    }
+
+    @Test
+    void testGlob() throws Exception {
+        createFiles(dir, 5);
+        createFiles(Files.createDirectory(dir.resolve("archive")), 3);
+        Files.write(dir.resolve("readme.txt"), "no invoice".getBytes(StandardCharsets.UTF_8));
+
+        EInvoiceBatchReader reader = new EInvoiceBatchReader();
+        assertEquals(5, reader.read(dir, "*.xml").size());
+        List<EInvoiceBatchResult> results = reader.read(dir, "**/*.xml");
+        assertEquals(3, results.size());
+        assertFalse(EInvoiceBatchReader.getFailures(results).size() > 0);
+        assertEquals(8, reader.read(dir, "{*,**/*}.xml").size());
+    }
+
+    /**
+     * Each concurrency level reads all files
+     */
+    @Test
+    void testConcurrency() throws Exception {
+        createFiles(dir, 30);
+        EInvoiceBatchReader reader = new EInvoiceBatchReader();
+        for (int concurrency = 1; concurrency <= 4; concurrency *= 2) {
+            reader.setConcurrency(concurrency);
+            List<EInvoiceBatchResult> results = reader.read(dir);
+            assertEquals(30, results.size());
+            assertTrue(EInvoiceBatchReader.getFailures(results).isEmpty());
+        }
+    }
+
+    static List<Path> createFiles(Path dir, int count) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = dir.resolve(String.format("invoice-%04d.xml", i));
+            try (InputStream is = EInvoiceModel.class.getResourceAsStream(SAMPLES[i % SAMPLES.length])) {
+                Files.copy(is, file);
+            }
+            result.add(file);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoiceCodeList lookup tables
+ *
+ */
+class EInvoiceCodeListTest {
+
+    @Test
+    void testLookup() {
+        for (EInvoiceCodeList codeList : EInvoiceCodeList.values()) {
+            assertNotNull(codeList.getVersion(), codeList.name());
+            for (String code : codeList.getCodes()) {
+                assertTrue(codeList.contains(code), codeList.name() + " " + code);
+            }
+        }
+        assertTrue(EInvoiceCodeList.UNIT.contains("C62"));
+        assertTrue(EInvoiceCodeList.UNIT.contains("XPP"));
+        assertFalse(EInvoiceCodeList.UNIT.contains("C6"));
+        assertFalse(EInvoiceCodeList.UNIT.contains("c62"));
+        assertTrue(EInvoiceCodeList.COUNTRY.contains("DE"));
+        assertTrue(EInvoiceCodeList.COUNTRY.contains(new StringBuilder("PL")));
+        assertFalse(EInvoiceCodeList.COUNTRY.contains("EL"));
+        assertFalse(EInvoiceCodeList.COUNTRY.contains(""));
+        assertFalse(EInvoiceCodeList.COUNTRY.contains(null));
+        assertTrue(EInvoiceCodeList.CURRENCY.contains("EUR"));
+        assertFalse(EInvoiceCodeList.CURRENCY.contains("DEM"));
+        assertFalse(EInvoiceCodeList.CURRENCY.contains("EURO"));
+        assertTrue(EInvoiceCodeList.VAT_CATEGORY.contains("AE"));
+        assertTrue(EInvoiceCodeList.PAYMENT_MEANS.contains("58"));
+        assertTrue(EInvoiceCodeList.PAYMENT_MEANS.contains("ZZZ"));
+        assertFalse(EInvoiceCodeList.PAYMENT_MEANS.contains("058"));
+        assertEquals(27, EInvoiceCodeList.EU_VAT_PREFIX.size());
+    }
+
+    @Test
+    void testKSeFTaxType() {
+        assertEquals("1", EInvoiceModelKSeF.resolveTaxType("PL1234567890"));
+        assertEquals("2", EInvoiceModelKSeF.resolveTaxType("de123456789"));
+        assertEquals("2", EInvoiceModelKSeF.resolveTaxType("EL123456789"));
+        assertEquals("3", EInvoiceModelKSeF.resolveTaxType("GB123456789"));
+    }
+
+    /**
+     * Unknown codes are reported as mapping gaps by the stream reader. A unit
+     * code is only reported if it is malformed, because the unit list does not
+     * contain all codes of Recommendation 20.
+     */
+    @Test
+    void testUnknownCodes() throws Exception {
+        String xml;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("e-invoice/Rechnung_R_00010.xml")) {
+            xml = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        EInvoiceStreamReader reader = new EInvoiceStreamReader();
+        reader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(reader.getMappingGaps().isEmpty(), reader.getMappingGaps().toString());
+
+        xml = xml.replace("<ram:InvoiceCurrencyCode>EUR<", "<ram:InvoiceCurrencyCode>XYZ<")
+                .replaceFirst("unitCode='H87'", "unitCode='h-87'").replaceFirst("unitCode='H87'", "unitCode='FOO'");
+        reader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        List<EInvoiceMappingGap> gaps = reader.getMappingGaps();
+        assertEquals(2, gaps.size(), gaps.toString());
+        assertTrue(gaps.stream().anyMatch(gap -> gap.getField().equals("currencyCode")));
+        assertTrue(gaps.stream().anyMatch(gap -> gap.getField().endsWith(".unitCode")
+                && gap.getMessage().contains("'h-87'")));
+    }
+}
@@ -0,0 +1,149 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoiceDiff between an original and a
+ * revised invoice
+ *
+ */
+class EInvoiceDiffTest {
+
+    @Test
+    void testEqual() throws Exception {
+        EInvoiceModel original = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceModel revised = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        assertTrue(new EInvoiceDiff().compare(original, revised).isEmpty());
+    }
+
+    @Test
+    void testChanges() throws Exception {
+        EInvoiceModel original = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceData revised = EInvoiceData.of(EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml"));
+        revised.setGrandTotalAmount(new BigDecimal("4000.00"));
+        revised.setNetTotalAmount(original.getNetTotalAmount().setScale(4));
+        TradeParty seller = copy(revised.findTradeParty("seller"));
+        seller.setName("New Seller Ltd.");
+        revised.setTradeParty(seller);
+        revised.setTradeParty(new TradeParty("ship_to"));
+        List<TradeLineItem> items = new ArrayList<>(revised.getTradeLineItems());
+        TradeLineItem first = copy(items.get(0));
+        first.setQuantity(first.getQuantity() + 1);
+        revised.getTradeLineItems().clear();
+        revised.getTradeLineItems().add(first);
+        revised.getTradeLineItems().add(line("3", 10));
+
+        List<String> changes = new EInvoiceDiff().compare(EInvoiceData.of(original), revised).stream()
+                .map(EInvoiceChange::toString).collect(Collectors.toList());
+        String line1 = items.get(0).getId();
+        String line2 = items.get(1).getId();
+        assertEquals(List.of("grandTotalAmount: " + original.getGrandTotalAmount().toPlainString() + " -> 4000.00",
+                "seller.name: " + original.findTradeParty("seller").getName() + " -> New Seller Ltd.",
+                "ship_to: added",
+                "line " + line1 + ".quantity: " + BigDecimal.valueOf(items.get(0).getQuantity()).toPlainString()
+                        + " -> " + BigDecimal.valueOf(first.getQuantity()).toPlainString(),
+                "line " + line2 + ": removed", "line 3: added"), changes);
+    }
+
+    /**
+     * Only the changed lines of a large invoice are compared field by field
+     */
+    @Test
+    void testLargeInvoice() {
+        EInvoiceData original = new EInvoiceData();
+        EInvoiceData revised = new EInvoiceData();
+        int count = 200000;
+        for (int i = 0; i < count; i++) {
+            original.getTradeLineItems().add(line(Integer.toString(i), i));
+            if (i == 150000) {
+                // an inserted line - the remaining lines are matched by id
+                revised.getTradeLineItems().add(line("new", 1));
+            }
+            revised.getTradeLineItems().add(line(Integer.toString(i), i == 1000 || i == 160000 ? i + 1 : i));
+        }
+
+        EInvoiceDiff diff = new EInvoiceDiff();
+        List<EInvoiceChange> changes = diff.compare(original, revised);
+        // net price and total of two lines and the inserted line
+        assertEquals(5, changes.size(), changes.toString());
+        assertEquals("line 1000.total: 1000.0 -> 1001.0", changes.get(1).toString());
+        assertEquals(EInvoiceChange.Scope.LINE, changes.get(2).getScope());
+        assertEquals("160000", changes.get(2).getKey());
+        assertEquals("netPrice", changes.get(2).getField());
+        assertEquals(EInvoiceChange.Type.ADDED, changes.get(4).getType());
+        assertEquals("new", changes.get(4).getKey());
+    }
+
+    /**
+     * A changed tax category is found in the unchanged runs and after an
+     * inserted line
+     */
+    @Test
+    void testTaxCategory() {
+        EInvoiceData original = new EInvoiceData();
+        EInvoiceData revised = new EInvoiceData();
+        for (int i = 0; i < 4; i++) {
+            TradeLineItem item = line(Integer.toString(i), 100);
+            item.setTaxCategory("S");
+            original.getTradeLineItems().add(item);
+            if (i == 2) {
+                revised.getTradeLineItems().add(line("new", 1));
+            }
+            item = copy(item);
+            if (i == 1 || i == 3) {
+                item.setTaxCategory("AE");
+            }
+            revised.getTradeLineItems().add(item);
+        }
+        assertTrue(EInvoiceDiff.fingerprint(original.findTradeLineItem("1")) != EInvoiceDiff
+                .fingerprint(revised.findTradeLineItem("1")));
+
+        List<String> changes = new EInvoiceDiff().compare(original, revised).stream()
+                .map(EInvoiceChange::toString).collect(Collectors.toList());
+        assertEquals(List.of("line 1.taxCategory: S -> AE", "line 3.taxCategory: S -> AE", "line new: added"),
+                changes);
+    }
+
+    private static TradeLineItem line(String id, double total) {
+        TradeLineItem item = new TradeLineItem(id);
+        item.setName("Item " + id);
+        item.setQuantity(1);
+        item.setNetPrice(total);
+        item.setTaxRate(19);
+        item.setTotal(total);
+        return item;
+    }
+
+    private static TradeLineItem copy(TradeLineItem item) {
+        TradeLineItem result = new TradeLineItem(item.getId());
+        result.setName(item.getName());
+        result.setDescription(item.getDescription());
+        result.setOrderReferenceId(item.getOrderReferenceId());
+        result.setQuantity(item.getQuantity());
+        result.setGrossPrice(item.getGrossPrice());
+        result.setNetPrice(item.getNetPrice());
+        result.setTaxRate(item.getTaxRate());
+        result.setTaxCategory(item.getTaxCategory());
+        result.setTotal(item.getTotal());
+        return result;
+    }
+
+    private static TradeParty copy(TradeParty party) {
+        TradeParty result = new TradeParty(party.getType());
+        result.setName(party.getName());
+        result.setStreetAddress(party.getStreetAddress());
+        result.setPostcodeCode(party.getPostcodeCode());
+        result.setCityName(party.getCityName());
+        result.setCountryId(party.getCountryId());
+        result.setVatNumber(party.getVatNumber());
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+/**
+ * This test class is testing the unwrapping of invoices wrapped in a Peppol
+ * SBDH or a SOAP envelope
+ *
+ */
+class EInvoiceEnvelopeTest {
+
+    private static final String CBC = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
+
+    /**
+     * A UBL invoice in a Peppol SBDH. The cbc prefix is declared by the envelope
+     * only.
+     */
+    @Test
+    void testSbdh() throws Exception {
+        byte[] content = sbdh(payload("UBL-Invoice-2.1-Example.xml").replace(" xmlns:cbc=\"" + CBC + "\"", ""));
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(content));
+        assertTrue(model instanceof EInvoiceModelUBL);
+        assertEquals("TOSL108", model.getId());
+
+        EInvoiceEnvelope envelope = model.getEnvelope();
+        assertEquals(EInvoiceEnvelope.Type.SBDH, envelope.getType());
+        assertEquals("0088:7315458756324", envelope.getSender());
+        assertEquals("iso6523-actorid-upis", envelope.getSenderScheme());
+        assertEquals("0192:987654325", envelope.getReceiver());
+        assertEquals("f9b7ad3d-6b8e-4b5f-9a5c-4c9f6f8f1b7e", envelope.getDocumentId());
+        assertEquals("Invoice", envelope.getDocumentType());
+        assertEquals("urn:fdc:peppol.eu:2017:poacc:billing:01:1.0", envelope.getProcessIdentifier());
+        assertTrue(envelope.getDocumentTypeIdentifier().startsWith("urn:oasis:names:specification:ubl"));
+
+        // the content contains the invoice only - with the namespaces of the envelope
+        EInvoiceModel copy = EInvoiceModelFactory.read(new ByteArrayInputStream(model.getContent()));
+        assertEquals("TOSL108", copy.getId());
+        assertNull(copy.getEnvelope());
+
+        // the same from a parsed DOM
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document doc = factory.newDocumentBuilder().parse(new ByteArrayInputStream(content));
+        model = EInvoiceModelFactory.read(doc);
+        assertEquals("TOSL108", model.getId());
+        assertEquals("0192:987654325", model.getEnvelope().getReceiver());
+        assertEquals("TOSL108", EInvoiceModelFactory.read(new ByteArrayInputStream(model.getContent())).getId());
+    }
+
+    /**
+     * The envelope filter works together with the element limits and a retained
+     * source is not passed through
+     */
+    @Test
+    void testOptions() throws Exception {
+        byte[] content = sbdh(payload("Rechnung_R_00010.xml"));
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setMaxElements(100000);
+        options.setRetainSource(true);
+        EInvoiceModel model = EInvoiceModelFactory.read(content, 0, content.length, options);
+        assertEquals("R-00010", model.getId());
+        assertFalse(model.isPassthrough());
+        assertFalse(new String(model.getContent(), StandardCharsets.UTF_8).contains("<StandardBusinessDocumentHeader"));
+
+        options.setMaxElements(20);
+        assertThrows(EInvoiceLimitException.class,
+                () -> EInvoiceModelFactory.read(new ByteArrayInputStream(content), options));
+    }
+
+    /**
+     * A SBDH in a SOAP body
+     */
+    @Test
+    void testNested() throws Exception {
+        String soap = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<env:Envelope xmlns:env=\"" + EInvoiceEnvelope.SOAP12_NAMESPACE + "\">"
+                + "<env:Header><MessageID>1</MessageID></env:Header><env:Body>"
+                + new String(sbdh(payload("Rechnung_R_00010.xml")), StandardCharsets.UTF_8)
+                        .replace("<?xml version=\"1.0\" encoding=\"UTF-8\"?>", "")
+                + "</env:Body></env:Envelope>";
+        byte[] content = soap.getBytes(StandardCharsets.UTF_8);
+        try (InputStream is = new BufferedInputStream(new ByteArrayInputStream(content))) {
+            assertEquals(EInvoiceFormat.CII, EInvoiceFormat.detect(is));
+        }
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(content));
+        assertEquals("R-00010", model.getId());
+        assertEquals(EInvoiceEnvelope.Type.SOAP, model.getEnvelope().getType());
+        assertEquals("0088:7315458756324", model.getEnvelope().getSender());
+
+        // an envelope without invoice
+        byte[] empty = ("<env:Envelope xmlns:env=\"" + EInvoiceEnvelope.SOAP11_NAMESPACE
+                + "\"><env:Body><order/></env:Body></env:Envelope>").getBytes(StandardCharsets.UTF_8);
+        assertThrows(EInvoiceFormatException.class, () -> EInvoiceModelFactory.read(new ByteArrayInputStream(empty)));
+        try (InputStream is = new BufferedInputStream(new ByteArrayInputStream(empty))) {
+            assertNull(EInvoiceFormat.detect(is));
+        }
+    }
+
+    /**
+     * The envelope root is recognized in the first bytes of a document. A root
+     * beyond these bytes is removed from the DOM, a wrong hint passes the invoice
+     * unchanged.
+     */
+    @Test
+    void testRootDetection() throws Exception {
+        byte[] content = sbdh(payload("Rechnung_R_00010.xml"));
+        assertTrue(EInvoiceEnvelope.isEnvelope(content, content.length));
+        byte[] invoice = Files.readAllBytes(Paths.get("src/test/resources/e-invoice/Rechnung_R_00010.xml"));
+        assertFalse(EInvoiceEnvelope.isEnvelope(invoice, invoice.length));
+
+        // the root follows a long comment
+        StringBuilder comment = new StringBuilder("<!-- ");
+        while (comment.length() < 2048) {
+            comment.append("comment ");
+        }
+        String xml = new String(content, StandardCharsets.UTF_8);
+        byte[] late = xml.replace("?>\n", "?>\n" + comment + "-->\n").getBytes(StandardCharsets.UTF_8);
+        assertFalse(EInvoiceEnvelope.isEnvelope(late, 1024));
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(late));
+        assertEquals("R-00010", model.getId());
+        assertEquals("0088:7315458756324", model.getEnvelope().getSender());
+
+        // a comment looking like an envelope
+        String plain = new String(invoice, StandardCharsets.UTF_8);
+        byte[] hint = plain.replaceFirst("\\?>", "?><!-- <Envelope> -->").getBytes(StandardCharsets.UTF_8);
+        assertTrue(EInvoiceEnvelope.isEnvelope(hint, hint.length));
+        model = EInvoiceModelFactory.read(new ByteArrayInputStream(hint));
+        assertEquals("R-00010", model.getId());
+        assertNull(model.getEnvelope());
+    }
+
+    private static String payload(String resource) throws Exception {
+        String xml = new String(Files.readAllBytes(Paths.get("src/test/resources/e-invoice/" + resource)),
+                StandardCharsets.UTF_8);
+        return xml.substring(xml.indexOf("?>") + 2);
+    }
+
+    private static byte[] sbdh(String payload) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<StandardBusinessDocument xmlns=\"" + EInvoiceEnvelope.SBDH_NAMESPACE + "\" xmlns:cbc=\"" + CBC
+                + "\">\n"
+                + "  <StandardBusinessDocumentHeader>\n"
+                + "    <HeaderVersion>1.0</HeaderVersion>\n"
+                + "    <Sender><Identifier Authority=\"iso6523-actorid-upis\">0088:7315458756324</Identifier></Sender>\n"
+                + "    <Receiver><Identifier Authority=\"iso6523-actorid-upis\">0192:987654325</Identifier></Receiver>\n"
+                + "    <DocumentIdentification>\n"
+                + "      <Standard>urn:oasis:names:specification:ubl:schema:xsd:Invoice-2</Standard>\n"
+                + "      <TypeVersion>2.1</TypeVersion>\n"
+                + "      <InstanceIdentifier>f9b7ad3d-6b8e-4b5f-9a5c-4c9f6f8f1b7e</InstanceIdentifier>\n"
+                + "      <Type>Invoice</Type>\n"
+                + "      <CreationDateAndTime>2024-01-15T10:00:00Z</CreationDateAndTime>\n"
+                + "    </DocumentIdentification>\n"
+                + "    <BusinessScope>\n"
+                + "      <Scope><Type>DOCUMENTID</Type><InstanceIdentifier>"
+                + "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017"
+                + "#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1</InstanceIdentifier></Scope>\n"
+                + "      <Scope><Type>PROCESSID</Type>"
+                + "<InstanceIdentifier>urn:fdc:peppol.eu:2017:poacc:billing:01:1.0</InstanceIdentifier></Scope>\n"
+                + "    </BusinessScope>\n"
+                + "  </StandardBusinessDocumentHeader>\n"
+                + payload + "\n</StandardBusinessDocument>\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
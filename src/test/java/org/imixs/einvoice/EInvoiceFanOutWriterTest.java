@@ -0,0 +1,155 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoiceFanOutWriter writing one set of
+ * invoice values into CII, UBL and KSeF
+ *
+ */
+class EInvoiceFanOutWriterTest {
+
+    /**
+     * Each output is read back with the values of the invoice data
+     */
+    @Test
+    void testWrite() throws Exception {
+        EInvoiceFanOutWriter writer = new EInvoiceFanOutWriter();
+        register(writer);
+
+        Map<EInvoiceFormat, ByteArrayOutputStream> results = write(writer, data());
+        for (EInvoiceFormat format : EInvoiceFormat.values()) {
+            byte[] content = results.get(format).toByteArray();
+            EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(content));
+            assertEquals(format, EInvoiceFormat.of(model));
+            assertEquals("FA/7/2025", model.getId(), format.name());
+            assertEquals(LocalDate.of(2025, 7, 1), model.getIssueDateTime(), format.name());
+            assertEquals(new BigDecimal("177.00"), model.getGrandTotalAmount(), format.name());
+            assertEquals(new BigDecimal("150.00"), model.getNetTotalAmount(), format.name());
+            TradeParty buyer = model.findTradeParty("buyer");
+            assertNotNull(buyer, format.name());
+            assertEquals("Kupiec Sp. z o.o.", buyer.getName(), format.name());
+            // KSeF stores the Polish NIP without the country prefix
+            assertTrue(buyer.getVatNumber().endsWith("1234567890"), format.name());
+        }
+
+        // KSeF - the Polish buyer selects the domestic net total field
+        String ksef = new String(results.get(EInvoiceFormat.KSEF).toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(ksef.contains("<P_13_1>150.00</P_13_1>"), ksef);
+        assertTrue(!ksef.contains("<P_13_6_2>"), ksef);
+    }
+
+    /**
+     * The line items of the templates are replaced by the line items of the
+     * invoice data, so the lines add up to the net total in each format
+     */
+    @Test
+    void testLineItems() throws Exception {
+        EInvoiceFanOutWriter writer = new EInvoiceFanOutWriter();
+        register(writer);
+
+        Map<EInvoiceFormat, ByteArrayOutputStream> results = write(writer, data());
+        for (EInvoiceFormat format : EInvoiceFormat.values()) {
+            EInvoiceModel model = EInvoiceModelFactory
+                    .read(new ByteArrayInputStream(results.get(format).toByteArray()));
+            assertEquals(2, model.getTradeLineItems().size(), format.name());
+            BigDecimal total = BigDecimal.ZERO;
+            for (TradeLineItem item : model.getTradeLineItems()) {
+                total = total.add(BigDecimal.valueOf(item.getTotal()));
+            }
+            assertEquals(0, total.compareTo(model.getNetTotalAmount()), format.name() + ": " + total);
+            TradeLineItem item = model.findTradeLineItem("2");
+            assertNotNull(item, format.name());
+            assertEquals(5.0, item.getQuantity(), format.name());
+            assertEquals(18.0, item.getTaxRate(), format.name());
+        }
+    }
+
+    /**
+     * A caller-supplied executor is used and not shut down by the writer
+     */
+    @Test
+    void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            EInvoiceFanOutWriter writer = new EInvoiceFanOutWriter(executor);
+            register(writer);
+            for (int i = 0; i < 3; i++) {
+                Map<EInvoiceFormat, ByteArrayOutputStream> results = write(writer, data());
+                EInvoiceModel model = EInvoiceModelFactory
+                        .read(new ByteArrayInputStream(results.get(EInvoiceFormat.UBL).toByteArray()));
+                assertEquals("FA/7/2025", model.getId());
+            }
+            assertTrue(!executor.isShutdown());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void register(EInvoiceFanOutWriter writer) throws Exception {
+        writer.setTemplate(EInvoiceFormat.CII, read("Rechnung_R_00010.xml"));
+        writer.setTemplate(EInvoiceFormat.UBL, read("EN16931_Einfach.ubl.xml"));
+        writer.setTemplate(EInvoiceFormat.KSEF, read("ksef/FA_VAT_FA3_template.xml"));
+    }
+
+    private static Map<EInvoiceFormat, ByteArrayOutputStream> write(EInvoiceFanOutWriter writer, EInvoiceData data)
+            throws Exception {
+        Map<EInvoiceFormat, ByteArrayOutputStream> results = new EnumMap<>(EInvoiceFormat.class);
+        Map<EInvoiceFormat, OutputStream> outputs = new EnumMap<>(EInvoiceFormat.class);
+        for (EInvoiceFormat format : EInvoiceFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            results.put(format, out);
+            outputs.put(format, out);
+        }
+        writer.write(data, outputs);
+        return results;
+    }
+
+    private static EInvoiceData data() {
+        EInvoiceData data = new EInvoiceData();
+        data.setId("FA/7/2025");
+        data.setIssueDateTime(LocalDate.of(2025, 7, 1));
+        data.setNetTotalAmount(new BigDecimal("150"));
+        data.setTaxTotalAmount(new BigDecimal("27"));
+        TradeParty buyer = new TradeParty("buyer");
+        buyer.setName("Kupiec Sp. z o.o.");
+        buyer.setVatNumber("PL1234567890");
+        buyer.setCountryId("PL");
+        data.setTradeParty(buyer);
+        data.setTradeLineItem(line("1", "Papier A4", 10, 100));
+        data.setTradeLineItem(line("2", "Toner", 5, 50));
+        return data;
+    }
+
+    private static TradeLineItem line(String id, String name, double quantity, double total) {
+        TradeLineItem item = new TradeLineItem(id);
+        item.setName(name);
+        item.setQuantity(quantity);
+        item.setGrossPrice(total / quantity);
+        item.setNetPrice(total / quantity);
+        item.setTotal(total);
+        item.setTaxRate(18);
+        return item;
+    }
+
+    private static byte[] read(String resource) throws Exception {
+        return Files.readAllBytes(Paths.get("src/test/resources/e-invoice", resource));
+    }
+}
@@ -0,0 +1,152 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoiceHtmlRenderer with two chained XSLT 1.0
+ * test stylesheets and with the bundled XRechnung stylesheets
+ *
+ */
+class EInvoiceHtmlRendererTest {
+
+    private URL resource(String name) {
+        return getClass().getClassLoader().getResource("e-invoice/xsl/" + name);
+    }
+
+    private String render(EInvoiceHtmlRenderer renderer, EInvoiceModel model) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.render(model, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testRender() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(resource("test-xr.xsl"), resource("test-html.xsl"));
+        renderer.setParameter("title", "Rechnung");
+        String html = render(renderer, model);
+        assertTrue(html.contains("<h1>Rechnung</h1>"));
+        assertTrue(html.contains("<p>R-00010</p>"));
+        assertTrue(html.contains("<li>Pressefotos</li>"));
+        assertEquals(2, html.split("<li>", -1).length - 1);
+    }
+
+    /**
+     * The raw document is rendered like the DOM of the model
+     */
+    @Test
+    void testRenderStream() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(TransformerFactory.newInstance(),
+                new StreamSource(resource("test-xr.xsl").toExternalForm()),
+                new StreamSource(resource("test-html.xsl").toExternalForm()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("e-invoice/Rechnung_R_00010.xml")) {
+            renderer.render(is, out);
+        }
+        assertEquals(render(renderer, model), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A parameter set to null is removed and the stylesheet default is used
+     */
+    @Test
+    void testParameter() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(resource("test-xr.xsl"), resource("test-html.xsl"));
+        renderer.setParameter("title", "Rechnung");
+        assertTrue(render(renderer, model).contains("<h1>Rechnung</h1>"));
+        renderer.setParameter("title", null);
+        assertTrue(render(renderer, model).contains("<h1>Invoice</h1>"));
+    }
+
+    /**
+     * One renderer instance is used by several threads
+     */
+    @Test
+    void testConcurrentRender() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(resource("test-xr.xsl"), resource("test-html.xsl"));
+        String expected = render(renderer, model);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> render(renderer, model)));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A renderer needs at least one stylesheet
+     */
+    @Test
+    void testNoStylesheet() {
+        assertThrows(TransformerConfigurationException.class,
+                () -> new EInvoiceHtmlRenderer(TransformerFactory.newInstance(), new Source[0]));
+    }
+
+    /**
+     * Renders a CII invoice with the bundled XRechnung stylesheets cii-xr.xsl
+     * and xrechnung-html.xsl. These are XSLT 2.0 stylesheets, so the test is
+     * skipped if Saxon is not on the class path or if a stylesheet included by
+     * the chain is not bundled.
+     */
+    @Test
+    void testXRechnung() throws Exception {
+        TransformerFactory saxon = null;
+        try {
+            saxon = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null);
+        } catch (TransformerFactoryConfigurationError e) {
+            // not on the class path
+        }
+        assumeTrue(saxon != null, "Saxon is not on the class path - the XRechnung stylesheets require XSLT 2.0");
+
+        URL ciiXr = getClass().getClassLoader().getResource("e-invoice/cii-xr.xsl");
+        URL html = getClass().getClassLoader().getResource("e-invoice/xrechnung-html.xsl");
+        String missing = null;
+        try {
+            EInvoiceTemplatesCache cache = new EInvoiceTemplatesCache(saxon);
+            cache.hash(ciiXr);
+            cache.hash(html);
+        } catch (FileNotFoundException e) {
+            missing = e.getMessage();
+        }
+        assumeTrue(missing == null, "XRechnung stylesheet not bundled: " + missing);
+
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceHtmlRenderer renderer = new EInvoiceHtmlRenderer(saxon, new StreamSource(ciiXr.toExternalForm()),
+                new StreamSource(html.toExternalForm()));
+        String result = render(renderer, model);
+        assertTrue(result.contains("<html"), result);
+        assertTrue(result.contains("R-00010"), result);
+        assertTrue(result.contains("Viborg Metall GbR"), result);
+    }
+}
@@ -0,0 +1,60 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the check digits of the EInvoiceIdValidator
+ *
+ */
+class EInvoiceIdValidatorTest {
+
+    private static final String[] VALID_VAT_IDS = { "ATU13585627", "BE0403019261", "BE403019261", "BG175074752",
+            "CY10259033P", "CZ25123891", "DE136695976", "DK13585628", "EE100931558", "EL094259216", "FI20774740",
+            "FR61954506077", "HR33392005961", "HU12892312", "IE6433435F", "IE8D79739I", "IT00743110157",
+            "LT119511515", "LU15027442", "MT11679112", "NL004495445B01", "PL5260250274", "PT501964843",
+            "RO18547290", "SE123456789701", "SI50223054", "SK2022749619", "GB980780684" };
+
+    @Test
+    void testNIP() {
+        assertTrue(EInvoiceIdValidator.isValidNIP("5260250274"));
+        assertTrue(EInvoiceIdValidator.isValidNIP("PL 526-025-02-74"));
+        assertTrue(EInvoiceIdValidator.isValidNIP("pl5260250274"));
+        assertFalse(EInvoiceIdValidator.isValidNIP("5260250275"));
+        assertFalse(EInvoiceIdValidator.isValidNIP("526025027"));
+        assertFalse(EInvoiceIdValidator.isValidNIP("DE5260250274"));
+        assertFalse(EInvoiceIdValidator.isValidNIP(null));
+    }
+
+    @Test
+    void testVatId() {
+        for (String vatId : VALID_VAT_IDS) {
+            assertTrue(EInvoiceIdValidator.isValidVatId(vatId), vatId);
+            // change the last digit - the NL and SE suffixes are no check digits
+            char last = vatId.charAt(vatId.length() - 1);
+            if (Character.isDigit(last) && !vatId.startsWith("NL") && !vatId.startsWith("SE")) {
+                String invalid = vatId.substring(0, vatId.length() - 1) + (char) ('0' + (last - '0' + 1) % 10);
+                assertFalse(EInvoiceIdValidator.isValidVatId(invalid), invalid);
+            }
+        }
+        assertFalse(EInvoiceIdValidator.isValidVatId("NL004495446B01"));
+        assertFalse(EInvoiceIdValidator.isValidVatId("SE123456789801"));
+        assertTrue(EInvoiceIdValidator.isValidVatId("DE 136 695 976"));
+        assertFalse(EInvoiceIdValidator.isValidVatId("DE13669597"));
+        assertFalse(EInvoiceIdValidator.isValidVatId("DE/136695976"));
+        assertFalse(EInvoiceIdValidator.isValidVatId("136695976"));
+    }
+
+    @Test
+    void testIBAN() {
+        assertTrue(EInvoiceIdValidator.isValidIBAN("DE89370400440532013000"));
+        assertTrue(EInvoiceIdValidator.isValidIBAN("DE89 3704 0044 0532 0130 00"));
+        assertTrue(EInvoiceIdValidator.isValidIBAN("GB82WEST12345698765432"));
+        assertTrue(EInvoiceIdValidator.isValidIBAN("PL61109010140000071219812874"));
+        assertFalse(EInvoiceIdValidator.isValidIBAN("DE89370400440532013001"));
+        assertFalse(EInvoiceIdValidator.isValidIBAN("GB82WEST1234569876543"));
+        assertFalse(EInvoiceIdValidator.isValidIBAN("DE8937040044"));
+    }
+}
@@ -0,0 +1,179 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the EInvoiceInboxWatcher reading the files
+ * arriving in an inbox directory
+ *
+ */
+class EInvoiceInboxWatcherTest {
+
+    private static final Path SOURCE = Paths.get("src/test/resources/e-invoice/Rechnung_R_00010.xml");
+
+    @TempDir
+    Path inbox;
+
+    /**
+     * Files renamed into the inbox are read and moved into the done and error
+     * directories
+     */
+    @Test
+    void testWatch() throws Exception {
+        Files.copy(SOURCE, inbox.resolve("existing.xml"));
+        BlockingQueue<EInvoiceBatchResult> results = new LinkedBlockingQueue<>();
+        try (EInvoiceInboxWatcher watcher = new EInvoiceInboxWatcher(inbox)) {
+            watcher.setConcurrency(2);
+            watcher.setQueueCapacity(2);
+            watcher.setOnSuccess(results::add);
+            watcher.setOnError(results::add);
+            watcher.start();
+            assertTrue(watcher.isRunning());
+
+            for (int i = 0; i < 20; i++) {
+                deliver(Files.readAllBytes(SOURCE), "invoice-" + i + ".xml");
+            }
+            deliver("<broken".getBytes(StandardCharsets.UTF_8), "broken.xml");
+            // not matching the pattern
+            deliver("no invoice".getBytes(StandardCharsets.UTF_8), "readme.txt");
+
+            Set<String> names = new HashSet<>();
+            for (int i = 0; i < 22; i++) {
+                EInvoiceBatchResult result = results.poll(10, TimeUnit.SECONDS);
+                assertNotNull(result, "missing result " + i);
+                assertTrue(names.add(result.getPath().getFileName().toString()));
+                if (result.isSuccess()) {
+                    assertEquals("R-00010", result.getModel().getId());
+                    assertEquals(inbox.resolve("done"), result.getPath().getParent());
+                } else {
+                    assertEquals("broken.xml", result.getPath().getFileName().toString());
+                    assertEquals(inbox.resolve("error"), result.getPath().getParent());
+                }
+            }
+            assertEquals(21, watcher.getProcessedCount());
+            assertEquals(1, watcher.getFailedCount());
+
+            // a file with a known name is not replaced
+            deliver(Files.readAllBytes(SOURCE), "existing.xml");
+            EInvoiceBatchResult result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(result);
+            assertEquals("existing-1.xml", result.getPath().getFileName().toString());
+        }
+        assertEquals(21 + 1, count(inbox.resolve("done")));
+        assertEquals(1, count(inbox.resolve("error")));
+        assertTrue(Files.exists(inbox.resolve("readme.txt")));
+        assertTrue(results.isEmpty());
+    }
+
+    /**
+     * In polling mode a file written in parts is read after its size is stable
+     */
+    @Test
+    void testPolling() throws Exception {
+        BlockingQueue<EInvoiceBatchResult> results = new LinkedBlockingQueue<>();
+        EInvoiceInboxWatcher watcher = new EInvoiceInboxWatcher(inbox);
+        watcher.setPolling(true);
+        watcher.setPollInterval(Duration.ofMillis(20));
+        watcher.setStableTime(Duration.ofMillis(500));
+        watcher.setOnSuccess(results::add);
+        watcher.setOnError(results::add);
+        watcher.start();
+        try {
+            byte[] content = Files.readAllBytes(SOURCE);
+            Path file = inbox.resolve("partial.xml");
+            Files.write(file, Arrays.copyOf(content, content.length / 2));
+            Thread.sleep(100);
+            assertTrue(results.isEmpty());
+            Files.write(file, Arrays.copyOfRange(content, content.length / 2, content.length),
+                    StandardOpenOption.APPEND);
+
+            EInvoiceBatchResult result = results.poll(10, TimeUnit.SECONDS);
+            assertNotNull(result);
+            assertTrue(result.isSuccess(), String.valueOf(result.getError()));
+            assertEquals("R-00010", result.getModel().getId());
+        } finally {
+            watcher.close();
+        }
+        assertFalse(watcher.isRunning());
+        assertEquals(1, count(inbox.resolve("done")));
+    }
+
+    /**
+     * On a caller-supplied executor at most 'concurrency' files are read at the
+     * same time
+     */
+    @Test
+    void testExecutor() throws Exception {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        BlockingQueue<EInvoiceBatchResult> results = new LinkedBlockingQueue<>();
+        try (EInvoiceInboxWatcher watcher = new EInvoiceInboxWatcher(inbox)) {
+            watcher.setExecutor(executor);
+            watcher.setConcurrency(2);
+            watcher.setQueueCapacity(8);
+            watcher.setOnSuccess(result -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                results.add(result);
+            });
+            watcher.start();
+            for (int i = 0; i < 10; i++) {
+                deliver(Files.readAllBytes(SOURCE), "invoice-" + i + ".xml");
+            }
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(results.poll(10, TimeUnit.SECONDS), "missing result " + i);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(maxActive.get() <= 2, "active reads: " + maxActive.get());
+        // no task waits for a read permit inside the executor - a thread just
+        // finishing a task may not be idle yet when the next file is submitted
+        assertTrue(executor.getLargestPoolSize() <= 4, "pool threads: " + executor.getLargestPoolSize());
+        assertEquals(10, count(inbox.resolve("done")));
+    }
+
+    /**
+     * Writes a file under a temporary name and renames it into the inbox
+     */
+    private void deliver(byte[] content, String name) throws Exception {
+        Path temp = Files.write(inbox.resolve(name + ".tmp"), content);
+        Files.move(temp, inbox.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long count(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
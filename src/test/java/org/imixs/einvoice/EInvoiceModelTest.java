@@ -1,18 +1,43 @@
 package org.imixs.einvoice;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Set;
 
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * This test class is testing the EInvoiceModel and tests different
@@ -46,6 +71,8 @@ class EInvoiceModelTest {
 
         LocalDate invoiceDate = eInvoiceModel.getIssueDateTime();
         assertEquals(LocalDate.of(2021, 7, 28), invoiceDate);
+        // the due date of the SpecifiedTradePaymentTerms
+        assertEquals(LocalDate.of(2021, 8, 11), eInvoiceModel.getDueDateTime());
 
         assertEquals(new BigDecimal("4380.9"), eInvoiceModel.getGrandTotalAmount());
         assertEquals(new BigDecimal("510.9"), eInvoiceModel.getTaxTotalAmount());
@@ -106,6 +133,23 @@ class EInvoiceModelTest {
         TradeParty seller = eInvoiceModel.findTradeParty("seller");
         assertNotNull(seller);
         assertEquals("Lieferant GmbH", seller.getName());
+        assertEquals("Lieferantenstraße 20", seller.getStreetAddress());
+        assertEquals("80333", seller.getPostcodeCode());
+        assertEquals("München", seller.getCityName());
+        assertEquals("DE", seller.getCountryId());
+        // the VAT identifier, not the tax number (scheme 'FC')
+        assertEquals("DE123456789", seller.getVatNumber());
+
+        // Test AccountingCustomerParty
+        TradeParty buyer = eInvoiceModel.findTradeParty("buyer");
+        assertNotNull(buyer);
+        assertEquals("Kunden AG Mitte", buyer.getName());
+        assertEquals("Kundenstraße 15", buyer.getStreetAddress());
+        assertEquals("69876", buyer.getPostcodeCode());
+        assertEquals("Frankfurt", buyer.getCityName());
+        assertEquals("DE", buyer.getCountryId());
+        assertNull(buyer.getVatNumber());
+
         // Auftragsnummer
         assertEquals("5050031606", eInvoiceModel.getOrderReferenceId());
 
@@ -116,9 +160,16 @@ class EInvoiceModelTest {
         // test first line item
         TradeLineItem lineItem = lineItemIterator.next();
         assertEquals("00010", lineItem.getOrderReferenceId());
+        assertEquals("Trennblätter A4", lineItem.getName());
+        assertEquals(20.0, lineItem.getQuantity());
+        assertEquals(9.9, lineItem.getNetPrice());
+        assertEquals(198.0, lineItem.getTotal());
+        assertEquals(19.0, lineItem.getTaxRate());
         // test second line item
         lineItem = lineItemIterator.next();
         assertEquals("00020", lineItem.getOrderReferenceId());
+        assertEquals(275.0, lineItem.getTotal());
+        assertEquals(7.0, lineItem.getTaxRate());
 
     }
 
@@ -156,4 +207,173 @@ class EInvoiceModelTest {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Test the passthrough of the original source for an unmodified model.
+     * 
+     * @throws Exception
+     */
+    @Test
+    void testPassthrough(@TempDir Path tempDir) throws Exception {
+        File file = new File(getClass().getClassLoader().getResource("e-invoice/Rechnung_R_00010.xml").toURI());
+        byte[] original = Files.readAllBytes(file.toPath());
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setRetainSource(true);
+
+        // read from a stream
+        EInvoiceModel eInvoiceModel = EInvoiceModelFactory.read(new ByteArrayInputStream(original), options);
+        assertFalse(eInvoiceModel.isModified());
+        assertTrue(eInvoiceModel.isPassthrough());
+        assertArrayEquals(original, eInvoiceModel.getContent());
+
+        // read from a file and transfer into a file
+        eInvoiceModel = EInvoiceModelFactory.read(file, options);
+        assertTrue(eInvoiceModel.isPassthrough());
+        Path target = tempDir.resolve("copy.xml");
+        try (FileOutputStream out = new FileOutputStream(target.toFile())) {
+            eInvoiceModel.writeContent(out);
+        }
+        assertArrayEquals(original, Files.readAllBytes(target));
+
+        // any setter call invalidates the original source
+        eInvoiceModel.setId("R-99999");
+        assertTrue(eInvoiceModel.isModified());
+        assertFalse(eInvoiceModel.isPassthrough());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        eInvoiceModel.writeContent(Channels.newChannel(out));
+        String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("R-99999"));
+
+        // without options the source is not retained
+        eInvoiceModel = EInvoiceModelFactory.read(file);
+        assertFalse(eInvoiceModel.isPassthrough());
+    }
+
+    /**
+     * Test the NIO inputs of the factory - paths, memory-mapped files, byte
+     * arrays and ByteBuffers - and the detection of an empty stream.
+     * 
+     * @throws Exception
+     */
+    @Test
+    void testNioInputs(@TempDir Path tempDir) throws Exception {
+        Path file = new File(getClass().getClassLoader().getResource("e-invoice/Rechnung_R_00010.xml").toURI())
+                .toPath();
+        byte[] original = Files.readAllBytes(file);
+        assertEquals("R-00010", EInvoiceModelFactory.read(file).getId());
+
+        // a document inside a larger array
+        byte[] array = new byte[original.length + 20];
+        System.arraycopy(original, 0, array, 10, original.length);
+        assertEquals("R-00010", EInvoiceModelFactory.read(array, 10, original.length).getId());
+
+        // heap and direct buffers - the position is not changed
+        ByteBuffer heap = ByteBuffer.wrap(array, 10, original.length);
+        assertEquals("R-00010", EInvoiceModelFactory.read(heap).getId());
+        assertEquals(10, heap.position());
+        ByteBuffer direct = ByteBuffer.allocateDirect(original.length);
+        direct.put(original).flip();
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setRetainSource(true);
+        EInvoiceModel model = EInvoiceModelFactory.read(direct, options);
+        assertEquals(0, direct.position());
+        assertArrayEquals(original, model.getContent());
+
+        // a large file is memory-mapped
+        Path large = tempDir.resolve("large.xml");
+        Files.write(large, original);
+        byte[] padding = new byte[(int) EInvoiceModelFactory.MAP_THRESHOLD];
+        Arrays.fill(padding, (byte) ' ');
+        Files.write(large, padding, StandardOpenOption.APPEND);
+        model = EInvoiceModelFactory.read(large, options);
+        assertEquals("R-00010", model.getId());
+        assertTrue(model.isPassthrough());
+
+        // a stream without available bytes - e.g. a network stream
+        InputStream network = new ByteArrayInputStream(original) {
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        assertEquals("R-00010", EInvoiceModelFactory.read(network).getId());
+        try {
+            EInvoiceModelFactory.read(new ByteArrayInputStream(new byte[0]));
+            fail("empty stream not detected");
+        } catch (EInvoiceFormatException e) {
+            assertTrue(e.getMessage().contains("No Content"));
+        }
+        try {
+            EInvoiceModelFactory.read(tempDir.resolve("missing.xml"));
+            fail("missing file not detected");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that new elements are created with the namespace URI, so that the
+     * live DOM can be processed by namespace aware tools like XPath, XSLT or a
+     * schema validator.
+     * 
+     * @throws Exception
+     */
+    @Test
+    void testNamespaceAwareElements() throws Exception {
+        EInvoiceModel eInvoiceModel = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+
+        TradeLineItem item = new TradeLineItem("3");
+        item.setName("Moon Rocket");
+        item.setOrderReferenceId("00030");
+        item.setQuantity(1.0);
+        item.setTaxRate(19.0);
+        item.setTotal(1000.0);
+        eInvoiceModel.setTradeLineItem(item);
+
+        TradeParty shipTo = new TradeParty("ship_to");
+        shipTo.setName("Max Mustermann");
+        shipTo.setCityName("Berlin");
+        shipTo.setVatNumber("DE111111111");
+        eInvoiceModel.setTradeParty(shipTo);
+
+        // all elements must have a namespace
+        NodeList elements = eInvoiceModel.getDoc().getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            assertNotNull(element.getNamespaceURI(), "No namespace: " + element.getNodeName());
+        }
+
+        // evaluate the live DOM by a namespace aware XPath
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return "rsm".equals(prefix) ? eInvoiceModel.getUri(EInvoiceNS.RSM)
+                        : eInvoiceModel.getUri(EInvoiceNS.RAM);
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return null;
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                return null;
+            }
+        });
+        NodeList lineItems = (NodeList) xpath.evaluate(
+                "/rsm:CrossIndustryInvoice/rsm:SupplyChainTradeTransaction/ram:IncludedSupplyChainTradeLineItem",
+                eInvoiceModel.getDoc(), XPathConstants.NODESET);
+        assertEquals(3, lineItems.getLength());
+        Node city = (Node) xpath.evaluate("//ram:ShipToTradeParty/ram:PostalTradeAddress/ram:CityName",
+                eInvoiceModel.getDoc(), XPathConstants.NODE);
+        assertNotNull(city);
+        assertEquals("Berlin", city.getTextContent());
+    }
+
+}
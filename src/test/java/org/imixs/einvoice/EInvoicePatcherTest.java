@@ -0,0 +1,174 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoicePatcher with different formats
+ *
+ */
+class EInvoicePatcherTest {
+
+    private byte[] readResource(String name) throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(name)) {
+            if (is == null) {
+                throw new IOException("Resource not found");
+            }
+            return is.readAllBytes();
+        }
+    }
+
+    @Test
+    void testPatchCII() throws Exception {
+        byte[] original = readResource("e-invoice/Rechnung_R_00010.xml");
+        EInvoicePatcher patcher = new EInvoicePatcher(original);
+        assertEquals(EInvoiceFormat.CII, patcher.getFormat());
+        assertFalse(patcher.isModified());
+        assertArrayEquals(original, patcher.getContent());
+
+        assertTrue(patcher.setId("R-00011 & Co"));
+        assertTrue(patcher.setIssueDateTime(LocalDate.of(2024, 2, 29)));
+        assertTrue(patcher.setGrandTotalAmount(new BigDecimal("119.00")));
+        // two VAT breakdowns - the totals can not be patched
+        assertFalse(patcher.setTaxTotalAmount(new BigDecimal("19.00")));
+        assertFalse(patcher.setNetTotalAmount(new BigDecimal("100.00")));
+        assertTrue(patcher.setDueDateTime(LocalDate.of(2024, 3, 31)));
+        assertTrue(patcher.setOrderReferenceId("4711"));
+        assertTrue(patcher.isModified());
+
+        byte[] patched = patcher.getContent();
+        String xml = new String(patched, StandardCharsets.UTF_8);
+        assertTrue(xml.contains("R-00011 &amp; Co"));
+
+        // the untouched prefix of the document is preserved
+        String source = new String(original, StandardCharsets.UTF_8);
+        int prefix = source.indexOf("R-00010");
+        assertEquals(source.substring(0, prefix), xml.substring(0, prefix));
+
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(patched));
+        assertEquals("R-00011 & Co", model.getId());
+        assertEquals(LocalDate.of(2024, 2, 29), model.getIssueDateTime());
+        assertEquals(new BigDecimal("119.00"), model.getGrandTotalAmount());
+        assertEquals(new BigDecimal("510.9"), model.getTaxTotalAmount());
+        assertEquals(LocalDate.of(2024, 3, 31), model.getDueDateTime());
+        assertEquals("4711", model.getOrderReferenceId());
+        assertEquals(2, xml.split("<ram:BasisAmount>", -1).length - 1);
+        assertTrue(xml.contains("<ram:BasisAmount>1870.0</ram:BasisAmount>"));
+    }
+
+    /**
+     * A CII document with a single VAT breakdown - the breakdown is patched with
+     * the totals
+     */
+    @Test
+    void testPatchCIITotals() throws Exception {
+        byte[] original = readResource("e-invoice/Rechnung_CustomNamespace_CII.xml");
+        EInvoicePatcher patcher = new EInvoicePatcher(original);
+        assertTrue(patcher.setNetTotalAmount(new BigDecimal("100.00")));
+        assertTrue(patcher.setTaxTotalAmount(new BigDecimal("19.00")));
+        assertTrue(patcher.setGrandTotalAmount(new BigDecimal("119.00")));
+        assertTrue(patcher.setDueDateTime(LocalDate.of(2024, 3, 31)));
+
+        String xml = new String(patcher.getContent(), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<mgns2:BasisAmount>100.00</mgns2:BasisAmount>"), xml);
+        assertTrue(xml.contains("<mgns2:CalculatedAmount>19.00</mgns2:CalculatedAmount>"), xml);
+        assertTrue(xml.contains("<mgns2:TaxBasisTotalAmount>100.00</mgns2:TaxBasisTotalAmount>"), xml);
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(patcher.getContent()));
+        assertEquals(new BigDecimal("100.00"), model.getNetTotalAmount());
+        assertEquals(new BigDecimal("19.00"), model.getTaxTotalAmount());
+        assertEquals(new BigDecimal("119.00"), model.getGrandTotalAmount());
+        assertEquals(LocalDate.of(2024, 3, 31), model.getDueDateTime());
+    }
+
+    @Test
+    void testPatchUBL() throws Exception {
+        byte[] original = readResource("e-invoice/EN16931_Einfach.ubl.xml");
+        EInvoicePatcher patcher = new EInvoicePatcher(original);
+        assertEquals(EInvoiceFormat.UBL, patcher.getFormat());
+        assertTrue(patcher.setNetTotalAmount(new BigDecimal("500")));
+        assertTrue(patcher.setTaxTotalAmount(new BigDecimal("95.00")));
+        assertTrue(patcher.setGrandTotalAmount(new BigDecimal("595.00")));
+
+        String xml = new String(patcher.getContent(), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<cbc:LineExtensionAmount currencyID=\"EUR\">500</cbc:LineExtensionAmount>"));
+        assertTrue(xml.contains("<cbc:TaxAmount currencyID=\"EUR\">95.00</cbc:TaxAmount>"));
+        // the line amounts and the subtotals are not changed
+        assertTrue(xml.contains("<cbc:LineExtensionAmount currencyID=\"EUR\">198</cbc:LineExtensionAmount>"));
+        assertTrue(xml.contains("<cbc:TaxAmount currencyID=\"EUR\">19.25</cbc:TaxAmount>"));
+
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(patcher.getContent()));
+        assertEquals(new BigDecimal("500.00"), model.getNetTotalAmount());
+        assertEquals(new BigDecimal("95.00"), model.getTaxTotalAmount());
+        assertEquals(new BigDecimal("595.00"), model.getGrandTotalAmount());
+    }
+
+    /**
+     * A stray or mismatched end tag is reported as a format error
+     */
+    @Test
+    void testInvalidEndTag() {
+        String header = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+        String ubl = "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"\n"
+                + "  xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">\n";
+        for (String xml : new String[] { header + "</Invoice>" + ubl + "</Invoice>",
+                header + ubl + "  <cbc:ID>1</cbc:Note>\n</Invoice>" }) {
+            assertThrows(EInvoiceFormatException.class,
+                    () -> new EInvoicePatcher(xml.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    void testPatchKSeF() throws Exception {
+        byte[] original = readResource("e-invoice/ksef/FA_VAT_FA3_template.xml");
+        EInvoicePatcher patcher = new EInvoicePatcher(original);
+        assertEquals(EInvoiceFormat.KSEF, patcher.getFormat());
+
+        assertTrue(patcher.setId("FA/1/2025"));
+        assertTrue(patcher.setIssueDateTime(LocalDate.of(2025, 7, 1)));
+        assertTrue(patcher.setNetTotalAmount(new BigDecimal("100")));
+        assertTrue(patcher.setTaxTotalAmount(new BigDecimal("23")));
+        assertTrue(patcher.setGrandTotalAmount(new BigDecimal("123")));
+        // the template does not contain a Platnosc block
+        assertFalse(patcher.setDueDateTime(LocalDate.of(2025, 7, 15)));
+        // not supported by KSeF
+        assertFalse(patcher.setOrderReferenceId("4711"));
+
+        String xml = new String(patcher.getContent(), StandardCharsets.UTF_8);
+        // comments are preserved
+        assertTrue(xml.contains("<P_1>2025-07-01</P_1>           <!-- Invoice Date -->"));
+        assertTrue(xml.contains("<P_13_1>100.00</P_13_1>  <!-- Total Net -->"));
+
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("FA/1/2025", model.getId());
+        assertEquals(new BigDecimal("123.00"), model.getGrandTotalAmount());
+    }
+
+    @Test
+    void testPatchSelfClosingElement() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\"\n"
+                + "  xmlns:cbc=\"urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2\">\n"
+                + "  <cbc:ID/>\n"
+                + "  <cbc:IssueDate>2018-03-05</cbc:IssueDate>\n"
+                + "</Invoice>";
+        EInvoicePatcher patcher = new EInvoicePatcher(xml.getBytes(StandardCharsets.UTF_8));
+        assertEquals(EInvoiceFormat.UBL, patcher.getFormat());
+        assertTrue(patcher.setId("471102"));
+        assertFalse(patcher.setDueDateTime(LocalDate.of(2018, 4, 5)));
+        String result = new String(patcher.getContent(), StandardCharsets.UTF_8);
+        assertTrue(result.contains("<cbc:ID>471102</cbc:ID>"));
+    }
+
+}
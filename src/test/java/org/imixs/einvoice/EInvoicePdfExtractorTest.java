@@ -0,0 +1,193 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the EInvoicePdfExtractor reading the XML invoice
+ * embedded in a Factur-X / ZUGFeRD PDF
+ *
+ */
+class EInvoicePdfExtractorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testFacturX() throws Exception {
+        Path path = Paths.get("src/test/resources/e-invoice/EN16931_Einfach.pdf");
+        EInvoicePdfExtractor extractor = new EInvoicePdfExtractor(path);
+        assertEquals(List.of("factur-x.xml"), extractor.getAttachmentNames());
+        assertEquals("factur-x.xml", extractor.getInvoiceAttachmentName());
+
+        EInvoiceModel model = EInvoicePdfExtractor.read(path);
+        assertTrue(model instanceof EInvoiceModelCII);
+        assertEquals("471102", model.getId());
+    }
+
+    /**
+     * The name tree is an indirect object
+     */
+    @Test
+    void testZugferd() throws Exception {
+        Path path = Paths.get("src/test/resources/e-invoice/Rechnung_R_00011.pdf");
+        EInvoicePdfExtractor extractor = new EInvoicePdfExtractor(path);
+        assertEquals("zugferd-invoice.xml", extractor.getInvoiceAttachmentName());
+        try (InputStream is = extractor.openAttachment("zugferd-invoice.xml")) {
+            String xml = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(xml.contains("CrossIndustryInvoice"));
+        }
+        assertEquals("R-00011", EInvoicePdfExtractor.read(path).getId());
+    }
+
+    /**
+     * A PDF 1.5 document with a compressed xref stream and the catalog in an
+     * object stream
+     */
+    @Test
+    void testXrefStream() throws Exception {
+        byte[] xml = Files.readAllBytes(Paths.get("src/test/resources/e-invoice/Rechnung_R_00010.xml"));
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        write(pdf, "%PDF-1.5\n");
+        long[] offsets = new long[6];
+        // 1: object stream with catalog (2) and filespec (3)
+        String catalog = "<</Type/Catalog/Names<</EmbeddedFiles<</Names[(invoice.xml) 3 0 R]>>>>>>";
+        String spec = "<</Type/Filespec/F(invoice.xml)/EF<</F 4 0 R>>>>";
+        String header = "2 0 3 " + (catalog.length() + 1) + " ";
+        byte[] objects = deflate((header + catalog + " " + spec).getBytes(StandardCharsets.ISO_8859_1));
+        offsets[1] = pdf.size();
+        write(pdf, "1 0 obj\n<</Type/ObjStm/N 2/First " + header.length() + "/Filter/FlateDecode/Length "
+                + objects.length + ">>\nstream\n");
+        pdf.write(objects);
+        write(pdf, "\nendstream\nendobj\n");
+        // 4: the embedded file with an indirect length (5)
+        byte[] file = deflate(xml);
+        offsets[4] = pdf.size();
+        write(pdf, "4 0 obj\n<</Type/EmbeddedFile/Filter/FlateDecode/Length 5 0 R>>\nstream\r\n");
+        pdf.write(file);
+        write(pdf, "\r\nendstream\nendobj\n");
+        offsets[5] = pdf.size();
+        write(pdf, "5 0 obj\n" + file.length + "\nendobj\n");
+        // 6: xref stream
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        long xrefOffset = pdf.size();
+        for (int num = 0; num < 7; num++) {
+            if (num == 2 || num == 3) {
+                entries.write(new byte[] { 2, 0, 0, 0, 1, (byte) (num - 2) });
+            } else {
+                long offset = num == 6 ? xrefOffset : num == 0 ? 0 : offsets[num];
+                entries.write(new byte[] { (byte) (num == 0 ? 0 : 1), 0, (byte) (offset >> 16),
+                        (byte) (offset >> 8), (byte) offset, 0 });
+            }
+        }
+        byte[] xref = deflate(entries.toByteArray());
+        write(pdf, "6 0 obj\n<</Type/XRef/Size 7/W[1 4 1]/Root 2 0 R/Filter/FlateDecode/Length " + xref.length
+                + ">>\nstream\n");
+        pdf.write(xref);
+        write(pdf, "\nendstream\nendobj\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+
+        EInvoicePdfExtractor extractor = new EInvoicePdfExtractor(ByteBuffer.wrap(pdf.toByteArray()));
+        assertEquals(List.of("invoice.xml"), extractor.getAttachmentNames());
+        assertEquals("R-00010", extractor.readInvoice(null).getId());
+
+        // broken offsets are rebuilt by scanning the objects
+        byte[] broken = pdf.toByteArray();
+        String content = new String(broken, StandardCharsets.ISO_8859_1).replace("startxref\n" + xrefOffset,
+                "startxref\n" + (xrefOffset - 7));
+        extractor = new EInvoicePdfExtractor(ByteBuffer.wrap(content.getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals("R-00010", extractor.readInvoice(null).getId());
+    }
+
+    @Test
+    void testNoInvoice() throws Exception {
+        Path path = dir.resolve("empty.pdf");
+        Files.write(path, ("%PDF-1.4\n1 0 obj\n<</Type/Catalog>>\nendobj\nxref\n0 2\n0000000000 65535 f \n"
+                + "0000000009 00000 n \ntrailer\n<</Size 2/Root 1 0 R>>\nstartxref\n42\n%%EOF\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        assertThrows(EInvoiceFormatException.class, () -> EInvoicePdfExtractor.read(path));
+        assertThrows(EInvoiceFormatException.class,
+                () -> EInvoicePdfExtractor.read(Paths.get("src/test/resources/e-invoice/Rechnung_R_00010.xml")));
+    }
+
+    /**
+     * Cyclic references and malformed tokens are reported as IOException
+     */
+    @Test
+    void testInvalidReferences() throws Exception {
+        // two streams with their lengths pointing at each other
+        byte[] pdf = pdf("<</Type/Catalog/Names<</EmbeddedFiles 2 0 R>>>>",
+                "<</Length 3 0 R>>\nstream\nabc\nendstream", "<</Length 2 0 R>>\nstream\nabc\nendstream");
+        assertThrows(IOException.class, () -> new EInvoicePdfExtractor(ByteBuffer.wrap(pdf)).getAttachmentNames());
+
+        // a malformed name escape and an oversized generation number
+        for (String catalog : new String[] { "<</Type/Catalog/Names<</Embedded#zzFiles 2 0 R>>>>",
+                "<</Type/Catalog/Names 2 99999999999 R>>" }) {
+            byte[] invalid = pdf(catalog, "<<>>");
+            assertThrows(IOException.class,
+                    () -> new EInvoicePdfExtractor(ByteBuffer.wrap(invalid)).getAttachmentNames());
+        }
+
+        // the catalog is stored in an object stream which is the catalog itself
+        ByteArrayOutputStream self = new ByteArrayOutputStream();
+        write(self, "%PDF-1.5\n");
+        long xrefOffset = self.size();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        entries.write(new byte[] { 0, 0, 0, 0, 0, 0 });
+        entries.write(new byte[] { 1, 0, 0, 0, (byte) xrefOffset, 0 });
+        entries.write(new byte[] { 2, 0, 0, 0, 2, 0 });
+        write(self, "1 0 obj\n<</Type/XRef/Size 3/W[1 4 1]/Root 2 0 R/Length 18>>\nstream\n");
+        self.write(entries.toByteArray());
+        write(self, "\nendstream\nendobj\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+        assertThrows(IOException.class,
+                () -> new EInvoicePdfExtractor(ByteBuffer.wrap(self.toByteArray())).getAttachmentNames());
+    }
+
+    /**
+     * Creates a PDF with a classic xref table. The first object is the catalog.
+     */
+    private static byte[] pdf(String... objects) throws IOException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        write(pdf, "%PDF-1.4\n");
+        long[] offsets = new long[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            offsets[i] = pdf.size();
+            write(pdf, (i + 1) + " 0 obj\n" + objects[i] + "\nendobj\n");
+        }
+        long xref = pdf.size();
+        write(pdf, "xref\n0 " + (objects.length + 1) + "\n0000000000 65535 f \n");
+        for (long offset : offsets) {
+            write(pdf, String.format("%010d 00000 n \n", offset));
+        }
+        write(pdf, "trailer\n<</Size " + (objects.length + 1) + "/Root 1 0 R>>\nstartxref\n" + xref
+                + "\n%%EOF\n");
+        return pdf.toByteArray();
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream deflater = new DeflaterOutputStream(out)) {
+            deflater.write(data);
+        }
+        return out.toByteArray();
+    }
+}
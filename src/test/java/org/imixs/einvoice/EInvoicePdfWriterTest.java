@@ -0,0 +1,119 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.imixs.einvoice.EInvoicePdfDocument.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the EInvoicePdfWriter embedding the XML invoice
+ * into a PDF by an incremental update
+ *
+ */
+class EInvoicePdfWriterTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Replaces the factur-x.xml of a Factur-X PDF
+     */
+    @Test
+    void testWrite() throws Exception {
+        Path source = Paths.get("src/test/resources/e-invoice/EN16931_Einfach.pdf");
+        Path target = dir.resolve("invoice.pdf");
+        EInvoiceModelCII model = readModel();
+        new EInvoicePdfWriter().write(source, model, target);
+
+        // the original bytes are not changed
+        byte[] original = Files.readAllBytes(source);
+        byte[] result = Files.readAllBytes(target);
+        assertArrayEquals(original, Arrays.copyOf(result, original.length));
+
+        EInvoicePdfExtractor extractor = new EInvoicePdfExtractor(target);
+        assertEquals(List.of("factur-x.xml"), extractor.getAttachmentNames());
+        assertEquals("R-00010", extractor.readInvoice(null).getId());
+
+        EInvoicePdfDocument pdf = new EInvoicePdfDocument(ByteBuffer.wrap(result));
+        Map<String, Object> catalog = pdf.getCatalog();
+        assertEquals(1, pdf.getArray(catalog, "AF").size());
+        String xmp = new String(pdf.getData((Stream) pdf.resolve(catalog.get("Metadata"))), StandardCharsets.UTF_8);
+        assertTrue(xmp.contains("<fx:ConformanceLevel>EN 16931</fx:ConformanceLevel>"));
+        assertTrue(xmp.contains("<fx:DocumentFileName>factur-x.xml</fx:DocumentFileName>"));
+    }
+
+    /**
+     * Appends a second attachment to a ZUGFeRD PDF in place - twice
+     */
+    @Test
+    void testAppend() throws Exception {
+        Path target = dir.resolve("invoice.pdf");
+        Files.copy(Paths.get("src/test/resources/e-invoice/Rechnung_R_00011.pdf"), target);
+        EInvoicePdfWriter writer = new EInvoicePdfWriter();
+        writer.setConformanceLevel("EN 16931");
+        writer.append(target, readModel());
+        long size = Files.size(target);
+        writer.append(target, readModel());
+        assertTrue(Files.size(target) > size);
+
+        EInvoicePdfExtractor extractor = new EInvoicePdfExtractor(target);
+        assertEquals(2, extractor.getAttachmentNames().size());
+        assertTrue(extractor.getAttachmentNames().contains("zugferd-invoice.xml"));
+        assertEquals("factur-x.xml", extractor.getInvoiceAttachmentName());
+        assertEquals("R-00010", extractor.readInvoice(null).getId());
+
+        EInvoicePdfDocument pdf = new EInvoicePdfDocument(ByteBuffer.wrap(Files.readAllBytes(target)));
+        String xmp = new String(pdf.getData((Stream) pdf.resolve(pdf.getCatalog().get("Metadata"))),
+                StandardCharsets.UTF_8);
+        assertEquals(1, xmp.split("<fx:DocumentType>", -1).length - 1);
+        assertTrue(xmp.contains("<pdfaid:part>3</pdfaid:part>") || xmp.contains("pdfaid:part=\"3\""));
+    }
+
+    /**
+     * A document with a xref stream is updated by a xref stream
+     */
+    @Test
+    void testXrefStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("%PDF-1.5\n".getBytes(StandardCharsets.ISO_8859_1));
+        int catalog = out.size();
+        out.write("1 0 obj\n<</Type/Catalog>>\nendobj\n".getBytes(StandardCharsets.ISO_8859_1));
+        int xref = out.size();
+        ByteBuffer entries = ByteBuffer.allocate(3 * 6);
+        entries.put(new byte[] { 0, 0, 0, 0, 0, (byte) 0xff });
+        entries.put((byte) 1).putInt(catalog).put((byte) 0);
+        entries.put((byte) 1).putInt(xref).put((byte) 0);
+        out.write(("2 0 obj\n<</Type/XRef/Size 3/W[1 4 1]/Root 1 0 R/Length 18>>\nstream\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        out.write(entries.array());
+        out.write(("\nendstream\nendobj\nstartxref\n" + xref + "\n%%EOF").getBytes(StandardCharsets.ISO_8859_1));
+        Path target = dir.resolve("xref-stream.pdf");
+        Files.write(target, out.toByteArray());
+
+        new EInvoicePdfWriter().append(target, readModel());
+        String tail = new String(Files.readAllBytes(target), StandardCharsets.ISO_8859_1);
+        tail = tail.substring(out.size());
+        assertTrue(tail.contains("/Type /XRef"));
+        assertTrue(tail.contains("/Prev " + xref));
+        assertEquals("R-00010", EInvoicePdfExtractor.read(target).getId());
+    }
+
+    private static EInvoiceModelCII readModel() throws IOException, EInvoiceFormatException {
+        return (EInvoiceModelCII) EInvoiceModelFactory
+                .read(Paths.get("src/test/resources/e-invoice/Rechnung_R_00010.xml"));
+    }
+}
@@ -0,0 +1,198 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the backpressured pipeline of the
+ * EInvoicePublisher and the EInvoiceStage
+ *
+ */
+class EInvoicePublisherTest {
+
+    private static final String[] SAMPLES = { "/e-invoice/Rechnung_R_00010.xml",
+            "/e-invoice/EN16931_Einfach.ubl.xml", "/e-invoice/ksef/FA_VAT_FA3_template.xml" };
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The models pass a parallel parse and filter stage in the input order. The
+     * filter drops the models without line items.
+     */
+    @Test
+    void testPipeline() throws Exception {
+        List<Path> files = createFiles(30);
+        List<String> expected = new ArrayList<>();
+        for (Path file : files) {
+            EInvoiceModel model = EInvoiceModelFactory.read(file.toFile());
+            if (!model.getTradeLineItems().isEmpty()) {
+                expected.add(model.getId());
+            }
+        }
+        assertEquals(20, expected.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            EInvoicePublisher publisher = EInvoicePublisher.ofFiles(files.stream());
+            publisher.setParallelism(4);
+            publisher.setExecutor(executor);
+            List<String> ids = Collections.synchronizedList(new ArrayList<>());
+            publisher.then(model -> model.getTradeLineItems().isEmpty() ? null : model, 3, 8) //
+                    .then(EInvoiceModel::getId) //
+                    .forEach(ids::add).get(30, TimeUnit.SECONDS);
+            assertEquals(expected, ids);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Only the requested files and the buffer of the parse stage are read from
+     * a huge source
+     */
+    @Test
+    void testBackpressure() throws Exception {
+        Path file = createFiles(1).get(0);
+        AtomicInteger pulled = new AtomicInteger();
+        Stream<Path> paths = Stream.generate(() -> file).limit(1000000).peek(path -> pulled.incrementAndGet());
+        EInvoicePublisher publisher = EInvoicePublisher.ofFiles(paths);
+        publisher.setBufferSize(4);
+        publisher.setParallelism(2);
+
+        CountDownLatch latch = new CountDownLatch(5);
+        AtomicInteger received = new AtomicInteger();
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        publisher.subscribe(new Flow.Subscriber<EInvoiceModel>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                s.request(5);
+            }
+
+            @Override
+            public void onNext(EInvoiceModel item) {
+                received.incrementAndGet();
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertEquals(5, received.get());
+        assertTrue(pulled.get() <= 5 + 4, "pulled " + pulled.get());
+        subscription[0].cancel();
+    }
+
+    @Test
+    void testErrors() throws Exception {
+        List<Path> files = createFiles(6);
+        Files.write(files.get(2), "<Invoice>".getBytes(StandardCharsets.UTF_8));
+
+        // without an error handler the pipeline fails
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> EInvoicePublisher.ofFiles(files.stream()).forEach(model -> {
+                }).join());
+        assertTrue(e.getCause() instanceof EInvoiceFormatException);
+
+        // the error handler skips the broken file
+        List<String> failed = new ArrayList<>();
+        AtomicInteger count = new AtomicInteger();
+        EInvoicePublisher publisher = EInvoicePublisher.ofFiles(files.stream());
+        publisher.setErrorHandler((name, ex) -> failed.add(name));
+        publisher.forEach(model -> count.incrementAndGet()).get(30, TimeUnit.SECONDS);
+        assertEquals(5, count.get());
+        assertEquals(List.of(files.get(2).toString()), failed);
+    }
+
+    /**
+     * Invalid settings and requests are reported to the subscriber
+     */
+    @Test
+    void testInvalidSettings() throws Exception {
+        List<Path> files = createFiles(3);
+        EInvoicePublisher publisher = EInvoicePublisher.ofFiles(files.stream());
+        assertThrows(IllegalArgumentException.class, () -> publisher.setParallelism(0));
+        assertThrows(IllegalArgumentException.class, () -> publisher.setBufferSize(0));
+
+        // a parallelism larger than the buffer size
+        publisher.setParallelism(EInvoiceStage.DEFAULT_BUFFER_SIZE + 1);
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        publisher.subscribe(subscriber(1, errors));
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalArgumentException, errors.toString());
+
+        // a non-positive request (rule 3.9) - the publisher can be subscribed
+        // after the settings are corrected
+        errors.clear();
+        publisher.setParallelism(2);
+        publisher.subscribe(subscriber(0, errors));
+        for (int i = 0; i < 100 && errors.isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof IllegalArgumentException, errors.toString());
+    }
+
+    private static Flow.Subscriber<EInvoiceModel> subscriber(long request, List<Throwable> errors) {
+        return new Flow.Subscriber<EInvoiceModel>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                s.request(request);
+            }
+
+            @Override
+            public void onNext(EInvoiceModel item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+    }
+
+    private List<Path> createFiles(int count) throws IOException {
+        List<Path> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = dir.resolve(String.format("invoice-%04d.xml", i));
+            try (InputStream is = EInvoiceModel.class.getResourceAsStream(SAMPLES[i % SAMPLES.length])) {
+                Files.copy(is, file);
+            }
+            result.add(file);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the read limits of the EInvoiceModelFactory - the
+ * deadline, the number of bytes and elements, the nesting depth and the
+ * cancellation by a thread interrupt
+ *
+ */
+class EInvoiceReadLimitsTest {
+
+    /**
+     * A document within the limits is read like without limits
+     */
+    @Test
+    void testWithinLimits() throws Exception {
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setTimeout(Duration.ofMinutes(1));
+        options.setMaxBytes(1024 * 1024);
+        options.setMaxElements(10000);
+        options.setMaxDepth(20);
+        for (String resource : new String[] { "/e-invoice/Rechnung_R_00010.xml", "/e-invoice/EN16931_Einfach.ubl.xml",
+                "/e-invoice/ksef/FA_VAT_FA3_template.xml" }) {
+            EInvoiceModel expected = EInvoiceModelFactory.read(resource);
+            EInvoiceModel model = EInvoiceModelFactory.read(EInvoiceModel.class.getResourceAsStream(resource),
+                    options);
+            assertTrue(new EInvoiceDiff().compare(expected, model).isEmpty(), resource);
+            // the DOM built from SAX events has no input encoding
+            assertEquals(body(expected), body(model), resource);
+        }
+    }
+
+    @Test
+    void testMaxBytes() {
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setMaxBytes(1000);
+        EInvoiceLimitException e = assertThrows(EInvoiceLimitException.class, () -> EInvoiceModelFactory
+                .read(EInvoiceModel.class.getResourceAsStream("/e-invoice/Rechnung_R_00010.xml"), options));
+        assertEquals(EInvoiceLimitException.Limit.BYTES, e.getLimit());
+
+        // the limit also applies to a retained source
+        options.setRetainSource(true);
+        e = assertThrows(EInvoiceLimitException.class, () -> EInvoiceModelFactory
+                .read(EInvoiceModel.class.getResourceAsStream("/e-invoice/Rechnung_R_00010.xml"), options));
+        assertEquals(1000, e.getMaxValue());
+    }
+
+    @Test
+    void testMaxElements() {
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setMaxElements(10);
+        EInvoiceLimitException e = assertThrows(EInvoiceLimitException.class, () -> EInvoiceModelFactory
+                .read(EInvoiceModel.class.getResourceAsStream("/e-invoice/Rechnung_R_00010.xml"), options));
+        assertEquals(EInvoiceLimitException.Limit.ELEMENTS, e.getLimit());
+    }
+
+    /**
+     * A deeply nested document is rejected at the first element exceeding the
+     * depth
+     */
+    @Test
+    void testMaxDepth() {
+        StringBuilder xml = new StringBuilder("<Invoice xmlns=\"urn:oasis:names:specification:ubl:schema:xsd:Invoice-2\">");
+        for (int i = 0; i < 1000; i++) {
+            xml.append("<a>");
+        }
+        for (int i = 0; i < 1000; i++) {
+            xml.append("</a>");
+        }
+        xml.append("</Invoice>");
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setMaxDepth(32);
+        EInvoiceLimitException e = assertThrows(EInvoiceLimitException.class, () -> EInvoiceModelFactory
+                .read(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)), options));
+        assertEquals(EInvoiceLimitException.Limit.DEPTH, e.getLimit());
+    }
+
+    @Test
+    void testDeadline() {
+        EInvoiceReadOptions options = new EInvoiceReadOptions();
+        options.setDeadline(Instant.now().minusSeconds(1));
+        EInvoiceLimitException e = assertThrows(EInvoiceLimitException.class, () -> EInvoiceModelFactory
+                .read(EInvoiceModel.class.getResourceAsStream("/e-invoice/Rechnung_R_00010.xml"), options));
+        assertEquals(EInvoiceLimitException.Limit.DEADLINE, e.getLimit());
+
+        // the deadline is checked per element, also without element limits
+        assertTrue(EInvoiceReadLimits.of(options).hasElementChecks());
+        assertFalse(EInvoiceReadLimits.of(new EInvoiceReadOptions()).hasElementChecks());
+
+        // a slow stream is aborted after the timeout
+        options.setDeadline(null);
+        options.setTimeout(Duration.ofMillis(50));
+        byte[] whitespace = new byte[1024 * 1024];
+        Arrays.fill(whitespace, (byte) ' ');
+        InputStream slow = new ByteArrayInputStream(whitespace) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, Math.min(len, 16));
+            }
+        };
+        e = assertThrows(EInvoiceLimitException.class, () -> EInvoiceModelFactory.read(slow, options));
+        assertEquals(50, e.getMaxValue());
+    }
+
+    /**
+     * An interrupted thread aborts the read and keeps its interrupt status
+     */
+    @Test
+    void testCancel() {
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(EInvoiceCancelledException.class,
+                    () -> EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml"));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static String body(EInvoiceModel model) throws Exception {
+        String xml = new String(model.getContent(), StandardCharsets.UTF_8);
+        return xml.substring(xml.indexOf("?>") + 2);
+    }
+}
@@ -0,0 +1,59 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EN16931 business rules of the
+ * EInvoiceRuleEngine
+ *
+ */
+class EInvoiceRuleEngineTest {
+
+    private final EInvoiceRuleEngine engine = new EInvoiceRuleEngine();
+
+    private List<String> rules(List<EInvoiceRuleViolation> violations) {
+        return violations.stream().map(EInvoiceRuleViolation::getRule).collect(Collectors.toList());
+    }
+
+    /**
+     * The sample invoices are valid
+     */
+    @Test
+    void testSampleInvoices() throws Exception {
+        for (String resource : new String[] { "/e-invoice/Rechnung_R_00010.xml",
+                "/e-invoice/Rechnung_CustomNamespace_CII.xml", "/e-invoice/EN16931_Einfach.ubl.xml" }) {
+            EInvoiceModel model = EInvoiceModelFactory.read(resource);
+            List<EInvoiceRuleViolation> violations = engine.validate(model);
+            assertTrue(violations.isEmpty(), resource + ": " + violations);
+        }
+    }
+
+    @Test
+    void testCalculationRules() throws Exception {
+        EInvoiceData data = EInvoiceData.of(EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml"));
+        data.setNetTotalAmount(new BigDecimal("3870.001"));
+        data.setTaxTotalAmount(new BigDecimal("500.00"));
+        List<String> rules = rules(engine.validate(data));
+        assertTrue(rules.contains("BR-DEC-12"));
+        assertTrue(rules.contains("BR-CO-10"));
+        assertTrue(rules.contains("BR-CO-14"));
+        assertTrue(rules.contains("BR-CO-15"));
+    }
+
+    @Test
+    void testCardinalityRules() throws Exception {
+        EInvoiceData data = EInvoiceData.of(EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml"));
+        data.setId(null);
+        data.findTradeParty("seller").setVatNumber(null);
+        data.getTradeParties().remove(data.findTradeParty("buyer"));
+        List<String> rules = rules(engine.validate(data));
+        assertEquals(List.of("BR-02", "BR-07", "BR-S-02"), rules);
+    }
+}
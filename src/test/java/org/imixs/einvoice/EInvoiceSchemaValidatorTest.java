@@ -0,0 +1,90 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the EInvoiceSchemaValidator with a reduced KSeF
+ * schema
+ *
+ */
+class EInvoiceSchemaValidatorTest {
+
+    private EInvoiceSchemaValidator validator;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        validator = new EInvoiceSchemaValidator();
+        // the import of the remote types schema is resolved from the local copy
+        validator.setSchema(EInvoiceFormat.KSEF, "/e-invoice/xsd/ksef-test.xsd");
+    }
+
+    @Test
+    void testValidateModel() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/ksef/FA_VAT_FA3_template.xml");
+        assertTrue(validator.validate(model).isEmpty());
+
+        // an invalid currency code
+        ((EInvoiceModelKSeF) model).updateElementValue(((EInvoiceModelKSeF) model).fa, EInvoiceNS.KSEF,
+                "KodWaluty", "zloty");
+        List<EInvoiceValidationError> errors = validator.validate(model);
+        assertFalse(errors.isEmpty());
+        assertEquals(EInvoiceValidationError.Severity.ERROR, errors.get(0).getSeverity());
+    }
+
+    @Test
+    void testValidateStream() throws Exception {
+        try (InputStream is = getClass().getResourceAsStream("/e-invoice/ksef/FA_VAT_FA3_template.xml")) {
+            assertTrue(validator.validate(is).isEmpty());
+        }
+
+        String xml = "<Faktura xmlns=\"http://crd.gov.pl/wzor/2025/06/25/13775/\">\n"
+                + "<Naglowek/><Podmiot1/><Podmiot2/>\n<Fa><P_1>2025-01-01</P_1></Fa></Faktura>";
+        List<EInvoiceValidationError> errors = validator
+                .validate(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, errors.size());
+        assertEquals(3, errors.get(0).getLineNumber());
+
+        // no schema registered for CII
+        try (InputStream is = getClass().getResourceAsStream("/e-invoice/Rechnung_R_00010.xml")) {
+            assertThrows(EInvoiceFormatException.class, () -> validator.validate(is));
+        }
+    }
+
+    /**
+     * A schema registered again replaces the validators pooled by other threads
+     */
+    @Test
+    void testReplaceSchema(@TempDir Path dir) throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/ksef/FA_VAT_FA3_template.xml");
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(thread.submit(() -> validator.validate(model)).get().isEmpty());
+
+            // a schema without the Faktura element
+            Path xsd = Files.writeString(dir.resolve("other.xsd"),
+                    "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" "
+                            + "targetNamespace=\"http://crd.gov.pl/wzor/2025/06/25/13775/\">"
+                            + "<xs:element name=\"Other\"/></xs:schema>");
+            validator.setSchema(EInvoiceFormat.KSEF, xsd);
+            assertFalse(thread.submit(() -> validator.validate(model)).get().isEmpty());
+        } finally {
+            thread.shutdown();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoiceSummaryRenderer with the different
+ * formats
+ *
+ */
+class EInvoiceSummaryRendererTest {
+
+    @Test
+    void testHtml() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceSummaryRenderer renderer = new EInvoiceSummaryRenderer(EInvoiceSummaryRenderer.Format.HTML);
+        String html = renderer.render(model);
+        assertTrue(html.startsWith("<div class=\"e-invoice\">"));
+        assertTrue(html.contains("<h2>Invoice R-00010</h2>"));
+        assertTrue(html.contains("<h3>Seller</h3>"));
+        assertTrue(html.contains("<td>Pressefotos</td>"));
+        assertTrue(html.contains("Total with VAT</th><td class=\"number\">"
+                + model.getGrandTotalAmount().toPlainString()));
+        assertEquals(2, html.split("<tr><td>", -1).length - 1);
+    }
+
+    @Test
+    void testEscaping() throws Exception {
+        EInvoiceData data = new EInvoiceData();
+        data.setId("A<1>&\"2\"");
+        TradeParty seller = new TradeParty("seller");
+        seller.setName("Smith & Sons\nLtd.");
+        data.setTradeParty(seller);
+
+        StringWriter writer = new StringWriter();
+        new EInvoiceSummaryRenderer(EInvoiceSummaryRenderer.Format.HTML).render(data, writer);
+        String html = writer.toString();
+        assertTrue(html.contains("<h2>Invoice A&lt;1&gt;&amp;&quot;2&quot;</h2>"));
+        assertTrue(html.contains("<p>Smith &amp; Sons Ltd.</p>"));
+
+        writer = new StringWriter();
+        new EInvoiceSummaryRenderer(EInvoiceSummaryRenderer.Format.TEXT).render(data, writer);
+        String text = writer.toString();
+        assertTrue(text.startsWith("Invoice A<1>&\"2\"\n"));
+        assertTrue(text.contains("\n  Smith & Sons Ltd.\n"));
+    }
+
+    /**
+     * The text summary must be the same for the same invoice in different formats
+     */
+    @Test
+    void testTextFormats() throws Exception {
+        EInvoiceSummaryRenderer renderer = new EInvoiceSummaryRenderer(EInvoiceSummaryRenderer.Format.TEXT);
+        String ubl = renderer.render(EInvoiceModelFactory.read("/e-invoice/EN16931_Einfach.ubl.xml"));
+        assertTrue(ubl.startsWith("Invoice 471102\nIssue date: 2018-03-05\n"));
+        assertTrue(ubl.contains("\nSeller:\n"));
+        assertTrue(ubl.contains("\nBuyer:\n"));
+        assertTrue(ubl.contains("Total with VAT: 529.87"));
+
+        String ksef = renderer.render(EInvoiceModelFactory.read("/e-invoice/ksef/FA_VAT_FA3_template.xml"));
+        assertTrue(ksef.startsWith("Invoice "));
+        assertFalse(ksef.contains("null"));
+
+        // a reused writer produces the same rendering
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        String expected = renderer.render(model);
+        StringWriter writer = new StringWriter(4096);
+        for (int i = 0; i < 2; i++) {
+            writer.getBuffer().setLength(0);
+            renderer.render(model, writer);
+            assertEquals(expected, writer.toString());
+        }
+    }
+}
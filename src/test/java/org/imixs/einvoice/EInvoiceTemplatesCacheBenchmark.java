@@ -0,0 +1,66 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.file.Path;
+
+import javax.xml.transform.TransformerFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Measures the time to the first render of a new EInvoiceTemplatesCache with
+ * an empty cache directory (cold) and with the templates stored by a previous
+ * cache (warm). The benchmark is not part of the unit tests and is run with
+ * the profile 'benchmark':
+ *
+ * <pre>
+ * mvn test -Pbenchmark
+ * </pre>
+ *
+ */
+class EInvoiceTemplatesCacheBenchmark {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Prints the cold and the warm time to the first render
+     */
+    @Test
+    void benchmarkFirstRender() throws Exception {
+        URL xr = getClass().getClassLoader().getResource("e-invoice/xsl/test-xr.xsl");
+        URL html = getClass().getClassLoader().getResource("e-invoice/xsl/test-html.xsl");
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        // warm up the XSLT processor
+        firstRender(new EInvoiceTemplatesCache(TransformerFactory.newInstance()), model, xr, html);
+
+        int runs = 10;
+        long cold = 0;
+        long warm = 0;
+        for (int i = 0; i < runs; i++) {
+            Path cacheDirectory = dir.resolve("cache-" + i);
+            long start = System.nanoTime();
+            String expected = firstRender(new EInvoiceTemplatesCache(TransformerFactory.newInstance(), cacheDirectory),
+                    model, xr, html);
+            cold += System.nanoTime() - start;
+            start = System.nanoTime();
+            String result = firstRender(
+                    new EInvoiceTemplatesCache(TransformerFactory.newInstance(), cacheDirectory), model, xr, html);
+            warm += System.nanoTime() - start;
+            assertEquals(expected, result);
+        }
+        System.out.println("Time to first render: cold " + (cold / runs / 1000000) + "ms, warm "
+                + (warm / runs / 1000000) + "ms (" + TransformerFactory.newInstance().getClass().getName() + ")");
+    }
+
+    private static String firstRender(EInvoiceTemplatesCache cache, EInvoiceModel model, URL... stylesheets)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new EInvoiceHtmlRenderer(cache, stylesheets).render(model, out);
+        return out.toString("UTF-8");
+    }
+}
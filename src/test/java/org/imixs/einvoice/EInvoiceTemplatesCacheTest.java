@@ -0,0 +1,145 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This test class is testing the EInvoiceTemplatesCache holding the compiled
+ * templates of the EInvoiceHtmlRenderer
+ *
+ */
+class EInvoiceTemplatesCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private URL resource(String name) {
+        return getClass().getClassLoader().getResource("e-invoice/xsl/" + name);
+    }
+
+    /**
+     * The hash must cover the included stylesheets
+     */
+    @Test
+    void testHash() throws Exception {
+        Path xsl = copyStylesheets();
+        EInvoiceTemplatesCache cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance());
+        URL stylesheet = xsl.resolve("test-xr.xsl").toUri().toURL();
+        String hash = cache.hash(stylesheet);
+        assertEquals(hash, cache.hash(stylesheet));
+
+        Files.writeString(xsl.resolve("test-common.xsl"), Files.readString(xsl.resolve("test-common.xsl"))
+                .replace("ram:SpecifiedTradeProduct/ram:Name", "ram:SpecifiedTradeProduct/ram:Description"));
+        assertNotEquals(hash, cache.hash(stylesheet));
+    }
+
+    /**
+     * A stylesheet is compiled once and compiled again after an included
+     * stylesheet changed
+     */
+    @Test
+    void testGetTemplates() throws Exception {
+        Path xsl = copyStylesheets();
+        EInvoiceTemplatesCache cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance());
+        URL stylesheet = xsl.resolve("test-xr.xsl").toUri().toURL();
+        Templates templates = cache.getTemplates(stylesheet);
+        assertSame(templates, cache.getTemplates(stylesheet));
+
+        // renderers sharing the cache produce the same output
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        String first = render(new EInvoiceHtmlRenderer(cache, stylesheet, resource("test-html.xsl")), model);
+        String second = render(new EInvoiceHtmlRenderer(cache, stylesheet, resource("test-html.xsl")), model);
+        assertEquals(first, second);
+
+        Files.writeString(xsl.resolve("test-common.xsl"), Files.readString(xsl.resolve("test-common.xsl"))
+                .replace("ram:SpecifiedTradeProduct/ram:Name", "ram:SpecifiedTradeProduct/ram:Description"));
+        assertNotSame(templates, cache.getTemplates(stylesheet));
+    }
+
+    /**
+     * The compiled templates are stored in the cache directory and loaded by a
+     * new cache. A file which can not be loaded is replaced.
+     */
+    @Test
+    void testCacheDirectory() throws Exception {
+        Path xsl = copyStylesheets();
+        Path cacheDirectory = tempDir.resolve("cache");
+        URL stylesheet = xsl.resolve("test-xr.xsl").toUri().toURL();
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+
+        EInvoiceTemplatesCache cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance(), cacheDirectory);
+        String expected = render(new EInvoiceHtmlRenderer(cache, stylesheet, resource("test-html.xsl")), model);
+        Path file = cacheDirectory.resolve(cache.hash(stylesheet) + EInvoiceTemplatesCache.FILE_EXTENSION);
+        assertTrue(Files.isRegularFile(file));
+
+        // a new cache loads the stored templates
+        cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance(), cacheDirectory);
+        assertEquals(expected,
+                render(new EInvoiceHtmlRenderer(cache, stylesheet, resource("test-html.xsl")), model));
+
+        // a broken file is replaced
+        Files.write(file, new byte[] { 1, 2, 3 });
+        cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance(), cacheDirectory);
+        assertEquals(expected,
+                render(new EInvoiceHtmlRenderer(cache, stylesheet, resource("test-html.xsl")), model));
+        assertTrue(Files.size(file) > 3);
+
+        // a file stored for another hash is not used but replaced
+        Files.writeString(xsl.resolve("test-common.xsl"), Files.readString(xsl.resolve("test-common.xsl"))
+                .replace("ram:SpecifiedTradeProduct/ram:Name", "ram:SpecifiedTradeProduct/ram:Description"));
+        String hash = cache.hash(stylesheet);
+        Path changed = cacheDirectory.resolve(hash + EInvoiceTemplatesCache.FILE_EXTENSION);
+        Files.copy(file, changed);
+        cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance(), cacheDirectory);
+        render(new EInvoiceHtmlRenderer(cache, stylesheet, resource("test-html.xsl")), model);
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(changed))) {
+            assertEquals(hash, in.readUTF());
+        }
+    }
+
+    /**
+     * A missing stylesheet is reported as a TransformerConfigurationException
+     */
+    @Test
+    void testMissingStylesheet() throws Exception {
+        EInvoiceTemplatesCache cache = new EInvoiceTemplatesCache(TransformerFactory.newInstance());
+        URL stylesheet = tempDir.resolve("missing.xsl").toUri().toURL();
+        assertThrows(TransformerConfigurationException.class, () -> cache.getTemplates(stylesheet));
+    }
+
+    private Path copyStylesheets() throws Exception {
+        Path xsl = tempDir.resolve("xsl");
+        Files.createDirectories(xsl);
+        for (String name : new String[] { "test-xr.xsl", "test-common.xsl" }) {
+            try (InputStream is = resource(name).openStream()) {
+                Files.copy(is, xsl.resolve(name));
+            }
+        }
+        return xsl;
+    }
+
+    private static String render(EInvoiceHtmlRenderer renderer, EInvoiceModel model) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        renderer.render(model, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,266 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the computation of the totals and the VAT
+ * breakdown and the update of the CII, UBL and KSeF models
+ *
+ */
+class EInvoiceTotalsTest {
+
+    @Test
+    void testBreakdown() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceTotals totals = EInvoiceTotals.of(model);
+        assertEquals(new BigDecimal("3870.00"), totals.getNetTotalAmount());
+        assertEquals(new BigDecimal("510.90"), totals.getTaxTotalAmount());
+        assertEquals(new BigDecimal("4380.90"), totals.getGrandTotalAmount());
+        assertEquals(2, totals.getBreakdown().size());
+        EInvoiceTotals.TaxBreakdown reduced = totals.findBreakdown(new BigDecimal("7"));
+        assertNotNull(reduced);
+        assertEquals("S", reduced.getCategoryCode());
+        assertEquals(new BigDecimal("130.90"), reduced.getTaxAmount());
+    }
+
+    /**
+     * The line net amounts are rounded before the VAT is computed per rate
+     */
+    @Test
+    void testRounding() {
+        List<TradeLineItem> items = new ArrayList<>();
+        items.add(item("1", 1.005, 19));
+        items.add(item("2", 0.104, 19));
+        TradeLineItem item = item("3", 0, 0);
+        item.setQuantity(3);
+        item.setNetPrice(0.335);
+        items.add(item);
+        EInvoiceTotals totals = EInvoiceTotals.of(items);
+        // 1.01 + 0.10 = 1.11 -> 0.2109 VAT
+        assertEquals(new BigDecimal("1.11"), totals.getBreakdown().get(0).getBasisAmount());
+        assertEquals(new BigDecimal("0.21"), totals.getBreakdown().get(0).getTaxAmount());
+        assertEquals("Z", totals.getBreakdown().get(1).getCategoryCode());
+        assertEquals(new BigDecimal("1.01"), totals.getBreakdown().get(1).getBasisAmount());
+        assertEquals(new BigDecimal("2.33"), totals.getGrandTotalAmount());
+    }
+
+    /**
+     * Large invoices are aggregated in parallel with the same result
+     */
+    @Test
+    void testParallel() {
+        int count = EInvoiceTotals.PARALLEL_THRESHOLD * 20;
+        List<TradeLineItem> items = new ArrayList<>(count);
+        BigDecimal[] basis = { BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO };
+        double[] rates = { 19, 7, 0 };
+        for (int i = 0; i < count; i++) {
+            double total = (i % 1000) / 100.0;
+            items.add(item(Integer.toString(i), total, rates[i % 3]));
+            basis[i % 3] = basis[i % 3].add(BigDecimal.valueOf(total));
+        }
+        EInvoiceTotals totals = EInvoiceTotals.of(items);
+        assertEquals(count, totals.getLineCount());
+        assertEquals(3, totals.getBreakdown().size());
+        for (int i = 0; i < 3; i++) {
+            EInvoiceTotals.TaxBreakdown entry = totals.getBreakdown().get(i);
+            assertEquals(0, basis[i].compareTo(entry.getBasisAmount()));
+            assertEquals(0, BigDecimal.valueOf(rates[i]).compareTo(entry.getRate()));
+        }
+    }
+
+    @Test
+    void testSetTotalsCII() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        model.setTradeLineItem(item("3", 100, 0));
+        model.setTotals(EInvoiceTotals.of(model));
+
+        String xml = new String(model.getContent(), StandardCharsets.UTF_8);
+        assertEquals(3, xml.split("<ram:BasisAmount>", -1).length - 1);
+        assertTrue(xml.contains("<ram:BasisAmount>100.00</ram:BasisAmount>"));
+        EInvoiceModel result = EInvoiceModelFactory.read(new ByteArrayInputStream(model.getContent()));
+        assertEquals(new BigDecimal("4480.90"), result.getGrandTotalAmount());
+        assertEquals(new BigDecimal("510.90"), result.getTaxTotalAmount());
+    }
+
+    @Test
+    void testSetTotalsUBL() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/EN16931_Einfach.ubl.xml");
+        EInvoiceTotals totals = EInvoiceTotals.of(model);
+        model.setTotals(totals);
+
+        String xml = new String(model.getContent(), StandardCharsets.UTF_8);
+        assertEquals(totals.getBreakdown().size(), xml.split("<cac:TaxSubtotal>", -1).length - 1);
+        assertTrue(xml.contains("<cbc:TaxExclusiveAmount currencyID=\"EUR\">"
+                + totals.getNetTotalAmount().toPlainString()));
+        EInvoiceModel result = EInvoiceModelFactory.read(new ByteArrayInputStream(model.getContent()));
+        assertEquals(totals.getGrandTotalAmount(), result.getGrandTotalAmount());
+    }
+
+    @Test
+    void testSetTotalsKSeF() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/ksef/FA_VAT_FA3_template.xml");
+        List<TradeLineItem> items = new ArrayList<>();
+        items.add(item("1", 100, 23));
+        items.add(item("2", 50, 8));
+        model.setTotals(EInvoiceTotals.of(items));
+
+        String xml = new String(model.getContent(), StandardCharsets.UTF_8);
+        int p131 = xml.indexOf("<P_13_1>100.00</P_13_1>");
+        int p141 = xml.indexOf("<P_14_1>23.00</P_14_1>");
+        int p132 = xml.indexOf("<P_13_2>50.00</P_13_2>");
+        int p142 = xml.indexOf("<P_14_2>4.00</P_14_2>");
+        int p15 = xml.indexOf("<P_15>177.00</P_15>");
+        assertTrue(p131 > 0 && p131 < p141 && p141 < p132 && p132 < p142 && p142 < p15, xml);
+    }
+
+    /**
+     * A rate or VAT category without a KSeF field is rejected and the model is
+     * not changed
+     */
+    @Test
+    void testSetTotalsKSeFUnsupported() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/ksef/FA_VAT_FA3_template.xml");
+        String xml = new String(model.getContent(), StandardCharsets.UTF_8);
+        List<TradeLineItem> items = new ArrayList<>();
+        items.add(item("1", 100, 23));
+        items.add(item("2", 50, 19));
+        assertThrows(IllegalArgumentException.class, () -> model.setTotals(EInvoiceTotals.of(items)));
+
+        // exempt lines are not mapped to the 0% field
+        items.remove(1);
+        TradeLineItem exempt = item("3", 50, 0);
+        exempt.setTaxCategory("E");
+        items.add(exempt);
+        assertThrows(IllegalArgumentException.class, () -> model.setTotals(EInvoiceTotals.of(items)));
+        assertEquals(xml, new String(model.getContent(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The VAT category of the line items is kept in the breakdown
+     */
+    @Test
+    void testCategories() throws Exception {
+        List<TradeLineItem> items = new ArrayList<>();
+        items.add(item("1", 100, 19));
+        items.add(item("2", 50, 0));
+        TradeLineItem exempt = item("3", 30, 0);
+        exempt.setTaxCategory("E");
+        items.add(exempt);
+        TradeLineItem reverseCharge = item("4", 20, 0);
+        reverseCharge.setTaxCategory("AE");
+        items.add(reverseCharge);
+        TradeLineItem zero = item("5", 10, 0);
+        zero.setTaxCategory("Z");
+        items.add(zero);
+
+        EInvoiceTotals totals = EInvoiceTotals.of(items);
+        assertEquals(4, totals.getBreakdown().size());
+        assertEquals("S", totals.getBreakdown().get(0).getCategoryCode());
+        assertEquals("Z", totals.getBreakdown().get(1).getCategoryCode());
+        assertEquals(new BigDecimal("60.00"), totals.getBreakdown().get(1).getBasisAmount());
+        assertEquals("E", totals.getBreakdown().get(2).getCategoryCode());
+        assertEquals("AE", totals.getBreakdown().get(3).getCategoryCode());
+
+        // the category is written and read back
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        model.setTotals(totals);
+        String xml = new String(model.getContent(), StandardCharsets.UTF_8);
+        assertTrue(xml.contains("<ram:CategoryCode>AE</ram:CategoryCode>"), xml);
+        model.setTradeLineItem(exempt);
+        EInvoiceModel result = EInvoiceModelFactory.read(new ByteArrayInputStream(model.getContent()));
+        assertEquals("E", result.findTradeLineItem("3").getTaxCategory());
+    }
+
+    /**
+     * The running line totals of a model are updated by setTradeLineItem
+     */
+    @Test
+    void testLineTotals() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        for (int i = 0; i < 5000; i++) {
+            model.setTradeLineItem(item("L" + i, 10.10, i % 2 == 0 ? 19 : 7));
+        }
+        assertEquals(new BigDecimal("54370.00"), model.getLineTotals().getNetTotalAmount());
+
+        // replace lines - the verification mode compares with a full recompute
+        model.setVerifyLineTotals(true);
+        model.setTradeLineItem(item("L1", 20.20, 19));
+        model.setTradeLineItem(item("L3", 5.05, 0));
+        model.setVerifyLineTotals(false);
+        EInvoiceTotals totals = model.getLineTotals();
+        assertEquals(5002, totals.getLineCount());
+        assertEquals(3, totals.getBreakdown().size());
+        assertEquals(new BigDecimal("5.05"), totals.findBreakdown(BigDecimal.ZERO).getBasisAmount());
+
+        // the header totals are updated if requested
+        model.setUpdateTotals(true);
+        model.setTradeLineItem(item("L3", 6.06, 0));
+        assertEquals(model.getLineTotals().getGrandTotalAmount(), model.getGrandTotalAmount());
+
+        model.setUpdateTotals(false);
+        for (int i = 0; i < 1000; i++) {
+            model.setTradeLineItem(item("L" + (i * 5), 1.01 * i, 19));
+        }
+        model.verifyLineTotals();
+
+        // a line item changed directly is detected by the verification
+        model.findTradeLineItem("L7").setTotal(99);
+        assertThrows(IllegalStateException.class, () -> model.verifyLineTotals());
+    }
+
+    /**
+     * Line items added, removed or renamed directly are detected by the id index
+     * and the running totals
+     */
+    @Test
+    void testLineItemsChangedDirectly() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        model.setTradeLineItem(item("A", 10, 19));
+        model.setTradeLineItem(item("B", 20, 19));
+        int count = model.getTradeLineItems().size();
+
+        // replace an item - the number of items is not changed
+        TradeLineItem a = model.findTradeLineItem("A");
+        model.getTradeLineItems().remove(a);
+        model.getTradeLineItems().add(item("C", 30, 7));
+        assertEquals(count, model.getTradeLineItems().size());
+        assertNull(model.findTradeLineItem("A"));
+        assertEquals(30, model.findTradeLineItem("C").getTotal());
+        model.verifyLineTotals();
+
+        // removed by the iterator
+        model.getTradeLineItems().removeIf(item -> "C".equals(item.getId()));
+        assertNull(model.findTradeLineItem("C"));
+        model.verifyLineTotals();
+
+        // a changed id
+        model.findTradeLineItem("B").setId("D");
+        assertNull(model.findTradeLineItem("B"));
+        assertEquals(20, model.findTradeLineItem("D").getTotal());
+
+        // a replaced set
+        model.setTradeLineItems(new LinkedHashSet<>(List.of(item("E", 5, 19))));
+        assertNull(model.findTradeLineItem("D"));
+        assertEquals(new BigDecimal("5.00"), model.getLineTotals().getNetTotalAmount());
+    }
+
+    private static TradeLineItem item(String id, double total, double rate) {
+        TradeLineItem item = new TradeLineItem(id);
+        item.setTotal(total);
+        item.setTaxRate(rate);
+        return item;
+    }
+}
@@ -0,0 +1,108 @@
+package org.imixs.einvoice;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * This test class is testing the EInvoiceTranscoder with different formats
+ *
+ */
+class EInvoiceTranscoderTest {
+
+    private byte[] transcode(String resource, EInvoiceFormat target, List<EInvoiceMappingGap> gaps)
+            throws Exception {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new IOException("Resource not found");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gaps.addAll(new EInvoiceTranscoder().transcode(is, out, target));
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * The stream reader must provide the same values as the DOM model
+     */
+    @Test
+    void testStreamReader() throws Exception {
+        EInvoiceModel model = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceStreamReader reader = new EInvoiceStreamReader();
+        EInvoiceData data;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("e-invoice/Rechnung_R_00010.xml")) {
+            data = reader.read(is);
+        }
+        assertEquals(EInvoiceFormat.CII, reader.getFormat());
+        assertTrue(reader.getMappingGaps().isEmpty());
+        assertEquals(model.getId(), data.getId());
+        assertEquals(model.getIssueDateTime(), data.getIssueDateTime());
+        assertEquals(model.getGrandTotalAmount(), data.getGrandTotalAmount());
+        assertEquals(model.getNetTotalAmount(), data.getNetTotalAmount());
+        assertEquals(model.getBuyerReference(), data.getBuyerReference());
+        assertEquals("EUR", data.getCurrencyCode());
+        assertEquals(model.findTradeParty("seller").toString(), data.findTradeParty("seller").toString());
+        assertEquals(model.getTradeLineItems().size(), data.getTradeLineItems().size());
+        for (TradeLineItem item : model.getTradeLineItems()) {
+            assertEquals(item.toString(), data.findTradeLineItem(item.getId()).toString());
+        }
+    }
+
+    @Test
+    void testCIIToUBL() throws Exception {
+        List<EInvoiceMappingGap> gaps = new ArrayList<>();
+        byte[] ubl = transcode("e-invoice/Rechnung_R_00010.xml", EInvoiceFormat.UBL, gaps);
+
+        EInvoiceModel source = EInvoiceModelFactory.read("/e-invoice/Rechnung_R_00010.xml");
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(ubl));
+        assertTrue(model instanceof EInvoiceModelUBL);
+        assertEquals(source.getId(), model.getId());
+        assertEquals(source.getIssueDateTime(), model.getIssueDateTime());
+        assertEquals(source.getGrandTotalAmount().setScale(2), model.getGrandTotalAmount());
+        assertEquals(source.getNetTotalAmount().setScale(2), model.getNetTotalAmount());
+        assertEquals(source.findTradeParty("seller").getName(), model.findTradeParty("seller").getName());
+        assertEquals(source.getTradeLineItems().size(), model.getTradeLineItems().size());
+
+        // two VAT rates are written as two tax subtotals
+        String xml = new String(ubl, StandardCharsets.UTF_8);
+        assertEquals(2, xml.split("<cac:TaxSubtotal>", -1).length - 1);
+
+        // and back to CII
+        gaps.clear();
+        ByteArrayOutputStream cii = new ByteArrayOutputStream();
+        new EInvoiceTranscoder().transcode(new ByteArrayInputStream(ubl), cii, EInvoiceFormat.CII);
+        model = EInvoiceModelFactory.read(new ByteArrayInputStream(cii.toByteArray()));
+        assertTrue(model instanceof EInvoiceModelCII);
+        assertEquals(source.getId(), model.getId());
+        assertEquals(source.getGrandTotalAmount().setScale(2), model.getGrandTotalAmount());
+        assertEquals(source.getBuyerReference(), model.getBuyerReference());
+    }
+
+    @Test
+    void testUBLToKSeF() throws Exception {
+        List<EInvoiceMappingGap> gaps = new ArrayList<>();
+        byte[] ksef = transcode("e-invoice/EN16931_Einfach.ubl.xml", EInvoiceFormat.KSEF, gaps);
+
+        EInvoiceModel model = EInvoiceModelFactory.read(new ByteArrayInputStream(ksef));
+        assertTrue(model instanceof EInvoiceModelKSeF);
+        assertEquals("471102", model.getId());
+        assertEquals(LocalDate.of(2018, 3, 5), model.getIssueDateTime());
+        assertEquals(new BigDecimal("529.87"), model.getGrandTotalAmount());
+        assertNotNull(model.findTradeParty("buyer"));
+
+        // the German seller has no Polish NIP
+        assertTrue(gaps.stream().anyMatch(gap -> gap.getField().equals("seller.vatNumber")));
+    }
+}
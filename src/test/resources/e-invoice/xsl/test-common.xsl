@@ -0,0 +1,8 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Test stylesheet: common templates included by test-xr.xsl -->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    xmlns:ram="urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100">
+    <xsl:template name="line-name">
+        <xsl:value-of select="ram:SpecifiedTradeProduct/ram:Name" />
+    </xsl:template>
+</xsl:stylesheet>
@@ -0,0 +1,19 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Test stylesheet: intermediate format to HTML -->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform">
+    <xsl:output method="html" />
+    <xsl:param name="title" select="'Invoice'" />
+    <xsl:template match="/">
+        <html>
+            <body>
+                <h1><xsl:value-of select="$title" /></h1>
+                <p><xsl:value-of select="/xr/id" /></p>
+                <ul>
+                    <xsl:for-each select="/xr/line">
+                        <li><xsl:value-of select="." /></li>
+                    </xsl:for-each>
+                </ul>
+            </body>
+        </html>
+    </xsl:template>
+</xsl:stylesheet>
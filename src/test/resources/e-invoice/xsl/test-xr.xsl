@@ -0,0 +1,15 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Test stylesheet: CII to a simple intermediate format -->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+    xmlns:rsm="urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100"
+    xmlns:ram="urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100">
+    <xsl:include href="test-common.xsl" />
+    <xsl:template match="/">
+        <xr>
+            <id><xsl:value-of select="/rsm:CrossIndustryInvoice/rsm:ExchangedDocument/ram:ID" /></id>
+            <xsl:for-each select="//ram:IncludedSupplyChainTradeLineItem">
+                <line><xsl:call-template name="line-name" /></line>
+            </xsl:for-each>
+        </xr>
+    </xsl:template>
+</xsl:stylesheet>